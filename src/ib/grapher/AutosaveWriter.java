@@ -0,0 +1,334 @@
+package ib.grapher;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * A background thread which owns every write to the open project file, so
+ * that the GUI never waits on the disk. Records saved within a short window
+ * of each other are gathered into a single batch, written in offset order,
+ * and synced to the disk together. Structural changes like inserting bytes
+ * are queued in between batches, so everything still reaches the file in the
+ * order it was made.
+ */
+public class AutosaveWriter {
+	// MARK: Constructor
+	/** Sole constructor. Starts the writer thread straight away. */
+	public AutosaveWriter() {
+		batch = new TreeMap<>();
+		queue = new ArrayDeque<>();
+
+		thread = new Thread(new Runnable() {
+			public void run() {
+				AutosaveWriter.this.run();
+			}
+		}, "Autosave Writer");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+
+
+	// MARK: Constants
+	/** The default length of the commit window, in milliseconds. */
+	public static final long DEFAULT_WINDOW = 250;
+
+
+
+	// MARK: Properties
+	/**
+	 * How long to wait after the first unsaved change before writing a batch,
+	 * in milliseconds. Changes made during the wait join the same batch.
+	 */
+	private static long window = DEFAULT_WINDOW;
+
+	/** The thread doing the writing. */
+	private final Thread thread;
+	/** The records waiting to be written, keyed by their offset. */
+	private NavigableMap<Long, byte[]> batch;
+	/** Batches and structural changes waiting to be run, in order. */
+	private final Deque<Runnable> queue;
+
+	/** Whether or not anything is waiting to be committed. */
+	private boolean dirty;
+	/** When the oldest uncommitted change was made. */
+	private long dirtySince;
+	/** Whether or not the journal needs to be synced to the disk. */
+	private boolean syncJournal;
+	/** Whether or not someone is waiting for everything to be committed. */
+	private boolean flushRequested;
+	/** Whether or not the writer should stop once everything is committed. */
+	private boolean closed;
+	/** The number of changes handed to this writer so far. */
+	private long submitted;
+	/** The number of changes that have been committed so far. */
+	private long committed;
+	/** Whether or not a record in the current commit failed to write. */
+	private boolean failed;
+
+
+
+	// MARK: Methods
+	/**
+	 * Queues a record to be written to the project file. If part of the
+	 * record is already waiting to be written, the new bytes replace it.
+	 * @param pos A pointer to the first byte to overwrite
+	 * @param bytes The new bytes
+	 */
+	public synchronized void write(long pos, byte[] bytes) {
+		long end = pos + bytes.length;
+
+		// Gather any waiting records this one overlaps
+		List<Map.Entry<Long, byte[]>> overlaps = new ArrayList<>();
+		Map.Entry<Long, byte[]> e = batch.floorEntry(pos);
+		if (e == null || e.getKey() + e.getValue().length <= pos)
+			e = batch.higherEntry(pos);
+		while (e != null && e.getKey() < end) {
+			overlaps.add(e);
+			e = batch.higherEntry(e.getKey());
+		}
+
+		if (!overlaps.isEmpty()) {
+			Map.Entry<Long, byte[]> first = overlaps.get(0);
+			Map.Entry<Long, byte[]> last = overlaps.get(overlaps.size() - 1);
+			long start = Math.min(pos, first.getKey());
+			end = Math.max(end, last.getKey() + last.getValue().length);
+
+			byte[] merged = new byte[(int) (end - start)];
+			for (Map.Entry<Long, byte[]> o : overlaps) {
+				System.arraycopy(o.getValue(), 0, merged,
+					(int) (o.getKey() - start), o.getValue().length);
+				batch.remove(o.getKey());
+			}
+			System.arraycopy(bytes, 0, merged, (int) (pos - start), bytes.length);
+
+			pos = start;
+			bytes = merged;
+		}
+
+		batch.put(pos, bytes);
+		markDirty();
+	}
+
+
+
+	/**
+	 * Queues a structural change to the project file, to be run on the
+	 * writer thread after every record already waiting to be written.
+	 * @param task The change to run
+	 */
+	public synchronized void execute(Runnable task) {
+		closeBatch();
+		queue.add(task);
+		markDirty();
+	}
+
+
+
+	/**
+	 * Asks for the journal to be synced to the disk with the next batch.
+	 */
+	public synchronized void requestSync() {
+		syncJournal = true;
+		markDirty();
+	}
+
+
+
+	/**
+	 * Commits everything waiting to be written straight away, and waits for
+	 * it to reach the disk.
+	 */
+	public synchronized void flush() {
+		if (Thread.currentThread() == thread)
+			return;
+
+		long target = submitted;
+		flushRequested = true;
+		notifyAll();
+		while (committed < target && thread.isAlive()) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+
+
+	/**
+	 * Commits everything waiting to be written, then stops the writer thread.
+	 */
+	public void close() {
+		flush();
+		synchronized (this) {
+			closed = true;
+			notifyAll();
+		}
+
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+
+
+	/**
+	 * The writer thread's loop. Waits for a change, waits out the commit
+	 * window, then commits everything that has built up in the meantime.
+	 */
+	private void run() {
+		while (true) {
+			List<Runnable> tasks;
+			boolean sync;
+			long target;
+
+			synchronized (this) {
+				try {
+					while (!dirty && !closed) {
+						wait();
+					}
+					if (!dirty)
+						return;
+
+					// Let more changes join the batch, unless someone is
+					// waiting on it.
+					long deadline = dirtySince + window;
+					long now = System.currentTimeMillis();
+					while (!flushRequested && !closed && now < deadline) {
+						wait(deadline - now);
+						now = System.currentTimeMillis();
+					}
+				} catch (InterruptedException e) {
+					// Commit whatever there is, then carry on
+				}
+
+				closeBatch();
+				tasks = new ArrayList<>(queue);
+				queue.clear();
+				sync = syncJournal;
+				target = submitted;
+
+				syncJournal = false;
+				flushRequested = false;
+				dirty = false;
+			}
+
+			commit(tasks, sync);
+
+			synchronized (this) {
+				committed = target;
+				notifyAll();
+			}
+		}
+	}
+
+
+
+	/**
+	 * Runs a set of batches and structural changes, then syncs the project
+	 * file (and journal, if asked) to the disk once. The project file can be
+	 * swapped by the journal compactor, so the file lock is held throughout,
+	 * and every write and the sync reach the same file.
+	 * @param tasks The batches and changes to run, in order
+	 * @param sync Whether or not to sync the journal
+	 */
+	private void commit(List<Runnable> tasks, boolean sync) {
+		synchronized (FileDataManager.getFileLock()) {
+			failed = false;
+			for (Runnable task : tasks) {
+				task.run();
+			}
+
+			try {
+				if (!tasks.isEmpty())
+					FileDataManager.getStorage().sync();
+
+				ProjectJournal journal = FileDataManager.getJournal();
+				if (sync && journal != null)
+					journal.sync();
+
+				if (!failed)
+					FileDataManager.committed(new Date());
+			} catch (IOException e) {
+				System.err.println("Sync failed when autosaving.");
+				e.printStackTrace();
+				FileDataManager.resetTitleBar();
+			}
+		}
+	}
+
+
+
+	/**
+	 * Moves the records waiting to be written onto the end of the queue, so
+	 * that later records start a new batch.
+	 */
+	private void closeBatch() {
+		if (batch.isEmpty())
+			return;
+
+		final NavigableMap<Long, byte[]> records = batch;
+		batch = new TreeMap<>();
+		queue.add(new Runnable() {
+			public void run() {
+				System.out.printf("AUTOSAVE: %d records%n", records.size());
+				try {
+					ProjectStorage storage = FileDataManager.getStorage();
+					for (Map.Entry<Long, byte[]> record : records.entrySet()) {
+						byte[] bytes = record.getValue();
+						storage.write(record.getKey(), bytes, 0, bytes.length);
+					}
+				} catch (IOException e) {
+					System.err.println("An I/O error occured writing bytes.");
+					e.printStackTrace();
+					failed = true;
+					FileDataManager.resetTitleBar();
+				}
+			}
+		});
+	}
+
+
+
+	/** Notes that a change has been made, and wakes the writer thread. */
+	private void markDirty() {
+		if (!dirty) {
+			dirty = true;
+			dirtySince = System.currentTimeMillis();
+		}
+		submitted++;
+		notifyAll();
+	}
+
+
+
+	// MARK: Getters / Setters
+	/**
+	 * Getter: Gets the length of the commit window.
+	 * @return {@link #window}, in milliseconds
+	 */
+	public static long getWindow() {
+		return window;
+	}
+
+	/**
+	 * Setter: Changes the length of the commit window. A longer window means
+	 * fewer syncs, but more changes at risk if the program is killed.
+	 * @param window The new value for {@link #window}, in milliseconds
+	 */
+	public static void setWindow(long window) {
+		AutosaveWriter.window = Math.max(0, window);
+	}
+}
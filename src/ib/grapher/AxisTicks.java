@@ -0,0 +1,199 @@
+package ib.grapher;
+
+import java.awt.Font;
+import java.awt.FontMetrics;
+
+/**
+ * The bounds and gridlines of an automatic axis, chosen so that every
+ * gridline falls on a "nice" number, using Heckbert's loose labelling
+ * algorithm (Graphics Gems, 1990). The spacing between gridlines is always 1,
+ * 2, or 5 times a power of ten, and the bounds are rounded outwards to the
+ * nearest gridline, so that no data falls outside them.
+ * <p>
+ * A set of ticks is immutable apart from the width of its labels, which is
+ * measured once for each font and then kept.
+ */
+public class AxisTicks {
+	// MARK: Constructor
+	/**
+	 * Sole constructor. Chooses the gridlines for an axis.
+	 * @param minimum The smallest value that must be shown
+	 * @param maximum The largest value that must be shown
+	 * @param targetCount The number of gridlines to aim for, which must be at
+	 * least 2
+	 */
+	public AxisTicks(double minimum, double maximum, int targetCount) {
+		this.minimum = minimum;
+		this.maximum = maximum;
+		this.targetCount = targetCount;
+
+		// A single value is shown in the middle of a small range around it
+		double low = minimum;
+		double high = maximum;
+		if (!(high > low)) {
+			double margin = low == 0 ? 1 : Math.abs(low) / 10;
+			low -= margin;
+			high += margin;
+		}
+
+		double range = niceNumber(high - low, false);
+		double spacing = niceNumber(range / (targetCount - 1), true);
+		lower = Math.floor(low / spacing) * spacing;
+		upper = Math.ceil(high / spacing) * spacing;
+
+		int count = (int) Math.round((upper - lower) / spacing) + 1;
+		int decimals = Math.max(0, (int) -Math.floor(Math.log10(spacing)));
+		values = new double[count];
+		labels = new String[count];
+		for (int i = 0; i < count; i++) {
+			// Multiplying rather than adding keeps rounding errors from
+			// building up along the axis
+			double value = lower + i * spacing;
+			if (Math.abs(value) < spacing / 2)
+				value = 0;
+			values[i] = value;
+			labels[i] = String.format("%." + decimals + "f", value);
+		}
+	}
+
+
+
+	// MARK: Properties
+	/** The smallest value these ticks were chosen to show. */
+	private final double minimum;
+	/** The largest value these ticks were chosen to show. */
+	private final double maximum;
+	/** The number of gridlines these ticks aimed for. */
+	private final int targetCount;
+
+	/** The lower bound of the axis, which is also its first gridline. */
+	private final double lower;
+	/** The upper bound of the axis, which is also its last gridline. */
+	private final double upper;
+	/** The value of each gridline, from lowest to highest. */
+	private final double[] values;
+	/** The label of each gridline. */
+	private final String[] labels;
+
+	/** The font {@link #labelWidth} was measured in, or null if it hasn't been. */
+	private Font measuredFont;
+	/** The width of the widest label, in {@link #measuredFont}. */
+	private int labelWidth;
+
+
+
+	// MARK: Methods
+	/**
+	 * Checks whether these ticks were chosen for the same values and number
+	 * of gridlines, so that they can be reused rather than chosen again.
+	 * @param minimum The smallest value that must be shown
+	 * @param maximum The largest value that must be shown
+	 * @param targetCount The number of gridlines to aim for
+	 * @return true if these ticks would be chosen again, false otherwise
+	 */
+	public boolean matches(double minimum, double maximum, int targetCount) {
+		return this.minimum == minimum
+			&& this.maximum == maximum
+			&& this.targetCount == targetCount;
+	}
+
+
+
+	/**
+	 * Rounds a number to one that is 1, 2, 5, or 10 times a power of ten.
+	 * @param x The number to round, which must be positive
+	 * @param round true to round to the closest nice number, false to round
+	 * up to the next one
+	 * @return The nice number
+	 */
+	private static double niceNumber(double x, boolean round) {
+		double exponent = Math.floor(Math.log10(x));
+		double power = Math.pow(10, exponent);
+		double fraction = x / power;
+
+		double niceFraction;
+		if (round) {
+			if (fraction < 1.5)
+				niceFraction = 1;
+			else if (fraction < 3)
+				niceFraction = 2;
+			else if (fraction < 7)
+				niceFraction = 5;
+			else
+				niceFraction = 10;
+		} else {
+			if (fraction <= 1)
+				niceFraction = 1;
+			else if (fraction <= 2)
+				niceFraction = 2;
+			else if (fraction <= 5)
+				niceFraction = 5;
+			else
+				niceFraction = 10;
+		}
+		return niceFraction * power;
+	}
+
+
+
+	// MARK: Getters / Setters
+	/**
+	 * Getter: Gets the lower bound of the axis.
+	 * @return {@link #lower}
+	 */
+	public double getLower() {
+		return lower;
+	}
+
+	/**
+	 * Getter: Gets the upper bound of the axis.
+	 * @return {@link #upper}
+	 */
+	public double getUpper() {
+		return upper;
+	}
+
+	/**
+	 * Getter: Gets the number of gridlines on the axis, including the ones
+	 * on its bounds.
+	 * @return The length of {@link #values}
+	 */
+	public int getCount() {
+		return values.length;
+	}
+
+	/**
+	 * Getter: Gets the value of a gridline.
+	 * @param i The index of the gridline, from lowest to highest
+	 * @return The value of the gridline
+	 */
+	public double getValue(int i) {
+		return values[i];
+	}
+
+	/**
+	 * Getter: Gets the label of a gridline.
+	 * @param i The index of the gridline, from lowest to highest
+	 * @return The label of the gridline
+	 */
+	public String getLabel(int i) {
+		return labels[i];
+	}
+
+	/**
+	 * Getter: Gets the width of the widest label, measuring the labels only
+	 * the first time they are asked for in each font.
+	 * @param metrics The metrics of the font the labels are drawn in
+	 * @return The width of the widest label
+	 */
+	public int getLabelWidth(FontMetrics metrics) {
+		if (!metrics.getFont().equals(measuredFont)) {
+			labelWidth = 0;
+			for (String label : labels) {
+				labelWidth = Math.max(labelWidth, metrics.stringWidth(label));
+			}
+			measuredFont = metrics.getFont();
+		}
+		return labelWidth;
+	}
+}
@@ -0,0 +1,481 @@
+package ib.grapher;
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.swing.ProgressMonitor;
+import javax.swing.SwingWorker;
+
+/**
+ * A background task which imports a CSV file into the data table. The file
+ * is streamed through a {@link FileChannel} into a reusable buffer and parsed
+ * by a {@link CSVParser}, while a progress bar shows how much has been read.
+ * Once the whole file has been read, its columns are turned into series, still
+ * on the background thread, and handed to the data table at once; if the user
+ * cancels the import, the data table is left alone.
+ * <p>
+ * Large files are split into chunks which are parsed on every core at once
+ * (see {@link #parseInParallel(FileChannel, long)}), then joined back
+ * together in order.
+ */
+public class CSVImporter extends SwingWorker<List<Series>, Void> {
+	// MARK: Constructor
+	/**
+	 * Creates an importer for a file, along with its progress bar. This must
+	 * be called on the event dispatch thread.
+	 * @param file The CSV file to import
+	 */
+	public CSVImporter(File file) {
+		this.file = file;
+
+		monitor = new ProgressMonitor(
+			Main.getDataTable(), "Importing \"" + file.getName() + "\"",
+			null, 0, 100
+		);
+		addPropertyChangeListener(new PropertyChangeListener() {
+			public void propertyChange(PropertyChangeEvent e) {
+				if (!"progress".equals(e.getPropertyName()))
+					return;
+				monitor.setProgress((Integer) e.getNewValue());
+				if (monitor.isCanceled())
+					cancel(false);
+			}
+		});
+	}
+
+
+
+	// MARK: Constants
+	/** The number of bytes to read from the file at once. */
+	private static final int BUFFER_LENGTH = 1 << 16;
+	/** The byte order mark some programs put at the start of a file. */
+	private static final char BYTE_ORDER_MARK = '\uFEFF';
+	/** The smallest file that is worth parsing in parallel, in bytes. */
+	private static final long PARALLEL_THRESHOLD = 16 << 20;
+	/** The smallest chunk a file is split into when parsed in parallel. */
+	private static final long MINIMUM_CHUNK_LENGTH = 4 << 20;
+	/** The number of chunks to split a file into for each core. */
+	private static final int CHUNKS_PER_CORE = 4;
+
+
+
+	// MARK: Properties
+	/** Whether or not large files should be parsed on every core at once. */
+	private static boolean parallel = true;
+
+	/** The file being imported. */
+	private final File file;
+	/** The progress bar for the import. */
+	private final ProgressMonitor monitor;
+	/** The number of bytes that need to be read to import the file. */
+	private long work;
+	/** The number of bytes read so far, by any thread. */
+	private final AtomicLong done = new AtomicLong();
+
+
+
+	// MARK: Methods
+	/**
+	 * Reads and parses the whole file, and builds a series from each of its
+	 * columns, so that the event dispatch thread only has to install them.
+	 * Called on a background thread.
+	 * @return The imported series, or null if the import was cancelled
+	 * @throws IOException If the file could not be read
+	 */
+	@Override
+	protected List<Series> doInBackground() throws IOException {
+		CSVParser parser = parse();
+		if (parser == null)
+			return null;
+
+		List<String> names = parser.getNames();
+		List<CSVParser.Column> columns = parser.getColumns();
+		List<Series> data = new ArrayList<>(columns.size());
+		for (int i = 0; i < columns.size(); i++) {
+			if (isCancelled())
+				return null;
+			Series r = new Series(columns.get(i).getValues());
+			r.setName(names.get(i));
+			data.add(r);
+		}
+		return data;
+	}
+
+
+
+	/**
+	 * Reads and parses the whole file.
+	 * @return A parser holding the file's columns, or null if the import was
+	 * cancelled
+	 * @throws IOException If the file could not be read
+	 */
+	private CSVParser parse() throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (parallel && size >= PARALLEL_THRESHOLD
+					&& ForkJoinPool.getCommonPoolParallelism() > 1)
+				return parseInParallel(channel, size);
+
+			work = size;
+			CSVParser parser = new CSVParser();
+			if (!parseRange(channel, 0, size, parser))
+				return null;
+			return parser;
+		}
+	}
+
+
+
+	/**
+	 * Parses a file by splitting it into chunks and parsing each chunk on
+	 * the common {@link ForkJoinPool}. Chunks have to start at the beginning
+	 * of a record, but a line break inside a quoted field doesn't end a
+	 * record. Since every quote either starts or ends a quoted section (an
+	 * escaped quote does both), a line break ends a record exactly when an
+	 * even number of quotes come before it in the file. So the quotes in
+	 * each chunk are counted first, in parallel, and then each chunk is moved
+	 * forwards to the first line break with an even number of quotes before
+	 * it.
+	 * @param channel The file to parse
+	 * @param size The length of the file
+	 * @return A parser holding the file's columns, or null if the import was
+	 * cancelled
+	 * @throws IOException If the file could not be read
+	 */
+	private CSVParser parseInParallel(final FileChannel channel, long size) throws IOException {
+		work = 2 * size;
+
+		// The names are read first, since every chunk needs to know how many
+		// columns there are.
+		long dataStart = findRecordEnd(channel, 0, size, false, true);
+		if (dataStart < 0)
+			dataStart = size;
+		CSVParser header = new CSVParser();
+		if (!parseRange(channel, 0, dataStart, header))
+			return null;
+		final int columns = header.getNames().size();
+
+		long dataLength = size - dataStart;
+		int chunks = (int) Math.max(1, Math.min(
+			ForkJoinPool.getCommonPoolParallelism() * CHUNKS_PER_CORE,
+			dataLength / MINIMUM_CHUNK_LENGTH
+		));
+		final long[] starts = new long[chunks + 1];
+		for (int i = 0; i <= chunks; i++) {
+			starts[i] = dataStart + dataLength * i / chunks;
+		}
+
+		// Count the quotes in each chunk
+		List<Callable<Boolean>> counts = new ArrayList<>();
+		final boolean[] odd = new boolean[chunks];
+		for (int i = 0; i < chunks; i++) {
+			final int chunk = i;
+			counts.add(new Callable<Boolean>() {
+				public Boolean call() throws IOException {
+					odd[chunk] = countQuotes(channel, starts[chunk], starts[chunk + 1]);
+					return true;
+				}
+			});
+		}
+		if (!runAll(counts))
+			return null;
+
+		// Move each chunk to the start of a record. A chunk that turns out
+		// to be inside one long record is merged into the chunk before it.
+		boolean quoted = false;
+		long[] bounds = new long[chunks + 1];
+		int count = 0;
+		bounds[count++] = dataStart;
+		for (int i = 1; i < chunks; i++) {
+			quoted ^= odd[i - 1];
+			long start = findRecordEnd(channel, starts[i], starts[i + 1], quoted, false);
+			if (start > bounds[count - 1])
+				bounds[count++] = start;
+		}
+		bounds[count] = size;
+		System.out.printf("IMPORT: %d chunks%n", count);
+
+		// Parse each chunk
+		final long[] ranges = bounds;
+		final CSVParser[] parsers = new CSVParser[count];
+		List<Callable<Boolean>> parses = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			final int chunk = i;
+			parses.add(new Callable<Boolean>() {
+				public Boolean call() throws IOException {
+					parsers[chunk] = new CSVParser(columns);
+					return parseRange(channel, ranges[chunk], ranges[chunk + 1], parsers[chunk]);
+				}
+			});
+		}
+		if (!runAll(parses))
+			return null;
+
+		// Stitch the chunks back together, in order
+		for (CSVParser parser : parsers) {
+			header.append(parser);
+		}
+		return header;
+	}
+
+
+
+	/**
+	 * Reads and parses part of a file.
+	 * @param channel The file to read
+	 * @param start The position of the first byte to read, which must be at
+	 * the start of a record
+	 * @param end The position after the last byte to read, which must be at
+	 * the end of a record
+	 * @param parser The parser to feed the text to
+	 * @return false if the import was cancelled, true otherwise
+	 * @throws IOException If the file could not be read
+	 */
+	private boolean parseRange(FileChannel channel, long start, long end,
+			CSVParser parser) throws IOException {
+		CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		ByteBuffer bytes = ByteBuffer.allocate(BUFFER_LENGTH);
+		CharBuffer chars = CharBuffer.allocate(BUFFER_LENGTH);
+
+		long position = start;
+		boolean first = start == 0;
+		boolean last = false;
+		while (!last) {
+			if (isCancelled())
+				return false;
+
+			bytes.limit((int) Math.min(bytes.capacity(), bytes.position() + end - position));
+			int read = channel.read(bytes, position);
+			if (read > 0) {
+				position += read;
+				advance(read);
+			}
+			last = read < 0 || position >= end;
+
+			bytes.flip();
+			decoder.decode(bytes, chars, last);
+			if (last)
+				decoder.flush(chars);
+			bytes.compact();
+
+			chars.flip();
+			if (first && chars.hasRemaining()) {
+				if (chars.get(chars.position()) == BYTE_ORDER_MARK)
+					chars.get();
+				first = false;
+			}
+			parser.parse(chars.array(), chars.arrayOffset() + chars.position(), chars.remaining());
+			chars.clear();
+		}
+
+		parser.finish();
+		return true;
+	}
+
+
+
+	/**
+	 * Counts the quotes in part of a file. Quotes are always a single byte
+	 * in UTF-8, so the bytes don't need to be decoded.
+	 * @param channel The file to read
+	 * @param start The position of the first byte to read
+	 * @param end The position after the last byte to read
+	 * @return Whether or not there are an odd number of quotes
+	 * @throws IOException If the file could not be read
+	 */
+	private boolean countQuotes(FileChannel channel, long start, long end)
+			throws IOException {
+		ByteBuffer bytes = ByteBuffer.allocate(BUFFER_LENGTH);
+		byte[] array = bytes.array();
+		int quotes = 0;
+
+		long position = start;
+		while (position < end && !isCancelled()) {
+			bytes.clear();
+			bytes.limit((int) Math.min(bytes.capacity(), end - position));
+			int read = channel.read(bytes, position);
+			if (read < 0)
+				break;
+			for (int i = 0; i < read; i++) {
+				if (array[i] == '"')
+					quotes++;
+			}
+			position += read;
+			advance(read);
+		}
+
+		return (quotes & 1) == 1;
+	}
+
+
+
+	/**
+	 * Finds the end of the first record after a position in a file. Line
+	 * feeds are always a single byte in UTF-8, so the bytes don't need to be
+	 * decoded.
+	 * @param channel The file to read
+	 * @param start The position to start looking from
+	 * @param end The position to stop looking at
+	 * @param quoted Whether or not the start is inside a quoted section
+	 * @param skipBlank Whether blank lines should be skipped, rather than
+	 * counted as records
+	 * @return The position after the line feed ending the record, or -1 if
+	 * the record doesn't end before the stopping position
+	 * @throws IOException If the file could not be read
+	 */
+	private static long findRecordEnd(FileChannel channel, long start, long end,
+			boolean quoted, boolean skipBlank) throws IOException {
+		ByteBuffer bytes = ByteBuffer.allocate(BUFFER_LENGTH);
+		byte[] array = bytes.array();
+		boolean blank = true;
+
+		long position = start;
+		while (position < end) {
+			bytes.clear();
+			bytes.limit((int) Math.min(bytes.capacity(), end - position));
+			int read = channel.read(bytes, position);
+			if (read < 0)
+				break;
+			for (int i = 0; i < read; i++) {
+				byte b = array[i];
+				if (b == '"') {
+					quoted = !quoted;
+				} else if (b == '\n' && !quoted) {
+					if (!skipBlank || !blank)
+						return position + i + 1;
+					// A blank line was skipped, so the next line starts blank
+					continue;
+				} else if (b == '\r') {
+					continue;
+				}
+				blank = false;
+			}
+			position += read;
+		}
+
+		return -1;
+	}
+
+
+
+	/**
+	 * Runs a set of jobs on the common {@link ForkJoinPool}, waiting for all
+	 * of them to finish.
+	 * @param jobs The jobs to run
+	 * @return false if any job was cancelled, true otherwise
+	 * @throws IOException If any job could not read the file
+	 */
+	private static boolean runAll(List<Callable<Boolean>> jobs) throws IOException {
+		boolean finished = true;
+		for (Future<Boolean> result : ForkJoinPool.commonPool().invokeAll(jobs)) {
+			try {
+				finished &= result.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof IOException)
+					throw (IOException) e.getCause();
+				throw new IOException(e.getCause());
+			}
+		}
+		return finished;
+	}
+
+
+
+	/**
+	 * Notes that some bytes have been read, and updates the progress bar.
+	 * This can be called from any thread.
+	 * @param bytes The number of bytes read
+	 */
+	private void advance(long bytes) {
+		long total = done.addAndGet(bytes);
+		setProgress((int) Math.min(100, total * 100 / Math.max(1, work)));
+	}
+
+
+
+	/**
+	 * Hands the imported series to the data table, then saves them. Called
+	 * on the event dispatch thread once the file has been read.
+	 */
+	@Override
+	protected void done() {
+		monitor.close();
+
+		List<Series> data;
+		try {
+			data = get();
+		} catch (CancellationException e) {
+			System.out.println("IMPORT: Cancelled");
+			return;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return;
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof NoSuchFileException) {
+				System.err.printf("No such file as \"%s\".%n", file.getName());
+			} else {
+				System.err.printf("Could not import \"%s\".%n", file.getName());
+			}
+			e.getCause().printStackTrace();
+			return;
+		}
+
+		if (data == null)
+			return;
+
+		System.out.printf("IMPORT: %d series, %d rows%n", data.size(),
+			data.isEmpty() ? 0 : data.get(0).length());
+		Main.getDataTable().replaceData(data);
+		Main.updateAllComponents();
+
+		// Save the imported data, which replaces everything in the table
+		if (FileDataManager.getJournal() != null) {
+			FileDataManager.compact(true);
+		} else {
+			Main.saveAllData();
+			FileDataManager.truncateToData();
+		}
+	}
+
+
+
+	// MARK: Getters / Setters
+	/**
+	 * Getter: Checks whether large files are parsed on every core at once.
+	 * @return {@link #parallel}
+	 */
+	public static boolean isParallel() {
+		return parallel;
+	}
+
+	/**
+	 * Setter: Changes whether large files are parsed on every core at once.
+	 * @param parallel The new value for {@link #parallel}
+	 */
+	public static void setParallel(boolean parallel) {
+		CSVImporter.parallel = parallel;
+	}
+}
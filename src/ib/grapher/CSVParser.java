@@ -0,0 +1,330 @@
+package ib.grapher;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A parser which reads CSV text (RFC 4180) into columns. Text can be fed to
+ * the parser in pieces of any size, such as buffers read from a file, and
+ * fields and records may be split between pieces. The parser runs a small
+ * state machine over each character, copying fields into a reusable buffer,
+ * so nothing is allocated except the values themselves.
+ * <p>
+ * The first record holds the names of the columns, and decides how many
+ * columns there are. Later records with fewer fields are padded with empty
+ * values, and extra fields are ignored. Values are trimmed, and blank lines
+ * are skipped. Quoted fields may hold commas, line breaks, and escaped
+ * ({@code ""}) quotes. As in earlier versions of Grapher, a quote in the
+ * middle of a field starts a quoted section rather than being kept.
+ * <p>
+ * A parser is not thread-safe, so each thread should use its own.
+ */
+public class CSVParser {
+	// MARK: Constructors
+	/** Creates a parser expecting a row of names first. */
+	public CSVParser() {
+		names = new ArrayList<>();
+		columns = new ArrayList<>();
+		field = new char[INITIAL_FIELD_LENGTH];
+		state = FIELD_START;
+		inHeader = true;
+	}
+
+
+
+	/**
+	 * Creates a parser for records that come after the row of names, such as
+	 * a chunk from the middle of a file. The text must start at the beginning
+	 * of a record.
+	 * @param columns The number of columns, taken from the row of names
+	 */
+	public CSVParser(int columns) {
+		this();
+		inHeader = false;
+		for (int i = 0; i < columns; i++) {
+			this.columns.add(new Column());
+		}
+	}
+
+
+
+	// MARK: Constants
+	/** State: at the start of a field. */
+	private static final int FIELD_START = 0;
+	/** State: in an unquoted section of a field. */
+	private static final int UNQUOTED = 1;
+	/** State: in a quoted section of a field. */
+	private static final int QUOTED = 2;
+	/**
+	 * State: just after a quote in a quoted section, which either ends the
+	 * section or is the first half of an escaped quote.
+	 */
+	private static final int QUOTE_IN_QUOTED = 3;
+
+	/** The starting length of the buffer used to build each field. */
+	private static final int INITIAL_FIELD_LENGTH = 128;
+
+
+
+	// MARK: Properties
+	/** The names of the columns, read from the first record. */
+	private List<String> names;
+	/** The columns being built. */
+	private List<Column> columns;
+
+	/** The current state of the parser. */
+	private int state;
+	/** The characters of the field being read. */
+	private char[] field;
+	/** The number of characters in {@link #field}. */
+	private int fieldLength;
+	/** The index of the field being read within its record. */
+	private int fieldIndex;
+	/** Whether or not the record being read is the first one. */
+	private boolean inHeader;
+	/**
+	 * Whether the last character was a carriage return, in which case a line
+	 * feed straight after it is part of the same line break.
+	 */
+	private boolean afterCarriageReturn;
+
+
+
+	// MARK: Methods
+	/**
+	 * Parses a piece of CSV text.
+	 * @param chars An array holding the text
+	 * @param offset The index of the first character to parse
+	 * @param length The number of characters to parse
+	 */
+	public void parse(char[] chars, int offset, int length) {
+		int end = offset + length;
+		for (int i = offset; i < end; i++) {
+			char c = chars[i];
+
+			if (afterCarriageReturn) {
+				afterCarriageReturn = false;
+				if (c == '\n')
+					continue;
+			}
+
+			if (state == QUOTE_IN_QUOTED) {
+				if (c == '"') {
+					append(c);
+					state = QUOTED;
+					continue;
+				}
+				// The quoted section is over, so c is read as unquoted text
+				state = UNQUOTED;
+			}
+
+			switch (state) {
+				case QUOTED:
+					if (c == '"')
+						state = QUOTE_IN_QUOTED;
+					else
+						append(c);
+					break;
+
+				default:
+					if (c == ',') {
+						endField();
+					} else if (c == '\n' || c == '\r') {
+						afterCarriageReturn = c == '\r';
+						if (state == FIELD_START && fieldIndex == 0)
+							continue; // Blank line
+						endField();
+						endRecord();
+					} else if (c == '"') {
+						state = QUOTED;
+					} else {
+						append(c);
+						state = UNQUOTED;
+					}
+			}
+		}
+	}
+
+
+
+	/**
+	 * Finishes parsing, ending the last record if the text didn't end with a
+	 * line break.
+	 */
+	public void finish() {
+		if (state != FIELD_START || fieldIndex > 0) {
+			endField();
+			endRecord();
+		}
+		afterCarriageReturn = false;
+	}
+
+
+
+	/**
+	 * Splits a single line of CSV text into its fields.
+	 * @param line The line to split
+	 * @return The trimmed fields of the line
+	 */
+	public static List<String> splitLine(String line) {
+		CSVParser parser = new CSVParser();
+		char[] chars = line.toCharArray();
+		parser.parse(chars, 0, chars.length);
+		parser.finish();
+		return parser.getNames();
+	}
+
+
+
+	/**
+	 * Adds the columns read by another parser to the ends of this parser's
+	 * columns, such as when joining chunks of a file that were parsed
+	 * separately.
+	 * @param other A parser holding the records that come after this one's
+	 */
+	public void append(CSVParser other) {
+		for (int i = 0; i < columns.size() && i < other.columns.size(); i++) {
+			columns.get(i).append(other.columns.get(i));
+		}
+	}
+
+
+
+	// MARK: Convenience
+	/**
+	 * Adds a character to the field being read.
+	 * @param c The character to add
+	 */
+	private void append(char c) {
+		if (fieldLength == field.length)
+			field = Arrays.copyOf(field, field.length * 2);
+		field[fieldLength++] = c;
+	}
+
+
+
+	/**
+	 * Ends the field being read, trimming it and adding it to its column.
+	 */
+	private void endField() {
+		int start = 0;
+		int end = fieldLength;
+		while (start < end && field[start] <= ' ') {
+			start++;
+		}
+		while (end > start && field[end - 1] <= ' ') {
+			end--;
+		}
+		String value = start == end ? "" : new String(field, start, end - start);
+
+		if (inHeader)
+			names.add(value);
+		else if (fieldIndex < columns.size())
+			columns.get(fieldIndex).add(value);
+
+		fieldIndex++;
+		fieldLength = 0;
+		state = FIELD_START;
+	}
+
+
+
+	/**
+	 * Ends the record being read. The first record creates a column for each
+	 * of its fields; later records pad any missing fields with empty values.
+	 */
+	private void endRecord() {
+		if (inHeader) {
+			inHeader = false;
+			for (int i = 0; i < names.size(); i++) {
+				columns.add(new Column());
+			}
+		} else {
+			for (int i = fieldIndex; i < columns.size(); i++) {
+				columns.get(i).add("");
+			}
+		}
+		fieldIndex = 0;
+	}
+
+
+
+	// MARK: Getters / Setters
+	/**
+	 * Getter: Gets the names of the columns, read from the first record.
+	 * @return {@link #names}
+	 */
+	public List<String> getNames() {
+		return names;
+	}
+
+	/**
+	 * Getter: Gets the columns that have been read.
+	 * @return {@link #columns}
+	 */
+	public List<Column> getColumns() {
+		return columns;
+	}
+
+	// names and columns have no setters, as they are set by parsing.
+
+
+
+	// MARK: Column
+	/**
+	 * A growable column of values, filled in by a parser and then handed to
+	 * a {@link Series} all at once.
+	 */
+	public static class Column {
+		/** Creates an empty column. */
+		public Column() {
+			values = new String[INITIAL_CAPACITY];
+		}
+
+		/** The starting capacity of a column. */
+		private static final int INITIAL_CAPACITY = 1024;
+
+		/** The values in this column, followed by spare capacity. */
+		private String[] values;
+		/** The number of values in this column. */
+		private int length;
+
+		/**
+		 * Adds a value to the end of this column.
+		 * @param value The value to add
+		 */
+		public void add(String value) {
+			if (length == values.length)
+				values = Arrays.copyOf(values, values.length * 2);
+			values[length++] = value;
+		}
+
+		/**
+		 * Adds every value in another column to the end of this column.
+		 * @param other The column to add
+		 */
+		public void append(Column other) {
+			if (length + other.length > values.length)
+				values = Arrays.copyOf(values, Math.max(values.length * 2, length + other.length));
+			System.arraycopy(other.values, 0, values, length, other.length);
+			length += other.length;
+		}
+
+		/**
+		 * Gets the number of values in this column.
+		 * @return The length of this column
+		 */
+		public int length() {
+			return length;
+		}
+
+		/**
+		 * Gets the values in this column, without copying them.
+		 * @return A fixed-size list view of the values
+		 */
+		public List<String> getValues() {
+			return Arrays.asList(values).subList(0, length);
+		}
+	}
+}
@@ -7,10 +7,6 @@ import java.awt.FlowLayout;
 import java.awt.Insets;
 import java.awt.event.FocusAdapter;
 import java.awt.event.FocusEvent;
-import java.text.NumberFormat;
-import java.text.ParseException;
-import java.util.Arrays;
-import java.util.Locale;
 
 import javax.swing.JPanel;
 import javax.swing.JTextField;
@@ -18,21 +14,20 @@ import javax.swing.border.EtchedBorder;
 
 /**
  * A class which represents a single cell in the data table. An object of this
- * class both functions as a node in a doubly linked list and provides a
- * graphical representation of its data, along with the means to edit it.
+ * class holds no data of its own: it is a graphical view of one row of a
+ * {@link Series}, along with the means to edit it.
  */
 public class Cell extends JPanel {
-	// MARK: Constructors
+	// MARK: Constructor
 	/**
-	 * A basic constructor for a cell, which initializes the text field and
-	 * handles graphical layout.
+	 * Sole constructor, which initializes the text field, handles graphical
+	 * layout, and shows the value of a row of a series.
+	 * @param series The series this cell shows a value from
+	 * @param index The index of the row this cell shows
 	 */
-	public Cell() {
-		previousCell = null;
-		nextCell = null;
-		value = "";
-		index = -1;
-		series = null;
+	public Cell(Series series, int index) {
+		this.series = series;
+		this.index = index;
 
 
 		// GUI
@@ -51,56 +46,33 @@ public class Cell extends JPanel {
 			}
 
 			public void focusLost(FocusEvent e) {
-				if (Main.getDataTable().getSearchMatches().contains(Cell.this))
+				if (Main.getDataTable().isSearchMatch(Cell.this.series, Cell.this.index))
 					Cell.this.paintSearched();
 				else
 					Cell.this.paintDeselected();
 
 				// Losing focus also does data entry
-				Cell.this.setValue(Cell.this.textField.getText());
-				Cell.this.getSeries().calculateStatistics();
-				Cell.this.save();
+				Cell.this.commit();
 			}
 		});
 		textField.addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent e) {
-				Cell.this.setValue(Cell.this.textField.getText());
-				Cell.this.getSeries().calculateStatistics();
-				Cell.this.save();
+				Cell.this.commit();
 			}
 		});
 		add(textField);
 
 		setLayout(layout);
 		setMinimumSize(new Dimension(110, 30));
-		Main.getDataTable().addCell(this);
-	}
-
-
-
-	/**
-	 * A slightly more advanced constructor, which allows for the value of the
-	 * cell to be set at initialization.
-	 * @param value The desired value of the cell.
-	 */
-	public Cell(String value) {
-		this();
-		setValue(value);
-		textField.setText(value);
+		refresh();
 	}
 
 
 
 	// MARK: Properties
-	/** The cell that comes before this one in its series. */
-	private Cell previousCell;
-	/** The cell that comes after this one in its series. */
-	private Cell nextCell;
-	/** The textual value of this cell. */
-	private String value;
-	/** The index of this cell in its series. */
+	/** The index of the row this cell shows. */
 	private int index;
-	/** The series this cell belongs to. */
+	/** The series this cell shows a value from. */
 	private Series series;
 
 
@@ -127,22 +99,40 @@ public class Cell extends JPanel {
 	// MARK: Methods
 	/**
 	 * Saves this cell to the output file, overwriting an existing
-	 * entry for the cell. If this cell has not yet been added,
-	 * {@link FileDataManager#encodeForInsertion(Cell)} should be used instead.
+	 * entry for the cell. See {@link Series#save(int)}.
 	 */
 	public void save() {
-		System.out.println("SAVE: Cell");
-		int seriesIndex = Main.getDataTable().indexOf(series);
-		int dataLength = Main.getDataTable().getData().size();
+		if (series.length() > index)
+			series.save(index);
+	}
+
+
+
+	/**
+	 * Enters the text typed into this cell into its series. If the text has
+	 * changed, the cell is saved and anything showing the data is scheduled
+	 * for an update; otherwise, nothing happens.
+	 */
+	private void commit() {
+		String text = textField.getText();
+		if (text.equals(getValue()))
+			return;
+
+		setValue(text);
+		save();
+		UpdateScheduler.markDirty(UpdateScheduler.VALUES);
+	}
 
-		int offset = FileDataManager.getOffset(
-			FileDataManager.CELL,
-			dataLength * index + seriesIndex
-		);
 
-		Byte[] ba = Main.stringToByteArray(value, 128);
 
-		FileDataManager.writeByteList(Arrays.asList(ba), offset);
+	/**
+	 * Shows the current value of this cell's row in its text field, if it is
+	 * not already showing.
+	 */
+	public void refresh() {
+		String value = getValue();
+		if (!value.equals(textField.getText()))
+			textField.setText(value);
 	}
 
 
@@ -185,201 +175,60 @@ public class Cell extends JPanel {
 
 
 	/**
-	 * Gets the numeric value of this cell. If this cell does not contain
-	 * numeric data, this method will throw a {@link java.lang.NumberFormatException}.
-	 * @return The double numeric value of this cell
+	 * GUI: Paints this cell as a search result or as an ordinary cell,
+	 * without changing its headers. Used when a cell is reused for a
+	 * different row.
+	 * @param searched Whether or not this cell's row matches a search
 	 */
-	public double getNumeric() throws NumberFormatException {
-		try {
-			return NumberFormat.getNumberInstance(Locale.getDefault())
-				.parse(this.value).doubleValue();
-		} catch (ParseException e) {
-			throw new NumberFormatException("Invalid number format.");
-		}
+	public void paintContents(boolean searched) {
+		setBackground(searched ? Main.BLUE : Main.WHITE);
+		textField.setBackground(searched ? Main.LIGHT_BLUE : Main.WHITE);
 	}
 
 
 
 	/**
-	 * Inserts another cell before this one in its series.
-	 * @param insertedCell The cell to insert
+	 * Checks whether this cell is being edited.
+	 * @return Whether or not this cell's text field has keyboard focus
 	 */
-	public void insertCellBefore(Cell insertedCell) {
-		insertedCell.setSeries(this.series);
-		Cell oldPrevious = this.previousCell;
-
-		if (oldPrevious == null) {
-			this.series.setFirst(insertedCell);
-		} else {
-			oldPrevious.setNext(insertedCell);
-			insertedCell.setPrevious(oldPrevious);
-		}
-
-		insertedCell.setNext(this);
-		insertedCell.setIndex(this.index);
-		this.setPrevious(insertedCell);
-
-		Cell c = this;
-		while (c != null) {
-			c.setIndex(c.getIndex() + 1);
-			c = c.getNext();
-		}
+	public boolean isEditing() {
+		return textField.isFocusOwner();
 	}
 
 
 
 	/**
-	 * Inserts another cell after this one in its series.
-	 * @param insertedCell The cell to insert
-	 */
-	public void insertCellAfter(Cell insertedCell) {
-		insertedCell.setSeries(this.series);
-		Cell oldNext = this.nextCell;
-		insertedCell.setPrevious(this);
-		insertedCell.setIndex(this.index + 1);
-		this.setNext(insertedCell);
-
-		if (oldNext == null) {
-			this.series.setLast(insertedCell);
-		} else {
-			oldNext.setPrevious(insertedCell);
-			insertedCell.setNext(oldNext);
-		}
-
-		Cell c = oldNext;
-		while (c != null) {
-			c.setIndex(c.getIndex() + 1);
-			c = c.getNext();
-		}
-	}
-
-
-
-	/**
-	 * Removes this cell from its series.
-	 */
-	public void remove() {
-		FileDataManager.markForDeletion(this);
-
-		Cell oldPrevious = this.previousCell;
-		Cell oldNext = this.nextCell;
-
-		// Recalculate indices
-		Cell c = oldNext;
-		while (c != null) {
-			c.setIndex(c.getIndex() - 1);
-			c = c.getNext();
-		}
-
-		// Link the old previous and next cells together
-		if (oldPrevious == null)
-			this.series.setFirst(this.nextCell);
-		else
-			oldPrevious.setNext(this.nextCell);
-
-		if (oldNext == null)
-			this.series.setLast(this.nextCell);
-		else
-			oldNext.setPrevious(this.nextCell);
-		
-		// Reset this cell's parameters
-		this.index = -1;
-		this.series = null;
-		this.previousCell = null;
-		this.nextCell = null;
-	}
-
-
-
-	/**
-	 * Swaps this cell with the next one in its series.
+	 * Gets the numeric value of this cell. If this cell does not contain
+	 * numeric data, this method will throw a {@link java.lang.NumberFormatException}.
+	 * @return The double numeric value of this cell
 	 */
-	public void swapWithNext() {
-		Cell oldPrevious = this.previousCell;
-		Cell oldNext = this.nextCell;
-
-		if (oldNext == null) {
-			System.err.println("No cell after "+this.getValue());
-			return;
-		}
-
-		Cell newNext = oldNext.getNext();
-
-		oldNext.setPrevious(oldPrevious);
-		if (oldPrevious == null)
-			this.getSeries().setFirst(oldNext);
-		else
-			oldPrevious.setNext(oldNext);
-	
-		this.setPrevious(oldNext);
-		oldNext.setNext(this);
-
-		this.setNext(newNext);
-		if (newNext == null)
-			this.getSeries().setLast(this);
-		else
-			newNext.setPrevious(this);
-
-		oldNext.setIndex(oldNext.getIndex() - 1);
-
-		this.index ++;
+	public double getNumeric() throws NumberFormatException {
+		return series.getNumeric(index);
 	}
 
 
 
 	// MARK: Getters / Setters
 	/**
-	 * Getter: Gets the previous cell in this cell's series.
-	 * @return {@link #previousCell}
-	 */
-	public Cell getPrevious() {
-		return previousCell;
-	}
-
-	/**
-	 * Setter: Changes which cell comes before this one in this cell's series.
-	 * @param previousCell The new value for {@link #previousCell}
-	 */
-	public void setPrevious(Cell previousCell) {
-		this.previousCell = previousCell;
-	}
-
-
-
-	/**
-	 * Getter: Gets the next cell in this cell's series.
-	 * @return {@link #nextCell}
-	 */
-	public Cell getNext() {
-		return nextCell;
-	}
-
-	/**
-	 * Setter: Changes which cell comes after this one in this cell's series.
-	 * @param nextCell The new value for {@link #nextCell}
-	 */
-	public void setNext(Cell nextCell) {
-		this.nextCell = nextCell;
-	}
-
-
-
-	/**
-	 * Getter: Gets the textual value of this cell.
-	 * @return {@link #value}
+	 * Getter: Gets the textual value of this cell, from its series.
+	 * @return The value of row {@link #index} of {@link #series}
 	 */
 	public String getValue() {
-		return value;
+		if (series == null || index >= series.length())
+			return "";
+		return series.get(index);
 	}
 
 	/**
-	 * Setter: Changes the textual value of this cell.
+	 * Setter: Changes the textual value of this cell in its series.
 	 * Also updates this cell's {@link #textField} to match.
-	 * @param value The new {@link #value} of this cell
+	 * @param value The new value of row {@link #index} of {@link #series}
 	 */
 	public void setValue(String value) {
-		this.value = value;
-		textField.setText(value);
+		if (series == null || index >= series.length())
+			return;
+		series.set(index, value);
+		refresh();
 	}
 
 
@@ -390,8 +239,8 @@ public class Cell extends JPanel {
 
 
 	/**
-	 * Getter: Gets the index of this cell in its series,
-	 * where 0 represents the first cell in the series,
+	 * Getter: Gets the index of the row this cell shows,
+	 * where 0 represents the first row in the series,
 	 * and {@code n-1} represents the nth.
 	 * @return {@link #index}
 	 */
@@ -400,7 +249,7 @@ public class Cell extends JPanel {
 	}
 
 	/**
-	 * Setter: Changes the index of this cell.
+	 * Setter: Changes which row this cell shows.
 	 * @param index The new {@link #index} for this cell
 	 */
 	public void setIndex(int index) {
@@ -410,8 +259,8 @@ public class Cell extends JPanel {
 
 
 	/**
-	 * Getter: Gets the series this cell belongs to, or null if it does
-	 * not belong to a series.
+	 * Getter: Gets the series this cell shows a value from, or null if it
+	 * does not belong to a series.
 	 * @return {@link #series}
 	 */
 	public Series getSeries() {
@@ -419,7 +268,7 @@ public class Cell extends JPanel {
 	}
 
 	/**
-	 * Setter: Changes which series this cell belongs to.
+	 * Setter: Changes which series this cell shows a value from.
 	 * @param series The new {@link #series} for this cell
 	 */
 	public void setSeries(Series series) {
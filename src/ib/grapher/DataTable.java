@@ -6,16 +6,22 @@ import java.awt.Component;
 import java.awt.Dimension;
 import java.awt.Font;
 import java.awt.FontMetrics;
-import java.awt.GridBagConstraints;
-import java.awt.GridBagLayout;
+import java.awt.GridLayout;
 import java.awt.Insets;
+import java.awt.Rectangle;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import javax.swing.ImageIcon;
 import javax.swing.JButton;
+import javax.swing.JCheckBox;
+import javax.swing.JComboBox;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JLayeredPane;
@@ -24,12 +30,17 @@ import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.JTextArea;
 import javax.swing.SwingConstants;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
 
 /**
- * The table which stores all the textual data for a graph.
+ * The table which stores all the textual data for a graph. The table is
+ * virtualized: cells and row numbers are only created for the rows and
+ * columns that fit in the window, and are reused for other rows as the table
+ * is scrolled.
  */
 // Much of the GUI code for this class was adapted from Oracle, n.d.a
-public class DataTable extends JFrame {
+public class DataTable extends JFrame implements Updatable {
 	// MARK: Constructors
 	/**
 	 * A constructor which initializes the lists of this table, and also adds
@@ -38,29 +49,39 @@ public class DataTable extends JFrame {
 	public DataTable() {
 		super();
 		data = new ArrayList<>();
-		activeCells = new ArrayList<>();
+		visibleCells = new ArrayList<>();
+		cellPool = new ArrayList<>();
+		rowNumberLabels = new ArrayList<>();
 		searchMatches = new ArrayList<>();
+		searchMatchSet = new HashSet<>();
 
 		// GUI
 		setTitle("Grapher");
 		setLayout(new BorderLayout());
 
-		tableLayout = new GridBagLayout();
-		table = new JPanel(tableLayout);
+		// Cells, headers, and row numbers are all positioned by hand, since
+		// only the ones in view are laid out.
+		table = new JPanel(null);
 		table.setOpaque(false);
 		table.setVisible(true);
 		tableLayeredPane = new JLayeredPane();
 		tableLayeredPane.add(table, Integer.valueOf(0), 0);
 
-		JScrollPane tableView = new JScrollPane(tableLayeredPane);
+		tableView = new JScrollPane(tableLayeredPane);
+		tableView.getVerticalScrollBar().setUnitIncrement(CELL_HEIGHT);
+		tableView.getHorizontalScrollBar().setUnitIncrement(CELL_WIDTH);
+		tableView.getViewport().addChangeListener(new ChangeListener() {
+			@Override
+			public void stateChanged(ChangeEvent e) {
+				layoutVisibleRows(false);
+			}
+		});
 
-		headerLayout = new GridBagLayout();
-		header = new JPanel(headerLayout);
+		header = new JPanel(null);
 		tableView.setColumnHeaderView(header);
 		header.setVisible(true);
 
-		rowNumbers = new JPanel();
-		rowNumbers.setLayout(new GridBagLayout());
+		rowNumbers = new JPanel(null);
 		tableView.setRowHeaderView(rowNumbers);
 		rowNumbers.setVisible(true);
 
@@ -166,19 +187,7 @@ public class DataTable extends JFrame {
 
 		add(tableView, BorderLayout.CENTER);
 
-		fillerT = new JPanel();
-		fillerT.setOpaque(false);
-		table.add(fillerT);
-
-		fillerH = new JPanel();
-		fillerH.setOpaque(false);
-		header.add(fillerH);
-
-		rnFiller = new JPanel();
-		rnFiller.setOpaque(false);
-		rowNumbers.add(rnFiller);
-
-		statView = new JTextArea(5, 80);
+		statView = new JTextArea(9, 80);
 		statView.setEditable(false);
 		statView.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 10));
 		statView.setMargin(new Insets(0, 5, 0, 5));
@@ -194,6 +203,13 @@ public class DataTable extends JFrame {
 	}
 
 	// MARK: Constants
+	/** The width of a cell in the table, in pixels. */
+	public static final int CELL_WIDTH = 110;
+	/** The height of a cell in the table, in pixels. */
+	public static final int CELL_HEIGHT = 30;
+	/** The number of columns the table can be sorted by at once. */
+	private static final int SORT_KEYS = 3;
+
 	/** A template for the stat view. */
 	private static final String STAT_VIEW_TEMPLATE = """
 	Series Statistics
@@ -202,18 +218,30 @@ public class DataTable extends JFrame {
 	Mean: %-24s Sum: %-25s
 	Range: %-23s
 	Variance: %-20s Standard Deviation: %-10s
+	Median: %-22s Mode: %-24s
+	Lower Quartile: %-14s Upper Quartile: %-14s
+	Interquartile Range: %-9s
+	5th Percentile: %-14s 95th Percentile: %-13s
 	""";
 
 	// MARK: Properties
 	/** All the base data for this project. */
 	private List<Series> data;
-	/** The current row of cells to manipulate. */
-	private List<Cell> activeCells;
+	/**
+	 * The cells currently laid out on the table. This is every cell in view,
+	 * as well as the selected cell, which keeps its row even when it is
+	 * scrolled out of view.
+	 */
+	private List<Cell> visibleCells;
+	/** Cells which are not showing any row, ready to be reused. */
+	private List<Cell> cellPool;
 	/** The current selected cell. */
 	private Cell selectedCell;
 
-	/** A list of cells that match a search. */
-	private List<Cell> searchMatches;
+	/** The positions that match a search, in the order they were found. */
+	private List<Match> searchMatches;
+	/** The positions that match a search, for quick lookup. */
+	private Set<Match> searchMatchSet;
 	/** The current index in cycling through search matches. */
 	private int searchIndex;
 
@@ -224,22 +252,23 @@ public class DataTable extends JFrame {
 
 	/** The panel that displays along the top of the table. */
 	private JPanel header;
-	/** Layout information for the data table header. */
-	private GridBagLayout headerLayout;
-	/** Filler to keep the header aligned properly. */
-	private JPanel fillerH;
 
 	/** The panel the data table is graphically displayed on. */
 	private JPanel table;
-	/** Layout information for the data table interface. */
-	private GridBagLayout tableLayout;
-	/** Filler to keep the table aligned to the top left. */
-	private JPanel fillerT;
+	/** The scroll pane the data table is viewed through. */
+	private JScrollPane tableView;
 
 	/** The row numbers which make up the sidebar. */
 	private JPanel rowNumbers;
-	/** Filler to keep the row numbers aligned properly. */
-	private JPanel rnFiller;
+	/**
+	 * The labels used for row numbers, one for each row in view, starting
+	 * from {@link #firstVisibleRow}.
+	 */
+	private List<JLabel> rowNumberLabels;
+	/** The index of the first row in view. */
+	private int firstVisibleRow;
+	/** The width of the row numbers, in pixels. */
+	private int rowNumberWidth;
 
 	/** A text panel which displays statistics about the selected cell. */
 	private JTextArea statView;
@@ -271,75 +300,65 @@ public class DataTable extends JFrame {
 
 	// MARK: Update
 	/**
-	 * Updates the main data table. Called whenever the window is resized or
-	 * scrolled, or when the data in it changes. Resets the
-	 * {@link GridBagConstraints} on all elements, updates series statistics,
-	 * and then calls {@link #invalidate()}, {@link #validate()}, and
+	 * Updates the main data table. Called whenever the data in it changes.
+	 * Resizes the table to fit the data, lays out and refreshes the cells in
+	 * view, updates the statistics and insertion buttons for the selected
+	 * cell, and then calls {@link #invalidate()}, {@link #validate()}, and
 	 * {@link #repaint()}.
 	 */
+	@Override
 	public void doUpdate() {
 		System.out.println("UPDATE: Data Table");
 
-		GridBagConstraints constraints;
-		for (Series r : data) {
-			constraints = new GridBagConstraints();
-			constraints.gridx = indexOf(r);
-			constraints.gridy = 0;
-			constraints.anchor = GridBagConstraints.FIRST_LINE_START;
-			headerLayout.setConstraints(r.getHeader(), constraints);
-
-			for (Cell c : r) {
-				constraints = new GridBagConstraints();
-				constraints.gridx = indexOf(c.getSeries());
-				constraints.gridy = c.getIndex();
-				constraints.anchor = GridBagConstraints.FIRST_LINE_START;
-				tableLayout.setConstraints(c, constraints);
-
-				c.doUpdate();
-			}
-		}
-		if (data.size() > 0) {
-			constraints = new GridBagConstraints();
-			constraints.gridx = data.size();
-			constraints.gridy = data.get(0).getLast().getIndex() + 1;
-			constraints.weightx = 1.0;
-			constraints.weighty = 1.0;
-
-			tableLayout.setConstraints(fillerT, constraints);
-			headerLayout.setConstraints(fillerH, constraints);
-		}
-
 		int len = 0;
 		try {
 			len = data.get(0).length();
 		} catch (IndexOutOfBoundsException e) {}
-		while (len > rowNumbers.getComponentCount() - 1)
-			addRowNumber();
-		while (rowNumbers.getComponentCount() - 1 > len)
-			removeRowNumber();
+
+		for (int i = 0; i < data.size(); i++) {
+			data.get(i).getHeader().setBounds(
+				i * CELL_WIDTH, 0, CELL_WIDTH, CELL_HEIGHT);
+		}
+		header.setPreferredSize(
+			new Dimension(CELL_WIDTH * data.size(), CELL_HEIGHT));
+
+		FontMetrics metrics = rowNumbers.getFontMetrics(rowNumbers.getFont());
+		rowNumberWidth = metrics.stringWidth(Integer.toString(len) + " ") + 5;
+		rowNumbers.setPreferredSize(
+			new Dimension(rowNumberWidth, CELL_HEIGHT * len));
 
 		if (selectedCell == null) {
 			statView.setText("Select a cell to view series statistics.");
 		} else {
-			Series currentSeries = selectedCell.getSeries();
+			SeriesStatistics stats = selectedCell.getSeries().getStatistics();
 			statView.setText(String.format(
 				STAT_VIEW_TEMPLATE,
-				currentSeries.getStatistic("Non-Empty Cells"),
-				currentSeries.getStatisticAsInt("Numeric Values"),
-				currentSeries.getStatistic("Minimum"),
-				currentSeries.getStatisticAsInt("Maximum"),
-				currentSeries.getStatistic("Mean"),
-				currentSeries.getStatistic("Sum"),
-				currentSeries.getStatistic("Range"),
-				currentSeries.getStatistic("Variance"),
-				currentSeries.getStatistic("Standard Deviation")
+				stats.getNonEmpty(),
+				stats.getCount(),
+				formatStatistic(stats.getMinimum()),
+				formatStatistic(stats.getMaximum()),
+				formatStatistic(stats.getMean()),
+				formatStatistic(stats.getSum()),
+				formatStatistic(stats.getRange()),
+				formatStatistic(stats.getVariance()),
+				formatStatistic(stats.getStandardDeviation()),
+				formatStatistic(stats.getMedian()),
+				formatStatistic(stats.getMode()),
+				formatStatistic(stats.getLowerQuartile()),
+				formatStatistic(stats.getUpperQuartile()),
+				formatStatistic(stats.getInterquartileRange()),
+				formatStatistic(stats.getPercentile(0.05)),
+				formatStatistic(stats.getPercentile(0.95))
 			));
 		}
 
-		table.setBounds(0, 0, 110 * data.size(), 30 * len);
-		overlay.setBounds(0, 0, 110 * data.size(), 30 * len);
+		table.setBounds(0, 0, CELL_WIDTH * data.size(), CELL_HEIGHT * len);
+		overlay.setBounds(0, 0, CELL_WIDTH * data.size(), CELL_HEIGHT * len);
 		tableLayeredPane.setPreferredSize(
-			new Dimension(110 * data.size(), 30 * len));
+			new Dimension(CELL_WIDTH * data.size(), CELL_HEIGHT * len));
+		tableLayeredPane.revalidate();
+		header.revalidate();
+		rowNumbers.revalidate();
 
 		// Update button position
 		if (selectedCell == null) {
@@ -349,29 +368,29 @@ public class DataTable extends JFrame {
 			insertDown.setVisible(false);
 		} else {
 			insertLeft.setBounds(
-				indexOf(selectedCell.getSeries()) * 110,
-				(selectedCell.getIndex() * 30) + 10,
+				indexOf(selectedCell.getSeries()) * CELL_WIDTH,
+				(selectedCell.getIndex() * CELL_HEIGHT) + 10,
 				10,
 				10
 			);
 
 			insertRight.setBounds(
-				indexOf(selectedCell.getSeries()) * 110 + 100,
-				(selectedCell.getIndex() * 30) + 10,
+				indexOf(selectedCell.getSeries()) * CELL_WIDTH + 100,
+				(selectedCell.getIndex() * CELL_HEIGHT) + 10,
 				10,
 				10
 			);
 
 			insertUp.setBounds(
-				indexOf(selectedCell.getSeries()) * 110 + 50,
-				(selectedCell.getIndex() * 30),
+				indexOf(selectedCell.getSeries()) * CELL_WIDTH + 50,
+				(selectedCell.getIndex() * CELL_HEIGHT),
 				10,
 				10
 			);
 
 			insertDown.setBounds(
-				indexOf(selectedCell.getSeries()) * 110 + 50,
-				(selectedCell.getIndex() * 30) + 20,
+				indexOf(selectedCell.getSeries()) * CELL_WIDTH + 50,
+				(selectedCell.getIndex() * CELL_HEIGHT) + 20,
 				10,
 				10
 			);
@@ -382,6 +401,8 @@ public class DataTable extends JFrame {
 			insertDown.setVisible(true);
 		}
 
+		layoutVisibleRows(true);
+
 		invalidate();
 		validate();
 		repaint();
@@ -389,6 +410,124 @@ public class DataTable extends JFrame {
 
 
 
+	/**
+	 * Lays out the cells and row numbers for every row and column in view.
+	 * Cells which have scrolled out of view are put aside to be reused for
+	 * the rows and columns which have scrolled into view, so the number of
+	 * components never grows past what fits in the window.
+	 * @param refresh Whether or not cells which stayed in view should be
+	 * refreshed from their series, in case the data has changed
+	 */
+	private void layoutVisibleRows(boolean refresh) {
+		Rectangle view = tableView.getViewport().getViewRect();
+		int len = data.isEmpty() ? 0 : data.get(0).length();
+
+		int firstRow = Math.max(0, view.y / CELL_HEIGHT);
+		int lastRow = Math.min(len, (view.y + view.height) / CELL_HEIGHT + 1);
+		int firstColumn = Math.max(0, view.x / CELL_WIDTH);
+		int lastColumn = Math.min(data.size(), (view.x + view.width) / CELL_WIDTH + 1);
+		int rows = Math.max(0, lastRow - firstRow);
+		int columns = Math.max(0, lastColumn - firstColumn);
+
+		Map<Series, Integer> columnIndices = new HashMap<>();
+		for (int i = firstColumn; i < lastColumn; i++) {
+			columnIndices.put(data.get(i), i);
+		}
+
+		// Keep cells that are still in view, and put the rest aside. The
+		// selected cell goes first, so that it keeps its place.
+		Cell[] grid = new Cell[rows * columns];
+		List<Cell> kept = new ArrayList<>();
+		if (selectedCell != null && visibleCells.remove(selectedCell))
+			visibleCells.add(0, selectedCell);
+		for (Cell c : visibleCells) {
+			Series r = c.getSeries();
+			boolean exists = data.contains(r) && c.getIndex() < r.length();
+			if (c == selectedCell && !exists)
+				selectedCell = null;
+
+			Integer column = columnIndices.get(r);
+			int slot = -1;
+			if (column != null && c.getIndex() >= firstRow && c.getIndex() < lastRow)
+				slot = (c.getIndex() - firstRow) * columns + column - firstColumn;
+
+			if (slot >= 0 && grid[slot] == null) {
+				grid[slot] = c;
+				kept.add(c);
+			} else if (c == selectedCell) {
+				// The selected cell keeps its row, even out of view
+				kept.add(c);
+			} else {
+				c.setVisible(false);
+				cellPool.add(c);
+				continue;
+			}
+
+			if (refresh && c != selectedCell)
+				c.refresh();
+		}
+		if (refresh && selectedCell != null && !selectedCell.isEditing())
+			selectedCell.refresh();
+
+		// Fill in the rows and columns that have scrolled into view
+		for (int i = 0; i < grid.length; i++) {
+			if (grid[i] != null)
+				continue;
+
+			Series r = data.get(firstColumn + i % columns);
+			int row = firstRow + i / columns;
+			Cell c;
+			if (cellPool.isEmpty()) {
+				c = new Cell(r, row);
+				table.add(c);
+			} else {
+				c = cellPool.remove(cellPool.size() - 1);
+				c.setSeries(r);
+				c.setIndex(row);
+				c.refresh();
+				c.setVisible(true);
+			}
+			grid[i] = c;
+			kept.add(c);
+		}
+		visibleCells = kept;
+
+		for (Cell c : visibleCells) {
+			Integer column = columnIndices.get(c.getSeries());
+			c.setBounds(
+				(column == null ? indexOf(c.getSeries()) : column) * CELL_WIDTH,
+				c.getIndex() * CELL_HEIGHT,
+				CELL_WIDTH,
+				CELL_HEIGHT
+			);
+			if (c != selectedCell)
+				c.paintContents(isSearchMatch(c.getSeries(), c.getIndex()));
+		}
+
+		// Row numbers
+		firstVisibleRow = firstRow;
+		while (rowNumberLabels.size() < rows)
+			addRowNumber();
+		for (int i = 0; i < rowNumberLabels.size(); i++) {
+			JLabel rowNumber = rowNumberLabels.get(i);
+			if (i >= rows) {
+				rowNumber.setVisible(false);
+				continue;
+			}
+
+			int row = firstRow + i;
+			rowNumber.setText(Integer.toString(row + 1) + " ");
+			rowNumber.setBounds(0, row * CELL_HEIGHT, rowNumberWidth, CELL_HEIGHT);
+			rowNumber.setBackground(
+				selectedCell != null && selectedCell.getIndex() == row
+					? Main.GREY : Main.SILVER
+			);
+			rowNumber.setVisible(true);
+		}
+	}
+
+
+
 	// MARK: Methods
 	/**
 	 * Clears both the logical and graphical parts of the data table.
@@ -398,6 +537,8 @@ public class DataTable extends JFrame {
 	public void clear() {
 		selectedCell = null;
 		data = new ArrayList<>();
+		visibleCells = new ArrayList<>();
+		cellPool = new ArrayList<>();
 
 		// Remove components
 		for (Component comp : table.getComponents()) {
@@ -422,43 +563,113 @@ public class DataTable extends JFrame {
 	 * the update method.
 	 */
 	public void sortBySelectedColumn() {
-		Series sortSeries = getSelectedCell().getSeries();
-		int passLength = sortSeries.length() - 1;
-
-
-		while (passLength > 0) {
-			int comparisonCounter = 0;
-			resetActiveCells();
-			Cell currentCell = sortSeries.getFirst();
-
-			while (comparisonCounter < passLength) {
-				Cell nextCell = currentCell.getNext();
-				if (nextCell == null) {
-					passLength = comparisonCounter;
-					break;
-				} else {
-					double currentNumeric = 0;
-					double nextNumeric = 0;
-					try {
-						currentNumeric = currentCell.getNumeric();
-					} catch (NumberFormatException e) {}
-					try {
-						nextNumeric = nextCell.getNumeric();
-					} catch (NumberFormatException e) {}
-
-					if (currentNumeric > nextNumeric) {
-						for (Cell c : getActiveCells()) {
-							c.swapWithNext();
-						}
-					} else {
-						rollActiveCellsForward();
-						currentCell = nextCell;
-					}
-					comparisonCounter++;
-				}
+		sortBySelectedColumn(false);
+	}
+
+
+
+	/**
+	 * Sorts the table by the selected column, then runs the update method.
+	 * @param descending Whether to sort from largest to smallest, rather than
+	 * smallest to largest
+	 */
+	public void sortBySelectedColumn(boolean descending) {
+		if (selectedCell == null)
+			return;
+
+		RowSorter sorter = new RowSorter();
+		sorter.addKey(selectedCell.getSeries(), descending);
+		sort(sorter);
+	}
+
+
+
+	/**
+	 * Creates a popup menu which lets the user pick up to three columns to
+	 * sort by, each in either direction, then sorts the table by them.
+	 */
+	public void sortByMultipleColumns() {
+		String[] names = new String[data.size() + 1];
+		names[0] = "(None)";
+		for (int i = 0; i < data.size(); i++) {
+			names[i + 1] = data.get(i).getName();
+		}
+
+		JPanel panel = new JPanel(new GridLayout(0, 3, 5, 5));
+		List<JComboBox<String>> columns = new ArrayList<>();
+		List<JCheckBox> directions = new ArrayList<>();
+		for (int k = 0; k < SORT_KEYS; k++) {
+			JComboBox<String> column = new JComboBox<>(names);
+			if (k == 0 && selectedCell != null)
+				column.setSelectedIndex(data.indexOf(selectedCell.getSeries()) + 1);
+			JCheckBox direction = new JCheckBox("Descending");
+
+			panel.add(new JLabel(k == 0 ? "Sort by" : "Then by"));
+			panel.add(column);
+			panel.add(direction);
+			columns.add(column);
+			directions.add(direction);
+		}
+
+		int result = JOptionPane.showConfirmDialog(
+			this, panel, "Sort", JOptionPane.OK_CANCEL_OPTION,
+			JOptionPane.PLAIN_MESSAGE
+		);
+		if (result != JOptionPane.OK_OPTION)
+			return;
+
+		RowSorter sorter = new RowSorter();
+		boolean empty = true;
+		for (int k = 0; k < SORT_KEYS; k++) {
+			int index = columns.get(k).getSelectedIndex();
+			if (index > 0) {
+				sorter.addKey(data.get(index - 1), directions.get(k).isSelected());
+				empty = false;
 			}
-			passLength--;
 		}
+
+		if (!empty)
+			sort(sorter);
+	}
+
+
+
+	/**
+	 * Sorts every row of the table at once, saves the new order, then runs
+	 * the update method. The selected cell and any search results stay with
+	 * their values.
+	 * @param sorter A sorter holding the columns to sort by
+	 */
+	public void sort(RowSorter sorter) {
+		if (data.isEmpty())
+			return;
+
+		int length = data.get(0).length();
+		int[] order = sorter.sort(length);
+		if (RowSorter.isIdentity(order))
+			return;
+
+		for (Series r : data) {
+			r.permute(order);
+		}
+
+		int[] inverse = new int[length];
+		for (int i = 0; i < length; i++) {
+			inverse[order[i]] = i;
+		}
+		if (selectedCell != null && selectedCell.getIndex() < length)
+			selectedCell.setIndex(inverse[selectedCell.getIndex()]);
+
+		List<Match> matches = new ArrayList<>(searchMatches.size());
+		for (Match match : searchMatches) {
+			matches.add(new Match(match.series, inverse[match.row]));
+		}
+		searchMatches = matches;
+		searchMatchSet = new HashSet<>(matches);
+
+		System.out.println("SORT: " + length + " rows");
+		FileDataManager.saveRowOrder(order);
+		UpdateScheduler.markDirty(UpdateScheduler.VALUES);
 	}
 
 
@@ -475,13 +686,16 @@ public class DataTable extends JFrame {
 			return;
 
 		searchMatches = new ArrayList<>();
+		searchMatchSet = new HashSet<>();
 		searchIndex = 0;
 		for (Series series : getData()) {
-			for (Cell match : series.search(key)) {
-				match.paintSearched();
+			for (int row : series.search(key)) {
+				Match match = new Match(series, row);
 				searchMatches.add(match);
+				searchMatchSet.add(match);
 			}
 		}
+		layoutVisibleRows(false);
 
 		// Update buttons
 		searchInit.setEnabled(false);
@@ -498,9 +712,21 @@ public class DataTable extends JFrame {
 			return;
 
 		searchIndex = (searchIndex + 1) % searchMatches.size();
-		Cell match = searchMatches.get(searchIndex);
-		tableLayeredPane.scrollRectToVisible(match.getBounds());
-		setSelectedCell(match);
+		Match match = searchMatches.get(searchIndex);
+		tableLayeredPane.scrollRectToVisible(new Rectangle(
+			indexOf(match.series) * CELL_WIDTH,
+			match.row * CELL_HEIGHT,
+			CELL_WIDTH,
+			CELL_HEIGHT
+		));
+		layoutVisibleRows(false);
+
+		for (Cell c : visibleCells) {
+			if (c.getSeries() == match.series && c.getIndex() == match.row) {
+				setSelectedCell(c);
+				break;
+			}
+		}
 	}
 
 
@@ -508,11 +734,9 @@ public class DataTable extends JFrame {
 	 * Deselects all searched values.
 	 */
 	public void endSearch() {
-		for (Cell match : searchMatches) {
-			match.paintDeselected();
-		}
-
 		searchMatches = new ArrayList<>();
+		searchMatchSet = new HashSet<>();
+		layoutVisibleRows(false);
 
 		// Readjusts the selected cell, in case it was one of the search results
 		if (selectedCell != null)
@@ -554,7 +778,26 @@ public class DataTable extends JFrame {
 	public void addSeries(Series series) {
 		header.add(series.getHeader());
 		data.add(series);
-		resetActiveCells();
+		for (SeriesSelector selector : Main.getSelectors()) {
+			selector.refresh(false);
+		}
+	}
+
+
+
+	/**
+	 * Replaces every series in the data table at once, such as when loading
+	 * a project or importing a CSV file. Like {@link #addSeries(Series)},
+	 * nothing is saved.
+	 * @param series The {@link Series} objects to fill the table with
+	 */
+	public void replaceData(List<Series> series) {
+		clear();
+		endSearch();
+		for (Series r : series) {
+			header.add(r.getHeader());
+			data.add(r);
+		}
 		for (SeriesSelector selector : Main.getSelectors()) {
 			selector.refresh(false);
 		}
@@ -570,15 +813,11 @@ public class DataTable extends JFrame {
 	public void insertSeries(int i, Series series) {
 		header.add(series.getHeader());
 		data.add(i, series);
-		resetActiveCells();
 		for (SeriesSelector selector : Main.getSelectors()) {
 			selector.refresh(false);
 		}
 		FileDataManager.encodeForInsertion(series);
-		for (Cell cell : series) {
-			FileDataManager.encodeForInsertion(cell);
-		}
-		Main.updateAllComponents();
+		UpdateScheduler.markDirty(UpdateScheduler.STRUCTURE);
 	}
 
 
@@ -591,120 +830,24 @@ public class DataTable extends JFrame {
 		FileDataManager.markForDeletion(series);
 		header.remove(series.getHeader());
 		data.remove(series);
-		for (Cell cell : series) {
-			remove(cell);
-		}
-		resetActiveCells();
 		for (SeriesSelector selector : Main.getSelectors()) {
 			selector.refresh(false);
 		}
-		Main.updateAllComponents();
+		UpdateScheduler.markDirty(UpdateScheduler.STRUCTURE);
 	}
 
 
 
 	/**
 	 * Creates a new {@link javax.swing.JLabel} with the proper formatting for
-	 * a row number object, then adds it to the list of row numbers.
+	 * a row number object, then adds it to the list of row numbers. Which
+	 * row it shows is set when the row numbers are laid out.
 	 */
 	private void addRowNumber() {
-		// Remove filler
-		rowNumbers.remove(rowNumbers.getComponentCount() - 1);
-
-		GridBagConstraints rnConstraints = new GridBagConstraints();
-		rnConstraints.fill = GridBagConstraints.HORIZONTAL;
-		rnConstraints.weightx = 1;
-		rnConstraints.gridx = 1;
-		rnConstraints.weighty = 0;
-		rnConstraints.gridy = rowNumbers.getComponentCount();
-
 		JLabel rowNumber = new JLabel();
-		rowNumber.setText(Integer.toString(rowNumbers.getComponentCount() + 1) + " ");
 		rowNumber.setHorizontalAlignment(SwingConstants.RIGHT);
-		FontMetrics metrics = rowNumber.getFontMetrics(rowNumber.getFont());
-		rowNumber.setPreferredSize(new Dimension(
-			(int) metrics.getStringBounds(rowNumber.getText(), getGraphics())
-				.getWidth() + 5,
-			30
-		));
-		rowNumber.setMinimumSize(rowNumber.getPreferredSize());
-	
-		rowNumbers.add(rowNumber, rnConstraints);
-
-		// Re-add filler
-		rnConstraints.weighty = 1;
-		rnConstraints.gridy ++;
-		rowNumbers.add(rnFiller, rnConstraints);
-	}
-
-
-
-	/**
-	 * Removes the last row number, updating the filler in doing so.
-	 */
-	private void removeRowNumber() {
-		try {
-			// Remove filler
-			rowNumbers.remove(rowNumbers.getComponentCount() - 1);
-
-			// Remove actual number
-			rowNumbers.remove(rowNumbers.getComponentCount() - 1);
-
-			// Re-add filler
-			GridBagConstraints rnConstraints = new GridBagConstraints();
-			rnConstraints.weighty = 1;
-			rnConstraints.gridy = rowNumbers.getComponentCount();
-			rowNumbers.add(rnFiller, rnConstraints);
-		} catch (IndexOutOfBoundsException e) {
-			System.err.println("Could not remove row number: no row number to remove");
-		}
-	}
-
-
-	// Active cell movement
-	/**
-	 * Resets the currently active row of cells,
-	 * moving them to the first row of the data table.
-	 */
-	public void resetActiveCells() {
-		activeCells = new ArrayList<>();
-		for (Series r : data) {
-			activeCells.add(r.getFirst());
-		}
-	}
-
-
-
-	/**
-	 * Rolls the currently active row of cells forward (down) one row.
-	 */
-	public void rollActiveCellsForward() {
-		for (int i = 0; i < activeCells.size(); i++) {
-			activeCells.set(i, activeCells.get(i).getNext());
-		}
-	}
-
-
-
-	/**
-	 * Rolls the currently active row of cells backward (up) one row.
-	 */
-	public void rollActiveCellsBackward() {
-		for (int i = 0; i < activeCells.size(); i++) {
-			activeCells.set(i, activeCells.get(i).getPrevious());
-		}
-	}
-
-
-
-	/**
-	 * Moves the row of active cells until it aligns with the selected cell.
-	 */
-	public void matchActiveToSelected() {
-		while (activeCells.get(0).getIndex() > selectedCell.getIndex())
-			rollActiveCellsBackward();
-		while (activeCells.get(0).getIndex() < selectedCell.getIndex())
-			rollActiveCellsForward();
+		rowNumbers.add(rowNumber);
+		rowNumberLabels.add(rowNumber);
 	}
 
 
@@ -719,7 +862,7 @@ public class DataTable extends JFrame {
 			new Series(getData().get(0).length())
 		);
 		FileDataManager.insertNewBytes();
-		Main.updateAllComponents();
+		UpdateScheduler.markDirty(UpdateScheduler.STRUCTURE);
 	}
 
 
@@ -733,7 +876,7 @@ public class DataTable extends JFrame {
 			new Series(getData().get(0).length())
 		);
 		FileDataManager.insertNewBytes();
-		Main.updateAllComponents();
+		UpdateScheduler.markDirty(UpdateScheduler.STRUCTURE);
 	}
 
 
@@ -742,14 +885,7 @@ public class DataTable extends JFrame {
 	 * Inserts a new row of {@link Cell}s above the selected {@link Cell}.
 	 */
 	public void insertRowAbove() {
-		matchActiveToSelected();
-		for (Cell c : getActiveCells()) {
-			Cell insertedCell = new Cell();
-			c.insertCellBefore(insertedCell);
-			FileDataManager.encodeForInsertion(insertedCell);
-		}
-		FileDataManager.insertNewBytes();
-		Main.updateAllComponents();
+		insertRow(selectedCell.getIndex());
 	}
 
 
@@ -758,14 +894,25 @@ public class DataTable extends JFrame {
 	 * Inserts a new row of {@link Cell}s below the selected {@link Cell}.
 	 */
 	public void insertRowBelow() {
-		matchActiveToSelected();
-		for (Cell c : getActiveCells()) {
-			Cell insertedCell = new Cell();
-			c.insertCellAfter(insertedCell);
-			FileDataManager.encodeForInsertion(insertedCell);
+		insertRow(selectedCell.getIndex() + 1);
+	}
+
+
+
+	/**
+	 * Inserts a new, empty row into every series.
+	 * @param row The index the new row will have
+	 */
+	private void insertRow(int row) {
+		for (Series r : data) {
+			r.insert(row, "");
 		}
+		// The selected cell stays with its value
+		if (selectedCell != null && selectedCell.getIndex() >= row)
+			selectedCell.setIndex(selectedCell.getIndex() + 1);
+		FileDataManager.encodeRowForInsertion(row);
 		FileDataManager.insertNewBytes();
-		Main.updateAllComponents();
+		UpdateScheduler.markDirty(UpdateScheduler.STRUCTURE);
 	}
 
 
@@ -777,34 +924,47 @@ public class DataTable extends JFrame {
 		removeSeries(selectedCell.getSeries());
 		selectedCell = null;
 		FileDataManager.deleteOldBytes();
-		Main.updateAllComponents();
+		UpdateScheduler.markDirty(UpdateScheduler.STRUCTURE);
 	}
 
 
 
 	/**
-	 * Inserts the selected row of {@link Cell}s.
+	 * Deletes the selected row of {@link Cell}s.
 	 */
 	public void deleteRow() {
-		matchActiveToSelected();
+		int row = selectedCell.getIndex();
 		selectedCell = null;
-		for (Cell c : getActiveCells()) {
-			c.remove();
-			remove(c);
+		FileDataManager.markRowForDeletion(row);
+		for (Series r : data) {
+			r.remove(row);
 		}
 		FileDataManager.deleteOldBytes();
-		Main.updateAllComponents();
+		UpdateScheduler.markDirty(UpdateScheduler.STRUCTURE);
 	}
 
 
 
 	// MARK: Convenience
 	/**
-	 * Adds a cell graphically to the table
-	 * @param cell The cell to add
+	 * Formats a statistic for the stat view.
+	 * @param value The value of the statistic
+	 * @return The value as a string, or "N/A" if it couldn't be calculated
 	 */
-	public void addCell(Cell cell) {
-		table.add(cell);
+	private static String formatStatistic(double value) {
+		return Double.isNaN(value) ? "N/A" : Double.toString(value);
+	}
+
+
+
+	/**
+	 * Checks whether a position in the table matches the current search.
+	 * @param r The series to check
+	 * @param row The index of the row to check
+	 * @return Whether or not the value at that position is a search match
+	 */
+	public boolean isSearchMatch(Series r, int row) {
+		return searchMatchSet.contains(new Match(r, row));
 	}
 
 
@@ -834,11 +994,14 @@ public class DataTable extends JFrame {
 
 	/**
 	 * Changes the background colour of a specified row number label.
-	 * @param i The index of the label to change (starting at 0)
+	 * @param i The index of the row to change (starting at 0)
 	 * @param colour The {@link java.awt.Color} to change it to
 	 */
 	public void setRowNumberBackground(int i, Color colour) {
-		rowNumbers.getComponent(i).setBackground(colour);
+		// Only row numbers in view have a label
+		int label = i - firstVisibleRow;
+		if (label >= 0 && label < rowNumberLabels.size())
+			rowNumberLabels.get(label).setBackground(colour);
 	}
 
 
@@ -862,23 +1025,6 @@ public class DataTable extends JFrame {
 
 
 
-	/**
-	 * Getter: Gets the currently active row of cells.
-	 * @return {@link #activeCells}
-	 */
-	public List<Cell> getActiveCells() {
-		return activeCells;
-	}
-
-	/**
-	 * Setter: Overwrites the currently active cell list.
-	 * @param activeCells The new value for {@link #activeCells}
-	 */
-	public void setActiveCells(List<Cell> activeCells) {
-		this.activeCells = activeCells;
-	}
-
-
 	/**
 	 * Getter: Gets the currently selected cell.
 	 * @return {@link #selectedCell}
@@ -888,23 +1034,14 @@ public class DataTable extends JFrame {
 	}
 
 	/**
-	 * Setter: Changes which cell is marked as selected,
-	 * then calls {@link Main#updateAllComponents()}.
+	 * Setter: Changes which cell is marked as selected, then schedules an
+	 * update of the selection. This does not redraw the graph or save
+	 * anything.
 	 * @param selectedCell The new {@link #selectedCell} for this table
 	 */
 	public void setSelectedCell(Cell selectedCell) {
 		this.selectedCell = selectedCell;
-		Main.updateAllComponents();
-	}
-
-
-
-	/**
-	 * Getter: Gets the list of current search matches.
-	 * @return {@link #searchMatches}
-	 */
-	public List<Cell> getSearchMatches() {
-		return searchMatches;
+		UpdateScheduler.markDirty(UpdateScheduler.SELECTION);
 	}
 
 
@@ -929,4 +1066,44 @@ public class DataTable extends JFrame {
 	public JLabel getTitleBar() {
 		return title;
 	}
+
+
+
+	// MARK: Match
+	/** A position in the table which matches a search. */
+	private static class Match {
+		/**
+		 * Sole constructor.
+		 * @param series The series the match is in
+		 * @param row The index of the row the match is in
+		 */
+		public Match(Series series, int row) {
+			this.series = series;
+			this.row = row;
+		}
+
+
+
+		/** The series the match is in. */
+		final Series series;
+		/** The index of the row the match is in. */
+		final int row;
+
+
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Match))
+				return false;
+			Match m = (Match) o;
+			return series == m.series && row == m.row;
+		}
+
+
+
+		@Override
+		public int hashCode() {
+			return 31 * System.identityHashCode(series) + row;
+		}
+	}
 }
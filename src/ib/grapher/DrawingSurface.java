@@ -0,0 +1,96 @@
+package ib.grapher;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.image.BufferedImage;
+
+/**
+ * Something a graph can be drawn onto. {@link GraphPanel} lays out and draws
+ * graphs only through this interface, so that the same drawing code can fill
+ * the window, a PNG image, or a vector file.
+ * <p>
+ * Coordinates are in units, which are pixels at {@link GraphRenderer#BASE_DPI}.
+ * Surfaces never throw while drawing; ones backed by a file report failures
+ * when they are closed instead.
+ */
+public interface DrawingSurface {
+	/**
+	 * Gets the metrics of a font, as text drawn on this surface will be
+	 * measured.
+	 * @param font The font to measure
+	 * @return The metrics of the font
+	 */
+	public FontMetrics getFontMetrics(Font font);
+
+	/**
+	 * Setter: Sets the font that text is drawn in.
+	 * @param font The new font
+	 */
+	public void setFont(Font font);
+
+	/**
+	 * Getter: Gets the colour that everything is drawn in.
+	 * @return The current colour
+	 */
+	public Color getColour();
+
+	/**
+	 * Setter: Sets the colour that everything is drawn in.
+	 * @param colour The new colour
+	 */
+	public void setColour(Color colour);
+
+	/**
+	 * Moves the origin of the surface, so that everything drawn afterwards is
+	 * offset by the given amount.
+	 * @param x The horizontal offset, in units
+	 * @param y The vertical offset, in units
+	 */
+	public void translate(int x, int y);
+
+	/**
+	 * Draws a one unit wide line between two points.
+	 * @param x1 The x-coordinate of the first point
+	 * @param y1 The y-coordinate of the first point
+	 * @param x2 The x-coordinate of the second point
+	 * @param y2 The y-coordinate of the second point
+	 */
+	public void drawLine(int x1, int y1, int x2, int y2);
+
+	/**
+	 * Draws a line of text.
+	 * @param text The text to draw
+	 * @param x The x-coordinate of the left of the text
+	 * @param y The y-coordinate of the baseline of the text
+	 */
+	public void drawString(String text, int x, int y);
+
+	/**
+	 * Draws a line of text reading upwards, rotated a quarter turn
+	 * anticlockwise about its starting point.
+	 * @param text The text to draw
+	 * @param x The x-coordinate of the baseline of the text
+	 * @param y The y-coordinate of the bottom of the text
+	 */
+	public void drawVerticalString(String text, int x, int y);
+
+	/**
+	 * Draws the marker used for a single point of a data set: two circles,
+	 * six and four units across, centred on the point.
+	 * @param x The x-coordinate of the point
+	 * @param y The y-coordinate of the point
+	 */
+	public void drawMarker(int x, int y);
+
+	/**
+	 * Draws an image, stretched to fill a rectangle without smoothing, so
+	 * that each of its pixels stays a sharp block.
+	 * @param image The image to draw
+	 * @param x The x-coordinate of the left of the rectangle
+	 * @param y The y-coordinate of the top of the rectangle
+	 * @param width The width of the rectangle
+	 * @param height The height of the rectangle
+	 */
+	public void drawImage(BufferedImage image, int x, int y, int width, int height);
+}
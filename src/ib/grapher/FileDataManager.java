@@ -1,25 +1,55 @@
 package ib.grapher;
 
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Scanner;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedOutputStream;
 
 import javax.swing.JFileChooser;
+import javax.swing.JOptionPane;
+import javax.swing.SwingUtilities;
 import javax.swing.filechooser.FileFilter;
 
 /**
  * A utility class which interfaces between an open file and a project.
  * This class holds entirely static methods, as the program is only
  * intended to handle one project at a time.
+ * <p>
+ * Projects are saved in one of two ways. When journaling is on (the default),
+ * edits are appended to a {@link ProjectJournal} next to the project file,
+ * which is compacted into a fresh copy of the project file in the background.
+ * When journaling is off, edits are written straight into the project file,
+ * shifting its contents whenever rows, series, or data sets are inserted or
+ * deleted.
+ * <p>
+ * Journaled projects are written in the compact {@link ProjectFormat}, and
+ * legacy project files are migrated to it in the background when they are
+ * opened. Editing in place needs every record at a fixed position, so
+ * projects that aren't journaled are kept in the legacy format instead.
+ * <p>
+ * A project file that turns out to be damaged when it is opened is
+ * recovered, keeping everything that is still intact. The damaged file is
+ * kept alongside the project, and is replaced by a fresh copy of what was
+ * recovered.
  */
 public final class FileDataManager {
 	// MARK: Constructor
@@ -28,6 +58,11 @@ public final class FileDataManager {
 
 
 	// MARK: Constants
+	/**
+	 * The number of bytes to read at once when scanning a project file, and
+	 * to buffer when writing a snapshot of one.
+	 */
+	private static final int BLOCK_LENGTH = 1 << 20;
 	/** The number of bytes to allocate to metadata. */
 	public static final int METADATA_LENGTH = 937;
 	/** The number of bytes to allocate to each {@link PlottableData} object. */
@@ -36,6 +71,11 @@ public final class FileDataManager {
 	public static final int SERIES_LENGTH = 64;
 	/** The number of bytes to allocate to {@link Cell} object. */
 	public static final int CELL_LENGTH = 128;
+	/**
+	 * The size, in bytes, above which a journaled project file is opened
+	 * lazily, if {@link #lazyLoading} is on.
+	 */
+	public static final long LAZY_THRESHOLD = 1L << 26;
 
 	/**
 	 * Flag to mark an object as {@link PlottableData} for
@@ -59,11 +99,51 @@ public final class FileDataManager {
 	private static File currentFile;
 	/** The currently open project file, as a RandomAccessFile. */
 	private static RandomAccessFile currentProject;
+	/** The storage backend that reads and writes {@link #currentProject}. */
+	private static ProjectStorage storage;
+	/**
+	 * Guards {@link #currentProject}, {@link #storage}, and
+	 * {@link #lastCommit}. The compactor thread swaps the project file while
+	 * the autosave writer and the event dispatch thread are using it, so
+	 * every swap and every use holds this lock. The autosave writer holds it
+	 * for a whole commit, including its sync. Nothing may wait on the
+	 * autosave writer or the compactor while holding it. The pages of a
+	 * lazily opened project are read without it, since the project file is
+	 * never swapped until every page has been read.
+	 */
+	private static final Object fileLock = new Object();
+
+	/**
+	 * The backlog of bytes to insert to the save file, as a map of positions
+	 * to runs of bytes. Adjacent runs are merged as they are added.
+	 */
+	private static NavigableMap<Long, byte[]> bytesToInsert = new TreeMap<>();
+	/**
+	 * The backlog of bytes to delete from the save file, as a map of the
+	 * start of each range to its (exclusive) end. Overlapping and adjacent
+	 * ranges are merged as they are added.
+	 */
+	private static NavigableMap<Long, Long> bytesToDelete = new TreeMap<>();
+
+	/** Whether or not edits should be journaled when a project is opened. */
+	private static boolean journaling = true;
+	/** The journal for the current project, or null if it isn't journaled. */
+	private static ProjectJournal journal;
+	/** The thread compacting the journal, if there is one. */
+	private static Thread compactor;
 
-	/** A map of the backlog of bytes to insert to the save file. */
-	private static Map<Long, Byte> bytesToInsert = new HashMap<>();
-	/** A list of the backlog of bytes to delete from the save file. */
-	private static List<Long> bytesToDelete = new ArrayList<>();
+	/** Whether or not large journaled projects should be opened lazily. */
+	private static boolean lazyLoading = true;
+	/**
+	 * The pages the open project's series are still being read from, if it
+	 * was opened lazily and hasn't been compacted since, or null otherwise.
+	 */
+	private static ProjectPages pages;
+
+	/** The thread that writes changes to the current project file. */
+	private static AutosaveWriter writer;
+	/** When changes to the current project were last synced to the disk. */
+	private static Date lastCommit;
 
 
 
@@ -98,32 +178,67 @@ public final class FileDataManager {
 
 
 	/**
-	 * Encodes a cell in binary and adds it to the backlog of bytes to insert.
-	 * @param cell The cell to encode.
+	 * Encodes a single value of a series in binary and adds it to the backlog
+	 * of bytes to insert.
+	 * @param series The series the value belongs to.
+	 * @param row The index of the value to encode.
 	 */
-	public static void encodeForInsertion(Cell cell) {
+	public static void encodeForInsertion(Series series, int row) {
 		List<Series> data = Main.getDataTable().getData();
-		int index = (cell.getIndex()) * data.size() // Account for previous rows
-					+ data.indexOf(cell.getSeries()); // Account for this row
+		int index = row * data.size() // Account for previous rows
+					+ data.indexOf(series); // Account for this row
 		long offset = getOffset(CELL, index);
-		Byte[] bytes = Main.stringToByteArray(cell.getValue(), CELL_LENGTH);
-		for (int i = 0; i < bytes.length; i++) {
-			bytesToInsert.put(i + offset, bytes[i]);
+		queueInsertion(offset, Main.stringToByteArray(series.get(row), CELL_LENGTH));
+	}
+
+
+
+	/**
+	 * Encodes a row of values in binary and adds it to the backlog of bytes
+	 * to insert.
+	 * @param row The index of the newly inserted row.
+	 */
+	public static void encodeRowForInsertion(int row) {
+		List<Series> data = Main.getDataTable().getData();
+
+		if (journal != null) {
+			List<String> values = new ArrayList<>(data.size());
+			for (Series series : data) {
+				values.add(series.get(row));
+			}
+			journal.insertRow(row, values);
+			return;
+		}
+
+		for (Series series : data) {
+			encodeForInsertion(series, row);
 		}
 	}
 
 
 
 	/**
-	 * Encodes a series in binary and adds it to the backlog of bytes to insert.
+	 * Encodes a series and all of its cells in binary and adds them to the
+	 * backlog of bytes to insert.
 	 * @param series The series to encode.
 	 */
 	public static void encodeForInsertion(Series series) {
 		int index = Main.getDataTable().indexOf(series);
+
+		if (journal != null) {
+			List<String> values = new ArrayList<>(series.length());
+			for (int row = 0; row < series.length(); row++) {
+				values.add(series.get(row));
+			}
+			journal.insertSeries(index, series.getName(), values);
+			return;
+		}
+
 		long offset = getOffset(SERIES, index);
-		Byte[] bytes = Main.stringToByteArray(series.getName(), SERIES_LENGTH);
-		for (int i = 0; i < bytes.length; i++) {
-			bytesToInsert.put(i + offset, bytes[i]);
+		queueInsertion(offset, Main.stringToByteArray(series.getName(), SERIES_LENGTH));
+
+		for (int row = 0; row < series.length(); row++) {
+			encodeForInsertion(series, row);
 		}
 	}
 
@@ -136,46 +251,62 @@ public final class FileDataManager {
 	 */
 	public static void encodeForInsertion(PlottableData pd) {
 		int index = Main.getPlottableTable().getDataSets().indexOf(pd);
-		long offset = getOffset(PLOTTABLE, index);
 
-		Byte[] ba = new Byte[321];
-		System.arraycopy(
-			Main.stringToByteArray(pd.getName(), 64),
-			0, ba, 0, 64
-		);
-		Main.seriesCopy(pd.getDataX(), ba, 64);
-		Main.seriesCopy(pd.getDataY(), ba, 128);
-		Main.seriesCopy(pd.getErrorBarsX(), ba, 192);
-		Main.seriesCopy(pd.getErrorBarsY(), ba, 256);
+		if (journal != null) {
+			journal.insertPlottable(index, new ProjectData.Plottable(pd));
+			return;
+		}
+
+		long offset = getOffset(PLOTTABLE, index);
+		queueInsertion(offset, pd.encode());
+	}
 
-		byte options = 0;
-		if (pd.isActive())
-			options |= 1;
-		if (pd.isLinRegActive())
-			options |= 2;
-		if (pd.isXAgainstY())
-			options |= 4;
 
-		ba[320] = options;
 
-		for (int i = 0; i < ba.length; i++) {
-			bytesToInsert.put(i + offset, ba[i]);
-		}
+	/**
+	 * Marks all the bytes that correspond to a single value of a series for
+	 * deletion.
+	 * @param series The series the value belongs to.
+	 * @param row The index of the value to delete.
+	 */
+	public static void markForDeletion(Series series, int row) {
+		List<Series> data = Main.getDataTable().getData();
+		int index = row * data.size() // Account for previous rows
+					+ data.indexOf(series); // Account for this row
+		long offset = getOffset(CELL, index);
+		queueDeletion(offset, offset + CELL_LENGTH);
 	}
 
 
 
 	/**
-	 * Marks all the bytes that correspond to this cell for deletion.
-	 * @param cell The cell to delete.
+	 * Marks all the bytes that correspond to a row of values for deletion.
+	 * @param row The index of the row to delete.
 	 */
-	public static void markForDeletion(Cell cell) {
+	public static void markRowForDeletion(int row) {
+		// A series always keeps its only row, emptying it instead, so the
+		// file has to do the same
 		List<Series> data = Main.getDataTable().getData();
-		int index = cell.getIndex() * data.size() // Account for previous rows
-					+ data.indexOf(cell.getSeries()); // Account for this row
-		long offset = getOffset(CELL, index);
-		for (int i = 0; i < CELL_LENGTH; i++) {
-			bytesToDelete.add(offset + i);
+		if (!data.isEmpty() && data.get(0).length() == 1) {
+			if (journal != null) {
+				journal.clearRow(row, data.size());
+				return;
+			}
+
+			byte[] empty = Main.stringToByteArray("", CELL_LENGTH);
+			for (int i = 0; i < data.size(); i++) {
+				writeBytes(empty, getOffset(CELL, data.size() * row + i));
+			}
+			return;
+		}
+
+		if (journal != null) {
+			journal.deleteRow(row);
+			return;
+		}
+
+		for (Series series : Main.getDataTable().getData()) {
+			markForDeletion(series, row);
 		}
 	}
 
@@ -186,14 +317,18 @@ public final class FileDataManager {
 	 * @param series The series to delete.
 	 */
 	public static void markForDeletion(Series series) {
-		for (Cell cell : series) {
-			markForDeletion(cell);
-		}
 		int index = Main.getDataTable().indexOf(series);
-		long offset = getOffset(SERIES, index);
-		for (int i = 0; i < SERIES_LENGTH; i++) {
-			bytesToDelete.add(offset + i);
+
+		if (journal != null) {
+			journal.deleteSeries(index);
+			return;
+		}
+
+		for (int row = 0; row < series.length(); row++) {
+			markForDeletion(series, row);
 		}
+		long offset = getOffset(SERIES, index);
+		queueDeletion(offset, offset + SERIES_LENGTH);
 	}
 
 
@@ -205,34 +340,186 @@ public final class FileDataManager {
 	 */
 	public static void markForDeletion(PlottableData pd) {
 		int index = Main.getPlottableTable().getDataSets().indexOf(pd);
+
+		if (journal != null) {
+			journal.deletePlottable(index);
+			return;
+		}
+
 		long offset = getOffset(PLOTTABLE, index);
-		for (int i = 0; i < PLOTTABLE_LENGTH; i++) {
-			bytesToDelete.add(offset + i);
+		queueDeletion(offset, offset + PLOTTABLE_LENGTH);
+	}
+
+
+
+	/**
+	 * Saves a reordering of every row, such as after a sort, which should
+	 * already have been applied to every series. A journaled project records
+	 * the reordering as one entry; otherwise, each run of rows that moved is
+	 * rewritten in large blocks, which the autosave writer commits together.
+	 * @param order An array where element {@code i} is the index the row now
+	 * at index {@code i} used to have
+	 */
+	public static void saveRowOrder(int[] order) {
+		if (journal != null) {
+			journal.permuteRows(order);
+			return;
+		}
+
+		List<Series> data = Main.getDataTable().getData();
+		int rowLength = CELL_LENGTH * data.size();
+		if (rowLength == 0)
+			return;
+		int rowsPerBlock = Math.max(1, BLOCK_LENGTH / rowLength);
+
+		int row = 0;
+		while (row < order.length) {
+			if (order[row] == row) {
+				row++;
+				continue;
+			}
+
+			// Gather a run of moved rows, up to one block long
+			int start = row;
+			while (row < order.length && order[row] != row && row - start < rowsPerBlock) {
+				row++;
+			}
+
+			byte[] block = new byte[(row - start) * rowLength];
+			int pos = 0;
+			for (int r = start; r < row; r++) {
+				for (Series series : data) {
+					System.arraycopy(
+						Main.stringToByteArray(series.get(r), CELL_LENGTH),
+						0, block, pos, CELL_LENGTH
+					);
+					pos += CELL_LENGTH;
+				}
+			}
+			writeBytes(block, getOffset(CELL, start * data.size()));
+		}
+	}
+
+
+
+	/**
+	 * Adds a run of bytes to the backlog of bytes to insert, merging it with
+	 * any runs that it directly follows or precedes.
+	 * @param pos The position to insert the bytes at, relative to the final
+	 * file
+	 * @param bytes The bytes to insert
+	 */
+	private static void queueInsertion(long pos, byte[] bytes) {
+		Map.Entry<Long, byte[]> before = bytesToInsert.lowerEntry(pos);
+		if (before != null && before.getKey() + before.getValue().length == pos) {
+			bytes = concatenate(before.getValue(), bytes);
+			pos = before.getKey();
 		}
+
+		byte[] after = bytesToInsert.remove(pos + bytes.length);
+		if (after != null)
+			bytes = concatenate(bytes, after);
+
+		bytesToInsert.put(pos, bytes);
+	}
+
+
+
+	/**
+	 * Adds a range of bytes to the backlog of bytes to delete, merging it with
+	 * any ranges that it overlaps or touches.
+	 * @param start The first byte to delete, relative to the initial file
+	 * @param end The byte after the last byte to delete
+	 */
+	private static void queueDeletion(long start, long end) {
+		Map.Entry<Long, Long> before = bytesToDelete.floorEntry(start);
+		if (before != null && before.getValue() >= start) {
+			start = before.getKey();
+			end = Math.max(end, before.getValue());
+		}
+
+		Map.Entry<Long, Long> after = bytesToDelete.ceilingEntry(start);
+		while (after != null && after.getKey() <= end) {
+			end = Math.max(end, after.getValue());
+			bytesToDelete.remove(after.getKey());
+			after = bytesToDelete.higherEntry(after.getKey());
+		}
+
+		bytesToDelete.put(start, end);
 	}
 	
 	
 	
-	/** Inserts the backlog of bytes into the project file. */
+	/**
+	 * Inserts the backlog of bytes into the project file. The insertion
+	 * itself happens later, on the autosave writer thread.
+	 */
 	public static void insertNewBytes() {
 		System.out.println("INSERT NEW");
-		FileDataManager.insertBytes(bytesToInsert);
-		bytesToInsert = new HashMap<>();
+		if (!bytesToInsert.isEmpty() && writer != null) {
+			final NavigableMap<Long, byte[]> ranges = bytesToInsert;
+			writer.execute(new Runnable() {
+				public void run() {
+					insertBytes(ranges);
+				}
+			});
+		}
+		bytesToInsert = new TreeMap<>();
 		Main.saveMetadata();
 	}
 
 
 
-	/** Deletes the backlog of bytes from the project file. */
+	/**
+	 * Deletes the backlog of bytes from the project file. The deletion itself
+	 * happens later, on the autosave writer thread.
+	 */
 	public static void deleteOldBytes() {
 		System.out.println("DELETE OLD");
-		FileDataManager.deleteBytes(bytesToDelete);
-		bytesToDelete = new ArrayList<>();
+		if (!bytesToDelete.isEmpty() && writer != null) {
+			final NavigableMap<Long, Long> ranges = bytesToDelete;
+			writer.execute(new Runnable() {
+				public void run() {
+					deleteBytes(ranges);
+				}
+			});
+		}
+		bytesToDelete = new TreeMap<>();
 		Main.saveMetadata();
 	}
 
 
 
+	/**
+	 * Cuts off anything in the project file after the last cell, such as
+	 * rows left over from before the data table was replaced. Journaled
+	 * projects are never truncated, since compacting them writes a fresh
+	 * file anyway. The truncation itself happens later, on the autosave
+	 * writer thread.
+	 */
+	public static void truncateToData() {
+		if (journal != null || writer == null)
+			return;
+
+		List<Series> data = Main.getDataTable().getData();
+		int cells = data.isEmpty() ? 0 : data.size() * data.get(0).length();
+		final long length = getOffset(CELL, cells);
+		writer.execute(new Runnable() {
+			public void run() {
+				try {
+					synchronized (fileLock) {
+						storage.setLength(length);
+					}
+				} catch (IOException e) {
+					System.err.println("An I/O error occured truncating the project file.");
+					e.printStackTrace();
+				}
+			}
+		});
+	}
+
+
+
 	/**
 	 * Displays a file selection menu, and opens the file chosen by it.
 	 * @param ext The desired file extension.
@@ -259,7 +546,7 @@ public final class FileDataManager {
 				}
 			}
 		});
-		if (currentProject != null) {
+		if (getCurrentProject() != null) {
 			fileChooser.setCurrentDirectory(
 				currentFile.getAbsoluteFile().getParentFile());
 		}
@@ -286,10 +573,27 @@ public final class FileDataManager {
 	 * @param f The file to open.
 	 */
 	public static void openFile(File f) {
+		waitForCompaction();
+		if (writer != null) {
+			writer.close();
+			writer = null;
+		}
 		try {
 			// Opens in RWD mode because the file is supposed to autosave
-			currentFile = f;
-			currentProject = new RandomAccessFile(f, "rw");
+			synchronized (fileLock) {
+				lastCommit = null;
+				currentFile = f;
+				currentProject = new RandomAccessFile(f, "rw");
+				storage = openStorage(currentProject);
+			}
+			writer = new AutosaveWriter();
+
+			if (journal != null) {
+				journal.close();
+				journal = null;
+			}
+			if (journaling)
+				journal = openJournal(f);
 		} catch (FileNotFoundException e) {
 			System.err.printf("No such file as \"%s\".%n", f.getName());
 			e.printStackTrace();
@@ -301,54 +605,100 @@ public final class FileDataManager {
 
 
 	/**
-	 * Opens the specified CSV file, overwriting the current data table's
-	 * project file with its contents. The first row of CSV data is interpreted
-	 * as a header row.
-	 * @param f The {@link File} to open.
+	 * Saves a snapshot of the open project to a file, and opens that file as
+	 * the project file. The whole project is streamed into a uniquely named
+	 * temporary file next to the target, synced to the disk once, and then
+	 * moved over the target, and the move is synced too, so a crash at any
+	 * point leaves the target either as it was or holding the whole project.
+	 * Journaled projects are saved in the {@link ProjectFormat}, and the rest
+	 * in the legacy format.
+	 * @param target The file to save to, or null if the user cancelled
+	 * @return true if the project was saved
 	 */
-	public static void importCSV(File f) {
-		try {
-			// Opens in RWD mode because the file is supposed to autosave
-			Main.getDataTable().clear();
-			Scanner s = new Scanner(f);
+	public static boolean saveAs(File target) {
+		if (target == null) {
+			System.out.println("Cancelled saving project.");
+			return false;
+		}
+
+		waitForCompaction();
+		flush();
+
+		// The open project file is replaced underneath any lazily read
+		// series, so they have to be read first
+		boolean replacing = currentFile != null
+			&& target.getAbsoluteFile().equals(currentFile.getAbsoluteFile());
+		if (replacing && !loadPages())
+			return false;
+
+		ProjectData pd = ProjectData.fromProject();
+		if (pages != null && pages.hasFailed()) {
+			System.err.println("Part of the project could not be read, so it "
+				+ "was not saved.");
+			return false;
+		}
 
-			int lnum = 0;
+		File temp = null;
+		long length;
+		int crc;
+		File directory = target.getAbsoluteFile().getParentFile();
+		try {
+			temp = createTempFile(target);
+			crc = writeSnapshot(pd, temp, !journaling);
+			length = temp.length();
+			if (replacing) {
+				moveOverProjectFile(temp);
+			} else {
+				Files.move(temp.toPath(), target.toPath(),
+					StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+				syncDirectory(directory);
+			}
+		} catch (IOException e) {
+			System.err.printf("An I/O error occured saving to \"%s\".%n",
+				target.getName());
+			e.printStackTrace();
+			if (temp != null)
+				temp.delete();
+			return false;
+		}
+		System.out.println("SAVE: Snapshot");
+
+		if (!replacing)
+			openFile(target);
+
+		// Any journal already next to the target belonged to whatever was
+		// there before, so the journal starts again from the snapshot
+		if (journal != null) {
+			try {
+				journal.reset(length, crc);
+			} catch (IOException e) {
+				System.err.println("Could not start the journal.");
+				e.printStackTrace();
+				journal.delete();
+				journal = null;
+			}
+		}
 
-			while (s.hasNextLine()) {
-				String line = s.nextLine();
+		// Without a journal, edits are written straight into the file
+		if (journal == null)
+			convertToLegacy(pd, false);
 
-				List<String> sublines = splitCSVLine(line);
+		committed(new Date());
+		return true;
+	}
 
-				if (lnum == 0) {
-					// Add series, and set header names
-					for (String subline : sublines) {
-						Series r = new Series(1);
-						Main.getDataTable().addSeries(r);
-						r.setName(subline.trim());
-					}
-				} else if (lnum == 1) {
-					// Fill in single empty cell
-					for (int i = 0; i < sublines.size(); i++) {
-						Main.getDataTable().getSeries(i).getFirst()
-							.setValue(sublines.get(i).trim());
-					}
-				} else {
-					// Add a new cell
-					for (int i = 0; i < sublines.size(); i++) {
-						Main.getDataTable().getSeries(i).getLast()
-							.insertCellAfter(new Cell(sublines.get(i).trim()));
-					}
-				}
 
-				lnum++;
-			}
 
-			s.close();
-			Main.updateAllComponents();
-		} catch (FileNotFoundException e) {
-			System.err.printf("No such file as \"%s\".%n", f.getName());
-			e.printStackTrace();
-		}
+	/**
+	 * Imports a CSV file, replacing the data in the data table. The file is
+	 * read on a background thread, with a progress bar that lets the user
+	 * cancel the import; the data table is only changed once the whole file
+	 * has been read.
+	 * @param f The CSV file to import
+	 */
+	public static void importCSV(File f) {
+		new CSVImporter(f).execute();
 	}
 
 
@@ -362,287 +712,734 @@ public final class FileDataManager {
 	 * @return A {@link List holding the trimmed elements of the line}.
 	 */
 	public static List<String> splitCSVLine(String line) {
-		List<String> entries = new ArrayList<>();
-		boolean escape = false;
-		boolean quoted = false;
-		String currentEntry = "";
-		for (char c : line.toCharArray()) {
-			if (escape) {
-				escape = false;
-				if (c == '"') {
-					currentEntry += c;
-					continue;
-				} else {
-					quoted = !quoted;
-				}
-			}
-
-			if (c == ',' && !quoted) {
-				entries.add(currentEntry);
-				currentEntry = "";
-				continue;
-			}
-
-			if (c == '"') {
-				escape = true;
-				continue;
-			}
-
-			currentEntry += c;
-		}
-
-		entries.add(currentEntry);
-
-		return entries;
+		return CSVParser.splitLine(line);
 	}
 
 
 
 	/**
 	 * Loads all the data from an opened project, overwriting current data.
+	 * Any journaled edits that haven't been compacted into the project file
+	 * yet are replayed on top of it.
 	 */
 	public static void load() {
 		System.out.println("LOAD");
 
-		if (currentProject == null) {
+		if (getCurrentProject() == null) {
 			System.err.println("No data to load.");
 			return;
 		}
 
-		DataTable dt = Main.getDataTable();
-		PlottableTable pt = Main.getPlottableTable();
-		Graph g = Main.getGraph();
+		waitForCompaction();
+		flush();
 
-		dt.clear();
-		pt.clear();
+		ProjectData pd;
+		boolean versioned;
+		boolean paged;
+		List<String> losses = null;
+		try {
+			synchronized (fileLock) {
+				versioned = ProjectFormat.isVersioned(storage);
+				paged = lazyLoading && journal != null
+					&& storage.length() > LAZY_THRESHOLD;
+				try {
+					pd = ProjectData.read(storage, paged);
+				} catch (IOException e) {
+					System.err.println("The project file is damaged, so it is being recovered.");
+					e.printStackTrace();
+					losses = new ArrayList<>();
+					paged = false;
+					pd = recover(losses);
+				}
+			}
+		} catch (IOException e) {
+			System.err.println("An I/O error occured loading the project.");
+			e.printStackTrace();
+			return;
+		}
 
+		if (pd == null) {
+			if (losses != null)
+				System.err.println("Project file is too damaged to recover.");
+			else
+				System.err.println("Project file is too short to hold metadata.");
+			return;
+		}
 
-		g.setGraphTitle(byteListToString(readByteList(0, 400)));
-		g.setAxisTitleX(byteListToString(readByteList(400, 200)));
-		g.setAxisTitleY(byteListToString(readByteList(600, 200)));
+		// A journal left behind with journaling off is replayed once, then
+		// folded into the project file and deleted.
+		boolean leftover = false;
+		File journalFile = ProjectJournal.journalFor(currentFile);
+		if (journal == null && journalFile.exists()) {
+			journal = openJournal(currentFile);
+			leftover = true;
+		}
 
-		byte mode = readByteList(928, 1).get(0);
-		if (mode == 1)
-			g.setGraphType(Graph.SCATTERPLOT);
-		else if (mode == 2)
-			g.setGraphType(Graph.LINE);
-		else if (mode == 3)
-			g.setGraphType(Graph.BAR);
-		else
-			System.err.println("Invalid graph type when loading.");
+		int replayed = 0;
+		if (journal != null) {
+			synchronized (fileLock) {
+				try {
+					long len = storage.length();
+					int crc = checksum(storage);
+					replayed = journal.replay(pd, len, crc);
+					if (replayed < 0) {
+						if (journal.size() > 0) {
+							System.err.println("Journal does not match the project "
+								+ "file, so it was discarded.");
+							if (losses != null)
+								losses.add("Edits since the project file was last "
+									+ "compacted were lost.");
+						}
+						journal.reset(len, crc);
+					}
+				} catch (IOException e) {
+					System.err.println("An I/O error occured replaying the journal.");
+					e.printStackTrace();
+					try {
+						if (losses != null) {
+							losses.clear();
+							pd = ProjectData.recover(storage, losses);
+						} else {
+							pd = ProjectData.read(storage, paged);
+						}
+					} catch (IOException ex) {
+						ex.printStackTrace();
+						return;
+					}
+					replayed = 0;
+				}
+			}
+			System.out.printf("Replayed %d journal entries.%n", Math.max(replayed, 0));
+		}
 
-		int plottableSize = byteArrayToInt(readByteList(929, 4)
-			.toArray(new Byte[4]));
+		pages = pd.pages;
+		apply(pd);
+		if (losses != null)
+			reportLosses(losses);
 
-		int columns = byteArrayToInt(readByteList(933, 4)
-			.toArray(new Byte[4]));
+		if (leftover) {
+			// If the journal can't be folded in, it stays in use for now
+			if (replayed <= 0 || compact(false)) {
+				journal.delete();
+				journal = null;
+			}
+		} else if (losses != null || (replayed > 0 && pages == null)) {
+			// A lazily opened project keeps its journal until it grows too
+			// large, rather than reading every page straight away
+			compact(true);
+		} else if (journal != null && !versioned) {
+			System.out.println("Migrating project to format version "
+				+ ProjectFormat.VERSION + ".");
+			compact(true);
+		}
 
-		int offset = METADATA_LENGTH + PLOTTABLE_LENGTH * plottableSize;
+		if (journal == null)
+			convertToLegacy(pd, losses != null);
+	}
 
-		long len = 0;
-		try {
-			len = currentProject.length();
-		} catch (IOException e) {
-			e.printStackTrace();
+
+
+	/**
+	 * Recovers as much as possible of a damaged project file, after copying
+	 * the damaged file next to the project so that nothing is lost for good
+	 * when the project file is replaced.
+	 * @param losses A list to add a description of everything that was lost
+	 * to
+	 * @return The recovered project, or null if nothing could be recovered
+	 * @throws IOException If the project file could not be read
+	 */
+	private static ProjectData recover(List<String> losses) throws IOException {
+		File damaged = new File(currentFile.getPath() + ".damaged");
+		Files.copy(currentFile.toPath(), damaged.toPath(),
+			StandardCopyOption.REPLACE_EXISTING);
+		System.out.printf("Copied the damaged project file to \"%s\".%n",
+			damaged.getName());
+		return ProjectData.recover(storage, losses);
+	}
+
+
+
+	/**
+	 * Tells the user what was lost while recovering a damaged project file.
+	 * @param losses A description of everything that was lost
+	 */
+	private static void reportLosses(List<String> losses) {
+		StringBuilder message = new StringBuilder(
+			"The project file was damaged, and has been recovered.");
+		if (losses.isEmpty())
+			losses.add("Nothing was lost.");
+		for (String loss : losses) {
+			System.err.println("RECOVER: " + loss);
+			message.append('\n').append(loss);
 		}
 
-		for (int i = 0; i < columns; i++) {
-			Series r = new Series(1);
-			r.setName(byteListToString(readByteList(offset, 64)));
-			dt.addSeries(r);
+		JOptionPane.showMessageDialog(
+			Main.getDataTable(),
+			message.toString(),
+			"Project Recovered",
+			JOptionPane.WARNING_MESSAGE
+		);
+	}
+
 
-			offset += SERIES_LENGTH;
-		} // In total, series take up SERIES_LENGTH * columns bytes
 
-		for (int i = 0; i < columns; i++) {
-			dt.getSeries(i).getFirst().setValue(
-				byteListToString(readByteList(offset, 128)));
+	/**
+	 * Shows a decoded project in the GUI, overwriting current data.
+	 * @param pd The project to show
+	 */
+	private static void apply(ProjectData pd) {
+		DataTable dt = Main.getDataTable();
+		PlottableTable pt = Main.getPlottableTable();
+		Graph g = Main.getGraph();
 
-			offset += CELL_LENGTH;
-		} // In total, series headers take up CELL_LENGTH * columns bytes
+		pt.clear();
 
-		for (int i = 0; offset < len; i++) {
-			dt.getSeries(i % columns).getLast().insertCellAfter(
-				new Cell(byteListToString(readByteList(offset, 128))));
+		g.setGraphTitle(pd.graphTitle);
+		g.setAxisTitleX(pd.axisTitleX);
+		g.setAxisTitleY(pd.axisTitleY);
 
-			offset += CELL_LENGTH;
+		String graphType = ProjectData.decodeGraphType(pd.graphType);
+		if (graphType == null)
+			System.err.println("Invalid graph type when loading.");
+		else
+			g.setGraphType(graphType);
+		g.setAutoAxes(ProjectData.decodeAutoAxes(pd.graphType));
+
+		List<Series> data = new ArrayList<>(pd.seriesNames.size());
+		for (int i = 0; i < pd.seriesNames.size(); i++) {
+			Series r = new Series(pd.columns.get(i));
+			r.setName(pd.seriesNames.get(i));
+			data.add(r);
 		}
+		dt.replaceData(data);
 
 		// Plottable data and some graph data updated last because they require series.
 
 		// Gridline series
-		g.setGridlinesX(dt.getSeriesByName(
-			byteListToString(readByteList(800, 64))));
-		g.setGridlinesY(dt.getSeriesByName(
-			byteListToString(readByteList(864, 64))));
+		g.setGridlinesX(dt.getSeriesByName(pd.gridlinesX));
+		g.setGridlinesY(dt.getSeriesByName(pd.gridlinesY));
 
 		// Plottable data
-		offset = METADATA_LENGTH;
-		for (int i = 0; i < plottableSize; i++) {
+		for (ProjectData.Plottable p : pd.plottables) {
 			PlottableData plottable = new PlottableData();
-			plottable.setName(byteListToString(readByteList(offset, 64)));
-			plottable.setDataX(dt.getSeriesByName(
-				byteListToString(readByteList(offset + 64, 64))));
-			plottable.setDataY(dt.getSeriesByName(
-				byteListToString(readByteList(offset + 128, 64))));
-			plottable.setErrorBarsX(dt.getSeriesByName(
-				byteListToString(readByteList(offset + 192, 64))));
-			plottable.setErrorBarsY(dt.getSeriesByName(
-				byteListToString(readByteList(offset + 256, 64))));
-
-			byte options = readByteList(offset + 320, 1).get(0);
-			if ((options & 1) > 0)
-				plottable.setActive(true);
-			if ((options & 2) > 0)
-				plottable.setLinRegActive(true);
-			if ((options & 4) > 0)
-				plottable.setXAgainstY(true);
-			
+			plottable.setName(p.name);
+			plottable.setDataX(dt.getSeriesByName(p.dataX));
+			plottable.setDataY(dt.getSeriesByName(p.dataY));
+			plottable.setErrorBarsX(dt.getSeriesByName(p.errorBarsX));
+			plottable.setErrorBarsY(dt.getSeriesByName(p.errorBarsY));
+			plottable.setOptions(p.options);
+
 			pt.addPlottableData(plottable);
 			plottable.getMenu().sync();
-			
-			offset += PLOTTABLE_LENGTH;
 		}
 
 		// Clear the backlog of old bytes to write
-		bytesToInsert = new HashMap<>();
-		bytesToDelete = new ArrayList<>();
-
-		// Calculate series stats so users aren't faced with a wall of N/As
-		for (Series series : Main.getDataTable().getData()) {
-			series.calculateStatistics();
-		}
+		bytesToInsert.clear();
+		bytesToDelete.clear();
 
 		Main.getGraph().sync();
 
+		// Everything shown is already on the disk, in the file or journal
+		committed(new Date());
 		Main.updateAllComponents();
-		updateTitleBar();
 	}
 
 
 
+	// MARK: Journal
 	/**
-	 * Converts a list of bytes into a string, following the {@code UTF-16LE}
-	 * charset.
-	 * @param bytes The list of bytes to convert.
-	 * @return The final converted string.
+	 * Called by the journal after every entry is written. Asks the autosave
+	 * writer to sync the journal, and starts compacting the journal once it
+	 * grows too large.
+	 * @param j The journal that was written to
 	 */
-	public static String byteListToString(List<Byte> bytes) {
-		if (bytes == null)
-			return "";
-		
-		byte[] ba = new byte[bytes.size()];
-		for (int i = 0; i < bytes.size(); i++) {
-			ba[i] = bytes.get(i);
+	public static void journalUpdated(final ProjectJournal j) {
+		if (!SwingUtilities.isEventDispatchThread()) {
+			SwingUtilities.invokeLater(new Runnable() {
+				public void run() {
+					journalUpdated(j);
+				}
+			});
+			return;
 		}
 
-		try {
-			return new String(ba, Main.CHARSET);
-		} catch (UnsupportedEncodingException e) {
-			e.printStackTrace();
-			return null;
-		}
+		if (j != journal)
+			return;
+
+		if (writer != null)
+			writer.requestSync();
+		if (j.size() > ProjectJournal.COMPACT_THRESHOLD)
+			compact(true);
 	}
 
 
 
 	/**
-	 * Gets a list of bytes from the specified location in the project file.
-	 * @param pos A pointer to the first desired byte
-	 * @param len The number of bytes to capture
-	 * @return An ArrayList of bytes
+	 * Compacts the journal, by writing a fresh copy of the project file that
+	 * includes every journaled edit and then dropping those edits from the
+	 * journal. The open project is copied out of the GUI first, so this must
+	 * be called on the event dispatch thread; everything else can happen in
+	 * the background, while further edits keep being journaled.
+	 * @param background true if the copy should be written on a background
+	 * thread, false if this method should wait for it to be written.
+	 * @return false if the project file could not be replaced, in which case
+	 * the journal is left as it was. Always true if compacting in the
+	 * background.
 	 */
-	public static List<Byte> readByteList(long pos, int len) {
-		if (currentProject == null) return new ArrayList<>();
-		try {
-			List<Byte> bytes = new ArrayList<>();
-			currentProject.seek(pos);
-			for (int i = 0; i < len; i++) {
-				int nextByte = currentProject.read();
-				if (nextByte == -1) {
-					System.err.println("End of file reached.");
-					break;
-				}
-				bytes.add((byte) nextByte);
-			}
-			return bytes;
-		} catch (IOException e) {
-			System.err.println("An I/O error occured getting a byte list.");
-			e.printStackTrace();
-			return new ArrayList<>();
+	public static boolean compact(boolean background) {
+		// Called while the journal is locked, so this can't wait for the
+		// file lock, which the autosave writer holds while syncing the journal
+		if (journal == null || currentFile == null)
+			return false;
+
+		if (compactor != null && compactor.isAlive()) {
+			if (background)
+				return true;
+			waitForCompaction();
 		}
+
+		// The project file is about to be replaced, so nothing can be left
+		// in it
+		if (!loadPages())
+			return false;
+
+		final ProjectData pd = ProjectData.fromProject();
+		final long covered = journal.getSequence();
+		final long position = journal.size();
+		// Once journaling is off, edits go straight into the project file
+		final boolean legacy = !journaling;
+
+		if (!background)
+			return replaceProjectFile(pd, covered, position, legacy);
+
+		compactor = new Thread(new Runnable() {
+			public void run() {
+				replaceProjectFile(pd, covered, position, legacy);
+			}
+		}, "Journal Compactor");
+		compactor.start();
+		return true;
 	}
 
 
 
 	/**
-	 * Overwrites the bytes in a specified location of the project file
-	 * with new content.
-	 * @param byteList The new bytes
-	 * @param pos A pointer to the first byte to overwrite
+	 * Reads every page of a lazily opened project into its series, so that
+	 * the project file can be replaced. Does nothing if the project wasn't
+	 * opened lazily.
+	 * @return false if any page could not be read, in which case the series
+	 * are missing rows, and the project file must not be replaced
 	 */
-	public static void writeByteList(List<Byte> byteList, long pos) {
-		if (currentProject == null) return;
+	private static boolean loadPages() {
+		if (pages == null)
+			return true;
+
+		for (Series r : Main.getDataTable().getData()) {
+			r.loadPages();
+		}
+		if (pages.hasFailed()) {
+			System.err.println("Part of the project could not be read, so "
+				+ "the project file will not be replaced.");
+			return false;
+		}
+
+		System.out.println("LOAD: Pages");
+		pages = null;
+		return true;
+	}
+
+
+
+	/**
+	 * Waits for the journal to finish compacting, if it is being compacted.
+	 */
+	public static void waitForCompaction() {
+		if (compactor == null)
+			return;
+
 		try {
-			currentProject.seek(pos);
-			for (byte nextByte : byteList) {
-				currentProject.writeByte(nextByte);
+			compactor.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		compactor = null;
+	}
+
+
+
+	/**
+	 * Replaces the project file with a snapshot of the project, and drops the
+	 * journal entries included in the snapshot.
+	 * <p>
+	 * The snapshot is written to a temporary file, and a checkpoint is
+	 * journaled before it is moved over the project file. A crash at any
+	 * point leaves either the old project file with a journal that still
+	 * applies to it, or the new project file with a checkpoint that tells the
+	 * journal where to resume.
+	 * @param pd The snapshot of the project
+	 * @param covered The sequence number of the last journal entry included
+	 * in the snapshot
+	 * @param position The size of the journal when the snapshot was taken
+	 * @param legacy true to write the snapshot in the legacy format, false to
+	 * write it in the versioned format
+	 * @return true if the project file was replaced
+	 */
+	private static boolean replaceProjectFile(ProjectData pd, long covered,
+			long position, boolean legacy) {
+		File temp = null;
+		try {
+			temp = createTempFile(currentFile);
+			int crc = writeSnapshot(pd, temp, legacy);
+			long len = temp.length();
+
+			journal.checkpoint(covered, len, crc);
+			moveOverProjectFile(temp);
+
+			journal.rebase(position, len, crc);
+			System.out.println("COMPACT");
+			committed(new Date());
+			return true;
+		} catch (IOException e) {
+			System.err.println("An I/O error occured compacting the journal.");
+			e.printStackTrace();
+			if (temp != null)
+				temp.delete();
+			return false;
+		}
+	}
+
+
+
+	/**
+	 * Rewrites a versioned project file in the legacy format, so that edits
+	 * can be written straight into it while journaling is off. Does nothing
+	 * if the project file is already in the legacy format, unless it has
+	 * just been recovered. If it can't be rewritten, the autosave writer is
+	 * stopped, so that edits are dropped rather than written over the wrong
+	 * bytes.
+	 * <p>
+	 * The legacy format is written to in place and has no checksums, so a
+	 * project that isn't journaled is not protected against damage.
+	 * @param pd The project the file holds
+	 * @param recovered true if the project file was damaged, in which case
+	 * it is always rewritten
+	 */
+	private static void convertToLegacy(ProjectData pd, boolean recovered) {
+		File temp = null;
+		try {
+			synchronized (fileLock) {
+				if (!recovered && !ProjectFormat.isVersioned(storage))
+					return;
 			}
-			updateTitleBar();
+
+			temp = createTempFile(currentFile);
+			writeSnapshot(pd, temp, true);
+			moveOverProjectFile(temp);
+			System.out.println("CONVERT");
 		} catch (IOException e) {
-			System.err.println("An I/O error occured writing a byte list.");
+			System.err.println("An I/O error occured converting the project "
+				+ "file, so edits will not be saved.");
 			e.printStackTrace();
+			if (temp != null)
+				temp.delete();
+			if (writer != null) {
+				writer.close();
+				writer = null;
+			}
 			resetTitleBar();
 		}
+	}
+
+
+
+	/**
+	 * Moves a freshly written snapshot over the project file, and reopens
+	 * the project file. The file lock is held throughout, so the autosave
+	 * writer never sees the project file closed or half swapped.
+	 * @param temp The snapshot
+	 * @throws IOException If the snapshot could not be moved, in which case
+	 * the old project file is reopened
+	 */
+	private static void moveOverProjectFile(File temp) throws IOException {
+		synchronized (fileLock) {
+			currentProject.close();
+			try {
+				Files.move(temp.toPath(), currentFile.toPath(),
+					StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+				syncDirectory(currentFile.getAbsoluteFile().getParentFile());
+			} finally {
+				// The old project file is reopened if it couldn't be replaced
+				currentProject = new RandomAccessFile(currentFile, "rw");
+				storage = openStorage(currentProject);
+			}
+		}
+	}
+
+
+
+	/**
+	 * Creates an empty, uniquely named file next to a file, for a snapshot
+	 * to be written to before it is moved over that file. A fixed name could
+	 * clash with another snapshot, or with a file of the user's.
+	 * @param target The file the snapshot will replace
+	 * @return The new file
+	 * @throws IOException If the file could not be created
+	 */
+	private static File createTempFile(File target) throws IOException {
+		File directory = target.getAbsoluteFile().getParentFile();
+		return Files.createTempFile(directory.toPath(),
+			target.getName() + ".", ".tmp").toFile();
+	}
+
+
+
+	/**
+	 * Syncs a directory to the disk, so that a file just moved into it is
+	 * still there after a crash. Some platforms, such as Windows, can't open
+	 * a directory to sync it, and make the move durable on their own, so a
+	 * directory that can't be opened is skipped.
+	 * @param directory The directory to sync
+	 * @throws IOException If the directory was opened but could not be synced
+	 */
+	static void syncDirectory(File directory) throws IOException {
+		FileChannel channel;
+		try {
+			channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ);
+		} catch (IOException e) {
+			return;
+		}
+		try {
+			channel.force(true);
+		} finally {
+			channel.close();
+		}
+	}
+
+
+
+	/**
+	 * Writes a snapshot of a project to a file, and syncs it to the disk.
+	 * @param pd The project to write
+	 * @param destination The file to write to
+	 * @param legacy true to write the legacy format, false to write the
+	 * versioned format
+	 * @return The checksum of the written file
+	 * @throws IOException If the file could not be written
+	 */
+	private static int writeSnapshot(ProjectData pd, File destination,
+			boolean legacy) throws IOException {
+		FileOutputStream file = new FileOutputStream(destination);
+		try {
+			CheckedOutputStream out = new CheckedOutputStream(
+				new BufferedOutputStream(file, BLOCK_LENGTH), new CRC32C());
+			if (legacy)
+				pd.writeLegacy(out);
+			else
+				pd.write(out);
+			out.flush();
+			file.getFD().sync();
+			return (int) out.getChecksum().getValue();
+		} finally {
+			file.close();
+		}
+	}
+
+
+
+	/**
+	 * Converts a section of a byte array into a string, following the
+	 * {@code UTF-16LE} charset. Any zero padding at the end of the section is
+	 * dropped.
+	 * @param bytes The array of bytes to convert.
+	 * @param offset The position of the first byte to convert.
+	 * @param len The number of bytes to convert.
+	 * @return The final converted string.
+	 */
+	public static String bytesToString(byte[] bytes, int offset, int len) {
+		if (bytes == null)
+			return "";
+
+		// Trim padding two bytes (one UTF-16 character) at a time
+		len = Math.min(len, bytes.length - offset) & ~1;
+		while (len > 0 && bytes[offset + len - 1] == 0
+				&& bytes[offset + len - 2] == 0)
+			len -= 2;
+
+		try {
+			return new String(bytes, offset, len, Main.CHARSET);
+		} catch (UnsupportedEncodingException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+
 
-		// Should be marginally faster this way than with rwd mode.
+	/**
+	 * Copies bytes from the project file into an array.
+	 * @param pos A pointer to the first desired byte
+	 * @param destination The array to copy the bytes into
+	 * @param offset The position in the array to start copying to
+	 * @param len The number of bytes to copy
+	 * @return The number of bytes copied, which is less than {@code len} if
+	 * the end of the file was reached
+	 */
+	public static int read(long pos, byte[] destination, int offset, int len) {
 		try {
-			currentProject.getFD().sync();
+			synchronized (fileLock) {
+				if (storage == null) return 0;
+				return storage.read(pos, destination, offset, len);
+			}
 		} catch (IOException e) {
-			System.err.println("Sync failed when writing a byte list.");
+			System.err.println("An I/O error occured reading bytes.");
+			e.printStackTrace();
+			return 0;
+		}
+	}
+
+
+
+	/**
+	 * Gets an array of bytes from the specified location in the project file.
+	 * @param pos A pointer to the first desired byte
+	 * @param len The number of bytes to capture
+	 * @return An array of bytes, which is shorter than {@code len} if the end
+	 * of the file was reached
+	 */
+	public static byte[] readBytes(long pos, int len) {
+		byte[] bytes = new byte[len];
+		int count = read(pos, bytes, 0, len);
+		if (count < len) {
+			System.err.println("End of file reached.");
+			return Arrays.copyOf(bytes, count);
+		}
+		return bytes;
+	}
+
+
+
+	/**
+	 * Gets a list of bytes from the specified location in the project file.
+	 * Kept for compatibility; {@link #readBytes(long, int)} avoids boxing.
+	 * @param pos A pointer to the first desired byte
+	 * @param len The number of bytes to capture
+	 * @return An ArrayList of bytes
+	 */
+	public static List<Byte> readByteList(long pos, int len) {
+		List<Byte> bytes = new ArrayList<>();
+		for (byte b : readBytes(pos, len)) {
+			bytes.add(b);
+		}
+		return bytes;
+	}
+
+
+
+	/**
+	 * Overwrites the bytes in a specified location of the project file
+	 * with new content. The bytes are handed to the autosave writer, which
+	 * writes them along with any other recent changes.
+	 * @param bytes The new bytes
+	 * @param pos A pointer to the first byte to overwrite
+	 */
+	public static void writeBytes(byte[] bytes, long pos) {
+		if (writer == null) return;
+		writer.write(pos, bytes);
+	}
+
+
+
+	/**
+	 * Waits for every change made so far to be written to the disk.
+	 */
+	public static void flush() {
+		if (writer != null)
+			writer.flush();
+	}
+
+
+
+	/**
+	 * Called once changes have been synced to the disk, to update the title
+	 * bar with the time of the commit. May be called from any thread.
+	 * @param date When the changes were synced
+	 */
+	public static void committed(Date date) {
+		synchronized (fileLock) {
+			lastCommit = date;
 		}
+		updateTitleBar();
+	}
+
+
+
+	/**
+	 * Overwrites the bytes in a specified location of the project file
+	 * with new content. Kept for compatibility;
+	 * {@link #writeBytes(byte[], long)} avoids boxing.
+	 * @param byteList The new bytes
+	 * @param pos A pointer to the first byte to overwrite
+	 */
+	public static void writeByteList(List<Byte> byteList, long pos) {
+		byte[] bytes = new byte[byteList.size()];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = byteList.get(i);
+		}
+		writeBytes(bytes, pos);
 	}
 
 
 	/**
 	 * Inserts new bytes at specified locations in the project file.
-	 * Because this is an intensive process, this method allows for many
-	 * bytes to be inserted at once, even in multiple locations.
-	 * @param bytes A map of positions to insert, and bytes to insert.
-	 * Note that all positions are relative to the FINAL, not initial, file.
+	 * The file is rebuilt from its end in a single pass, so each byte after
+	 * the first insertion is moved exactly once, in large blocks.
+	 * @param ranges A map of positions to insert at, and the runs of bytes to
+	 * insert there. Note that all positions are relative to the FINAL, not
+	 * initial, file.
+	 */
+	public static void insertBytes(NavigableMap<Long, byte[]> ranges) {
+		synchronized (fileLock) {
+			insertBytesLocked(ranges);
+		}
+	}
+
+
+
+	/**
+	 * Inserts new bytes at specified locations in the project file, while
+	 * holding the file lock.
+	 * @param ranges A map of positions to insert at, and the runs of bytes to
+	 * insert there, relative to the final file
 	 */
-	public static void insertBytes(Map<Long, Byte> bytes) {
-		if (currentProject == null) return;
+	private static void insertBytesLocked(NavigableMap<Long, byte[]> ranges) {
+		if (currentProject == null || ranges.isEmpty()) return;
 		try {
-			long shift = bytes.keySet().size();
-			long filePointer;
-			currentProject.seek(currentProject.length());
-			for (int i = 0; i < bytes.size(); i++)
-				currentProject.write(0);
-
-			byte selectedByte = 0;
-			while (shift > 0) {
-				// The pointer will be one byte ahead of where it should be
-				currentProject.seek(currentProject.getFilePointer() - 1);
-				filePointer = currentProject.getFilePointer();
-
-				if (bytes.keySet().contains(filePointer)) {
-					// Data should be inserted at this location, do so
-					byte b = bytes.remove(filePointer);
-					currentProject.write(b);
-					shift --;
-				} else {
-					// There is no data to insert here, so keep shifting data
-					currentProject.seek(filePointer - shift);
-					selectedByte = currentProject.readByte();
-					currentProject.seek(filePointer);
-					currentProject.write(selectedByte);
-				}
-				
-				// Iterate backwards through the file
-				currentProject.seek(currentProject.getFilePointer() - 1);
+			long oldLength = storage.length();
+			long shift = 0;
+			for (byte[] bytes : ranges.values()) {
+				shift += bytes.length;
+			}
+			storage.setLength(oldLength + shift);
+
+			SpanCopier copier = new SpanCopier(currentProject.getChannel());
+			copier.beginBackward(oldLength + shift);
+			long oldEnd = oldLength;
+			for (Map.Entry<Long, byte[]> range : ranges.descendingMap().entrySet()) {
+				byte[] bytes = range.getValue();
+
+				// Everything between this run and the one after it is shifted
+				// by the length of every run up to and including this one.
+				long oldStart = range.getKey() + bytes.length - shift;
+				copier.copyBackward(oldStart, oldEnd);
+				copier.putBackward(bytes);
+
+				shift -= bytes.length;
+				oldEnd = oldStart;
 			}
-			updateTitleBar();
+			copier.finish();
+
+			storage.refresh();
 		} catch (IOException e) {
 			System.err.println("An I/O error occured inserting bytes.");
 			e.printStackTrace();
@@ -653,37 +1450,42 @@ public final class FileDataManager {
 
 
 	/**
-	 * Deletes bytes from specified locations in the project file.
-	 * Because this is an intensive process, this method allows for many
-	 * bytes to be deleted at once, even in multiple locations.
-	 * @param locations A list of positions to erase.
-	 * Note that all positions are relative to the INITIAL, not final, file.
+	 * Deletes ranges of bytes from the project file. The bytes kept after
+	 * the first deleted range are moved towards the start of the file in a
+	 * single pass, in large blocks.
+	 * @param ranges A map of the first byte of each range to erase, and the
+	 * byte after its last. Note that all positions are relative to the
+	 * INITIAL, not final, file.
 	 */
-	public static void deleteBytes(List<Long> locations) {
-		if (currentProject == null) return;
-		try {
-			long shift = 0;
-			long filePointer = 0;
-			currentProject.seek(0);
-
-			byte selectedByte = 0;
-			while (filePointer < currentProject.length()) {
-				if (locations.contains(filePointer)) {
-					// Data should be deleted from this location, so don't shift it
-					shift ++;
-				} else {
-					// Nothing needs deleting, so keep shifting data
-					selectedByte = currentProject.readByte();
-					currentProject.seek(filePointer - shift);
-					currentProject.write(selectedByte);
-				}
+	public static void deleteBytes(NavigableMap<Long, Long> ranges) {
+		synchronized (fileLock) {
+			deleteBytesLocked(ranges);
+		}
+	}
+
 
-				// Move on to the next byte
-				currentProject.seek(filePointer + 1);
-				filePointer = currentProject.getFilePointer();
+
+	/**
+	 * Deletes ranges of bytes from the project file, while holding the file
+	 * lock.
+	 * @param ranges A map of the first byte of each range to erase, and the
+	 * byte after its last, relative to the initial file
+	 */
+	private static void deleteBytesLocked(NavigableMap<Long, Long> ranges) {
+		if (currentProject == null || ranges.isEmpty()) return;
+		try {
+			long length = storage.length();
+
+			SpanCopier copier = new SpanCopier(currentProject.getChannel());
+			long keepStart = ranges.firstKey();
+			copier.beginForward(keepStart);
+			for (Map.Entry<Long, Long> range : ranges.entrySet()) {
+				copier.copyForward(keepStart, Math.min(range.getKey(), length));
+				keepStart = Math.max(keepStart, range.getValue());
 			}
-			currentProject.setLength(currentProject.length() - locations.size());
-			updateTitleBar();
+			copier.copyForward(keepStart, length);
+
+			storage.setLength(copier.finish());
 		} catch (IOException e) {
 			System.err.println("An I/O error occured deleting bytes.");
 			e.printStackTrace();
@@ -694,38 +1496,138 @@ public final class FileDataManager {
 
 
 	/**
-	 * Updates the data table's title bar with the open file and current
-	 * timestamp.
+	 * Updates the data table's title bar with the open file and the time its
+	 * changes were last synced to the disk. May be called from any thread.
 	 */
 	public static void updateTitleBar() {
-		SimpleDateFormat dateFormat = new SimpleDateFormat("h:mm a yyyy-MM-dd");
+		if (!SwingUtilities.isEventDispatchThread()) {
+			SwingUtilities.invokeLater(new Runnable() {
+				public void run() {
+					updateTitleBar();
+				}
+			});
+			return;
+		}
+
+		Date date;
+		synchronized (fileLock) {
+			date = lastCommit;
+		}
+		if (currentFile == null || date == null)
+			return;
+
+		SimpleDateFormat dateFormat = new SimpleDateFormat("h:mm:ss a yyyy-MM-dd");
 		Main.getDataTable().getTitleBar().setText(String.format(
 			"<html>%s <i>(%s)</i></html>",
 			currentFile.getName(),
-			dateFormat.format(new Date())
+			dateFormat.format(date)
 		));
 	}
 
 
 
 	/**
-	 * Resets the title bar to its initial value.
+	 * Resets the title bar to its initial value. May be called from any
+	 * thread.
 	 */
 	public static void resetTitleBar() {
+		if (!SwingUtilities.isEventDispatchThread()) {
+			SwingUtilities.invokeLater(new Runnable() {
+				public void run() {
+					resetTitleBar();
+				}
+			});
+			return;
+		}
+
 		Main.getDataTable().getTitleBar().setText("<html><i>Unsaved File</i></html>");
 	}
 
 
 
 	// MARK: Convenience
+	/**
+	 * Opens the storage backend for a project file, memory-mapping it if
+	 * possible.
+	 * @param file The open project file
+	 * @return The storage backend
+	 */
+	private static ProjectStorage openStorage(RandomAccessFile file) {
+		try {
+			return new MappedProjectStorage(file);
+		} catch (IOException e) {
+			System.err.println("Could not map project file, "
+				+ "falling back to direct file access.");
+			return new FileProjectStorage(file);
+		}
+	}
+
+
+
+	/**
+	 * Opens the journal for a project file.
+	 * @param f The project file
+	 * @return The journal, or null if it could not be opened, in which case
+	 * edits are written straight into the project file instead.
+	 */
+	private static ProjectJournal openJournal(File f) {
+		try {
+			return new ProjectJournal(ProjectJournal.journalFor(f));
+		} catch (IOException e) {
+			System.err.println("Could not open the journal, "
+				+ "falling back to writing edits in place.");
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+
+
+	/**
+	 * Calculates the CRC-32C checksum of an entire project file.
+	 * @param storage The storage holding the project file
+	 * @return The checksum
+	 * @throws IOException If the project file could not be read
+	 */
+	public static int checksum(ProjectStorage storage) throws IOException {
+		CRC32C crc = new CRC32C();
+		byte[] block = new byte[BLOCK_LENGTH];
+		long len = storage.length();
+		long pos = 0;
+		while (pos < len) {
+			int count = storage.read(pos, block, 0, block.length);
+			if (count <= 0)
+				break;
+			crc.update(block, 0, count);
+			pos += count;
+		}
+		return (int) crc.getValue();
+	}
+
+
+
+	/**
+	 * Joins two byte arrays together.
+	 * @param first The bytes to put first
+	 * @param second The bytes to put second
+	 * @return A new array holding both
+	 */
+	private static byte[] concatenate(byte[] first, byte[] second) {
+		byte[] joined = Arrays.copyOf(first, first.length + second.length);
+		System.arraycopy(second, 0, joined, first.length, second.length);
+		return joined;
+	}
+
+
+
 	/**
 	 * Converts an integer into an array of four bytes.
 	 * Adapted from Le, 2011.
 	 * @param i The integer to convert.
 	 * @return The byte array.
 	 */
-	public static Byte[] intToByteArray(int i) {
-		return new Byte[] {
+	public static byte[] intToByteArray(int i) {
+		return new byte[] {
 			(byte) (i >>> 24),
 			(byte) (i >>> 16),
 			(byte) (i >>> 8),
@@ -736,16 +1638,17 @@ public final class FileDataManager {
 
 
 	/**
-	 * Converts a four-byte array into an integer.
+	 * Converts four bytes of an array into an integer.
 	 * @param ba The byte array to convert.
-	 * @return The integer value of the array.
+	 * @param offset The position of the first of the four bytes.
+	 * @return The integer value of the bytes.
 	 */
-	public static int byteArrayToInt(Byte[] ba) {
+	public static int byteArrayToInt(byte[] ba, int offset) {
 		return (
-			((ba[0] & 0xFF) << 24)
-			| ((ba[1] & 0xFF) << 16)
-			| ((ba[2] & 0xFF) << 8)
-			| (ba[3] & 0xFF)
+			((ba[offset] & 0xFF) << 24)
+			| ((ba[offset + 1] & 0xFF) << 16)
+			| ((ba[offset + 2] & 0xFF) << 8)
+			| (ba[offset + 3] & 0xFF)
 		);
 	}
 
@@ -769,11 +1672,368 @@ public final class FileDataManager {
 	 * @return {@link #currentProject}
 	 */
 	public static RandomAccessFile getCurrentProject() {
-		return currentProject;
+		synchronized (fileLock) {
+			return currentProject;
+		}
 	}
 
 	// currentProject has no setter. It should be set with openFile().
 
+
+
+	/**
+	 * Getter: Gets the storage backend for the current project file. The
+	 * storage is swapped whenever the project file is replaced, so it should
+	 * only be used while holding {@link #getFileLock() the file lock}.
+	 * @return {@link #storage}
+	 */
+	public static ProjectStorage getStorage() {
+		synchronized (fileLock) {
+			return storage;
+		}
+	}
+
+	// storage has no setter. It is chosen by openFile().
+
+
+
+	/**
+	 * Getter: Gets the lock guarding the project file, its storage, and the
+	 * time of the last commit.
+	 * @return {@link #fileLock}
+	 */
+	public static Object getFileLock() {
+		return fileLock;
+	}
+
+	// fileLock has no setter.
+
+
+
+	/**
+	 * Getter: Gets the autosave writer for the current project file.
+	 * @return {@link #writer}
+	 */
+	public static AutosaveWriter getWriter() {
+		return writer;
+	}
+
+	// writer has no setter. It is started by openFile().
+
+
+
+	/**
+	 * Getter: Gets the journal for the current project, if it is journaled.
+	 * @return {@link #journal}
+	 */
+	public static ProjectJournal getJournal() {
+		return journal;
+	}
+
+	// journal has no setter. It is opened by openFile().
+
+
+
+	/**
+	 * Getter: Checks whether or not edits to projects are journaled.
+	 * @return {@link #journaling}
+	 */
+	public static boolean isJournaling() {
+		return journaling;
+	}
+
+	/**
+	 * Setter: Turns journaling on or off. Turning journaling off compacts
+	 * the current project's journal into its project file and deletes it.
+	 * Without a journal, the project file is kept in the legacy format,
+	 * which has no checksums, so damage to it is no longer detected.
+	 * @param journaling The new value for {@link #journaling}
+	 */
+	public static void setJournaling(boolean journaling) {
+		waitForCompaction();
+		flush();
+		FileDataManager.journaling = journaling;
+
+		if (getCurrentProject() == null)
+			return;
+
+		if (journaling && journal == null) {
+			// The project file is up to date, so the journal starts empty
+			journal = openJournal(currentFile);
+			if (journal == null)
+				return;
+			try {
+				synchronized (fileLock) {
+					journal.reset(storage.length(), checksum(storage));
+				}
+			} catch (IOException e) {
+				System.err.println("Could not start the journal.");
+				e.printStackTrace();
+				journal.delete();
+				journal = null;
+			}
+		} else if (!journaling && journal != null) {
+			if (compact(false)) {
+				journal.delete();
+				journal = null;
+			} else {
+				// The journal holds edits the project file doesn't
+				System.err.println("Could not turn journaling off.");
+				FileDataManager.journaling = true;
+			}
+		}
+	}
+
+	/**
+	 * Getter: Checks whether or not large journaled projects are opened
+	 * lazily.
+	 * @return {@link #lazyLoading}
+	 */
+	public static boolean isLazyLoading() {
+		return lazyLoading;
+	}
+
+	/**
+	 * Setter: Turns lazy loading on or off. This only changes how projects
+	 * are opened from now on; the open project stays as it is.
+	 * @param lazyLoading The new value for {@link #lazyLoading}
+	 */
+	public static void setLazyLoading(boolean lazyLoading) {
+		FileDataManager.lazyLoading = lazyLoading;
+	}
+
+	// pages has neither a getter nor a setter. It is set by load(), and
+	// cleared once every page has been read.
+
+
+
 	// bytesToInsert and bytesToDelete have no getters and setters;
 	// they are intended for internal use only.
+
+
+
+	// MARK: Span Copier
+	/**
+	 * Moves spans of the project file through a pair of large direct buffers:
+	 * one holding a window of the file as it was, and one collecting bytes for
+	 * the file as it will be. Shifting data then costs two system calls per
+	 * buffer, rather than several per byte.
+	 * <p>
+	 * Data is copied either forward, for deletions, where bytes only ever
+	 * move towards the start of the file, or backward, for insertions, where
+	 * they only ever move towards the end. Either way, a byte is always read
+	 * before anything is written over it.
+	 */
+	private static class SpanCopier {
+		/**
+		 * Sole constructor.
+		 * @param channel The channel to the project file
+		 */
+		SpanCopier(FileChannel channel) {
+			this.channel = channel;
+			if (input == null) {
+				input = ByteBuffer.allocateDirect(COPY_BUFFER_LENGTH);
+				output = ByteBuffer.allocateDirect(COPY_BUFFER_LENGTH);
+			}
+		}
+
+
+
+		/** The size of each copy buffer. */
+		private static final int COPY_BUFFER_LENGTH = 1 << 22;
+
+		/** The buffer holding a window of the file as it was. */
+		private static ByteBuffer input;
+		/** The buffer collecting bytes for the file as it will be. */
+		private static ByteBuffer output;
+
+		/** The channel to the project file. */
+		private final FileChannel channel;
+		/** The position in the file of the first byte in {@link #input}. */
+		private long inputStart;
+		/** The position in the file after the last byte in {@link #input}. */
+		private long inputEnd;
+		/**
+		 * When copying forward, the position the start of {@link #output}
+		 * will be written to. When copying backward, the position the end of
+		 * {@link #output} will be written to.
+		 */
+		private long outputPos;
+		/**
+		 * When copying forward, the number of bytes in {@link #output}. When
+		 * copying backward, the index of the first byte in {@link #output},
+		 * since it is filled from the end.
+		 */
+		private int fill;
+		/** Whether bytes are being copied forward or backward. */
+		private boolean forward;
+
+
+
+		/**
+		 * Starts copying bytes forward.
+		 * @param pos The position to write the first byte to
+		 */
+		void beginForward(long pos) {
+			forward = true;
+			outputPos = pos;
+			fill = 0;
+		}
+
+
+
+		/**
+		 * Copies a span of the original file to the next position in the
+		 * new file, working forward.
+		 * @param start The position of the first byte to copy
+		 * @param end The position after the last byte to copy
+		 * @throws IOException If the file could not be read or written
+		 */
+		void copyForward(long start, long end) throws IOException {
+			while (start < end) {
+				if (start < inputStart || start >= inputEnd)
+					fillInput(start, COPY_BUFFER_LENGTH, true);
+				if (fill == COPY_BUFFER_LENGTH)
+					flush();
+
+				int count = (int) Math.min(
+					Math.min(end, inputEnd) - start,
+					COPY_BUFFER_LENGTH - fill
+				);
+				output.put(fill, input, (int) (start - inputStart), count);
+				fill += count;
+				start += count;
+			}
+		}
+
+
+
+		/**
+		 * Starts copying bytes backward.
+		 * @param pos The position after the last byte to write
+		 */
+		void beginBackward(long pos) {
+			forward = false;
+			outputPos = pos;
+			fill = COPY_BUFFER_LENGTH;
+		}
+
+
+
+		/**
+		 * Copies a span of the original file to the next position in the
+		 * new file, working backward.
+		 * @param start The position of the first byte to copy
+		 * @param end The position after the last byte to copy
+		 * @throws IOException If the file could not be read or written
+		 */
+		void copyBackward(long start, long end) throws IOException {
+			while (end > start) {
+				if (end <= inputStart || end > inputEnd)
+					fillInput(Math.max(0, end - COPY_BUFFER_LENGTH),
+						Math.min(end, COPY_BUFFER_LENGTH), false);
+				if (fill == 0)
+					flush();
+
+				int count = (int) Math.min(
+					end - Math.max(start, inputStart),
+					fill
+				);
+				output.put(fill - count, input,
+					(int) (end - count - inputStart), count);
+				fill -= count;
+				end -= count;
+			}
+		}
+
+
+
+		/**
+		 * Writes new bytes to the next position in the new file, working
+		 * backward.
+		 * @param bytes The bytes to write
+		 * @throws IOException If the file could not be written
+		 */
+		void putBackward(byte[] bytes) throws IOException {
+			int remaining = bytes.length;
+			while (remaining > 0) {
+				if (fill == 0)
+					flush();
+
+				int count = Math.min(remaining, fill);
+				output.put(fill - count, bytes, remaining - count, count);
+				fill -= count;
+				remaining -= count;
+			}
+		}
+
+
+
+		/**
+		 * Writes out any bytes still waiting in the output buffer.
+		 * @return When copying forward, the position after the last byte
+		 * written, which is the length of the new file.
+		 * @throws IOException If the file could not be written
+		 */
+		long finish() throws IOException {
+			flush();
+			return outputPos;
+		}
+
+
+
+		/**
+		 * Reads a window of the original file into the input buffer.
+		 * @param pos The position of the first byte to read
+		 * @param len The number of bytes to read
+		 * @param partial true if reaching the end of the file early is
+		 * allowed, false if every byte must be read
+		 * @throws IOException If the file could not be read
+		 */
+		private void fillInput(long pos, long len, boolean partial)
+				throws IOException {
+			input.clear();
+			input.limit((int) len);
+			while (input.hasRemaining()) {
+				int count = channel.read(input, pos + input.position());
+				if (count < 0) {
+					if (partial && input.position() > 0)
+						break;
+					throw new EOFException("Project file ended while shifting bytes.");
+				}
+			}
+			inputStart = pos;
+			inputEnd = pos + input.position();
+		}
+
+
+
+		/**
+		 * Writes the output buffer to the file, and empties it.
+		 * @throws IOException If the file could not be written
+		 */
+		private void flush() throws IOException {
+			if (forward) {
+				output.clear();
+				output.limit(fill);
+				while (output.hasRemaining()) {
+					channel.write(output, outputPos + output.position());
+				}
+				outputPos += fill;
+				fill = 0;
+			} else {
+				output.clear();
+				output.position(fill);
+				long pos = outputPos - (COPY_BUFFER_LENGTH - fill);
+				while (output.hasRemaining()) {
+					channel.write(output, pos + output.position() - fill);
+				}
+				outputPos = pos;
+				fill = COPY_BUFFER_LENGTH;
+			}
+
+			// Absolute puts are checked against the limit, so reset it
+			output.clear();
+		}
+	}
 }
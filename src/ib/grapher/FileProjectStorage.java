@@ -0,0 +1,79 @@
+package ib.grapher;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Project storage which reads and writes a {@link RandomAccessFile} directly.
+ * Used when a project file can't be memory-mapped.
+ */
+public class FileProjectStorage implements ProjectStorage {
+	// MARK: Constructor
+	/**
+	 * Sole constructor.
+	 * @param file The open project file to store data in.
+	 */
+	public FileProjectStorage(RandomAccessFile file) {
+		this.file = file;
+	}
+
+
+
+	// MARK: Properties
+	/** The open project file. */
+	private final RandomAccessFile file;
+
+
+
+	// MARK: Methods
+	@Override
+	public int read(long pos, byte[] destination, int offset, int len)
+			throws IOException {
+		file.seek(pos);
+		int total = 0;
+		while (total < len) {
+			int count = file.read(destination, offset + total, len - total);
+			if (count == -1)
+				break;
+			total += count;
+		}
+		return total;
+	}
+
+
+
+	@Override
+	public void write(long pos, byte[] source, int offset, int len)
+			throws IOException {
+		file.seek(pos);
+		file.write(source, offset, len);
+	}
+
+
+
+	@Override
+	public long length() throws IOException {
+		return file.length();
+	}
+
+
+
+	@Override
+	public void setLength(long length) throws IOException {
+		file.setLength(length);
+	}
+
+
+
+	@Override
+	public void refresh() {
+		// Nothing is cached, so there is nothing to rebuild.
+	}
+
+
+
+	@Override
+	public void sync() throws IOException {
+		file.getFD().sync();
+	}
+}
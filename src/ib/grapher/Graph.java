@@ -16,11 +16,14 @@ import java.awt.event.FocusListener;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
 
 import javax.swing.JButton;
+import javax.swing.JCheckBox;
 import javax.swing.JComboBox;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
+import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JTextField;
 import javax.swing.SwingConstants;
@@ -30,7 +33,7 @@ import javax.imageio.ImageIO;
 /**
  * The visual graph associated with a project.
  */
-public class Graph extends JFrame {
+public class Graph extends JFrame implements Updatable, GraphModel {
 	// MARK: Constructor
 	/** Sole constructor. */
 	public Graph() {
@@ -59,7 +62,7 @@ public class Graph extends JFrame {
 		fieldGraphTitle.addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent e) {
 				Graph.this.setGraphTitle(fieldGraphTitle.getText());
-				Main.updateAllComponents();
+				UpdateScheduler.markDirty(UpdateScheduler.GRAPH);
 			}
 		});
 		fieldGraphTitle.addFocusListener(new FocusListener() {
@@ -67,7 +70,7 @@ public class Graph extends JFrame {
 
 			public void focusLost(FocusEvent e) {
 				Graph.this.setGraphTitle(fieldGraphTitle.getText());
-				Main.updateAllComponents();
+				UpdateScheduler.markDirty(UpdateScheduler.GRAPH);
 			};
 		});
 		panelGraph.add(fieldGraphTitle, BorderLayout.NORTH);
@@ -93,7 +96,7 @@ public class Graph extends JFrame {
 		panelMenu.add(labelType, constraints);
 		constraints.gridy++;
 
-		selectorType = new JComboBox<String>(new String[]{SCATTERPLOT, LINE});
+		selectorType = new JComboBox<String>(new String[]{SCATTERPLOT, LINE, DENSITY});
 		selectorType.setPreferredSize(new Dimension(180, 20));
 		selectorType.setSelectedItem(SCATTERPLOT);
 		panelMenu.add(selectorType, constraints);
@@ -101,7 +104,7 @@ public class Graph extends JFrame {
 		selectorType.addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent e) {
 				Graph.this.setGraphType((String) selectorType.getSelectedItem());
-				Main.updateAllComponents();
+				UpdateScheduler.markDirty(UpdateScheduler.GRAPH);
 			}
 		});
 
@@ -116,7 +119,7 @@ public class Graph extends JFrame {
 			public void actionPerformed(ActionEvent e) {
 				Graph.this.setGridlinesX((Series) selectorGridlineX.getSelectedItem());
 				if (selectorGridlineX.shouldTriggerUpdate())
-					Main.updateAllComponents();
+					UpdateScheduler.markDirty(UpdateScheduler.GRAPH);
 			}
 		});
 		panelMenu.add(selectorGridlineX, constraints);
@@ -133,12 +136,25 @@ public class Graph extends JFrame {
 			public void actionPerformed(ActionEvent e) {
 				Graph.this.setGridlinesY((Series) selectorGridlineY.getSelectedItem());
 				if (selectorGridlineY.shouldTriggerUpdate())
-					Main.updateAllComponents();
+					UpdateScheduler.markDirty(UpdateScheduler.GRAPH);
 			}
 		});
 		panelMenu.add(selectorGridlineY, constraints);
 		constraints.gridy++;
 
+		checkAutoAxes = new JCheckBox("Automatic Gridlines");
+		checkAutoAxes.setToolTipText(
+			"Fit axes without a gridline series to the data");
+		checkAutoAxes.setPreferredSize(new Dimension(180, 20));
+		checkAutoAxes.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				Graph.this.setAutoAxes(checkAutoAxes.isSelected());
+				UpdateScheduler.markDirty(UpdateScheduler.GRAPH);
+			}
+		});
+		panelMenu.add(checkAutoAxes, constraints);
+		constraints.gridy++;
+
 		JLabel labelXAxisTitle = new JLabel("X-Axis Title", SwingConstants.CENTER);
 		labelXAxisTitle.setPreferredSize(new Dimension(180, 20));
 		panelMenu.add(labelXAxisTitle, constraints);
@@ -149,7 +165,7 @@ public class Graph extends JFrame {
 		fieldGraphHorizontalAxis.addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent e) {
 				Graph.this.setAxisTitleX(fieldGraphHorizontalAxis.getText());
-				Main.updateAllComponents();
+				UpdateScheduler.markDirty(UpdateScheduler.GRAPH);
 			}
 		});
 		fieldGraphHorizontalAxis.addFocusListener(new FocusListener() {
@@ -157,7 +173,7 @@ public class Graph extends JFrame {
 
 			public void focusLost(FocusEvent e) {
 				Graph.this.setAxisTitleX(fieldGraphHorizontalAxis.getText());
-				Main.updateAllComponents();
+				UpdateScheduler.markDirty(UpdateScheduler.GRAPH);
 			};
 		});
 		panelMenu.add(fieldGraphHorizontalAxis, constraints);
@@ -173,7 +189,7 @@ public class Graph extends JFrame {
 		fieldGraphVerticalAxis.addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent e) {
 				Graph.this.setAxisTitleY(fieldGraphVerticalAxis.getText());
-				Main.updateAllComponents();
+				UpdateScheduler.markDirty(UpdateScheduler.GRAPH);
 			}
 		});
 		fieldGraphVerticalAxis.addFocusListener(new FocusListener() {
@@ -181,7 +197,7 @@ public class Graph extends JFrame {
 
 			public void focusLost(FocusEvent e) {
 				Graph.this.setAxisTitleY(fieldGraphVerticalAxis.getText());
-				Main.updateAllComponents();
+				UpdateScheduler.markDirty(UpdateScheduler.GRAPH);
 			};
 		});
 		panelMenu.add(fieldGraphVerticalAxis, constraints);
@@ -224,6 +240,12 @@ public class Graph extends JFrame {
 	public static final String LINE = "Line";
 	/** Bar graph type. */
 	public static final String BAR = "Bar";
+	/**
+	 * Density graph type, which shades the area under each data set by how
+	 * many points fall there, for data sets too large to read as a
+	 * scatterplot.
+	 */
+	public static final String DENSITY = "Density";
 
 
 
@@ -243,6 +265,11 @@ public class Graph extends JFrame {
 	private Series stepX;
 	/** The series holding information about vertical gridlines. */
 	private Series stepY;
+	/**
+	 * Whether or not axes without a gridline series are fitted to the data,
+	 * rather than running from -10 to 10.
+	 */
+	private boolean autoAxes;
 
 
 	// GUI 
@@ -265,6 +292,8 @@ public class Graph extends JFrame {
 	private final JLabel labelGridlineY;
 	/** Selector for vertical gridlines. */
 	private final SeriesSelector selectorGridlineY;
+	/** A check box to fit axes without a gridline series to the data. */
+	private final JCheckBox checkAutoAxes;
 	/** A label describing the dimensions of the graph. */
 	private final JLabel labelDimensions;
 	/** A button to export the graph data. */
@@ -290,6 +319,7 @@ public class Graph extends JFrame {
 	 * refreshes the graph, and then calls {@link #invalidate()},
 	 * {@link #validate()}, and {@link #repaint()}
 	 */
+	@Override
 	public void doUpdate() {
 		labelDimensions.setText(String.format(
 			"<html><i>%dx%d</i></html>",
@@ -306,9 +336,47 @@ public class Graph extends JFrame {
 
 	// MARK: Methods
 	/**
-	 * Exports this graph to a file.
+	 * Exports this graph to a file, as a PNG image of the graph window, or as
+	 * an SVG or PDF vector file of the same size.
 	 */
 	public void export() {
+		String[] formats = {"PNG", "SVG", "PDF"};
+		int format = JOptionPane.showOptionDialog(
+			this,
+			"Which format would you like to export the graph as?",
+			"Export",
+			JOptionPane.DEFAULT_OPTION,
+			JOptionPane.PLAIN_MESSAGE,
+			null,
+			formats,
+			formats[0]
+		);
+		if (format == JOptionPane.CLOSED_OPTION) {
+			System.out.println("Cancelled graph export.");
+			return;
+		}
+
+		if (format != 0) {
+			// Vector files are drawn straight from the data, rather than
+			// copied from the window
+			boolean svg = format == 1;
+			try {
+				File destination = svg
+					? FileDataManager.chooseFile(".svg", "SVG Images", true)
+					: FileDataManager.chooseFile(".pdf", "PDF Documents", true);
+				if (destination == null)
+					System.out.println("Cancelled graph export.");
+				else if (svg)
+					GraphRenderer.writeSVG(this, panelGraph.getWidth(), panelGraph.getHeight(), destination);
+				else
+					GraphRenderer.writePDF(this, panelGraph.getWidth(), panelGraph.getHeight(), destination);
+			} catch (IOException e) {
+				System.err.println("Could not export graph to file.");
+				e.printStackTrace();
+			}
+			return;
+		}
+
 		// Clear text field borders
 		fieldGraphTitle.setBorder(null);
 	
@@ -345,6 +413,7 @@ public class Graph extends JFrame {
 		selectorType.setSelectedItem(graphType);
 		selectorGridlineX.setSelectedItem(stepX);
 		selectorGridlineY.setSelectedItem(stepY);
+		checkAutoAxes.setSelected(autoAxes);
 	}
 
 	// Getters and setters
@@ -353,6 +422,7 @@ public class Graph extends JFrame {
 	 * Getter: Gets the title of this graph.
 	 * @return {@link #graphTitle}
 	 */
+	@Override
 	public String getGraphTitle() {
 		return graphTitle;
 	}
@@ -371,6 +441,7 @@ public class Graph extends JFrame {
 	 * Getter: Gets the horizontal axis title of this graph.
 	 * @return {@link #axisTitleX}
 	 */
+	@Override
 	public String getAxisTitleX() {
 		return axisTitleX;
 	}
@@ -389,6 +460,7 @@ public class Graph extends JFrame {
 	 * Getter: Gets the vertical axis title of this graph.
 	 * @return {@link #axisTitleY}
 	 */
+	@Override
 	public String getAxisTitleY() {
 		return axisTitleY;
 	}
@@ -407,6 +479,7 @@ public class Graph extends JFrame {
 	 * Getter: Gets the type of graph currently being drawn.
 	 * @return {@link #graphType}
 	 */
+	@Override
 	public String getGraphType() {
 		return graphType;
 	}
@@ -414,19 +487,40 @@ public class Graph extends JFrame {
 	/**
 	 * Setter: Changes which type of graph being drawn.
 	 * @param graphType The type of graph to draw. Should be one of
-	 * {@link #SCATTERPLOT}, {@link #LINE}, or {@link #BAR}. Do not use
-	 * "Scatterplot", "Line", or "Bar".
+	 * {@link #SCATTERPLOT}, {@link #LINE}, {@link #BAR}, or
+	 * {@link #DENSITY}. Do not use "Scatterplot", "Line", "Bar", or
+	 * "Density".
 	 */
 	public void setGraphType(String graphType) {
 		this.graphType = graphType;
 	}
 
+	/**
+	 * Getter: Gets whether or not axes without a gridline series are fitted
+	 * to the data.
+	 * @return {@link #autoAxes}
+	 */
+	@Override
+	public boolean getAutoAxes() {
+		return autoAxes;
+	}
+
+	/**
+	 * Setter: Changes whether or not axes without a gridline series are
+	 * fitted to the data.
+	 * @param autoAxes The new value for {@link #autoAxes}
+	 */
+	public void setAutoAxes(boolean autoAxes) {
+		this.autoAxes = autoAxes;
+	}
+
 
 
 	/**
 	 * Getter: Gets the series being used for horizontal gridlines.
 	 * @return {@link #stepX}
 	 */
+	@Override
 	public Series getGridlinesX() {
 		return stepX;
 	}
@@ -445,6 +539,7 @@ public class Graph extends JFrame {
 	 * Getter: Gets the series being used for vertical gridlines.
 	 * @return {@link #stepY}
 	 */
+	@Override
 	public Series getGridlinesY() {
 		return stepY;
 	}
@@ -456,6 +551,18 @@ public class Graph extends JFrame {
 	public void setGridlinesY(Series stepY) {
 		this.stepY = stepY;
 	}
+
+
+
+	/**
+	 * Getter: Gets every data set in the project, which is stored in the
+	 * plottable table rather than the graph.
+	 * @return The data sets of {@link Main#getPlottableTable()}
+	 */
+	@Override
+	public List<PlottableData> getDataSets() {
+		return Main.getPlottableTable().getDataSets();
+	}
 }
 
 
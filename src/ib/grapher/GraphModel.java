@@ -0,0 +1,61 @@
+package ib.grapher;
+
+import java.util.List;
+
+/**
+ * Everything a graph shows: its titles, gridlines, type, and data sets. A
+ * {@link GraphPanel} draws whatever model it is given, so the same drawing
+ * code serves both the {@link Graph} window and headless rendering.
+ */
+public interface GraphModel {
+	/**
+	 * Gets the title of the graph.
+	 * @return The graph title
+	 */
+	public String getGraphTitle();
+
+	/**
+	 * Gets the label on the horizontal axis.
+	 * @return The horizontal axis title
+	 */
+	public String getAxisTitleX();
+
+	/**
+	 * Gets the label on the vertical axis.
+	 * @return The vertical axis title
+	 */
+	public String getAxisTitleY();
+
+	/**
+	 * Gets the series holding information about horizontal gridlines.
+	 * @return The series, or null if there is none
+	 */
+	public Series getGridlinesX();
+
+	/**
+	 * Gets the series holding information about vertical gridlines.
+	 * @return The series, or null if there is none
+	 */
+	public Series getGridlinesY();
+
+	/**
+	 * Gets the type of graph to draw.
+	 * @return One of {@link Graph#SCATTERPLOT}, {@link Graph#LINE},
+	 * {@link Graph#BAR}, or {@link Graph#DENSITY}
+	 */
+	public String getGraphType();
+
+	/**
+	 * Gets whether or not axes without a gridline series have their bounds
+	 * and gridlines worked out from the data, rather than running from -10
+	 * to 10.
+	 * @return true if the axes are automatic, false otherwise
+	 */
+	public boolean getAutoAxes();
+
+	/**
+	 * Gets every data set that could be plotted on the graph, in order.
+	 * @return The data sets
+	 */
+	public List<PlottableData> getDataSets();
+}
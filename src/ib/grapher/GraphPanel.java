@@ -1,36 +1,74 @@
 package ib.grapher;
 
+import java.awt.AlphaComposite;
+import java.awt.Color;
 import java.awt.Font;
 import java.awt.FontMetrics;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
 import java.awt.RenderingHints;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import javax.swing.JPanel;
 
 /**
  * A class intended to be composited under a {@link Graph}, showing only the
  * graphical portion of the graph window.
+ * <p>
+ * The axis titles, gridlines, and labels are drawn into one offscreen layer,
+ * and each data set into a layer of its own. Layers are only redrawn when
+ * something they show changes, so resizing the window or repainting it for
+ * an unrelated reason only has to copy the layers to the screen.
+ * <p>
+ * All drawing goes through a {@link DrawingSurface}, so {@link #draw} can
+ * also draw the graph straight onto an image or into a vector file.
  */
-public class GraphPanel extends JPanel {
+public class GraphPanel extends JPanel implements SeriesListener {
 	// MARK: Constructor
 	/**
-	 * Sole constructor. Sets the graph that this panel will be composited into.
-	 * @param parentGraph The graph this panel is part of
+	 * Sole constructor. Sets the graph that this panel will draw, which is
+	 * usually the {@link Graph} it will be composited into.
+	 * @param parentGraph The graph this panel draws
 	 */
 	public GraphPanel (
-		Graph parentGraph
+		GraphModel parentGraph
 	) {
 		this.parentGraph = parentGraph;
 	}
 
 
 
+	// MARK: Constants
+	/** The width and height of each bin of a density map. */
+	private static final int DENSITY_BIN_SIZE = 2;
+	/** The number of colours in the ramp used to shade a density map. */
+	private static final int DENSITY_SHADES = 256;
+	/**
+	 * The smallest number of points worth counting on a thread of its own
+	 * when drawing a density map.
+	 */
+	private static final int DENSITY_CHUNK_LENGTH = 1 << 18;
+
+
+
 	// MARK: Properties
-	/** The graph this panel is part of. */
-	public final Graph parentGraph;
+	/** The graph this panel draws. */
+	public final GraphModel parentGraph;
 	
 	/** The leftmost x-coordinate to render. */
 	private double xLower = 0;
@@ -43,65 +81,426 @@ public class GraphPanel extends JPanel {
 	/** The width of the vertical axis label for this graph. */
 	private int yLabelWidth = 30;
 
+	/** The left edge of the plotting area, in window-space. */
+	private int plotLeft;
+	/** The width of the plotting area, in window-space. */
+	private int plotWidth;
+	/** The bottom edge of the plotting area, in window-space. */
+	private int plotBottom;
+	/** The height of the plotting area, in window-space. */
+	private int plotHeight;
+
+	// Layer caches
+	/** The axis titles, gridlines, and labels, as they were last drawn. */
+	private BufferedImage staticLayer;
+	/** Whether or not {@link #staticLayer} needs to be redrawn. */
+	private boolean staticLayerValid;
+	/**
+	 * A number which changes every time {@link #staticLayer} is redrawn, so
+	 * that data set layers know the bounds may have changed.
+	 */
+	private int staticGeneration;
+	/** The width of the panel when the layers were drawn. */
+	private int layerWidth;
+	/** The height of the panel when the layers were drawn. */
+	private int layerHeight;
+	/** The resolution of the display when the layers were drawn. */
+	private double layerScale;
+	/** The horizontal axis title when the static layer was drawn. */
+	private String layerTitleX;
+	/** The vertical axis title when the static layer was drawn. */
+	private String layerTitleY;
+	/** The horizontal gridline series this panel is listening to. */
+	private Series listenedX;
+	/** The vertical gridline series this panel is listening to. */
+	private Series listenedY;
+	/** The layer for each data set, as it was last drawn. */
+	private final Map<PlottableData, Layer> dataLayers = new HashMap<>();
+
+	// Level of detail
+	/**
+	 * One bit for each pixel of the panel, set once a marker has been
+	 * stamped there while drawing a data set layer.
+	 */
+	private long[] markerMask = new long[0];
+	/** The width of the surface {@link #markerMask} covers. */
+	private int maskWidth;
+	/** The height of the surface {@link #markerMask} covers. */
+	private int maskHeight;
+	/**
+	 * The horizontal error bars drawn for a data set so far, from
+	 * {@link #getErrorBarKey}, so that each is only drawn once.
+	 */
+	private final Set<Long> errorBarsX = new HashSet<>();
+	/** The vertical error bars drawn for a data set so far. */
+	private final Set<Long> errorBarsY = new HashSet<>();
+	/** The x-coordinates of the reduced line, from {@link #decimateLine}. */
+	private int[] lineX = new int[0];
+	/** The y-coordinates of the reduced line, from {@link #decimateLine}. */
+	private int[] lineY = new int[0];
+
+	// Automatic axes
+	/** The ticks of the horizontal axis, or null if it isn't automatic. */
+	private AxisTicks autoTicksX;
+	/** The ticks of the vertical axis, or null if it isn't automatic. */
+	private AxisTicks autoTicksY;
+
 
 
 	// MARK: Methods
 	@Override
 	protected void paintComponent(Graphics g) {
-		// Set up font and graphics objects 
-		Font font = new Font(Font.SANS_SERIF, Font.PLAIN, 12);
 		Graphics2D graphics = (Graphics2D) g;
-		FontMetrics metrics = graphics.getFontMetrics(font);
-		getYLabelWidth(metrics);
+		final int width = getWidth();
+		final int height = getHeight();
+		if (width <= 0 || height <= 0)
+			return;
+		// Layers are drawn at the screen's resolution, so that they stay
+		// sharp on high-DPI displays.
+		final double scale = graphics.getTransform().getScaleX();
+
+		listenToGridlines();
+		boolean ticksChanged = updateAutoTicks(width, height);
+		if (
+			ticksChanged
+			|| !staticLayerValid
+			|| width != layerWidth
+			|| height != layerHeight
+			|| scale != layerScale
+			|| !parentGraph.getAxisTitleX().equals(layerTitleX)
+			|| !parentGraph.getAxisTitleY().equals(layerTitleY)
+		) {
+			drawStaticLayer(graphics, width, height, scale);
+		}
+		graphics.drawImage(staticLayer, 0, 0, width, height, null);
+
+		// Draw plottable data sets
+		List<PlottableData> dataSets = parentGraph.getDataSets();
+		dataLayers.keySet().retainAll(dataSets);
+		for (PlottableData pd : dataSets) {
+			if (
+				(!pd.isActive())
+				|| pd.getDataX() == null
+				|| pd.getDataY() == null
+			)
+				continue;
+
+			Layer layer = dataLayers.get(pd);
+			if (layer == null) {
+				layer = new Layer();
+				dataLayers.put(pd, layer);
+			}
+			if (!layer.isCurrent(pd))
+				drawDataLayer(pd, layer, graphics, scale);
+			graphics.drawImage(layer.image, 0, 0, width, height, null);
+		}
+
+		// Clean up
+		graphics.dispose();
+	}
+
+
+
+	/**
+	 * Draws the whole graph straight onto a surface, without any layers.
+	 * This is how graphs are exported, since an export is only drawn once.
+	 * @param surface The surface to draw on, set to the font and colour of
+	 * the axis titles
+	 * @param width The width of the graph, in units
+	 * @param height The height of the graph, in units
+	 */
+	public void draw(DrawingSurface surface, int width, int height) {
+		// The bounds worked out here may not match the layers
+		staticLayerValid = false;
+		drawAxes(surface, width, height);
+
+		for (PlottableData pd : parentGraph.getDataSets()) {
+			if (
+				(!pd.isActive())
+				|| pd.getDataX() == null
+				|| pd.getDataY() == null
+			)
+				continue;
+
+			surface.setColour(pd.getColour());
+			drawDataSet(pd, surface, width, height);
+		}
+	}
+
+
+
+	/**
+	 * Redraws the axis titles, gridlines, and labels into
+	 * {@link #staticLayer}, and works out the bounds of the graph. Every
+	 * data set layer is redrawn afterwards, since they depend on the bounds.
+	 * @param source The graphics object the panel is being painted with
+	 * @param width The width of the panel
+	 * @param height The height of the panel
+	 * @param scale How many pixels there are to each unit of the panel
+	 */
+	private void drawStaticLayer(
+		Graphics2D source,
+		int width,
+		int height,
+		double scale
+	) {
+		staticLayer = createLayer(staticLayer, width, height, scale);
+		Graphics2D graphics = createLayerGraphics(staticLayer, source, scale);
+
+		layerWidth = width;
+		layerHeight = height;
+		layerScale = scale;
+		layerTitleX = parentGraph.getAxisTitleX();
+		layerTitleY = parentGraph.getAxisTitleY();
+		staticLayerValid = true;
+		staticGeneration++;
+
+		drawAxes(new Graphics2DSurface(graphics, scale), width, height);
+		graphics.dispose();
+	}
 
-		graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
-			RenderingHints.VALUE_ANTIALIAS_ON);
-		graphics.setRenderingHint(RenderingHints.KEY_RENDERING,
-			RenderingHints.VALUE_RENDER_QUALITY);
+
+
+	/**
+	 * Works out the bounds of the graph and where its plotting area sits,
+	 * then draws the axis titles, gridlines, and labels.
+	 * @param surface The surface to draw on, set to the colour of the axis
+	 * titles
+	 * @param width The width of the surface, in units
+	 * @param height The height of the surface, in units
+	 */
+	private void drawAxes(DrawingSurface surface, int width, int height) {
+		updateAutoTicks(width, height);
+
+		// Set up font
+		Font font = new Font(Font.SANS_SERIF, Font.PLAIN, 12);
+		FontMetrics metrics = surface.getFontMetrics(font);
+		getYLabelWidth(metrics);
 
 		final String axisTitleX = parentGraph.getAxisTitleX();
 		final String axisTitleY = parentGraph.getAxisTitleY();
 		final Series stepX = parentGraph.getGridlinesX();
 		final Series stepY = parentGraph.getGridlinesY();
 
+		calculateBounds(stepX, stepY);
+		calculatePlotArea(metrics, width, height);
+
 		// Draw X-axis title
-		graphics.drawString(
+		surface.drawString(
 			axisTitleX,
-			(getWidth() - metrics.stringWidth(axisTitleX)) / 2,
-			getHeight() - 5
+			(width - metrics.stringWidth(axisTitleX)) / 2,
+			height - 5
 		);
 
 		// Draw Y-axis title
-		Graphics2D rotatedGraphics = (Graphics2D) graphics.create();
-		rotatedGraphics.rotate(
-			-0.5 * Math.PI,
+		surface.drawVerticalString(
+			axisTitleY,
 			metrics.getHeight() + 5,
-			(getHeight() + metrics.stringWidth(axisTitleY)) / 2
+			(height + metrics.stringWidth(axisTitleY)) / 2
 		);
 
-		rotatedGraphics.drawString(
-			axisTitleY,
-			metrics.getHeight() + 5,
-			(getHeight() + metrics.stringWidth(axisTitleY)) / 2
+		// Draw gridlines
+		surface.setColour(Main.BLACK);
+
+		if (autoTicksY != null) {
+			for (int i = 0; i < autoTicksY.getCount(); i++) {
+				drawGridlineY(surface, metrics, autoTicksY.getValue(i), autoTicksY.getLabel(i));
+			}
+		} else if (stepY == null || stepY.length() < 2) {
+			drawGridlineY(surface, metrics, 0, "0");
+		} else if (stepY.length() > 2) {
+			for (int i = 2; i < stepY.length(); i++) {
+				// Non-numeric values are usually caused by an empty cell, so
+				// there's nothing to worry about.
+				if (!stepY.isNumeric(i))
+					continue;
+
+				drawGridlineY(surface, metrics, stepY.getNumeric(i), stepY.get(i));
+			}
+		}
+
+		if (autoTicksX != null) {
+			for (int i = 0; i < autoTicksX.getCount(); i++) {
+				drawGridlineX(surface, metrics, autoTicksX.getValue(i), autoTicksX.getLabel(i));
+			}
+		} else if (stepX == null || stepX.length() < 2) {
+			drawGridlineX(surface, metrics, 0, "0");
+		} else if (stepX.length() > 2) {
+			for (int i = 2; i < stepX.length(); i++) {
+				// Non-numeric values are usually caused by an empty cell, so
+				// there's nothing to worry about.
+				if (!stepX.isNumeric(i))
+					continue;
+
+				drawGridlineX(surface, metrics, stepX.getNumeric(i), stepX.get(i));
+			}
+		}
+	}
+
+
+
+	/**
+	 * Draws a horizontal gridline across the plotting area, with its label
+	 * to the left of it.
+	 * @param surface The surface to draw on
+	 * @param metrics The metrics of the font the label is drawn in
+	 * @param y The y-coordinate of the gridline, in graph-space
+	 * @param label The label of the gridline
+	 */
+	private void drawGridlineY(
+		DrawingSurface surface,
+		FontMetrics metrics,
+		double y,
+		String label
+	) {
+		surface.drawLine(
+			getRelativeX(xLower),
+			getRelativeY(y),
+			getRelativeX(xUpper),
+			getRelativeY(y)
+		);
+		surface.drawString(
+			label,
+			getRelativeX(xLower) - 5
+				- metrics.stringWidth(label),
+			getRelativeY(y)
+				+ metrics.getHeight() / 3
 		);
+	}
+
+
+
+	/**
+	 * Draws a vertical gridline up the plotting area, with its label below
+	 * it.
+	 * @param surface The surface to draw on
+	 * @param metrics The metrics of the font the label is drawn in
+	 * @param x The x-coordinate of the gridline, in graph-space
+	 * @param label The label of the gridline
+	 */
+	private void drawGridlineX(
+		DrawingSurface surface,
+		FontMetrics metrics,
+		double x,
+		String label
+	) {
+		surface.drawLine(
+			getRelativeX(x),
+			getRelativeY(yLower),
+			getRelativeX(x),
+			getRelativeY(yUpper)
+		);
+		surface.drawString(
+			label,
+			getRelativeX(x)
+				- metrics.stringWidth(label) / 2,
+			getRelativeY(yLower) + 15
+		);
+	}
 
-		rotatedGraphics.dispose();
 
-		// Set up borders and draw gridlines
-		graphics.setColor(Main.BLACK);
 
-		if (stepX == null || stepX.length() < 2) {
+	/**
+	 * Fits the automatic axes to the data, for whichever axes are automatic.
+	 * The ticks of an axis are only chosen again when the extents of the data
+	 * or the size of the panel change, so this is cheap enough to call on
+	 * every paint.
+	 * @param width The width of the panel
+	 * @param height The height of the panel
+	 * @return true if the ticks of either axis changed, false otherwise
+	 */
+	private boolean updateAutoTicks(int width, int height) {
+		AxisTicks ticksX = null;
+		AxisTicks ticksY = null;
+		if (isAutomatic(parentGraph.getGridlinesX()))
+			ticksX = fitTicks(autoTicksX, true, Math.max(2, width / 100));
+		if (isAutomatic(parentGraph.getGridlinesY()))
+			ticksY = fitTicks(autoTicksY, false, Math.max(2, height / 60));
+
+		boolean changed = ticksX != autoTicksX || ticksY != autoTicksY;
+		autoTicksX = ticksX;
+		autoTicksY = ticksY;
+		return changed;
+	}
+
+
+
+	/**
+	 * Chooses the ticks of an automatic axis from the smallest and largest
+	 * values of the active data sets, widened by their error bars. These
+	 * come from the statistics each series already keeps, so the data itself
+	 * is never read.
+	 * @param old The axis's current ticks, which may be null
+	 * @param horizontal true for the horizontal axis, false for the vertical
+	 * @param targetCount The number of gridlines to aim for
+	 * @return {@code old} if it still fits the data, or new ticks otherwise
+	 */
+	private AxisTicks fitTicks(AxisTicks old, boolean horizontal, int targetCount) {
+		double minimum = Double.POSITIVE_INFINITY;
+		double maximum = Double.NEGATIVE_INFINITY;
+		for (PlottableData pd : parentGraph.getDataSets()) {
+			if (
+				(!pd.isActive())
+				|| pd.getDataX() == null
+				|| pd.getDataY() == null
+			)
+				continue;
+
+			SeriesStatistics data = (horizontal ? pd.getDataX() : pd.getDataY())
+				.getStatistics();
+			if (data.getCount() == 0)
+				continue;
+
+			double spread = 0;
+			Series errorBars = horizontal ? pd.getErrorBarsX() : pd.getErrorBarsY();
+			if (errorBars != null && errorBars.getStatistics().getCount() > 0) {
+				SeriesStatistics errors = errorBars.getStatistics();
+				spread = Math.max(
+					Math.abs(errors.getMinimum()),
+					Math.abs(errors.getMaximum())
+				);
+			}
+			minimum = Math.min(minimum, data.getMinimum() - spread);
+			maximum = Math.max(maximum, data.getMaximum() + spread);
+		}
+
+		// With nothing to fit, show the same bounds as a graph without
+		// automatic axes
+		if (!Double.isFinite(maximum - minimum)) {
+			minimum = -10;
+			maximum = 10;
+		}
+
+		if (old != null && old.matches(minimum, maximum, targetCount))
+			return old;
+		return new AxisTicks(minimum, maximum, targetCount);
+	}
+
+
+
+	/**
+	 * Works out the bounds of the graph from the first two values of each
+	 * gridline series, storing them in {@link #xLower}, {@link #xUpper},
+	 * {@link #yLower}, and {@link #yUpper}.
+	 * @param stepX The series holding information about horizontal gridlines
+	 * @param stepY The series holding information about vertical gridlines
+	 */
+	private void calculateBounds(Series stepX, Series stepY) {
+		if (autoTicksX != null) {
+			xLower = autoTicksX.getLower();
+			xUpper = autoTicksX.getUpper();
+		} else if (stepX == null || stepX.length() < 2) {
 			xLower = -10;
 			xUpper = 10;
 		} else {
 			try {
-				xLower = stepX.getFirst().getNumeric();
+				xLower = stepX.getNumeric(0);
 			} catch (NumberFormatException e) {
 				System.err.println("Warning: Undefined Left Bound");
 				xLower = -10;
 			}
 			try {
-				xUpper = stepX.getFirst().getNext().getNumeric();
+				xUpper = stepX.getNumeric(1);
 			} catch (NumberFormatException e) {
 				System.err.println("Warning: Undefined Right Bound");
 				// Using this instead of 10 because it won't accidentally
@@ -111,30 +510,21 @@ public class GraphPanel extends JPanel {
 			}
 		}
 
-		if (stepY == null || stepY.length() < 2) {
+		if (autoTicksY != null) {
+			yLower = autoTicksY.getLower();
+			yUpper = autoTicksY.getUpper();
+		} else if (stepY == null || stepY.length() < 2) {
 			yLower = -10;
 			yUpper = 10;
-			graphics.drawLine(
-				getRelativeX(xLower),
-				getRelativeY(0),
-				getRelativeX(xUpper),
-				getRelativeY(0)
-			);
-			graphics.drawString(
-				"0",
-				getRelativeX(xLower) - 5 - metrics.stringWidth("0"),
-				getRelativeY(0)
-					+ metrics.getHeight() / 3
-			);
 		} else {
 			try {
-				yLower = stepY.getFirst().getNumeric();
+				yLower = stepY.getNumeric(0);
 			} catch (NumberFormatException e) {
 				System.err.println("Warning: Undefined Lower Bound");
 				yLower = -10;
 			}
 			try {
-				yUpper = stepY.getFirst().getNext().getNumeric();
+				yUpper = stepY.getNumeric(1);
 			} catch (NumberFormatException e) {
 				System.err.println("Warning: Undefined Upper Bound");
 				// Using this instead of 10 because it won't accidentally
@@ -142,189 +532,449 @@ public class GraphPanel extends JPanel {
 				// was properly defined.
 				yUpper = yLower + 20;
 			}
-			if (stepY.length() > 2) {
-				for (Cell c : stepY) {
-					try {
-						if (c.getIndex() > 1) {
-							graphics.drawLine(
-								getRelativeX(xLower),
-								getRelativeY(c.getNumeric()),
-								getRelativeX(xUpper),
-								getRelativeY(c.getNumeric())
-							);
-							graphics.drawString(
-								c.getValue(),
-								getRelativeX(xLower) - 5
-									- metrics.stringWidth(c.getValue()),
-								getRelativeY(c.getNumeric())
-									+ metrics.getHeight() / 3
-							);
-						}
-					} catch (NumberFormatException e) {
-						// Usually caused by an empty cell, so nothing
-						// to worry about.
-					}
-				}
+		}
+	}
+
+
+
+	/**
+	 * Works out where the plotting area sits in the panel, leaving room for
+	 * the axis titles and gridline labels, so that {@link #getRelativeX} and
+	 * {@link #getRelativeY} don't have to.
+	 * @param metrics The metrics of the font the labels are drawn in
+	 * @param width The width of the panel
+	 * @param height The height of the panel
+	 */
+	private void calculatePlotArea(FontMetrics metrics, int width, int height) {
+		int labelOffset = parentGraph.getAxisTitleY().length() == 0 ? 0 : 20;
+		final Series stepX = parentGraph.getGridlinesX();
+		labelOffset += (autoTicksY == null && stepX != null && stepX.length() <= 2)
+			? 0 : yLabelWidth;
+		// The last automatic label is centred on the right edge of the plot,
+		// so it needs room to hang over it
+		int rightMargin = autoTicksX == null
+			? 10 : Math.max(10, autoTicksX.getLabelWidth(metrics) / 2 + 2);
+		plotLeft = 10 + labelOffset;
+		plotWidth = width - (10 + rightMargin + labelOffset);
+
+		labelOffset = parentGraph.getAxisTitleX().length() == 0 ? 0 : 20;
+		final Series stepY = parentGraph.getGridlinesY();
+		labelOffset += (autoTicksX == null && stepY != null && stepY.length() <= 2)
+			? 0 : 15;
+		plotBottom = height - (10 + labelOffset);
+		plotHeight = height - (20 + labelOffset);
+	}
+
+
+
+	/**
+	 * Redraws the points, lines, or density, and trendline of a data set
+	 * into its layer.
+	 * @param pd The data set to draw
+	 * @param layer The layer to draw it into
+	 * @param source The graphics object the panel is being painted with
+	 * @param scale How many pixels there are to each unit of the panel
+	 */
+	private void drawDataLayer(
+		PlottableData pd,
+		Layer layer,
+		Graphics2D source,
+		double scale
+	) {
+		layer.image = createLayer(layer.image, layerWidth, layerHeight, scale);
+		layer.staticGeneration = staticGeneration;
+		layer.pointsVersion = pd.getPointsVersion();
+		layer.colour = pd.getColour();
+		layer.options = pd.getOptions();
+		layer.graphType = parentGraph.getGraphType();
+
+		Graphics2D graphics = createLayerGraphics(layer.image, source, scale);
+		DrawingSurface surface = new Graphics2DSurface(graphics, scale);
+		surface.setColour(pd.getColour());
+		drawDataSet(pd, surface, layerWidth, layerHeight);
+		graphics.dispose();
+	}
+
+
+
+	/**
+	 * Draws the points, lines, or density, and trendline of a data set.
+	 * @param pd The data set to draw
+	 * @param surface The surface to draw on, set to the colour of the data
+	 * set
+	 * @param width The width of the surface, in units
+	 * @param height The height of the surface, in units
+	 */
+	private void drawDataSet(
+		PlottableData pd,
+		DrawingSurface surface,
+		int width,
+		int height
+	) {
+		final double[] points = pd.getPoints();
+		final int length = pd.getPointCount() * PlottableData.POINT_STRIDE;
+
+		if (parentGraph.getGraphType() == Graph.DENSITY) {
+			drawDensity(points, length, surface, width, height);
+		} else {
+			// Only draw one marker on each pixel
+			int maskLength = (width * height + 63) / 64;
+			if (markerMask.length < maskLength)
+				markerMask = new long[maskLength];
+			else
+				Arrays.fill(markerMask, 0, maskLength, 0);
+			maskWidth = width;
+			maskHeight = height;
+			errorBarsX.clear();
+			errorBarsY.clear();
+
+			for (int i = 0; i < length; i += PlottableData.POINT_STRIDE) {
+				drawPoint(
+					points[i],
+					points[i + 1],
+					points[i + 2],
+					points[i + 3],
+					surface
+				);
 			}
 		}
 
-		if (stepX == null || stepX.length() < 2) {
-			graphics.drawLine(
-				getRelativeX(0),
-				getRelativeY(yLower),
-				getRelativeX(0),
-				getRelativeY(yUpper)
-			);
-			graphics.drawString(
-				"0",
-				getRelativeX(0) - metrics.stringWidth("0") / 2,
-				getRelativeY(yLower) + 15
-			);
-		} else if (stepX.length() > 2) {
-			for (Cell c : stepX) {
-				try {
-					if (c.getIndex() > 1) {
-						graphics.drawLine(
-							getRelativeX(c.getNumeric()),
-							getRelativeY(yLower),
-							getRelativeX(c.getNumeric()),
-							getRelativeY(yUpper)
-						);
-						graphics.drawString(
-							c.getValue(),
-							getRelativeX(c.getNumeric())
-								- metrics.stringWidth(c.getValue()) / 2,
-							getRelativeY(yLower) + 15
-						);
-					}
-				} catch (NumberFormatException e) {
-					// Usually caused by an empty cell, so nothing
-					// to worry about.
-				}
+		if (parentGraph.getGraphType() == Graph.LINE) {
+			// Segments are drawn from each point back to the one before it,
+			// since lines drawn the other way can cover different pixels.
+			int count = decimateLine(points, length);
+			for (int i = 1; i < count; i++) {
+				surface.drawLine(lineX[i], lineY[i], lineX[i - 1], lineY[i - 1]);
 			}
 		}
 
-		// Draw plottable data sets
-		for (PlottableData pd : Main.getPlottableTable().getDataSets()) {
-			List<GraphPoint> points = new ArrayList<>();
+		// Draw trendline
+		if (pd.isLinRegActive()) {
+			pd.doLinearRegression();
+			if (pd.getA() != Double.MIN_VALUE && pd.getB() != Double.MIN_VALUE) {
+				int[] lineCoords = calculateTrendline(pd.getA(), pd.getB());
+				surface.drawLine(lineCoords[0], lineCoords[1], lineCoords[2], lineCoords[3]);
+			}
+		}
+	}
 
-			graphics.setColor(pd.getColour());
 
-			if (
-				(!pd.isActive())
-				|| pd.getDataX() == null
-				|| pd.getDataY() == null
-			)
+
+	/**
+	 * Draws a data set as a density map: the panel is divided into square
+	 * bins {@link #DENSITY_BIN_SIZE} units across, the points in each bin are
+	 * counted, and each bin is shaded by its count, from a pale tint of the
+	 * data set's colour for the emptiest bins to a dark shade of it for the
+	 * fullest. Counts are scaled logarithmically, so that sparse areas stay
+	 * visible next to very dense ones.
+	 * @param points The packed points of the data set
+	 * @param length The number of values in use in {@code points}
+	 * @param surface The surface to draw on, set to the colour of the data
+	 * set
+	 * @param width The width of the surface, in units
+	 * @param height The height of the surface, in units
+	 */
+	private void drawDensity(
+		double[] points,
+		int length,
+		DrawingSurface surface,
+		int width,
+		int height
+	) {
+		final int columns = (width + DENSITY_BIN_SIZE - 1) / DENSITY_BIN_SIZE;
+		final int rows = (height + DENSITY_BIN_SIZE - 1) / DENSITY_BIN_SIZE;
+		if (columns <= 0 || rows <= 0)
+			return;
+
+		int[] bins = countBins(points, length, columns, rows);
+		int maximum = 0;
+		for (int count : bins) {
+			if (count > maximum)
+				maximum = count;
+		}
+		if (maximum == 0)
+			return;
+
+		// Work out the colour ramp once, rather than for every bin
+		int[] ramp = createColourRamp(surface.getColour());
+		double logMaximum = Math.log1p(maximum);
+
+		BufferedImage density = new BufferedImage(
+			columns,
+			rows,
+			BufferedImage.TYPE_INT_ARGB
+		);
+		int[] pixels = ((DataBufferInt) density.getRaster().getDataBuffer()).getData();
+		for (int i = 0; i < bins.length; i++) {
+			if (bins[i] == 0)
 				continue;
+			int shade = (int) (Math.log1p(bins[i]) / logMaximum * (ramp.length - 1));
+			pixels[i] = ramp[shade];
+		}
 
-			Cell activeX = pd.getDataX().getFirst();
-			Cell activeY = pd.getDataY().getFirst();
-			Cell ebX = null;
-			Cell ebY = null;
-
-			if (pd.getErrorBarsX() != null)
-				ebX = pd.getErrorBarsX().getFirst();
-			if (pd.getErrorBarsY() != null)
-				ebY = pd.getErrorBarsY().getFirst();
-
-			while (true) {
-				try {
-					GraphPoint newPoint = new GraphPoint(
-						activeX.getNumeric(),
-						activeY.getNumeric(),
-						Double.MIN_VALUE,
-						Double.MIN_VALUE
-					);
-
-					if (ebX != null) {
-						try {
-							newPoint.setErrorX(ebX.getNumeric());
-						} catch (NumberFormatException e) {
-							// Non-numeric data. Not actually an error,
-							// but no trendline will be drawn
-							System.out.println("GRAPH: Non-numeric error bar skipped.");
-						}
-					}
-
-					if (ebY != null) {
-						try {
-							newPoint.setErrorY(ebY.getNumeric());
-						} catch (NumberFormatException e) {
-							// Non-numeric data. Not actually an error,
-							// but no trendline will be drawn
-							System.out.println("GRAPH: Non-numeric error bar skipped.");
-						}
-					}
-
-					points.add(newPoint);
-
-				} catch (NumberFormatException e) {
-					// Non-numeric data. Not actually an error, but
-					// it'll skip the pair of cells
-					System.out.println("GRAPH: Non-numeric error bar skipped.");
-				}
+		surface.drawImage(
+			density,
+			0,
+			0,
+			columns * DENSITY_BIN_SIZE,
+			rows * DENSITY_BIN_SIZE
+		);
+	}
 
-				if (activeX.getNext() == null || activeY.getNext() == null)
-					break;
 
-				activeX = activeX.getNext();
-				activeY = activeY.getNext();
-				if (ebX != null)
-					ebX = ebX.getNext();
-				if (ebY != null)
-					ebY = ebY.getNext();
+
+	/**
+	 * Counts how many of a data set's points fall into each density bin.
+	 * Large data sets are split into chunks which are counted in parallel,
+	 * and then added together.
+	 * @param points The packed points of the data set
+	 * @param length The number of values in use in {@code points}
+	 * @param columns The number of columns of bins
+	 * @param rows The number of rows of bins
+	 * @return The number of points in each bin, row by row from the top
+	 */
+	private int[] countBins(
+		final double[] points,
+		final int length,
+		final int columns,
+		final int rows
+	) {
+		int pointCount = length / PlottableData.POINT_STRIDE;
+		int chunks = Math.min(
+			ForkJoinPool.getCommonPoolParallelism(),
+			pointCount / DENSITY_CHUNK_LENGTH
+		);
+		if (chunks <= 1)
+			return countBins(points, 0, length, columns, rows);
+
+		List<Callable<int[]>> jobs = new ArrayList<>(chunks);
+		for (int i = 0; i < chunks; i++) {
+			final int start = (int) ((long) pointCount * i / chunks)
+				* PlottableData.POINT_STRIDE;
+			final int end = (int) ((long) pointCount * (i + 1) / chunks)
+				* PlottableData.POINT_STRIDE;
+			jobs.add(new Callable<int[]>() {
+				public int[] call() {
+					return countBins(points, start, end, columns, rows);
+				}
+			});
+		}
+
+		int[] bins = null;
+		for (Future<int[]> result : ForkJoinPool.commonPool().invokeAll(jobs)) {
+			int[] chunk;
+			try {
+				chunk = result.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return countBins(points, 0, length, columns, rows);
+			} catch (ExecutionException e) {
+				System.err.println("Could not count density bins in parallel.");
+				e.printStackTrace();
+				return countBins(points, 0, length, columns, rows);
 			}
 
-			GraphPoint lastPoint = null;
-			for (GraphPoint point : points) {
-				drawPoint(point, graphics);
-				if (parentGraph.getGraphType() == Graph.LINE && lastPoint != null) {
-					graphics.drawLine(
-						getRelativeX(point.getX()),
-						getRelativeY(point.getY()),
-						getRelativeX(lastPoint.getX()),
-						getRelativeY(lastPoint.getY())
-					);
+			if (bins == null) {
+				bins = chunk;
+			} else {
+				for (int i = 0; i < bins.length; i++) {
+					bins[i] += chunk[i];
 				}
-				lastPoint = point;
 			}
+		}
+		return bins;
+	}
 
-			// Draw trendline
-			if (pd.isLinRegActive()) {
-				pd.doLinearRegression();
-				if (pd.getA() != Double.MIN_VALUE && pd.getB() != Double.MIN_VALUE) {
-					int[] lineCoords = calculateTrendline(pd.getA(), pd.getB());
-					graphics.drawLine(lineCoords[0], lineCoords[1], lineCoords[2], lineCoords[3]);
+
+
+	/**
+	 * Counts how many points in part of a data set fall into each density
+	 * bin. Points outside the graph's bounds aren't counted.
+	 * @param points The packed points of the data set
+	 * @param start The index in {@code points} of the first point to count
+	 * @param end The index in {@code points} after the last point to count
+	 * @param columns The number of columns of bins
+	 * @param rows The number of rows of bins
+	 * @return The number of points in each bin, row by row from the top
+	 */
+	private int[] countBins(
+		double[] points,
+		int start,
+		int end,
+		int columns,
+		int rows
+	) {
+		int[] bins = new int[columns * rows];
+		for (int i = start; i < end; i += PlottableData.POINT_STRIDE) {
+			double x = points[i];
+			double y = points[i + 1];
+			if (
+				x < xLower
+				|| x > xUpper
+				|| y < yLower
+				|| y > yUpper
+			) continue;
+
+			int column = getRelativeX(x) / DENSITY_BIN_SIZE;
+			int row = getRelativeY(y) / DENSITY_BIN_SIZE;
+			if (column < 0 || column >= columns || row < 0 || row >= rows)
+				continue;
+			bins[row * columns + column]++;
+		}
+		return bins;
+	}
+
+
+
+	/**
+	 * Reduces the line through a data set's points to the points that change
+	 * how it looks, storing them in {@link #lineX} and {@link #lineY}.
+	 * <p>
+	 * Consecutive points that land in the same pixel column only draw a
+	 * vertical line within that column, so each run of them can be replaced
+	 * by its first, lowest, highest, and last points (M4 decimation) without
+	 * changing a single pixel. This leaves at most four points for each
+	 * column the line passes through.
+	 * @param points The packed points of the data set
+	 * @param length The number of values in use in {@code points}
+	 * @return The number of points in the reduced line
+	 */
+	private int decimateLine(double[] points, int length) {
+		int capacity = length / PlottableData.POINT_STRIDE;
+		if (lineX.length < capacity) {
+			lineX = new int[capacity];
+			lineY = new int[capacity];
+		}
+
+		int count = 0;
+		int i = 0;
+		while (i < length) {
+			final int column = getRelativeX(points[i]);
+			final int first = getRelativeY(points[i + 1]);
+			int last = first;
+			int lowest = first;
+			int highest = first;
+			boolean lowestFirst = true;
+
+			for (i += PlottableData.POINT_STRIDE; i < length; i += PlottableData.POINT_STRIDE) {
+				if (getRelativeX(points[i]) != column)
+					break;
+
+				last = getRelativeY(points[i + 1]);
+				if (last < lowest) {
+					lowest = last;
+					lowestFirst = false;
+				} else if (last > highest) {
+					highest = last;
+					lowestFirst = true;
 				}
 			}
+
+			count = addLinePoint(count, column, first);
+			if (lowestFirst) {
+				count = addLinePoint(count, column, lowest);
+				count = addLinePoint(count, column, highest);
+			} else {
+				count = addLinePoint(count, column, highest);
+				count = addLinePoint(count, column, lowest);
+			}
+			count = addLinePoint(count, column, last);
 		}
+		return count;
+	}
 
-		// Clean up
-		graphics.dispose();
+
+
+	/**
+	 * Adds a point to the reduced line, unless it is the same as the point
+	 * before it.
+	 * @param count The number of points in the reduced line so far
+	 * @param x The x-coordinate of the point, in window-space
+	 * @param y The y-coordinate of the point, in window-space
+	 * @return The number of points in the reduced line now
+	 */
+	private int addLinePoint(int count, int x, int y) {
+		if (count > 0 && lineX[count - 1] == x && lineY[count - 1] == y)
+			return count;
+		lineX[count] = x;
+		lineY[count] = y;
+		return count + 1;
+	}
+
+
+
+	/**
+	 * Starts listening to the gridline series of the graph, if they have
+	 * changed, so that the static layer is redrawn when they are edited.
+	 */
+	private void listenToGridlines() {
+		final Series stepX = parentGraph.getGridlinesX();
+		final Series stepY = parentGraph.getGridlinesY();
+		if (stepX == listenedX && stepY == listenedY)
+			return;
+
+		if (listenedX != null)
+			listenedX.removeListener(this);
+		if (listenedY != null)
+			listenedY.removeListener(this);
+		listenedX = stepX;
+		listenedY = stepY;
+		if (stepX != null)
+			stepX.addListener(this);
+		if (stepY != null)
+			stepY.addListener(this);
+		staticLayerValid = false;
+	}
+
+
+
+	/**
+	 * Marks the static layer as out of date when a value in one of the
+	 * gridline series changes.
+	 * @param series The series that changed
+	 * @param row The index of the row that changed
+	 * @param wasNumeric Whether or not the row held numeric data before
+	 * @param oldNumber The row's old numeric value, if it had one
+	 */
+	@Override
+	public void valueChanged(Series series, int row, boolean wasNumeric, double oldNumber) {
+		staticLayerValid = false;
+	}
+
+
+
+	/**
+	 * Marks the static layer as out of date when rows are inserted, removed,
+	 * or reordered in one of the gridline series.
+	 * @param series The series that changed
+	 */
+	@Override
+	public void structureChanged(Series series) {
+		staticLayerValid = false;
 	}
 
 
 
 	/**
 	 * Calculates how much width to assign for the vertical axis label, and
-	 * stores this value in {@link #yLabelWidth}.
+	 * stores this value in {@link #yLabelWidth}. The labels of an automatic
+	 * axis are only measured once for each set of ticks.
 	 * @param metrics The font metrics used in the calculations
 	 */
 	private void getYLabelWidth(FontMetrics metrics) {
 		int maxWidth = 30;
 
-		try {
-			Cell c = parentGraph.getGridlinesY().getFirst().getNext().getNext();
-			while (c != null) {
-				int w = metrics.stringWidth(c.getValue()) + 5;
+		Series stepY = parentGraph.getGridlinesY();
+		if (autoTicksY != null) {
+			maxWidth = Math.max(maxWidth, autoTicksY.getLabelWidth(metrics) + 5);
+		} else if (stepY != null) {
+			for (int i = 2; i < stepY.length(); i++) {
+				int w = metrics.stringWidth(stepY.get(i)) + 5;
 				if (w > maxWidth)
 					maxWidth = w;
-				
-				c = c.getNext();
 			}
-		} catch (NullPointerException e) {
-			// Presumably uses default Y-coordinates.
 		}
+		// Otherwise, presumably uses default Y-coordinates.
 
 		yLabelWidth = maxWidth;
 	}
@@ -337,13 +987,7 @@ public class GraphPanel extends JPanel {
 	 * @return The x-coordinate to draw this point on the GUI
 	 */
 	private int getRelativeX(double x) {
-		int labelOffset = parentGraph.getAxisTitleY().length() == 0 ? 0 : 20;
-		final Series stepX = parentGraph.getGridlinesX();
-
-		labelOffset += (stepX != null && stepX.length() <= 2)
-			? 0 : yLabelWidth;
-		return (int) ((x - xLower) / (xUpper - xLower) * 
-			(getWidth() - (20 + labelOffset))) + (10 + labelOffset);
+		return (int) ((x - xLower) / (xUpper - xLower) * plotWidth) + plotLeft;
 	}
 
 
@@ -354,25 +998,28 @@ public class GraphPanel extends JPanel {
 	 * @return The y-coordinate to draw this point on the GUI
 	 */
 	private int getRelativeY(double y) {
-		int labelOffset = parentGraph.getAxisTitleX().length() == 0 ? 0 : 20;
-		final Series stepY = parentGraph.getGridlinesY();
-
-		labelOffset += (stepY != null && stepY.length() <= 2) ? 0 : 15;
-		return getHeight() - (int) ((y - yLower) / (yUpper - yLower) *
-			(getHeight() - (20 + labelOffset))) - (10 + labelOffset);
+		return plotBottom - (int) ((y - yLower) / (yUpper - yLower) * plotHeight);
 	}
 
 
 
 	/**
 	 * Draws a point on the graph.
-	 * @param point	The point to draw
-	 * @param graphics The graphics object to use in drawing the point
+	 * @param x The x-coordinate of the point
+	 * @param y The y-coordinate of the point
+	 * @param errorX The length of the point's horizontal error bars, or
+	 * {@link Double#MIN_VALUE} if it has none
+	 * @param errorY The length of the point's vertical error bars, or
+	 * {@link Double#MIN_VALUE} if it has none
+	 * @param surface The surface to draw the point on
 	 */
-	private void drawPoint(GraphPoint point, Graphics2D graphics) {
-		double x = point.getX();
-		double y = point.getY();
-
+	private void drawPoint(
+		double x,
+		double y,
+		double errorX,
+		double errorY,
+		DrawingSurface surface
+	) {
 		// Don't draw points outside the graph's bounds.
 		if (
 			x < xLower
@@ -381,37 +1028,50 @@ public class GraphPanel extends JPanel {
 			|| y > yUpper
 		) return;
 
-		// Draw the point itself.
-		graphics.drawOval(
-			getRelativeX(x) - 3,
-			getRelativeY(y) - 3,
-			6,
-			6
-		);
-		graphics.drawOval(
-			getRelativeX(x) - 2,
-			getRelativeY(y) - 2,
-			4,
-			4
-		);
+		// Draw the point itself, unless there's already one on this pixel.
+		int relativeX = getRelativeX(x);
+		int relativeY = getRelativeY(y);
+		boolean stamped = false;
+		int pixel = -1;
+		if (
+			relativeX >= 0
+			&& relativeX < maskWidth
+			&& relativeY >= 0
+			&& relativeY < maskHeight
+		) {
+			pixel = relativeY * maskWidth + relativeX;
+			stamped = (markerMask[pixel >>> 6] & (1L << pixel)) != 0;
+			markerMask[pixel >>> 6] |= 1L << pixel;
+		}
 
-		if (point.drawErrorX()) {
-			double err = point.getErrorX();
+		if (!stamped)
+			surface.drawMarker(relativeX, relativeY);
 
-			graphics.drawLine(
+		// Error bars are also only drawn once for each pixel and length.
+		if (
+			errorX > Double.MIN_VALUE
+			&& (pixel < 0 || errorBarsX.add(getErrorBarKey(
+				pixel,
+				getRelativeX(x - errorX) - relativeX,
+				getRelativeX(x + errorX) - relativeX
+			)))
+		) {
+			double err = errorX;
+
+			surface.drawLine(
 				getRelativeX(x - err),
 				getRelativeY(y),
 				getRelativeX(x + err),
 				getRelativeY(y)
 			);
 			// Draw caps
-			graphics.drawLine(
+			surface.drawLine(
 				getRelativeX(x - err),
 				getRelativeY(y) - 4,
 				getRelativeX(x - err),
 				getRelativeY(y) + 4
 			);
-			graphics.drawLine(
+			surface.drawLine(
 				getRelativeX(x + err),
 				getRelativeY(y) - 4,
 				getRelativeX(x + err),
@@ -419,23 +1079,30 @@ public class GraphPanel extends JPanel {
 			);
 		}
 
-		if (point.drawErrorY()) {
-			double err = point.getErrorY();
-
-			graphics.drawLine(
+		if (
+			errorY > Double.MIN_VALUE
+			&& (pixel < 0 || errorBarsY.add(getErrorBarKey(
+				pixel,
+				getRelativeY(y - errorY) - relativeY,
+				getRelativeY(y + errorY) - relativeY
+			)))
+		) {
+			double err = errorY;
+
+			surface.drawLine(
 				getRelativeX(x),
 				getRelativeY(y - err),
 				getRelativeX(x),
 				getRelativeY(y + err)
 			);
 			// Draw caps
-			graphics.drawLine(
+			surface.drawLine(
 				getRelativeX(x) - 4,
 				getRelativeY(y - err),
 				getRelativeX(x) + 4,
 				getRelativeY(y - err)
 			);
-			graphics.drawLine(
+			surface.drawLine(
 				getRelativeX(x) - 4,
 				getRelativeY(y + err),
 				getRelativeX(x) + 4,
@@ -489,6 +1156,151 @@ public class GraphPanel extends JPanel {
 
 
 
+	// MARK: Convenience
+	/**
+	 * Checks whether an axis should be fitted to the data: axes are only
+	 * automatic when the graph asks for it, and the user hasn't given the
+	 * axis its own bounds.
+	 * @param step The gridline series of the axis, which may be null
+	 * @return true if the axis is automatic, false otherwise
+	 */
+	private boolean isAutomatic(Series step) {
+		return parentGraph.getAutoAxes() && (step == null || step.length() < 2);
+	}
+
+
+
+	/**
+	 * Packs where an error bar is drawn into a single number, so that
+	 * identical error bars can be found. Ends further than 32767 units from
+	 * the point are clamped, since they are far off the surface either way.
+	 * @param pixel The index of the pixel the point is on
+	 * @param start The offset of one end of the error bar from the point
+	 * @param end The offset of the other end of the error bar from the point
+	 * @return A number unique to the error bar
+	 */
+	private static long getErrorBarKey(int pixel, int start, int end) {
+		start = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, start));
+		end = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, end));
+		return (long) pixel << 32 | (start & 0xFFFFL) << 16 | end & 0xFFFFL;
+	}
+
+
+
+	/**
+	 * Gets an empty, transparent image to draw a layer into, reusing the old
+	 * one if it is still the right size.
+	 * @param old The layer's old image, which may be null
+	 * @param width The width of the panel
+	 * @param height The height of the panel
+	 * @param scale How many pixels there are to each unit of the panel
+	 * @return An empty image covering the whole panel
+	 */
+	private BufferedImage createLayer(
+		BufferedImage old,
+		int width,
+		int height,
+		double scale
+	) {
+		int pixelWidth = (int) Math.ceil(width * scale);
+		int pixelHeight = (int) Math.ceil(height * scale);
+
+		if (
+			old != null
+			&& old.getWidth() == pixelWidth
+			&& old.getHeight() == pixelHeight
+		) {
+			Graphics2D graphics = old.createGraphics();
+			graphics.setComposite(AlphaComposite.Clear);
+			graphics.fillRect(0, 0, pixelWidth, pixelHeight);
+			graphics.dispose();
+			return old;
+		}
+
+		// Compatible images can be kept in video memory, which makes them
+		// much faster to draw.
+		GraphicsConfiguration configuration = getGraphicsConfiguration();
+		if (configuration == null) {
+			return new BufferedImage(
+				pixelWidth,
+				pixelHeight,
+				BufferedImage.TYPE_INT_ARGB
+			);
+		}
+		return configuration.createCompatibleImage(
+			pixelWidth,
+			pixelHeight,
+			Transparency.TRANSLUCENT
+		);
+	}
+
+
+
+	/**
+	 * Creates a graphics object to draw into a layer with, set up like the
+	 * one the panel is being painted with.
+	 * @param layer The layer to draw into
+	 * @param source The graphics object the panel is being painted with
+	 * @param scale How many pixels there are to each unit of the panel
+	 * @return A graphics object for the layer
+	 */
+	private Graphics2D createLayerGraphics(
+		BufferedImage layer,
+		Graphics2D source,
+		double scale
+	) {
+		Graphics2D graphics = layer.createGraphics();
+		graphics.setRenderingHints(source.getRenderingHints());
+		graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+			RenderingHints.VALUE_ANTIALIAS_ON);
+		graphics.setRenderingHint(RenderingHints.KEY_RENDERING,
+			RenderingHints.VALUE_RENDER_QUALITY);
+		graphics.scale(scale, scale);
+		graphics.setFont(source.getFont());
+		graphics.setColor(source.getColor());
+		return graphics;
+	}
+
+
+
+	/**
+	 * Works out the colours used to shade a density map, running from a
+	 * pale, translucent tint of a data set's colour, through the colour
+	 * itself, to a dark shade of it.
+	 * @param colour The colour of the data set
+	 * @return {@link #DENSITY_SHADES} ARGB colours, from emptiest to fullest
+	 */
+	private static int[] createColourRamp(Color colour) {
+		int[] ramp = new int[DENSITY_SHADES];
+		for (int i = 0; i < ramp.length; i++) {
+			double t = (double) i / (ramp.length - 1);
+			double red;
+			double green;
+			double blue;
+			if (t < 0.5) {
+				// Pale tint to full colour
+				double mix = 0.3 + 1.4 * t;
+				red = 255 + (colour.getRed() - 255) * mix;
+				green = 255 + (colour.getGreen() - 255) * mix;
+				blue = 255 + (colour.getBlue() - 255) * mix;
+			} else {
+				// Full colour to dark shade
+				double mix = 1 - (t - 0.5);
+				red = colour.getRed() * mix;
+				green = colour.getGreen() * mix;
+				blue = colour.getBlue() * mix;
+			}
+			int alpha = (int) (128 + 127 * Math.min(1, 2 * t));
+			ramp[i] = alpha << 24
+				| (int) Math.round(red) << 16
+				| (int) Math.round(green) << 8
+				| (int) Math.round(blue);
+		}
+		return ramp;
+	}
+
+
+
 	// MARK: Getters / Setters
 	/**
 	 * Getter: Gets the relative coordinate that marks the leftmost
@@ -545,4 +1357,44 @@ public class GraphPanel extends JPanel {
 	}
 
 	// No properties have setters, as they are meant to be calculated internally.
+
+
+
+	// MARK: Layer
+	/**
+	 * An offscreen image holding one data set as it was last drawn, along
+	 * with everything that was used to draw it, so that it is only redrawn
+	 * when one of those things changes.
+	 */
+	private class Layer {
+		/** The drawn data set. */
+		private BufferedImage image;
+		/** The {@link #staticGeneration} the layer was drawn for. */
+		private int staticGeneration;
+		/** The version of the data set's points the layer was drawn from. */
+		private int pointsVersion;
+		/** The colour the layer was drawn in. */
+		private Color colour;
+		/** The option flags of the data set when the layer was drawn. */
+		private byte options;
+		/** The graph type the layer was drawn for. */
+		private String graphType;
+
+
+
+		/**
+		 * Checks whether this layer still shows a data set as it should be
+		 * drawn now.
+		 * @param pd The data set
+		 * @return Whether or not the layer can be drawn without redrawing it
+		 */
+		private boolean isCurrent(PlottableData pd) {
+			return image != null
+				&& staticGeneration == GraphPanel.this.staticGeneration
+				&& pointsVersion == pd.getPointsVersion()
+				&& Objects.equals(colour, pd.getColour())
+				&& options == pd.getOptions()
+				&& graphType == parentGraph.getGraphType();
+		}
+	}
 }
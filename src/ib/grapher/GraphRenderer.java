@@ -0,0 +1,437 @@
+package ib.grapher;
+
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * Renders graphs to images without any windows, so that projects can be
+ * exported on machines without a display. Graphs are drawn by a
+ * {@link GraphPanel} that is never shown, so they look the same as they do
+ * in the GUI. They can be exported as PNG images, or streamed as SVG or PDF
+ * vector files through the same drawing code.
+ * <p>
+ * This class also has a command line entry point, which exports many
+ * projects at once on a pool of worker threads:
+ * <pre>
+ * java -cp Grapher.jar ib.grapher.GraphRenderer [options] project...
+ * </pre>
+ */
+public final class GraphRenderer {
+	// MARK: Constructor
+	/** Sole constructor. Intended to appease Javadoc, not to be used. */
+	private GraphRenderer() {}
+
+
+
+	// MARK: Constants
+	/** The resolution at which one unit of a graph is one pixel. */
+	public static final double BASE_DPI = 96;
+	/** The width of an exported image, in pixels, if none is given. */
+	public static final int DEFAULT_WIDTH = 800;
+	/** The height of an exported image, in pixels, if none is given. */
+	public static final int DEFAULT_HEIGHT = 600;
+	/** The height of the graph title above the graph, in units. */
+	private static final int TITLE_HEIGHT = 40;
+
+	/** The format of PNG images. */
+	public static final String PNG = "png";
+	/** The format of SVG vector files. */
+	public static final String SVG = "svg";
+	/** The format of PDF documents. */
+	public static final String PDF = "pdf";
+
+	/** Instructions for the command line entry point. */
+	private static final String USAGE = """
+	Usage: java -cp Grapher.jar ib.grapher.GraphRenderer [options] project...
+	Exports the graph of each project as a PNG image, or an SVG or PDF file.
+
+	Options:
+	  -o, --output DIR  Directory to write images to (default: next to each project)
+	  -f, --format FMT  png, svg, or pdf (default: png)
+	  -w, --width PX    Width of each image in pixels (default: 800)
+	  -h, --height PX   Height of each image in pixels (default: 600)
+	  -d, --dpi DPI     Resolution of each image (default: 96)
+	  -j, --jobs N      Number of projects to export at once (default: one per processor)
+	""";
+
+
+
+	// MARK: >Main<
+	/**
+	 * Command line entry point. Exports the graph of every project named on
+	 * the command line, and exits with a non-zero status if any of them
+	 * could not be exported.
+	 * @param args Options, followed by the project files to export
+	 */
+	public static void main(String[] args) {
+		System.setProperty("java.awt.headless", "true");
+
+		File output = null;
+		String format = PNG;
+		int width = DEFAULT_WIDTH;
+		int height = DEFAULT_HEIGHT;
+		double dpi = BASE_DPI;
+		int jobs = Runtime.getRuntime().availableProcessors();
+		List<File> projects = new ArrayList<>();
+
+		try {
+			for (int i = 0; i < args.length; i++) {
+				String arg = args[i];
+				if (arg.equals("-o") || arg.equals("--output"))
+					output = new File(args[++i]);
+				else if (arg.equals("-f") || arg.equals("--format"))
+					format = args[++i].toLowerCase();
+				else if (arg.equals("-w") || arg.equals("--width"))
+					width = Integer.parseInt(args[++i]);
+				else if (arg.equals("-h") || arg.equals("--height"))
+					height = Integer.parseInt(args[++i]);
+				else if (arg.equals("-d") || arg.equals("--dpi"))
+					dpi = Double.parseDouble(args[++i]);
+				else if (arg.equals("-j") || arg.equals("--jobs"))
+					jobs = Integer.parseInt(args[++i]);
+				else if (arg.startsWith("-"))
+					throw new IllegalArgumentException("Unknown option " + arg);
+				else
+					projects.add(new File(arg));
+			}
+			if (projects.isEmpty())
+				throw new IllegalArgumentException("No projects given");
+			if (width <= 0 || height <= 0 || dpi <= 0 || jobs <= 0)
+				throw new IllegalArgumentException("Sizes must be positive");
+			if (!format.equals(PNG) && !format.equals(SVG) && !format.equals(PDF))
+				throw new IllegalArgumentException("Unknown format " + format);
+		} catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+			System.err.println(e.getMessage() == null ? "Missing value" : e.getMessage());
+			System.err.print(USAGE);
+			System.exit(2);
+			return;
+		}
+
+		if (output != null && !output.isDirectory() && !output.mkdirs()) {
+			System.err.println("Could not create output directory " + output);
+			System.exit(1);
+			return;
+		}
+
+		int failed = exportAll(projects, output, format, width, height, dpi, jobs);
+		System.out.printf("Exported %d of %d graphs.%n",
+			projects.size() - failed, projects.size());
+		System.exit(failed == 0 ? 0 : 1);
+	}
+
+
+
+	// MARK: Methods
+	/**
+	 * Exports the graph of many projects on a pool of worker threads. Each
+	 * project is loaded and drawn independently, so one project failing
+	 * doesn't stop the others.
+	 * @param projects The project files to export
+	 * @param output The directory to write images to, or null to write each
+	 * image next to its project
+	 * @param format The format to export, one of {@link #PNG}, {@link #SVG},
+	 * and {@link #PDF}
+	 * @param width The width of each image, in pixels
+	 * @param height The height of each image, in pixels
+	 * @param dpi The resolution of each image
+	 * @param jobs The number of projects to export at once
+	 * @return The number of projects that could not be exported
+	 */
+	public static int exportAll(
+		List<File> projects,
+		File output,
+		final String format,
+		final int width,
+		final int height,
+		final double dpi,
+		int jobs
+	) {
+		List<Callable<Boolean>> work = new ArrayList<>(projects.size());
+		for (final File project : projects) {
+			File directory = output == null ? project.getAbsoluteFile().getParentFile() : output;
+			final File destination = new File(directory, imageNameFor(project, format));
+			work.add(new Callable<Boolean>() {
+				public Boolean call() {
+					try {
+						export(project, destination, format, width, height, dpi);
+						System.out.println("EXPORT: " + project + " -> " + destination);
+						return true;
+					} catch (IOException e) {
+						System.err.println("Could not export " + project + ".");
+						e.printStackTrace();
+						return false;
+					}
+				}
+			});
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(Math.min(jobs, Math.max(1, projects.size())));
+		int failed = 0;
+		try {
+			for (Future<Boolean> result : pool.invokeAll(work)) {
+				try {
+					if (!result.get())
+						failed++;
+				} catch (ExecutionException e) {
+					System.err.println("Could not export a graph.");
+					e.getCause().printStackTrace();
+					failed++;
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			System.err.println("Export interrupted.");
+			failed = projects.size();
+		} finally {
+			pool.shutdownNow();
+		}
+		return failed;
+	}
+
+
+
+	/**
+	 * Exports the graph of a project file. Vector files are given the same
+	 * physical size as an image of the given size and resolution would have.
+	 * @param project The project file
+	 * @param destination The file to write
+	 * @param format The format to export, one of {@link #PNG}, {@link #SVG},
+	 * and {@link #PDF}
+	 * @param width The width of the image, in pixels
+	 * @param height The height of the image, in pixels
+	 * @param dpi The resolution of the image
+	 * @throws IOException If the project could not be read, or the file
+	 * could not be written
+	 */
+	public static void export(
+		File project,
+		File destination,
+		String format,
+		int width,
+		int height,
+		double dpi
+	) throws IOException {
+		ProjectGraph graph = new ProjectGraph(ProjectData.load(project));
+		final double scale = dpi / BASE_DPI;
+		final int unitWidth = (int) Math.round(width / scale);
+		final int unitHeight = (int) Math.round(height / scale);
+
+		if (format.equals(SVG))
+			writeSVG(graph, unitWidth, unitHeight, destination);
+		else if (format.equals(PDF))
+			writePDF(graph, unitWidth, unitHeight, destination);
+		else
+			writePNG(render(graph, width, height, dpi), dpi, destination);
+	}
+
+
+
+	/**
+	 * Draws a graph, with its title above it, onto a white image. The graph
+	 * is laid out as if the image were {@link #BASE_DPI}, and then scaled up
+	 * or down to the resolution asked for, so that text and lines stay the
+	 * same physical size.
+	 * @param graph The graph to draw
+	 * @param width The width of the image, in pixels
+	 * @param height The height of the image, in pixels
+	 * @param dpi The resolution of the image
+	 * @return The image
+	 */
+	public static BufferedImage render(
+		GraphModel graph,
+		int width,
+		int height,
+		double dpi
+	) {
+		final double scale = dpi / BASE_DPI;
+		final int unitWidth = (int) Math.round(width / scale);
+		final int unitHeight = (int) Math.round(height / scale);
+
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		Graphics2D graphics = image.createGraphics();
+		graphics.setColor(Main.WHITE);
+		graphics.fillRect(0, 0, width, height);
+		graphics.scale(scale, scale);
+		graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+			RenderingHints.VALUE_ANTIALIAS_ON);
+		graphics.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING,
+			RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+
+		draw(graph, new Graphics2DSurface(graphics, scale), unitWidth, unitHeight);
+
+		graphics.dispose();
+		return image;
+	}
+
+
+
+	/**
+	 * Streams a graph, with its title above it, into an SVG file.
+	 * @param graph The graph to draw
+	 * @param width The width of the drawing, in units
+	 * @param height The height of the drawing, in units
+	 * @param destination The file to write
+	 * @throws IOException If the file could not be written
+	 */
+	public static void writeSVG(
+		GraphModel graph,
+		int width,
+		int height,
+		File destination
+	) throws IOException {
+		SVGSurface surface = new SVGSurface(destination, width, height);
+		try {
+			draw(graph, surface, width, height);
+		} finally {
+			surface.close();
+		}
+	}
+
+
+
+	/**
+	 * Streams a graph, with its title above it, into a single page PDF
+	 * document.
+	 * @param graph The graph to draw
+	 * @param width The width of the page, in units
+	 * @param height The height of the page, in units
+	 * @param destination The file to write
+	 * @throws IOException If the file could not be written
+	 */
+	public static void writePDF(
+		GraphModel graph,
+		int width,
+		int height,
+		File destination
+	) throws IOException {
+		PDFSurface surface = new PDFSurface(destination, width, height);
+		try {
+			draw(graph, surface, width, height);
+		} finally {
+			surface.close();
+		}
+	}
+
+
+
+	/**
+	 * Writes an image to a PNG file, recording its resolution so that it
+	 * prints at the right size.
+	 * @param image The image to write
+	 * @param dpi The resolution of the image
+	 * @param destination The file to write
+	 * @throws IOException If the file could not be written
+	 */
+	public static void writePNG(
+		BufferedImage image,
+		double dpi,
+		File destination
+	) throws IOException {
+		ImageWriter writer = ImageIO.getImageWritersByFormatName("png").next();
+		ImageWriteParam param = writer.getDefaultWriteParam();
+		IIOMetadata metadata = writer.getDefaultImageMetadata(
+			ImageTypeSpecifier.createFromRenderedImage(image), param);
+
+		// PNG stores resolution in pixels per metre
+		String pixelsPerMetre = Long.toString(Math.round(dpi / 0.0254));
+		IIOMetadataNode physical = new IIOMetadataNode("pHYs");
+		physical.setAttribute("pixelsPerUnitXAxis", pixelsPerMetre);
+		physical.setAttribute("pixelsPerUnitYAxis", pixelsPerMetre);
+		physical.setAttribute("unitSpecifier", "meter");
+		IIOMetadataNode root = new IIOMetadataNode("javax_imageio_png_1.0");
+		root.appendChild(physical);
+		metadata.mergeTree("javax_imageio_png_1.0", root);
+
+		OutputStream file = new FileOutputStream(destination);
+		try {
+			ImageOutputStream out = ImageIO.createImageOutputStream(file);
+			try {
+				writer.setOutput(out);
+				writer.write(null, new IIOImage(image, null, metadata), param);
+			} finally {
+				out.close();
+			}
+		} finally {
+			writer.dispose();
+			file.close();
+		}
+	}
+
+
+
+	// MARK: Convenience
+	/**
+	 * Draws a graph, with its title above it, onto a surface, as the graph
+	 * window shows it.
+	 * @param graph The graph to draw
+	 * @param surface The surface to draw on
+	 * @param width The width of the drawing, in units
+	 * @param height The height of the drawing, in units
+	 */
+	private static void draw(
+		GraphModel graph,
+		DrawingSurface surface,
+		int width,
+		int height
+	) {
+		// Draw the title
+		String title = graph.getGraphTitle();
+		Font titleFont = new Font(Font.SANS_SERIF, Font.PLAIN, 18);
+		FontMetrics metrics = surface.getFontMetrics(titleFont);
+		surface.setFont(titleFont);
+		surface.setColour(Main.BLACK);
+		surface.drawString(
+			title,
+			(width - metrics.stringWidth(title)) / 2,
+			(TITLE_HEIGHT + metrics.getAscent() - metrics.getDescent()) / 2
+		);
+
+		// Draw the graph itself with a panel that is never shown
+		GraphPanel panel = new GraphPanel(graph);
+		surface.translate(0, TITLE_HEIGHT);
+		surface.setFont(panel.getFont());
+		surface.setColour(panel.getForeground());
+		panel.draw(surface, width, height - TITLE_HEIGHT);
+		surface.translate(0, -TITLE_HEIGHT);
+	}
+
+
+
+	/**
+	 * Works out the name of the file exported from a project file, by
+	 * replacing its extension with that of the format.
+	 * @param project The project file
+	 * @param format The format being exported
+	 * @return The name of the exported file
+	 */
+	private static String imageNameFor(File project, String format) {
+		String name = project.getName();
+		int dot = name.lastIndexOf('.');
+		if (dot > 0)
+			name = name.substring(0, dot);
+		return name + "." + format;
+	}
+}
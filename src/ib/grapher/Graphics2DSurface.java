@@ -0,0 +1,213 @@
+package ib.grapher;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+
+/**
+ * A drawing surface that draws with a {@link Graphics2D} object, for
+ * drawing graphs on screen and into images.
+ */
+public class Graphics2DSurface implements DrawingSurface {
+	// MARK: Constructor
+	/**
+	 * Sole constructor.
+	 * @param graphics The graphics object to draw with, already scaled so
+	 * that one unit of the graph is {@code scale} pixels
+	 * @param scale How many pixels there are to each unit of the graph
+	 */
+	public Graphics2DSurface(Graphics2D graphics, double scale) {
+		this.graphics = graphics;
+		this.scale = scale;
+	}
+
+
+
+	// MARK: Constants
+	/** The width and height of the image each marker is stamped from. */
+	private static final int MARKER_SIZE = 10;
+
+
+
+	// MARK: Properties
+	/** The graphics object being drawn with. */
+	private final Graphics2D graphics;
+	/** How many pixels there are to each unit of the graph. */
+	private final double scale;
+	/**
+	 * The marker for the current colour, drawn once so that it can be
+	 * stamped at each point rather than drawn from scratch. This is null
+	 * until the first marker is drawn in each colour.
+	 */
+	private BufferedImage marker;
+
+
+
+	// MARK: Methods
+	/**
+	 * Gets the metrics of a font from the graphics object.
+	 * @param font The font to measure
+	 * @return The metrics of the font
+	 */
+	@Override
+	public FontMetrics getFontMetrics(Font font) {
+		return graphics.getFontMetrics(font);
+	}
+
+
+
+	/**
+	 * Moves the origin of the graphics object.
+	 * @param x The horizontal offset, in units
+	 * @param y The vertical offset, in units
+	 */
+	@Override
+	public void translate(int x, int y) {
+		graphics.translate(x, y);
+	}
+
+
+
+	/**
+	 * Draws a line with the graphics object.
+	 * @param x1 The x-coordinate of the first point
+	 * @param y1 The y-coordinate of the first point
+	 * @param x2 The x-coordinate of the second point
+	 * @param y2 The y-coordinate of the second point
+	 */
+	@Override
+	public void drawLine(int x1, int y1, int x2, int y2) {
+		graphics.drawLine(x1, y1, x2, y2);
+	}
+
+
+
+	/**
+	 * Draws a line of text with the graphics object.
+	 * @param text The text to draw
+	 * @param x The x-coordinate of the left of the text
+	 * @param y The y-coordinate of the baseline of the text
+	 */
+	@Override
+	public void drawString(String text, int x, int y) {
+		graphics.drawString(text, x, y);
+	}
+
+
+
+	/**
+	 * Draws a line of text reading upwards with a rotated copy of the
+	 * graphics object.
+	 * @param text The text to draw
+	 * @param x The x-coordinate of the baseline of the text
+	 * @param y The y-coordinate of the bottom of the text
+	 */
+	@Override
+	public void drawVerticalString(String text, int x, int y) {
+		Graphics2D rotatedGraphics = (Graphics2D) graphics.create();
+		rotatedGraphics.rotate(-0.5 * Math.PI, x, y);
+		rotatedGraphics.drawString(text, x, y);
+		rotatedGraphics.dispose();
+	}
+
+
+
+	/**
+	 * Stamps the marker for the current colour at a point.
+	 * @param x The x-coordinate of the point
+	 * @param y The y-coordinate of the point
+	 */
+	@Override
+	public void drawMarker(int x, int y) {
+		if (marker == null)
+			marker = createMarker();
+		graphics.drawImage(
+			marker,
+			x - MARKER_SIZE / 2,
+			y - MARKER_SIZE / 2,
+			MARKER_SIZE,
+			MARKER_SIZE,
+			null
+		);
+	}
+
+
+
+	/**
+	 * Draws an image with the graphics object, using nearest-neighbour
+	 * interpolation.
+	 * @param image The image to draw
+	 * @param x The x-coordinate of the left of the rectangle
+	 * @param y The y-coordinate of the top of the rectangle
+	 * @param width The width of the rectangle
+	 * @param height The height of the rectangle
+	 */
+	@Override
+	public void drawImage(BufferedImage image, int x, int y, int width, int height) {
+		graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+			RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+		graphics.drawImage(image, x, y, width, height, null);
+	}
+
+
+
+	// MARK: Convenience
+	/**
+	 * Draws the marker for the current colour, at the resolution of the
+	 * graphics object.
+	 * @return An image of the marker, {@link #MARKER_SIZE} units across
+	 */
+	private BufferedImage createMarker() {
+		int size = (int) Math.ceil(MARKER_SIZE * scale);
+		BufferedImage image = new BufferedImage(
+			size,
+			size,
+			BufferedImage.TYPE_INT_ARGB
+		);
+
+		Graphics2D markerGraphics = image.createGraphics();
+		markerGraphics.setRenderingHints(graphics.getRenderingHints());
+		markerGraphics.scale(scale, scale);
+		markerGraphics.setColor(graphics.getColor());
+		markerGraphics.drawOval(MARKER_SIZE / 2 - 3, MARKER_SIZE / 2 - 3, 6, 6);
+		markerGraphics.drawOval(MARKER_SIZE / 2 - 2, MARKER_SIZE / 2 - 2, 4, 4);
+		markerGraphics.dispose();
+		return image;
+	}
+
+
+
+	// MARK: Getters / Setters
+	/**
+	 * Setter: Sets the font of the graphics object.
+	 * @param font The new font
+	 */
+	@Override
+	public void setFont(Font font) {
+		graphics.setFont(font);
+	}
+
+	/**
+	 * Getter: Gets the colour of the graphics object.
+	 * @return The current colour
+	 */
+	@Override
+	public Color getColour() {
+		return graphics.getColor();
+	}
+
+	/**
+	 * Setter: Sets the colour of the graphics object. The marker is redrawn
+	 * in the new colour the next time one is needed.
+	 * @param colour The new colour
+	 */
+	@Override
+	public void setColour(Color colour) {
+		if (!colour.equals(graphics.getColor()))
+			marker = null;
+		graphics.setColor(colour);
+	}
+}
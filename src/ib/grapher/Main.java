@@ -107,12 +107,34 @@ public final class Main {
 	public static void main(String[] args) {
 		System.out.println("Launching Grapher");
 
+		// Don't lose changes still waiting in the autosave window on exit
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+			public void run() {
+				FileDataManager.flush();
+			}
+		}, "Autosave Flush"));
+
 		// Initialization
 		menuBar = new MenuBar();
 		dataTable = new DataTable();
 		plottableTable = new PlottableTable();
 		graph = new Graph();
 
+		// Each window is only updated when something it shows changes, and
+		// metadata is only saved when some of it changes.
+		UpdateScheduler.register(dataTable, UpdateScheduler.SELECTION
+			| UpdateScheduler.VALUES | UpdateScheduler.STRUCTURE);
+		UpdateScheduler.register(plottableTable, UpdateScheduler.PLOTTABLES);
+		UpdateScheduler.register(graph, UpdateScheduler.VALUES
+			| UpdateScheduler.STRUCTURE | UpdateScheduler.PLOTTABLES
+			| UpdateScheduler.GRAPH);
+		UpdateScheduler.register(new Updatable() {
+			public void doUpdate() {
+				saveMetadata();
+			}
+		}, UpdateScheduler.STRUCTURE | UpdateScheduler.PLOTTABLES
+			| UpdateScheduler.GRAPH);
+
 		// GUI
 		SwingUtilities.invokeLater(new Runnable() {
 			public void run() {
@@ -135,14 +157,14 @@ public final class Main {
 
 	// MARK: Update
 	/**
-	 * Updates the {@link #dataTable}, {@link #plottableTable}, and
-	 * {@link #graph}.
+	 * Schedules an update of the {@link #dataTable}, {@link #plottableTable},
+	 * and {@link #graph}, and a save of the metadata. This should only be
+	 * used when the whole project changes, like when a file is opened;
+	 * otherwise, {@link UpdateScheduler#markDirty(int)} should be called with
+	 * only the parts of the project that changed.
 	 */
 	public static void updateAllComponents() {
-		dataTable.doUpdate();
-		plottableTable.doUpdate();
-		graph.doUpdate();
-		saveMetadata();
+		UpdateScheduler.markDirty(UpdateScheduler.ALL);
 	}
 
 
@@ -154,21 +176,15 @@ public final class Main {
 	 * @param destination The byte array
 	 * @param pos The position to copy the start of the series into
 	 */
-	public static void seriesCopy(Series r, Byte[] destination, int pos) {
-		try {
-			System.arraycopy(
-				stringToByteArray(r.getName(), 64),
-				0, destination, pos, 64
-			);
-		} catch (NullPointerException e) {
-			Byte[] empty = new Byte[64];
-			for (int i = 0; i < 64; i++)
-				empty[i] = 0;
-			System.arraycopy(
-				empty,
-				0, destination, pos, 64
-			);
-		}
+	public static void seriesCopy(Series r, byte[] destination, int pos) {
+		// Byte arrays start zeroed, so a missing series needs no copying
+		if (r == null)
+			return;
+
+		System.arraycopy(
+			stringToByteArray(r.getName(), 64),
+			0, destination, pos, 64
+		);
 	}
 
 
@@ -182,6 +198,13 @@ public final class Main {
 			return;
 
 		System.out.println("SAVE: Everything");
+
+		// A journaled project is saved by writing a fresh snapshot of it
+		if (FileDataManager.getJournal() != null) {
+			FileDataManager.compact(false);
+			return;
+		}
+
 		saveMetadata();
 
 
@@ -194,8 +217,8 @@ public final class Main {
 		// Series and Cells
 		for (Series r : dataTable.getData()) {
 			r.save();
-			for (Cell c : r) {
-				c.save();
+			for (int row = 0; row < r.length(); row++) {
+				r.save(row);
 			}
 		}
 	}
@@ -209,8 +232,14 @@ public final class Main {
 	 */
 	public static void saveMetadata() {
 		System.out.println("SAVE: Metadata");
+		ProjectJournal journal = FileDataManager.getJournal();
+		if (journal != null) {
+			journal.setMetadata(graph);
+			return;
+		}
+
 		// General metadata
-		Byte[] metadata = new Byte[937];
+		byte[] metadata = new byte[FileDataManager.METADATA_LENGTH];
 		System.arraycopy(
 			stringToByteArray(graph.getGraphTitle(), 400),
 			0, metadata, 0, 400
@@ -225,13 +254,8 @@ public final class Main {
 		);
 		seriesCopy(graph.getGridlinesX(), metadata, 800);
 		seriesCopy(graph.getGridlinesY(), metadata, 864);
-		if (graph.getGraphType().equals(Graph.SCATTERPLOT)) {
-			metadata[928] = 1;
-		} else if (graph.getGraphType().equals(Graph.LINE)) {
-			metadata[928] = 2;
-		} else if (graph.getGraphType().equals(Graph.BAR)) {
-			metadata[928] = 3;
-		}
+		metadata[928] = ProjectData.encodeGraphType(
+			graph.getGraphType(), graph.getAutoAxes());
 		System.arraycopy(
 			FileDataManager.intToByteArray(plottableTable.getDataSets().size()),
 			0, metadata, 929, 4
@@ -240,7 +264,7 @@ public final class Main {
 			FileDataManager.intToByteArray(dataTable.getData().size()),
 			0, metadata, 933, 4
 		);
-		FileDataManager.writeByteList(Arrays.asList(metadata), 0);
+		FileDataManager.writeBytes(metadata, 0);
 	}
 
 
@@ -253,8 +277,7 @@ public final class Main {
 	 * too short, it is padded with zeroes.
 	 * @return The byte array.
 	 */
-	public static Byte[] stringToByteArray(String s, int size) {
-		Byte[] ba = new Byte[size];
+	public static byte[] stringToByteArray(String s, int size) {
 		byte[] byteArray;
 		try {
 			byteArray = s.getBytes(CHARSET);
@@ -263,21 +286,8 @@ public final class Main {
 			return null;
 		}
 
-		try {
-			int i = 0;
-			while (i < byteArray.length && i < size) {
-				ba[i] = byteArray[i];
-				i++;
-			}
-			while (i < ba.length) {
-				ba[i] = 0;
-				i++;
-			}
-		} catch (IndexOutOfBoundsException e) {
-			System.err.printf("Out of bounds (\"%s\" -> %d)%n", s, size);
-		}
-
-		return ba;
+		// Copying into a fresh array truncates or zero-pads as needed
+		return Arrays.copyOf(byteArray, size);
 	}
 
 
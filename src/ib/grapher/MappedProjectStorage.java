@@ -0,0 +1,172 @@
+package ib.grapher;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Project storage which maps the whole project file into memory, so that
+ * records can be copied in and out with bulk gets and puts instead of
+ * system calls. The mapping is rebuilt whenever the file changes length.
+ * <p>
+ * Resizing the file unmaps and remaps it, so a storage must not be used by
+ * another thread while it is being resized. {@link FileDataManager} makes
+ * sure of this by only using its storage while holding its file lock.
+ */
+public class MappedProjectStorage implements ProjectStorage {
+	// MARK: Constructor
+	/**
+	 * Sole constructor. Maps the file into memory straight away.
+	 * @param file The open project file to store data in.
+	 * @throws IOException If the file could not be mapped, or is too large to
+	 * fit in a single mapping.
+	 */
+	public MappedProjectStorage(RandomAccessFile file) throws IOException {
+		this.file = file;
+		this.channel = file.getChannel();
+		refresh();
+	}
+
+
+
+	// MARK: Constants
+	/** The largest file that can be held in one mapping. */
+	public static final long MAX_MAPPING = Integer.MAX_VALUE;
+
+	/**
+	 * The JDK's internal means of releasing a mapping straight away, as the
+	 * {@code sun.misc.Unsafe} instance and its {@code invokeCleaner} method,
+	 * or null if this JDK doesn't have one. Without it, a mapping is only
+	 * released once it has been garbage collected.
+	 */
+	private static final Object UNSAFE;
+	/** The {@code invokeCleaner} method of {@link #UNSAFE}. */
+	private static final Method INVOKE_CLEANER;
+	static {
+		Object unsafe = null;
+		Method invokeCleaner = null;
+		try {
+			Class<?> type = Class.forName("sun.misc.Unsafe");
+			Field field = type.getDeclaredField("theUnsafe");
+			field.setAccessible(true);
+			unsafe = field.get(null);
+			invokeCleaner = type.getMethod("invokeCleaner", ByteBuffer.class);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			unsafe = null;
+			invokeCleaner = null;
+		}
+		UNSAFE = unsafe;
+		INVOKE_CLEANER = invokeCleaner;
+	}
+
+
+
+	// MARK: Properties
+	/** The open project file. */
+	private final RandomAccessFile file;
+	/** The channel the project file is mapped through. */
+	private final FileChannel channel;
+	/** The mapped contents of the file. */
+	private MappedByteBuffer buffer;
+	/** The number of bytes currently mapped, which matches the file length. */
+	private int mappedLength;
+
+
+
+	// MARK: Methods
+	@Override
+	public int read(long pos, byte[] destination, int offset, int len) {
+		if (pos >= mappedLength)
+			return 0;
+
+		int count = (int) Math.min(len, mappedLength - pos);
+		buffer.get((int) pos, destination, offset, count);
+		return count;
+	}
+
+
+
+	@Override
+	public void write(long pos, byte[] source, int offset, int len)
+			throws IOException {
+		if (pos + len > mappedLength)
+			setLength(pos + len);
+
+		buffer.put((int) pos, source, offset, len);
+	}
+
+
+
+	@Override
+	public long length() {
+		return mappedLength;
+	}
+
+
+
+	@Override
+	public void setLength(long length) throws IOException {
+		if (length > MAX_MAPPING)
+			throw new IOException("Project file is too large to map.");
+
+		// Some platforms, such as Windows, refuse to truncate a file that is
+		// still mapped, and dropping the buffer doesn't unmap it, so the old
+		// mapping is released explicitly first. Either way, the file is
+		// remapped at whatever length it ends up with.
+		if (length < mappedLength)
+			unmap();
+		try {
+			file.setLength(length);
+		} finally {
+			refresh();
+		}
+	}
+
+
+
+	@Override
+	public void refresh() throws IOException {
+		long length = channel.size();
+		if (length > MAX_MAPPING)
+			throw new IOException("Project file is too large to map.");
+
+		mappedLength = (int) length;
+		buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, mappedLength);
+	}
+
+
+
+	@Override
+	public void sync() throws IOException {
+		buffer.force();
+		channel.force(false);
+	}
+
+
+
+	/**
+	 * Releases the current mapping straight away, if this JDK allows it.
+	 * Changes made through the mapping are already part of the file, so
+	 * nothing is lost. The buffer must not be used again afterwards, so it
+	 * is dropped first.
+	 */
+	private void unmap() {
+		MappedByteBuffer old = buffer;
+		buffer = null;
+		mappedLength = 0;
+		if (old == null || INVOKE_CLEANER == null)
+			return;
+
+		try {
+			INVOKE_CLEANER.invoke(UNSAFE, old);
+		} catch (IllegalAccessException | InvocationTargetException e) {
+			System.err.println("Could not unmap the project file.");
+			e.printStackTrace();
+		}
+	}
+}
@@ -7,6 +7,7 @@ import java.awt.event.KeyEvent;
 
 import java.io.File;
 
+import javax.swing.JCheckBoxMenuItem;
 import javax.swing.JMenuBar;
 import javax.swing.JMenu;
 import javax.swing.JMenuItem;
@@ -31,9 +32,8 @@ public class MenuBar extends JMenuBar {
 		));
 		projectSaveAs.addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent e) {
-				FileDataManager.openFile(FileDataManager.chooseFile(
+				FileDataManager.saveAs(FileDataManager.chooseFile(
 					".graph", "Grapher Files", true));
-				Main.saveAllData();
 			}
 		});
 		menuProject.add(projectSaveAs);
@@ -56,6 +56,27 @@ public class MenuBar extends JMenuBar {
 		});
 		menuProject.add(projectOpen);
 
+		menuProject.addSeparator();
+
+		JCheckBoxMenuItem projectJournal = new JCheckBoxMenuItem("Journal Edits");
+		projectJournal.setSelected(FileDataManager.isJournaling());
+		projectJournal.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				FileDataManager.setJournaling(projectJournal.isSelected());
+				projectJournal.setSelected(FileDataManager.isJournaling());
+			}
+		});
+		menuProject.add(projectJournal);
+
+		JCheckBoxMenuItem projectLazy = new JCheckBoxMenuItem("Open Large Projects Lazily");
+		projectLazy.setSelected(FileDataManager.isLazyLoading());
+		projectLazy.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				FileDataManager.setLazyLoading(projectLazy.isSelected());
+			}
+		});
+		menuProject.add(projectLazy);
+
 		// Data menu
 		JMenu menuData = new JMenu("Data");
 		add(menuData);
@@ -83,17 +104,30 @@ public class MenuBar extends JMenuBar {
 		dataSort.addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent e) {
 				Main.getDataTable().sortBySelectedColumn();
-				Main.updateAllComponents();
-				// Save the sorted data. Series don't need to be saved.
-				for (Series r : Main.getDataTable().getData()) {
-					for (Cell c : r) {
-						c.save();
-					}
-				}
 			}
 		});
 		menuData.add(dataSort);
 
+		JMenuItem dataSortDescending = new JMenuItem("Sort by Selected Column (Descending)");
+		dataSortDescending.setAccelerator(KeyStroke.getKeyStroke(
+			KeyEvent.VK_R,
+			Toolkit.getDefaultToolkit().getMenuShortcutKeyMaskEx() | KeyEvent.SHIFT_DOWN_MASK
+		));
+		dataSortDescending.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				Main.getDataTable().sortBySelectedColumn(true);
+			}
+		});
+		menuData.add(dataSortDescending);
+
+		JMenuItem dataSortMultiple = new JMenuItem("Sort by Multiple Columns...");
+		dataSortMultiple.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				Main.getDataTable().sortByMultipleColumns();
+			}
+		});
+		menuData.add(dataSortMultiple);
+
 		JMenuItem dataSearch = new JMenuItem("Search");
 		dataSearch.setAccelerator(KeyStroke.getKeyStroke(
 			KeyEvent.VK_F,
@@ -0,0 +1,254 @@
+package ib.grapher;
+
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.NumberFormat;
+import java.text.ParsePosition;
+import java.util.Locale;
+
+/**
+ * A parser which reads numbers written in the default locale, giving the same
+ * results as {@link NumberFormat#getNumberInstance(Locale)}. Plain numbers
+ * like {@code -1,234.5} or {@code 6.02E23} are read directly from the string
+ * without creating any objects; anything unusual is handed to a
+ * {@link NumberFormat} instead. A parser is not thread-safe, so each thread
+ * should use its own.
+ */
+public class NumberParser {
+	// MARK: Constructor
+	/** Sole constructor. Creates a parser for the default locale. */
+	public NumberParser() {
+		updateLocale();
+	}
+
+
+
+	// MARK: Constants
+	/**
+	 * The largest mantissa that can be converted to a double exactly. Along
+	 * with {@link #POWERS_OF_TEN}, this allows numbers to be converted with a
+	 * single, correctly rounded multiplication or division (Clinger, 1990).
+	 */
+	private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+	/** Every power of ten which can be stored exactly as a double. */
+	private static final double[] POWERS_OF_TEN = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+		1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+	};
+
+
+
+	// MARK: Properties
+	/** The locale the symbols below were read from. */
+	private Locale locale;
+	/** The character separating the whole and fractional parts of a number. */
+	private char decimalSeparator;
+	/** The character separating groups of digits, such as thousands. */
+	private char groupingSeparator;
+	/** The character marking a number as negative. */
+	private char minusSign;
+	/** The character for zero, if the locale does not use ASCII digits. */
+	private char zeroDigit;
+	/** The string separating a number from its exponent. */
+	private String exponentSeparator;
+	/** A number format for anything too unusual to be parsed directly. */
+	private NumberFormat format;
+	/**
+	 * Whether or not numbers in the default locale are simple enough to be
+	 * parsed directly, with a plain minus sign and no other prefixes or
+	 * suffixes.
+	 */
+	private boolean plain;
+
+	/** The value of the last number parsed. */
+	private double value;
+
+
+
+	// MARK: Methods
+	/**
+	 * Parses a number from the start of a string. Like
+	 * {@link NumberFormat#parse(String)}, anything after the number is
+	 * ignored.
+	 * @param s The string to parse
+	 * @return Whether or not the string started with a number. If it did, the
+	 * number can be read with {@link #getValue()}.
+	 */
+	public boolean parse(String s) {
+		// Empty cells are common, and never numbers
+		if (s.isBlank())
+			return false;
+
+		if (Locale.getDefault() != locale)
+			updateLocale();
+
+		if (plain && parsePlain(s))
+			return true;
+
+		// Parsing with a position reports failure without throwing, which
+		// is much cheaper for the many cells that aren't numbers
+		ParsePosition position = new ParsePosition(0);
+		Number n = format.parse(s, position);
+		if (n == null || position.getIndex() == 0 || position.getErrorIndex() >= 0)
+			return false;
+		value = n.doubleValue();
+		return true;
+	}
+
+
+
+	/**
+	 * Tries to parse a string made up of only an optional minus sign, digits
+	 * with grouping separators between them, an optional decimal part, and
+	 * an optional exponent. Numbers which cannot be converted exactly with
+	 * a single multiplication or division are rejected, along with anything
+	 * else, so that they can be parsed by {@link #format} instead.
+	 * @param s The string to parse
+	 * @return Whether or not the string was parsed
+	 */
+	private boolean parsePlain(String s) {
+		final int len = s.length();
+		int i = 0;
+
+		boolean negative = false;
+		if (i < len && s.charAt(i) == minusSign) {
+			negative = true;
+			i++;
+		}
+
+		long mantissa = 0;
+		int digits = 0;
+		int exponent = 0;
+		boolean seenDigit = false;
+		boolean fraction = false;
+
+		for (; i < len; i++) {
+			char c = s.charAt(i);
+			int d = digit(c);
+			if (d >= 0) {
+				seenDigit = true;
+				if (mantissa == 0 && d == 0) {
+					// Leading zeroes don't count towards precision
+					if (fraction)
+						exponent--;
+					continue;
+				}
+				if (++digits > 18)
+					return false;
+				mantissa = mantissa * 10 + d;
+				if (fraction)
+					exponent--;
+			} else if (c == groupingSeparator && !fraction) {
+				// Only allowed between two digits
+				if (!seenDigit || i + 1 >= len || digit(s.charAt(i + 1)) < 0)
+					return false;
+			} else if (c == decimalSeparator && !fraction) {
+				fraction = true;
+			} else {
+				break;
+			}
+		}
+
+		if (!seenDigit)
+			return false;
+
+		if (i < len) {
+			if (!s.startsWith(exponentSeparator, i))
+				return false;
+			i += exponentSeparator.length();
+
+			boolean negativeExponent = false;
+			if (i < len && s.charAt(i) == minusSign) {
+				negativeExponent = true;
+				i++;
+			}
+			if (i >= len)
+				return false;
+
+			int e = 0;
+			for (; i < len; i++) {
+				int d = digit(s.charAt(i));
+				if (d < 0 || e > 1000)
+					return false;
+				e = e * 10 + d;
+			}
+			exponent += negativeExponent ? -e : e;
+		}
+
+		double result;
+		if (mantissa == 0) {
+			result = 0;
+		} else if (mantissa > MAX_EXACT_MANTISSA) {
+			return false;
+		} else if (exponent >= 0 && exponent < POWERS_OF_TEN.length) {
+			result = mantissa * POWERS_OF_TEN[exponent];
+		} else if (exponent < 0 && -exponent < POWERS_OF_TEN.length) {
+			result = mantissa / POWERS_OF_TEN[-exponent];
+		} else {
+			return false;
+		}
+
+		value = negative ? -result : result;
+		return true;
+	}
+
+
+
+	/**
+	 * Reads the symbols used to write numbers in the default locale, so that
+	 * changes to the locale take effect.
+	 */
+	private void updateLocale() {
+		locale = Locale.getDefault();
+		DecimalFormatSymbols symbols = DecimalFormatSymbols.getInstance(locale);
+		decimalSeparator = symbols.getDecimalSeparator();
+		groupingSeparator = symbols.getGroupingSeparator();
+		minusSign = symbols.getMinusSign();
+		zeroDigit = symbols.getZeroDigit();
+		exponentSeparator = symbols.getExponentSeparator();
+		format = NumberFormat.getNumberInstance(locale);
+
+		plain = false;
+		if (format instanceof DecimalFormat) {
+			DecimalFormat df = (DecimalFormat) format;
+			plain = df.getPositivePrefix().isEmpty()
+				&& df.getPositiveSuffix().isEmpty()
+				&& df.getNegativePrefix().equals(String.valueOf(minusSign))
+				&& df.getNegativeSuffix().isEmpty()
+				&& df.getMultiplier() == 1
+				&& !df.isParseBigDecimal()
+				&& !df.isParseIntegerOnly();
+		}
+	}
+
+
+
+	// MARK: Convenience
+	/**
+	 * Gets the value of a digit.
+	 * @param c The character to read
+	 * @return The value of the digit, or -1 if the character is not a digit
+	 * in ASCII or in the default locale
+	 */
+	private int digit(char c) {
+		if (c >= '0' && c <= '9')
+			return c - '0';
+		if (c >= zeroDigit && c <= zeroDigit + 9)
+			return c - zeroDigit;
+		return -1;
+	}
+
+
+
+	// MARK: Getters / Setters
+	/**
+	 * Getter: Gets the value of the last number parsed.
+	 * @return {@link #value}
+	 */
+	public double getValue() {
+		return value;
+	}
+
+	// value has no setter, as it is set by parsing.
+}
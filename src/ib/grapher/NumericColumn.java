@@ -0,0 +1,190 @@
+package ib.grapher;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * A column of a project whose cells are all either empty or numbers, stored
+ * as packed doubles and a bitmap of which cells hold a number, rather than
+ * as strings. The text of each cell is only built when it is asked for.
+ * <p>
+ * A column is only stored this way if the text of every number is exactly
+ * what {@link #format(double)} gives for it, so no text is ever changed by
+ * being stored as a number. Editing the column, such as while replaying a
+ * journal, turns it back into a column of strings.
+ */
+public class NumericColumn extends AbstractList<String> implements RandomAccess {
+	// MARK: Constructor
+	/**
+	 * Sole constructor. The arrays are used directly, not copied.
+	 * @param numbers The value of each cell, which is only meaningful where
+	 * the matching bit of {@code present} is set
+	 * @param present A bitmap of which cells hold a number; every other cell
+	 * is empty
+	 * @param size The number of cells in the column
+	 */
+	public NumericColumn(double[] numbers, long[] present, int size) {
+		this.numbers = numbers;
+		this.present = present;
+		this.size = size;
+	}
+
+
+
+	// MARK: Properties
+	/** The value of each cell, where {@link #present} says there is one. */
+	private final double[] numbers;
+	/** A bitmap of which cells hold a number. */
+	private final long[] present;
+	/** The number of cells in the column. */
+	private final int size;
+	/**
+	 * The text of every cell, once the column has been edited, or null if it
+	 * is still packed.
+	 */
+	private List<String> text;
+
+
+
+	// MARK: Methods
+	/**
+	 * Packs a series into a numeric column, if every one of its cells is
+	 * empty or holds a number in the form {@link #format(double)} gives.
+	 * @param series The series to pack
+	 * @return The packed column, or null if the series can't be packed
+	 */
+	public static NumericColumn copyOf(Series series) {
+		int length = series.length();
+		double[] numbers = new double[length];
+		long[] present = new long[(length + 63) >>> 6];
+		for (int row = 0; row < length; row++) {
+			if (series.isNumeric(row)) {
+				if (!series.hasCanonicalText(row))
+					return null;
+				numbers[row] = series.getNumeric(row);
+				present[row >>> 6] |= 1L << row;
+			} else if (!series.get(row).isEmpty()) {
+				return null;
+			}
+		}
+		return new NumericColumn(numbers, present, length);
+	}
+
+
+
+	/**
+	 * Formats a number the way a packed column shows it: whole numbers
+	 * without a decimal point, and everything else as {@link Double#toString}
+	 * does.
+	 * @param value The number to format
+	 * @return The text of the number
+	 */
+	public static String format(double value) {
+		if (value == Math.rint(value) && Math.abs(value) < 1e15)
+			return Long.toString((long) value);
+		return Double.toString(value);
+	}
+
+
+
+	@Override
+	public String get(int index) {
+		if (text != null)
+			return text.get(index);
+
+		if (index < 0 || index >= size)
+			throw new IndexOutOfBoundsException(
+				String.format("Row %d out of bounds for length %d", index, size));
+		return hasNumber(index) ? format(numbers[index]) : "";
+	}
+
+
+
+	@Override
+	public int size() {
+		return text != null ? text.size() : size;
+	}
+
+
+
+	@Override
+	public String set(int index, String value) {
+		return unpack().set(index, value);
+	}
+
+
+
+	@Override
+	public void add(int index, String value) {
+		unpack().add(index, value);
+		modCount++;
+	}
+
+
+
+	@Override
+	public String remove(int index) {
+		modCount++;
+		return unpack().remove(index);
+	}
+
+
+
+	/**
+	 * Turns this column into a column of strings, so that it can be edited.
+	 * @return {@link #text}
+	 */
+	private List<String> unpack() {
+		if (text == null) {
+			List<String> unpacked = new ArrayList<>(size + 1);
+			for (int i = 0; i < size; i++) {
+				unpacked.add(get(i));
+			}
+			text = unpacked;
+		}
+		return text;
+	}
+
+
+
+	// MARK: Getters / Setters
+	/**
+	 * Getter: Checks whether this column is still packed, or has been turned
+	 * into strings by being edited.
+	 * @return true if {@link #getNumbers()} and {@link #getPresent()} hold
+	 * the column
+	 */
+	public boolean isPacked() {
+		return text == null;
+	}
+
+	/**
+	 * Getter: Checks whether a cell of a packed column holds a number.
+	 * @param index The index of the cell
+	 * @return true if the cell holds a number, false if it is empty
+	 */
+	public boolean hasNumber(int index) {
+		return (present[index >>> 6] & (1L << index)) != 0;
+	}
+
+	/**
+	 * Getter: Gets the value of each cell of a packed column. The array is
+	 * not copied, and may be longer than the column.
+	 * @return {@link #numbers}
+	 */
+	public double[] getNumbers() {
+		return numbers;
+	}
+
+	/**
+	 * Getter: Gets the bitmap of which cells of a packed column hold a
+	 * number. The array is not copied, and may be longer than the column
+	 * needs.
+	 * @return {@link #present}
+	 */
+	public long[] getPresent() {
+		return present;
+	}
+}
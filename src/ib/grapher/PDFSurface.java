@@ -0,0 +1,630 @@
+package ib.grapher;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * A drawing surface that streams a single page PDF document straight to a
+ * file. Only the small part of PDF needed to draw graphs is written: lines,
+ * text in the standard Helvetica fonts, a marker shared by every point, and
+ * images.
+ * <p>
+ * The page's drawing commands are compressed and written as they are drawn.
+ * Everything the page refers to, such as the lengths of streams and the
+ * images it draws, is written after the page, since PDF lets objects appear
+ * in any order.
+ */
+public class PDFSurface extends VectorSurface {
+	// MARK: Constructor
+	/**
+	 * Sole constructor. Creates or overwrites the file and writes the start
+	 * of the document, up to the start of the page's drawing commands.
+	 * @param destination The file to write
+	 * @param width The width of the page, in units
+	 * @param height The height of the page, in units
+	 * @throws IOException If the file could not be opened or written
+	 */
+	public PDFSurface(File destination, int width, int height) throws IOException {
+		super(width, height);
+		channel = FileChannel.open(
+			destination.toPath(),
+			StandardOpenOption.WRITE,
+			StandardOpenOption.CREATE,
+			StandardOpenOption.TRUNCATE_EXISTING
+		);
+		out = new CountingStream(new BufferedOutputStream(
+			Channels.newOutputStream(channel), BUFFER_SIZE));
+
+		try {
+			// The comment of high bytes marks the file as binary
+			write("%PDF-1.4\n%\u00e2\u00e3\u00cf\u00d3\n");
+
+			beginObject(CATALOG);
+			write("<< /Type /Catalog /Pages " + PAGES + " 0 R >>\nendobj\n");
+			beginObject(PAGES);
+			write("<< /Type /Pages /Kids [" + PAGE + " 0 R] /Count 1 >>\nendobj\n");
+			beginObject(PAGE);
+			write(String.format(
+				Locale.ROOT,
+				"<< /Type /Page /Parent %d 0 R /MediaBox [0 0 %s %s]"
+					+ " /Resources %d 0 R /Contents %d 0 R >>\nendobj\n",
+				PAGES,
+				number(width * POINTS_PER_UNIT),
+				number(height * POINTS_PER_UNIT),
+				RESOURCES,
+				CONTENTS
+			));
+
+			content = beginStream(CONTENTS, CONTENTS_LENGTH, "");
+			// Flip the page so that units run down from the top left, like
+			// the screen, and start with a white background
+			write(content, String.format(
+				Locale.ROOT,
+				"%s 0 0 %s 0 %s cm 1 w 2 J 1 g 0 0 %d %d re f%n",
+				number(POINTS_PER_UNIT),
+				number(-POINTS_PER_UNIT),
+				number(height * POINTS_PER_UNIT),
+				width,
+				height
+			));
+		} catch (IOException e) {
+			release();
+			throw e;
+		}
+	}
+
+
+
+	// MARK: Constants
+	/** The number of bytes buffered before they are written to the file. */
+	private static final int BUFFER_SIZE = 1 << 16;
+	/** The number of PDF points (72 to an inch) in each unit of the graph. */
+	private static final double POINTS_PER_UNIT = 72 / GraphRenderer.BASE_DPI;
+	/**
+	 * How far the control points of a cubic Bezier curve sit from the ends of
+	 * a quarter circle, relative to its radius.
+	 */
+	private static final double KAPPA = 0.5522847498;
+
+	/** The object number of the document catalog. */
+	private static final int CATALOG = 1;
+	/** The object number of the page tree. */
+	private static final int PAGES = 2;
+	/** The object number of the page. */
+	private static final int PAGE = 3;
+	/** The object number of the page's resource dictionary. */
+	private static final int RESOURCES = 4;
+	/** The object number of the page's drawing commands. */
+	private static final int CONTENTS = 5;
+	/** The object number of the length of the page's drawing commands. */
+	private static final int CONTENTS_LENGTH = 6;
+	/** The object number of the marker drawn at each point. */
+	private static final int MARKER = 7;
+	/** The object number of the marker's length. */
+	private static final int MARKER_LENGTH = 8;
+	/**
+	 * The object number of the first font, followed by one for each of
+	 * {@link #FONT_NAMES}.
+	 */
+	private static final int FONTS = 9;
+	/** The standard fonts used for plain, bold, italic, and bold italic text. */
+	private static final String[] FONT_NAMES = {
+		"Helvetica",
+		"Helvetica-Bold",
+		"Helvetica-Oblique",
+		"Helvetica-BoldOblique"
+	};
+
+
+
+	// MARK: Properties
+	/** The file being written. */
+	private final FileChannel channel;
+	/** Buffers the document and counts how much of it has been written. */
+	private final CountingStream out;
+	/** The page's drawing commands, compressed as they are written. */
+	private final DeflaterOutputStream content;
+	/** Holds each drawing command while it is being built. */
+	private final StringBuilder command = new StringBuilder(128);
+
+	/** The position in the file of each object, by object number. */
+	private long[] offsets = new long[32];
+	/** The object number to give the next object allocated. */
+	private int nextObject = FONTS + FONT_NAMES.length;
+	/** The images drawn on the page, written once the page is finished. */
+	private final List<BufferedImage> images = new ArrayList<>();
+	/** The colour last set in the drawing commands, or null if none has been. */
+	private Color pageColour;
+
+
+
+	// MARK: Methods
+	/**
+	 * Writes a line, with its ends in the middle of their pixels so that it
+	 * lines up with the pixels of the image export.
+	 * @param x1 The x-coordinate of the first point
+	 * @param y1 The y-coordinate of the first point
+	 * @param x2 The x-coordinate of the second point
+	 * @param y2 The y-coordinate of the second point
+	 */
+	@Override
+	public void drawLine(int x1, int y1, int x2, int y2) {
+		command.setLength(0);
+		command.append(originX + x1 + 0.5).append(' ')
+			.append(originY + y1 + 0.5).append(" m ")
+			.append(originX + x2 + 0.5).append(' ')
+			.append(originY + y2 + 0.5).append(" l S\n");
+		writeCommand();
+	}
+
+
+
+	/**
+	 * Writes a line of text.
+	 * @param text The text to draw
+	 * @param x The x-coordinate of the left of the text
+	 * @param y The y-coordinate of the baseline of the text
+	 */
+	@Override
+	public void drawString(String text, int x, int y) {
+		writeText(text, originX + x, originY + y, "1 0 0 -1");
+	}
+
+
+
+	/**
+	 * Writes a line of text, rotated to read upwards.
+	 * @param text The text to draw
+	 * @param x The x-coordinate of the baseline of the text
+	 * @param y The y-coordinate of the bottom of the text
+	 */
+	@Override
+	public void drawVerticalString(String text, int x, int y) {
+		writeText(text, originX + x, originY + y, "0 -1 -1 0");
+	}
+
+
+
+	/**
+	 * Writes a reference to the marker, moved to a point. The marker is only
+	 * drawn once, at the end of the document.
+	 * @param x The x-coordinate of the point
+	 * @param y The y-coordinate of the point
+	 */
+	@Override
+	public void drawMarker(int x, int y) {
+		command.setLength(0);
+		command.append("q 1 0 0 1 ").append(originX + x + 0.5).append(' ')
+			.append(originY + y + 0.5).append(" cm /M Do Q\n");
+		writeCommand();
+	}
+
+
+
+	/**
+	 * Writes a reference to an image. The image itself is written once the
+	 * page is finished.
+	 * @param image The image to draw
+	 * @param x The x-coordinate of the left of the rectangle
+	 * @param y The y-coordinate of the top of the rectangle
+	 * @param width The width of the rectangle
+	 * @param height The height of the rectangle
+	 */
+	@Override
+	public void drawImage(BufferedImage image, int x, int y, int width, int height) {
+		// Images are drawn into a unit square with its origin at the bottom
+		// left, so the square is flipped back over as it is stretched.
+		command.setLength(0);
+		command.append("q ").append(width).append(" 0 0 ").append(-height).append(' ')
+			.append(originX + x).append(' ').append(originY + y + height)
+			.append(" cm /Im").append(images.size()).append(" Do Q\n");
+		if (writeCommand())
+			images.add(image);
+	}
+
+
+
+	/**
+	 * Finishes the page's drawing commands, then writes everything they refer
+	 * to, the table of where each object is, and the trailer.
+	 * @throws IOException If the end of the document could not be written
+	 */
+	@Override
+	protected void finish() throws IOException {
+		endStream(content, CONTENTS_LENGTH);
+
+		// Resources
+		int[] imageObjects = new int[images.size()];
+		for (int i = 0; i < imageObjects.length; i++) {
+			imageObjects[i] = nextObject;
+			nextObject += 4;
+		}
+
+		beginObject(RESOURCES);
+		StringBuilder resources = new StringBuilder("<< /Font <<");
+		for (int i = 0; i < FONT_NAMES.length; i++) {
+			resources.append(" /F").append(i).append(' ').append(FONTS + i).append(" 0 R");
+		}
+		resources.append(" >> /XObject << /M ").append(MARKER).append(" 0 R");
+		for (int i = 0; i < imageObjects.length; i++) {
+			resources.append(" /Im").append(i).append(' ').append(imageObjects[i]).append(" 0 R");
+		}
+		resources.append(" >> >>\nendobj\n");
+		write(resources.toString());
+
+		for (int i = 0; i < FONT_NAMES.length; i++) {
+			beginObject(FONTS + i);
+			write("<< /Type /Font /Subtype /Type1 /BaseFont /" + FONT_NAMES[i]
+				+ " /Encoding /WinAnsiEncoding >>\nendobj\n");
+		}
+
+		// Marker: two circles, as the screen draws them
+		OutputStream marker = beginStream(MARKER, MARKER_LENGTH,
+			"/Type /XObject /Subtype /Form /BBox [-4 -4 4 4] ");
+		command.setLength(0);
+		appendCircle(3);
+		appendCircle(2);
+		write(marker, command.toString());
+		endStream(marker, MARKER_LENGTH);
+
+		for (int i = 0; i < imageObjects.length; i++) {
+			writeImage(images.get(i), imageObjects[i]);
+		}
+		images.clear();
+
+		// Cross-reference table and trailer
+		long table = out.getCount();
+		StringBuilder xref = new StringBuilder(20 * nextObject + 128);
+		xref.append("xref\n0 ").append(nextObject).append('\n');
+		xref.append("0000000000 65535 f \n");
+		for (int i = 1; i < nextObject; i++) {
+			xref.append(String.format(Locale.ROOT, "%010d 00000 n \n", offsets[i]));
+		}
+		xref.append("trailer\n<< /Size ").append(nextObject)
+			.append(" /Root ").append(CATALOG).append(" 0 R >>\nstartxref\n")
+			.append(table).append("\n%%EOF\n");
+		write(xref.toString());
+		out.flush();
+	}
+
+
+
+	/**
+	 * Closes the file.
+	 * @throws IOException If the file could not be closed
+	 */
+	@Override
+	protected void release() throws IOException {
+		try {
+			out.close();
+		} finally {
+			channel.close();
+		}
+	}
+
+
+
+	/**
+	 * Writes an image as an RGB image with a greyscale mask holding its
+	 * transparency, both compressed.
+	 * @param image The image to write
+	 * @param object The object number of the image; the next three numbers
+	 * are used for its mask and the lengths of both
+	 * @throws IOException If the image could not be written
+	 */
+	private void writeImage(BufferedImage image, int object) throws IOException {
+		final int imageWidth = image.getWidth();
+		final int imageHeight = image.getHeight();
+		String size = String.format(
+			Locale.ROOT,
+			"/Type /XObject /Subtype /Image /Width %d /Height %d /BitsPerComponent 8 ",
+			imageWidth, imageHeight);
+
+		int[] row = new int[imageWidth];
+		byte[] bytes = new byte[imageWidth * 3];
+
+		OutputStream colours = beginStream(object, object + 1,
+			size + "/ColorSpace /DeviceRGB /SMask " + (object + 2) + " 0 R ");
+		for (int y = 0; y < imageHeight; y++) {
+			image.getRGB(0, y, imageWidth, 1, row, 0, imageWidth);
+			for (int x = 0; x < imageWidth; x++) {
+				bytes[3 * x] = (byte) (row[x] >> 16);
+				bytes[3 * x + 1] = (byte) (row[x] >> 8);
+				bytes[3 * x + 2] = (byte) row[x];
+			}
+			colours.write(bytes, 0, imageWidth * 3);
+		}
+		endStream(colours, object + 1);
+
+		OutputStream alpha = beginStream(object + 2, object + 3,
+			size + "/ColorSpace /DeviceGray ");
+		for (int y = 0; y < imageHeight; y++) {
+			image.getRGB(0, y, imageWidth, 1, row, 0, imageWidth);
+			for (int x = 0; x < imageWidth; x++) {
+				bytes[x] = (byte) (row[x] >>> 24);
+			}
+			alpha.write(bytes, 0, imageWidth);
+		}
+		endStream(alpha, object + 3);
+	}
+
+
+
+	/**
+	 * Writes a text object in the current font.
+	 * @param text The text to draw
+	 * @param x The x-coordinate of the start of the text, on the page
+	 * @param y The y-coordinate of the baseline of the text, on the page
+	 * @param direction The first four numbers of the text matrix, which turn
+	 * the text the right way up on the flipped page
+	 */
+	private void writeText(String text, int x, int y, String direction) {
+		int style = (font.isBold() ? 1 : 0) + (font.isItalic() ? 2 : 0);
+		command.setLength(0);
+		command.append("BT /F").append(style).append(' ')
+			.append(number(font.getSize2D())).append(" Tf ")
+			.append(direction).append(' ').append(x).append(' ').append(y)
+			.append(" Tm (");
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c == '(' || c == ')' || c == '\\')
+				command.append('\\');
+			// The standard fonts only cover Latin-1
+			command.append(c < ' ' || c > '\u00ff' ? '?' : c);
+		}
+		command.append(") Tj ET\n");
+		writeCommand();
+	}
+
+
+
+	/**
+	 * Writes the command in {@link #command} to the page, first setting the
+	 * colour if it has changed since the last command.
+	 * @return true if the command was written, false if the document has
+	 * already failed or the write failed
+	 */
+	private boolean writeCommand() {
+		if (hasFailed())
+			return false;
+
+		try {
+			if (!colour.equals(pageColour)) {
+				String rgb = number(colour.getRed() / 255.0) + " "
+					+ number(colour.getGreen() / 255.0) + " "
+					+ number(colour.getBlue() / 255.0);
+				write(content, rgb + " RG " + rgb + " rg\n");
+				pageColour = colour;
+			}
+			write(content, command);
+			return true;
+		} catch (IOException e) {
+			failed(e);
+			return false;
+		}
+	}
+
+
+
+	/**
+	 * Starts a new object in the file, recording where it starts.
+	 * @param object The object number
+	 * @throws IOException If the object could not be written
+	 */
+	private void beginObject(int object) throws IOException {
+		if (object >= offsets.length)
+			offsets = Arrays.copyOf(offsets, Math.max(object + 1, offsets.length * 2));
+		offsets[object] = out.getCount();
+		write(object + " 0 obj\n");
+	}
+
+
+
+	/**
+	 * Starts a new compressed stream object. Its length isn't known until it
+	 * has been written, so it refers to another object for its length, which
+	 * is written by {@link #endStream}.
+	 * @param object The object number of the stream
+	 * @param lengthObject The object number of the stream's length
+	 * @param dictionary Any entries to add to the stream's dictionary, each
+	 * followed by a space
+	 * @return A stream that compresses everything written to it into the file
+	 * @throws IOException If the start of the stream could not be written
+	 */
+	private DeflaterOutputStream beginStream(
+		int object,
+		int lengthObject,
+		String dictionary
+	) throws IOException {
+		beginObject(object);
+		write("<< " + dictionary + "/Length " + lengthObject
+			+ " 0 R /Filter /FlateDecode >>\nstream\n");
+		out.mark();
+		// The file stays open after the stream is finished
+		return new DeflaterOutputStream(new FilterOutputStream(out) {
+			public void write(byte[] b, int off, int len) throws IOException {
+				out.write(b, off, len);
+			}
+
+			public void close() {}
+		});
+	}
+
+
+
+	/**
+	 * Finishes a compressed stream object, and writes its length.
+	 * @param stream The stream, from {@link #beginStream}
+	 * @param lengthObject The object number of the stream's length
+	 * @throws IOException If the stream or its length could not be written
+	 */
+	private void endStream(OutputStream stream, int lengthObject) throws IOException {
+		stream.close();
+		long length = out.getCount() - out.getMark();
+		write("\nendstream\nendobj\n");
+		beginObject(lengthObject);
+		write(length + "\nendobj\n");
+	}
+
+
+
+	/**
+	 * Appends the path of a circle centred on the origin to
+	 * {@link #command}, made of four quarter circles, and strokes it.
+	 * @param r The radius of the circle
+	 */
+	private void appendCircle(double r) {
+		double k = KAPPA * r;
+		appendPoint(r, 0).append("m ");
+		appendPoint(r, k);
+		appendPoint(k, r);
+		appendPoint(0, r).append("c ");
+		appendPoint(-k, r);
+		appendPoint(-r, k);
+		appendPoint(-r, 0).append("c ");
+		appendPoint(-r, -k);
+		appendPoint(-k, -r);
+		appendPoint(0, -r).append("c ");
+		appendPoint(k, -r);
+		appendPoint(r, -k);
+		appendPoint(r, 0).append("c S\n");
+	}
+
+
+
+	/**
+	 * Appends a point to {@link #command}, followed by a space.
+	 * @param x The x-coordinate of the point
+	 * @param y The y-coordinate of the point
+	 * @return {@link #command}
+	 */
+	private StringBuilder appendPoint(double x, double y) {
+		return command.append(number(x)).append(' ').append(number(y)).append(' ');
+	}
+
+
+
+	// MARK: Convenience
+	/**
+	 * Writes text into the file, outside of any stream.
+	 * @param text The text to write, which must be Latin-1
+	 * @throws IOException If the text could not be written
+	 */
+	private void write(String text) throws IOException {
+		out.write(text.getBytes(StandardCharsets.ISO_8859_1));
+	}
+
+
+
+	/**
+	 * Writes text into a stream.
+	 * @param stream The stream to write to
+	 * @param text The text to write, which must be Latin-1
+	 * @throws IOException If the text could not be written
+	 */
+	private static void write(OutputStream stream, CharSequence text) throws IOException {
+		stream.write(text.toString().getBytes(StandardCharsets.ISO_8859_1));
+	}
+
+
+
+	/**
+	 * Formats a number as PDF expects it, which is never in scientific
+	 * notation, with at most four decimal places.
+	 * @param value The number to format
+	 * @return The formatted number
+	 */
+	private static String number(double value) {
+		if (value == Math.rint(value) && Math.abs(value) < 1e15)
+			return Long.toString((long) value);
+
+		String text = String.format(Locale.ROOT, "%.4f", value);
+		int end = text.length();
+		while (text.charAt(end - 1) == '0')
+			end--;
+		if (text.charAt(end - 1) == '.')
+			end--;
+		return text.substring(0, end);
+	}
+
+
+
+	// MARK: CountingStream
+	/**
+	 * A stream that counts the bytes written through it, so that the
+	 * position of each object in the file is known without asking the file.
+	 */
+	private static class CountingStream extends FilterOutputStream {
+		/**
+		 * Sole constructor.
+		 * @param out The stream to count the bytes of
+		 */
+		CountingStream(OutputStream out) {
+			super(out);
+		}
+
+		/** The number of bytes written so far. */
+		private long count;
+		/** The count when {@link #mark} was last called. */
+		private long mark;
+
+		/**
+		 * Writes a single byte.
+		 * @param b The byte to write
+		 * @throws IOException If the byte could not be written
+		 */
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+
+		/**
+		 * Writes many bytes at once.
+		 * @param b The bytes to write
+		 * @param off The index of the first byte to write
+		 * @param len The number of bytes to write
+		 * @throws IOException If the bytes could not be written
+		 */
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+
+		/** Remembers the current count, to measure a stream from. */
+		void mark() {
+			mark = count;
+		}
+
+		/**
+		 * Getter: Gets the number of bytes written so far.
+		 * @return {@link #count}
+		 */
+		long getCount() {
+			return count;
+		}
+
+		/**
+		 * Getter: Gets the count when {@link #mark} was last called.
+		 * @return {@link #mark}
+		 */
+		long getMark() {
+			return mark;
+		}
+	}
+}
@@ -0,0 +1,175 @@
+package ib.grapher;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * A column of a lazily opened project, whose cells are left in the project
+ * file and read through its {@link ProjectPages} as they are needed. Like a
+ * {@link NumericColumn}, editing the column, such as while replaying a
+ * journal, reads every cell and turns it into a column of strings.
+ */
+public class PagedColumn extends AbstractList<String> implements RandomAccess {
+	// MARK: Constructor
+	/**
+	 * Sole constructor.
+	 * @param pages The pages of the project file
+	 * @param column The index of the series this column holds
+	 */
+	public PagedColumn(ProjectPages pages, int column) {
+		this.pages = pages;
+		this.column = column;
+	}
+
+
+
+	// MARK: Properties
+	/** The pages of the project file. */
+	private final ProjectPages pages;
+	/** The index of the series this column holds. */
+	private final int column;
+	/**
+	 * The page last read from, which is checked first, since rows are
+	 * usually read in order.
+	 */
+	private ProjectPages.Page last;
+	/**
+	 * The text of every cell, once the column has been edited, or null if it
+	 * is still in the project file.
+	 */
+	private List<String> text;
+
+
+
+	// MARK: Methods
+	@Override
+	public String get(int index) {
+		if (text != null)
+			return text.get(index);
+		return page(index).get(index);
+	}
+
+
+
+	@Override
+	public int size() {
+		return text != null ? text.size() : pages.getRows();
+	}
+
+
+
+	@Override
+	public String set(int index, String value) {
+		return unpack().set(index, value);
+	}
+
+
+
+	@Override
+	public void add(int index, String value) {
+		unpack().add(index, value);
+		modCount++;
+	}
+
+
+
+	@Override
+	public String remove(int index) {
+		modCount++;
+		return unpack().remove(index);
+	}
+
+
+
+	/**
+	 * Gets the page holding a row of a column that is still in the project
+	 * file.
+	 * @param row The index of the row
+	 * @return The page holding the row
+	 */
+	private ProjectPages.Page page(int row) {
+		ProjectPages.Page page = last;
+		if (page != null && page.contains(row))
+			return page;
+
+		int size = pages.getRows();
+		if (row < 0 || row >= size)
+			throw new IndexOutOfBoundsException(
+				String.format("Row %d out of bounds for length %d", row, size));
+		page = pages.page(column, row);
+		last = page;
+		return page;
+	}
+
+
+
+	/**
+	 * Turns this column into a column of strings, so that it can be edited.
+	 * @return {@link #text}
+	 */
+	private List<String> unpack() {
+		if (text == null) {
+			int size = pages.getRows();
+			List<String> unpacked = new ArrayList<>(size + 1);
+			for (int i = 0; i < size; i++) {
+				unpacked.add(get(i));
+			}
+			text = unpacked;
+			last = null;
+		}
+		return text;
+	}
+
+
+
+	// MARK: Getters / Setters
+	/**
+	 * Getter: Checks whether this column is still in the project file, or
+	 * has been turned into strings by being edited.
+	 * @return true if the other getters can be used
+	 */
+	public boolean isPacked() {
+		return text == null;
+	}
+
+	/**
+	 * Getter: Checks whether a cell of a packed column holds a number.
+	 * @param index The index of the cell
+	 * @return true if the cell holds a number
+	 */
+	public boolean isNumeric(int index) {
+		return page(index).isNumeric(index);
+	}
+
+	/**
+	 * Getter: Gets the numeric value of a cell of a packed column, which is
+	 * only meaningful if {@link #isNumeric(int)} is true.
+	 * @param index The index of the cell
+	 * @return The numeric value of the cell
+	 */
+	public double getNumber(int index) {
+		return page(index).getNumber(index);
+	}
+
+	/**
+	 * Getter: Checks whether a cell of a packed column is empty.
+	 * @param index The index of the cell
+	 * @return true if the cell's text is empty
+	 */
+	public boolean isEmpty(int index) {
+		return page(index).isEmpty(index);
+	}
+
+	/**
+	 * Getter: Checks whether the text of a numeric cell of a packed column
+	 * is exactly what {@link NumericColumn#format(double)} gives for its
+	 * number.
+	 * @param index The index of the cell, which must be numeric
+	 * @return true if the text can be rebuilt from the number
+	 */
+	public boolean hasCanonicalText(int index) {
+		return page(index).hasCanonicalText(index);
+	}
+}
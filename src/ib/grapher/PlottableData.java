@@ -1,12 +1,15 @@
 package ib.grapher;
 
 import java.awt.Color;
-import java.util.Arrays;
 
 /**
- * A class which stores a single set of plottable data.
+ * A class which stores a single set of plottable data. A data set listens to
+ * the series it plots, so that the sums used for its trendline can be kept up
+ * to date as cells are edited, and so that its points are only gathered from
+ * the series again when they change, rather than every time the graph is
+ * drawn.
  */
-public class PlottableData {
+public class PlottableData implements SeriesListener {
 	// MARK: Constructor
 	/** Sole constructor. Sets up visibility and placeholders. */
 	public PlottableData() {
@@ -17,6 +20,23 @@ public class PlottableData {
 
 
 
+	// MARK: Constants
+	/**
+	 * The number of single-cell updates the regression sums can take before
+	 * they are recalculated from scratch, so that rounding errors can't
+	 * build up forever.
+	 */
+	private static final int MAX_SUM_UPDATES = 1 << 16;
+
+	/**
+	 * The number of values stored for each point in the point buffer: its
+	 * X value, its Y value, and the lengths of its horizontal and vertical
+	 * error bars.
+	 */
+	public static final int POINT_STRIDE = 4;
+
+
+
 	// MARK: Properties
 	/** The menu this data set is linked to. */
 	private PlottableDataMenu menu;
@@ -53,6 +73,41 @@ public class PlottableData {
 	/** Pearson correlation coefficient. */
 	private double r;
 
+	// Running sums for linear regression, over every row where both X and Y
+	// are numeric. These are always for y-against-x regression.
+	/** The sum of every X value. */
+	private double sumX;
+	/** The sum of every Y value. */
+	private double sumY;
+	/** The sum of every product of an X value and its Y value. */
+	private double sumXY;
+	/** The sum of the square of every X value. */
+	private double sumXSquared;
+	/** The sum of the square of every Y value. */
+	private double sumYSquared;
+	/** The number of points included in the sums. */
+	private int n;
+	/** Whether or not the sums match the current data. */
+	private boolean sumsValid;
+	/** The number of single-cell updates made since the sums were rebuilt. */
+	private int sumUpdates;
+
+	/**
+	 * Every point in this data set, packed {@link #POINT_STRIDE} values at a
+	 * time. Error bars that shouldn't be drawn are stored as
+	 * {@link Double#MIN_VALUE}.
+	 */
+	private double[] points = new double[0];
+	/** The number of points in {@link #points}. */
+	private int pointCount;
+	/** Whether or not {@link #points} matches the current data. */
+	private boolean pointsValid;
+	/**
+	 * A number which changes every time the points in this data set might
+	 * have changed, so that anything drawn from them knows to redraw.
+	 */
+	private int pointsVersion;
+
 
 
 	// MARK: Methods
@@ -66,12 +121,28 @@ public class PlottableData {
 		System.out.println("SAVE: Plottable");
 		int index = Main.getPlottableTable().getDataSets().indexOf(this);
 
+		ProjectJournal journal = FileDataManager.getJournal();
+		if (journal != null) {
+			journal.setPlottable(index, new ProjectData.Plottable(this));
+			return;
+		}
+
 		int offset = FileDataManager.getOffset(
 			FileDataManager.PLOTTABLE,
 			index
 		);
 
-		Byte[] ba = new Byte[321];
+		FileDataManager.writeBytes(encode(), offset);
+	}
+
+
+
+	/**
+	 * Encodes this plottable data set as a project file record.
+	 * @return An array of {@link FileDataManager#PLOTTABLE_LENGTH} bytes
+	 */
+	public byte[] encode() {
+		byte[] ba = new byte[FileDataManager.PLOTTABLE_LENGTH];
 		System.arraycopy(
 			Main.stringToByteArray(name, 64),
 			0, ba, 0, 64
@@ -81,96 +152,293 @@ public class PlottableData {
 		Main.seriesCopy(errorBarsX, ba, 192);
 		Main.seriesCopy(errorBarsY, ba, 256);
 
-		byte options = 0;
-		if (isActive())
-			options |= 1;
-		if (isLinRegActive())
-			options |= 2;
-		if (isXAgainstY())
-			options |= 4;
-
-		ba[320] = options;
-
-		FileDataManager.writeByteList(Arrays.asList(ba), offset);
+		ba[320] = getOptions();
+		return ba;
 	}
 
 
 
 	/**
 	 * Does linear regression on this data set, storing the results in
-	 * {@link #a}, {@link #b}, and {@link #r}.
+	 * {@link #a}, {@link #b}, and {@link #r}. The regression is worked out
+	 * from running sums, which are only recalculated after rows have been
+	 * inserted, removed, or reordered, so this is cheap enough to call
+	 * every time the graph is drawn.
 	 */
 	public void doLinearRegression() {
-		// This algorithm was adapted from the equations in Stewart, n.d., and tested
-		// against the output of a TI-84 graphing calculator.
-		double sumX = 0;
-		double sumY = 0;
-		double sumXY = 0;
-		double sumXSquared = 0;
-		double sumYSquared = 0;
-		int n = 0;
 		if (dataX == null || dataY == null) {
 			System.err.println("Can't do linear regression without both"
 				+ "horizontal and vertical data.");
 			return;
 		}
 
-		Cell xCell = dataX.getFirst();
-		Cell yCell = dataY.getFirst();
-		while (xCell != null && yCell != null) {
-			try {
-				double x = xCell.getNumeric();
-				double y = yCell.getNumeric();
-				if (XAgainstY) {
-					// Flip the inputs in this case because it's the easiest way
-					// to calculate it.
-					sumX += y;
-					sumY += x;
-					sumXSquared += y * y;
-					sumYSquared += x * x;
-				} else {
-					// For normal, y-against-x regression
-					sumX += x;
-					sumY += y;
-					sumXSquared += x * x;
-					sumYSquared += y * y;
-				}
-				sumXY += x * y;
-				n++;
-			} catch (NumberFormatException e) {
-				System.out.printf(
-					"Skipping invalid data point (%s,%s) in linear regression.%n",
-					xCell.getValue(),
-					yCell.getValue()
-				);
-			}
-			xCell = xCell.getNext();
-			yCell = yCell.getNext();
+		if (!sumsValid)
+			rebuildSums();
+
+		// This algorithm was adapted from the equations in Stewart, n.d., and tested
+		// against the output of a TI-84 graphing calculator.
+		double sumX = this.sumX;
+		double sumY = this.sumY;
+		double sumXSquared = this.sumXSquared;
+		double sumYSquared = this.sumYSquared;
+		if (XAgainstY) {
+			// Flip the inputs in this case because it's the easiest way
+			// to calculate it.
+			sumX = this.sumY;
+			sumY = this.sumX;
+			sumXSquared = this.sumYSquared;
+			sumYSquared = this.sumXSquared;
 		}
 
-		try {
-			a = (sumXY - (sumX * sumY / n)) / (sumXSquared - (sumX * sumX / n));
+		double oldA = a;
+		double oldB = b;
+		double oldR = r;
+
+		// With fewer than 2 points, or every point at the same horizontal
+		// position, no trendline can be calculated. Dividing doubles by zero
+		// doesn't throw, so these cases are checked explicitly.
+		double denominator = sumXSquared - (sumX * sumX / n);
+		if (n < 2 || !(denominator > 0)) {
+			a = Double.MIN_VALUE;
+			b = Double.MIN_VALUE;
+			r = 0;
+		} else {
+			a = (sumXY - (sumX * sumY / n)) / denominator;
 			b = (sumY - a * sumX) / n;
-			r = (n * sumXY - sumX * sumY) / Math.sqrt(
+
+			// r is undefined if every point is at the same vertical position
+			double spread = Math.sqrt(
 				(n * sumXSquared - sumX * sumX)
 				* (n * sumYSquared - sumY * sumY)
 			);
+			r = spread > 0 ? (n * sumXY - sumX * sumY) / spread : 0;
 
 			if (XAgainstY) {
-				// Converting back to the form y = ax + b
-				b = -(b / a);
-				a = 1 / a;
-				// r is the same for both types of regression, and doesn't need
-				// any conversion.
+				if (a == 0) {
+					// A vertical line can't be written as y = ax + b
+					a = Double.MIN_VALUE;
+					b = Double.MIN_VALUE;
+				} else {
+					// Converting back to the form y = ax + b
+					b = -(b / a);
+					a = 1 / a;
+					// r is the same for both types of regression, and doesn't
+					// need any conversion.
+				}
 			}
-		} catch (ArithmeticException e) {
-			// If there are 0 or 1 values being plotted, no trendline can be
-			// calculated.
-			a = Double.MIN_VALUE;
-			b = Double.MIN_VALUE;
-			r = 0;
 		}
-		menu.updateTrendlineLabel();
+
+		if (menu != null && (Double.compare(a, oldA) != 0
+				|| Double.compare(b, oldB) != 0 || Double.compare(r, oldR) != 0))
+			menu.updateTrendlineLabel();
+	}
+
+
+
+	/**
+	 * Recalculates the running sums for linear regression from every point
+	 * in this data set.
+	 */
+	private void rebuildSums() {
+		sumX = 0;
+		sumY = 0;
+		sumXY = 0;
+		sumXSquared = 0;
+		sumYSquared = 0;
+		n = 0;
+
+		int length = Math.min(dataX.length(), dataY.length());
+		for (int i = 0; i < length; i++) {
+			if (dataX.isNumeric(i) && dataY.isNumeric(i))
+				addPoint(dataX.getNumeric(i), dataY.getNumeric(i), 1);
+		}
+
+		sumsValid = true;
+		sumUpdates = 0;
+	}
+
+
+
+	/**
+	 * Gathers every point in this data set into {@link #points}, skipping
+	 * rows where either coordinate isn't numeric.
+	 */
+	private void rebuildPoints() {
+		pointCount = 0;
+		pointsValid = true;
+		if (dataX == null || dataY == null)
+			return;
+
+		int length = Math.min(dataX.length(), dataY.length());
+		if (points.length < length * POINT_STRIDE)
+			points = new double[length * POINT_STRIDE];
+
+		int skipped = 0;
+		int offset = 0;
+		for (int i = 0; i < length; i++) {
+			if (!dataX.isNumeric(i) || !dataY.isNumeric(i)) {
+				// Non-numeric data. Not actually an error, but it'll skip
+				// the pair of cells
+				skipped++;
+				continue;
+			}
+
+			points[offset] = dataX.getNumeric(i);
+			points[offset + 1] = dataY.getNumeric(i);
+			points[offset + 2] = getErrorBar(errorBarsX, i);
+			points[offset + 3] = getErrorBar(errorBarsY, i);
+			offset += POINT_STRIDE;
+		}
+		pointCount = offset / POINT_STRIDE;
+
+		if (skipped > 0)
+			System.out.println("GRAPH: " + skipped + " non-numeric points skipped.");
+	}
+
+
+
+	/**
+	 * Marks the point buffer as out of date, so that it will be rebuilt the
+	 * next time it is needed.
+	 */
+	private void invalidatePoints() {
+		pointsValid = false;
+		pointsVersion++;
+	}
+
+
+
+	/**
+	 * Adds a point to, or removes a point from, the running sums for linear
+	 * regression.
+	 * @param x The X value of the point
+	 * @param y The Y value of the point
+	 * @param sign 1 to add the point, or -1 to remove it
+	 */
+	private void addPoint(double x, double y, int sign) {
+		sumX += sign * x;
+		sumY += sign * y;
+		sumXY += sign * x * y;
+		sumXSquared += sign * x * x;
+		sumYSquared += sign * y * y;
+		n += sign;
+	}
+
+
+
+	/**
+	 * Updates the running sums for linear regression when a single cell in
+	 * {@link #dataX} or {@link #dataY} changes, by removing the old point and
+	 * adding the new one. Any change to a series in this data set marks the
+	 * point buffer as out of date.
+	 * @param series The series that changed
+	 * @param row The index of the row that changed
+	 * @param wasNumeric Whether or not the row held numeric data before
+	 * @param oldNumber The row's old numeric value, if it had one
+	 */
+	@Override
+	public void valueChanged(Series series, int row, boolean wasNumeric, double oldNumber) {
+		invalidatePoints();
+
+		if (!sumsValid || dataX == null || dataY == null)
+			return;
+		if (series != dataX && series != dataY)
+			return;
+		if (row >= Math.min(dataX.length(), dataY.length()))
+			return;
+
+		if (++sumUpdates > MAX_SUM_UPDATES) {
+			sumsValid = false;
+			return;
+		}
+
+		boolean oldValidX = series == dataX ? wasNumeric : dataX.isNumeric(row);
+		boolean oldValidY = series == dataY ? wasNumeric : dataY.isNumeric(row);
+		if (oldValidX && oldValidY) {
+			double oldX = series == dataX ? oldNumber : dataX.getNumeric(row);
+			double oldY = series == dataY ? oldNumber : dataY.getNumeric(row);
+			addPoint(oldX, oldY, -1);
+		}
+
+		if (dataX.isNumeric(row) && dataY.isNumeric(row))
+			addPoint(dataX.getNumeric(row), dataY.getNumeric(row), 1);
+	}
+
+
+
+	/**
+	 * Marks the point buffer and the running sums for linear regression as
+	 * out of date when rows are inserted, removed, or reordered in one of
+	 * this data set's series.
+	 * @param series The series that changed
+	 */
+	@Override
+	public void structureChanged(Series series) {
+		invalidatePoints();
+		if (series == dataX || series == dataY)
+			sumsValid = false;
+	}
+
+
+
+	/**
+	 * Stops this data set from listening to its series, once it has been
+	 * removed from the project.
+	 */
+	public void detach() {
+		if (dataX != null)
+			dataX.removeListener(this);
+		if (dataY != null)
+			dataY.removeListener(this);
+		if (errorBarsX != null)
+			errorBarsX.removeListener(this);
+		if (errorBarsY != null)
+			errorBarsY.removeListener(this);
+	}
+
+
+
+	/**
+	 * Moves this data set's listener from a series it no longer plots to the
+	 * series it now plots, and marks the point buffer and regression sums as
+	 * out of date.
+	 * @param oldSeries The series that was replaced
+	 * @param newSeries The series that replaced it
+	 */
+	private void listenTo(Series oldSeries, Series newSeries) {
+		if (
+			oldSeries != null
+			&& oldSeries != dataX
+			&& oldSeries != dataY
+			&& oldSeries != errorBarsX
+			&& oldSeries != errorBarsY
+		)
+			oldSeries.removeListener(this);
+		if (newSeries != null)
+			newSeries.addListener(this);
+		sumsValid = false;
+		invalidatePoints();
+	}
+
+
+
+	// MARK: Convenience
+	/**
+	 * Finds the length of an error bar, for the point buffer.
+	 * @param errorBars The series of error bars, which may be null
+	 * @param row The row to read
+	 * @return The length of the error bar, or {@link Double#MIN_VALUE} if it
+	 * shouldn't be drawn
+	 */
+	private static double getErrorBar(Series errorBars, int row) {
+		if (errorBars == null || row >= errorBars.length())
+			return Double.MIN_VALUE;
+		if (!errorBars.isNumeric(row)) {
+			// Non-numeric data. Not actually an error, but no error bar
+			// will be drawn
+			return Double.MIN_VALUE;
+		}
+		return errorBars.getNumeric(row);
 	}
 
 
@@ -243,7 +511,9 @@ public class PlottableData {
 	 * @param dataX The new value for {@link #dataX}.
 	 */
 	public void setDataX(Series dataX) {
+		Series old = this.dataX;
 		this.dataX = dataX;
+		listenTo(old, dataX);
 	}
 
 
@@ -261,7 +531,9 @@ public class PlottableData {
 	 * @param dataY The new value for {@link #dataY}.
 	 */
 	public void setDataY(Series dataY) {
+		Series old = this.dataY;
 		this.dataY = dataY;
+		listenTo(old, dataY);
 	}
 
 
@@ -279,7 +551,9 @@ public class PlottableData {
 	 * @param errorBarsX The new value for {@link #errorBarsX}.
 	 */
 	public void setErrorBarsX(Series errorBarsX) {
+		Series old = this.errorBarsX;
 		this.errorBarsX = errorBarsX;
+		listenTo(old, errorBarsX);
 	}
 
 
@@ -297,7 +571,9 @@ public class PlottableData {
 	 * @param errorBarsY The new value for {@link #errorBarsY}.
 	 */
 	public void setErrorBarsY(Series errorBarsY) {
+		Series old = this.errorBarsY;
 		this.errorBarsY = errorBarsY;
+		listenTo(old, errorBarsY);
 	}
 
 
@@ -357,6 +633,71 @@ public class PlottableData {
 
 
 
+	/**
+	 * Gets the option flags of this data set, as stored in the project file.
+	 * Bit 1 is set if the data set is active, bit 2 if linear regression is
+	 * active, and bit 4 if X is regressed against Y.
+	 * @return The option flags
+	 */
+	public byte getOptions() {
+		byte options = 0;
+		if (isActive())
+			options |= 1;
+		if (isLinRegActive())
+			options |= 2;
+		if (isXAgainstY())
+			options |= 4;
+		return options;
+	}
+
+	/**
+	 * Setter: Changes the option flags of this data set all at once.
+	 * @param options The option flags, as in {@link #getOptions()}
+	 */
+	public void setOptions(byte options) {
+		setActive((options & 1) > 0);
+		setLinRegActive((options & 2) > 0);
+		setXAgainstY((options & 4) > 0);
+	}
+
+
+
+	/**
+	 * Getter: Gets every point in this data set, packed
+	 * {@link #POINT_STRIDE} values at a time, gathering them from the series
+	 * first if they have changed. Only the first {@link #getPointCount()}
+	 * points are used, and the array must not be modified.
+	 * @return {@link #points}
+	 */
+	public double[] getPoints() {
+		if (!pointsValid)
+			rebuildPoints();
+		return points;
+	}
+
+	/**
+	 * Getter: Gets the number of points in this data set.
+	 * @return {@link #pointCount}
+	 */
+	public int getPointCount() {
+		if (!pointsValid)
+			rebuildPoints();
+		return pointCount;
+	}
+
+	/**
+	 * Getter: Gets a number which changes whenever the points in this data
+	 * set might have changed.
+	 * @return {@link #pointsVersion}
+	 */
+	public int getPointsVersion() {
+		return pointsVersion;
+	}
+
+	// The point buffer has no setters, as it is gathered from the series.
+
+
+
 	// Linear regression data do not have setters, as they are calculated
 	// by an object of this class.
 
@@ -63,7 +63,7 @@ public class PlottableDataMenu extends JPanel {
 					.setDataX((Series) selectorXAxis.getSelectedItem());
 				if (selectorXAxis.shouldTriggerUpdate()) {
 					PlottableDataMenu.this.getData().save();
-					Main.updateAllComponents();
+					UpdateScheduler.markDirty(UpdateScheduler.PLOTTABLES);
 				}
 			}
 		});
@@ -74,7 +74,7 @@ public class PlottableDataMenu extends JPanel {
 					.setDataY((Series) selectorYAxis.getSelectedItem());
 				if (selectorYAxis.shouldTriggerUpdate()) {
 					PlottableDataMenu.this.getData().save();
-					Main.updateAllComponents();
+					UpdateScheduler.markDirty(UpdateScheduler.PLOTTABLES);
 				}
 			}
 		});
@@ -91,7 +91,7 @@ public class PlottableDataMenu extends JPanel {
 					.setErrorBarsX((Series) selectorXErrorBars.getSelectedItem());
 				if (selectorXErrorBars.shouldTriggerUpdate()) {
 					PlottableDataMenu.this.getData().save();
-					Main.updateAllComponents();
+					UpdateScheduler.markDirty(UpdateScheduler.PLOTTABLES);
 				}
 			}
 		});
@@ -102,7 +102,7 @@ public class PlottableDataMenu extends JPanel {
 					.setErrorBarsY((Series) selectorYErrorBars.getSelectedItem());
 				if (selectorYErrorBars.shouldTriggerUpdate()) {
 					PlottableDataMenu.this.getData().save();
-					Main.updateAllComponents();
+					UpdateScheduler.markDirty(UpdateScheduler.PLOTTABLES);
 				}
 			}
 		});
@@ -114,7 +114,7 @@ public class PlottableDataMenu extends JPanel {
 				PlottableDataMenu.this.getData()
 					.setActive(toggleVisible.isSelected());
 				PlottableDataMenu.this.getData().save();
-				Main.updateAllComponents();
+				UpdateScheduler.markDirty(UpdateScheduler.PLOTTABLES);
 			}
 		});
 
@@ -127,7 +127,7 @@ public class PlottableDataMenu extends JPanel {
 				PlottableDataMenu.this.panelTrendline
 					.setVisible(toggleTrendline.isSelected());
 				PlottableDataMenu.this.getData().save();
-				Main.updateAllComponents();
+				UpdateScheduler.markDirty(UpdateScheduler.PLOTTABLES);
 			}
 		});
 
@@ -136,7 +136,7 @@ public class PlottableDataMenu extends JPanel {
 			public void actionPerformed(ActionEvent e) {
 				PlottableDataMenu.this.getTable()
 					.removePlottableData(PlottableDataMenu.this);
-				Main.updateAllComponents();
+				UpdateScheduler.markDirty(UpdateScheduler.PLOTTABLES);
 			}
 		});
 		buttonRemove.setPreferredSize(new Dimension(60, 20));
@@ -159,7 +159,7 @@ public class PlottableDataMenu extends JPanel {
 					buttonChooseColour.setBackground(newColour);
 					PlottableDataMenu.this.getData().save();
 				}
-				Main.updateAllComponents();
+				UpdateScheduler.markDirty(UpdateScheduler.PLOTTABLES);
 			}
 		});
 		buttonChooseColour.setPreferredSize(new Dimension(60, 20));
@@ -178,7 +178,7 @@ public class PlottableDataMenu extends JPanel {
 				PlottableDataMenu.this.getData()
 					.setXAgainstY(toggleXAgainstY.isSelected());
 				PlottableDataMenu.this.getData().save();
-				Main.updateAllComponents();
+				UpdateScheduler.markDirty(UpdateScheduler.PLOTTABLES);
 			}
 		});
 
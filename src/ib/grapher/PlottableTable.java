@@ -24,7 +24,7 @@ import javax.swing.Box.Filler;
 /**
  * A graphical data table which stores all the data to be entered into a graph.
  */
-public class PlottableTable extends JFrame {
+public class PlottableTable extends JFrame implements Updatable {
 	// MARK: Constructor
 	/** Sole constructor. */
 	public PlottableTable() {
@@ -86,7 +86,7 @@ public class PlottableTable extends JFrame {
 				PlottableTable.this.addPlottableData(pd);
 				FileDataManager.encodeForInsertion(pd);
 				FileDataManager.insertNewBytes();
-				Main.updateAllComponents();
+				UpdateScheduler.markDirty(UpdateScheduler.PLOTTABLES);
 			}
 		});
 		add(addButton, BorderLayout.SOUTH);
@@ -114,6 +114,7 @@ public class PlottableTable extends JFrame {
 	 * Refreshes this panel, by calling {@link #invalidate()},
 	 * {@link #validate()}, and {@link #repaint()}.
 	 */
+	@Override
 	public void doUpdate() {
 		invalidate();
 		validate();
@@ -127,6 +128,9 @@ public class PlottableTable extends JFrame {
 	 * Clears every {@link PlottableData} set from this project.
 	 */
 	public void clear() {
+		for (PlottableData pd : dataSets) {
+			pd.detach();
+		}
 		dataSets.clear();
 	}
 
@@ -157,6 +161,7 @@ public class PlottableTable extends JFrame {
 		FileDataManager.markForDeletion(pdm.getData());
 		FileDataManager.deleteOldBytes();
 		dataSets.remove(pdm.getData());
+		pdm.getData().detach();
 		mainPanel.remove(pdm);
 	}
 
@@ -0,0 +1,585 @@
+package ib.grapher;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A plain, GUI-free copy of everything stored in a project file. Projects are
+ * decoded into one of these before being shown, journal entries are replayed
+ * against one, and snapshots of the open project are encoded from one.
+ */
+public class ProjectData {
+	// MARK: Constructor
+	/** Sole constructor. Creates an empty project. */
+	public ProjectData() {
+		graphTitle = "";
+		axisTitleX = "";
+		axisTitleY = "";
+		gridlinesX = "";
+		gridlinesY = "";
+		graphType = 1;
+		seriesNames = new ArrayList<>();
+		columns = new ArrayList<>();
+		plottables = new ArrayList<>();
+	}
+
+
+
+	// MARK: Properties
+	// These are plain fields rather than getters and setters, since this
+	// class is only a record of a project for the file handling classes.
+
+	/** The title of the graph. */
+	String graphTitle;
+	/** The horizontal axis title of the graph. */
+	String axisTitleX;
+	/** The vertical axis title of the graph. */
+	String axisTitleY;
+	/** The name of the series used for horizontal gridlines. */
+	String gridlinesX;
+	/** The name of the series used for vertical gridlines. */
+	String gridlinesY;
+	/**
+	 * The graph type, as stored in the project metadata, along with the
+	 * {@link #AUTO_AXES} flag.
+	 */
+	byte graphType;
+
+	/** The name of each series, from left to right. */
+	List<String> seriesNames;
+	/**
+	 * The values of the cells in each series, from left to right. Numeric
+	 * series may be held as a {@link NumericColumn}.
+	 */
+	List<List<String>> columns;
+	/** Every plottable data set, in order. */
+	List<Plottable> plottables;
+	/**
+	 * The pages the cells of this project are read from, if they were left
+	 * in the project file, or null if they were all read.
+	 */
+	ProjectPages pages;
+
+
+
+	// MARK: Methods
+	/**
+	 * Copies the open project out of the GUI. This must be called on the
+	 * event dispatch thread, but the copy can then be used anywhere.
+	 * @return A copy of the open project
+	 */
+	public static ProjectData fromProject() {
+		ProjectData pd = new ProjectData();
+		Graph g = Main.getGraph();
+
+		pd.graphTitle = g.getGraphTitle();
+		pd.axisTitleX = g.getAxisTitleX();
+		pd.axisTitleY = g.getAxisTitleY();
+		pd.gridlinesX = nameOf(g.getGridlinesX());
+		pd.gridlinesY = nameOf(g.getGridlinesY());
+		pd.graphType = encodeGraphType(g.getGraphType(), g.getAutoAxes());
+
+		for (Series r : Main.getDataTable().getData()) {
+			pd.seriesNames.add(r.getName());
+
+			// Numeric series are copied as numbers, so they can be saved
+			// without formatting them
+			List<String> column = NumericColumn.copyOf(r);
+			if (column == null) {
+				column = new ArrayList<>(r.length());
+				for (int row = 0; row < r.length(); row++) {
+					column.add(r.get(row));
+				}
+			}
+			pd.columns.add(column);
+		}
+
+		for (PlottableData data : Main.getPlottableTable().getDataSets()) {
+			pd.plottables.add(new Plottable(data));
+		}
+
+		return pd;
+	}
+
+
+
+	/**
+	 * Decodes a project file, in either the versioned format or the legacy
+	 * one.
+	 * @param storage The storage holding the project file
+	 * @return The decoded project, or null if the file is too short to be a
+	 * project
+	 * @throws IOException If the project file could not be read
+	 */
+	public static ProjectData read(ProjectStorage storage) throws IOException {
+		return read(storage, false);
+	}
+
+
+
+	/**
+	 * Decodes a project file, in either the versioned format or the legacy
+	 * one, optionally leaving its cells in the file.
+	 * @param storage The storage holding the project file
+	 * @param paged true to leave the cells of a versioned project file in
+	 * the file, to be read a page at a time as they are needed. Legacy
+	 * project files are always read in full.
+	 * @return The decoded project, or null if the file is too short to be a
+	 * project
+	 * @throws IOException If the project file could not be read
+	 */
+	public static ProjectData read(ProjectStorage storage, boolean paged)
+			throws IOException {
+		if (ProjectFormat.isVersioned(storage))
+			return ProjectFormat.read(storage, paged);
+		return readLegacy(storage, null);
+	}
+
+
+
+	/**
+	 * Recovers as much as possible of a damaged project file, in either the
+	 * versioned format or the legacy one. See
+	 * {@link ProjectFormat#recover(ProjectStorage, List)} for how versioned
+	 * files are recovered. A legacy file has no checksums, so only damage
+	 * that changes its length can be noticed; the cells of any row that
+	 * isn't whole are dropped.
+	 * @param storage The storage holding the project file
+	 * @param losses A list to add a description of everything that was lost
+	 * to
+	 * @return The recovered project, or null if nothing could be recovered
+	 * @throws IOException If the project file could not be read
+	 */
+	public static ProjectData recover(ProjectStorage storage, List<String> losses)
+			throws IOException {
+		if (ProjectFormat.isVersioned(storage))
+			return ProjectFormat.recover(storage, losses);
+		try {
+			return readLegacy(storage, losses);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+
+
+	/**
+	 * Decodes a project file in the legacy format, where every string takes
+	 * a fixed number of bytes. The legacy format has no checksums, so a
+	 * damaged cell, name, or record is loaded as it is; only a file whose
+	 * length isn't a whole number of rows is noticed.
+	 * @param storage The storage holding the project file
+	 * @param losses A list to add a description of everything that was lost
+	 * to while recovering the file, or null to fail if it is damaged
+	 * @return The decoded project, or null if the file is too short to be a
+	 * project
+	 * @throws IOException If the project file could not be read
+	 */
+	private static ProjectData readLegacy(ProjectStorage storage,
+			List<String> losses) throws IOException {
+		final int metadataLength = FileDataManager.METADATA_LENGTH;
+		final int plottableLength = FileDataManager.PLOTTABLE_LENGTH;
+		final int seriesLength = FileDataManager.SERIES_LENGTH;
+		final int cellLength = FileDataManager.CELL_LENGTH;
+
+		ProjectData pd = new ProjectData();
+		long len = storage.length();
+
+		byte[] metadata = new byte[metadataLength];
+		if (storage.read(0, metadata, 0, metadataLength) < metadataLength)
+			return null;
+
+		pd.graphTitle = FileDataManager.bytesToString(metadata, 0, 400);
+		pd.axisTitleX = FileDataManager.bytesToString(metadata, 400, 200);
+		pd.axisTitleY = FileDataManager.bytesToString(metadata, 600, 200);
+		pd.gridlinesX = FileDataManager.bytesToString(metadata, 800, 64);
+		pd.gridlinesY = FileDataManager.bytesToString(metadata, 864, 64);
+		pd.graphType = metadata[928];
+
+		int plottableSize = FileDataManager.byteArrayToInt(metadata, 929);
+		int columns = FileDataManager.byteArrayToInt(metadata, 933);
+		long cells = len - metadataLength - (long) plottableSize * plottableLength
+			- (long) columns * seriesLength;
+		if (plottableSize < 0 || columns < 0 || cells < 0)
+			throw new IOException("Project file metadata is corrupt.");
+
+		// An autosave interrupted while moving cells around leaves the file
+		// partway through a row, which is the only damage a legacy file can
+		// show. Stray bytes after a project with no series are ignored.
+		long stray = columns == 0 ? 0 : cells % ((long) cellLength * columns);
+		if (stray != 0) {
+			if (losses == null)
+				throw new IOException("Project file ends partway through a row.");
+			losses.add(String.format("The project file ends partway through a "
+				+ "row, so the last %d bytes of cells were dropped.", stray));
+			len -= stray;
+		}
+
+		// Plottable data
+		long offset = metadataLength;
+		byte[] record = new byte[plottableLength];
+		for (int i = 0; i < plottableSize; i++) {
+			storage.read(offset, record, 0, plottableLength);
+			pd.plottables.add(new Plottable(record));
+			offset += plottableLength;
+		}
+
+		// Series names are contiguous, so they can be read in one go
+		byte[] names = new byte[seriesLength * columns];
+		storage.read(offset, names, 0, names.length);
+		for (int i = 0; i < columns; i++) {
+			pd.seriesNames.add(FileDataManager.bytesToString(
+				names, seriesLength * i, seriesLength));
+			pd.columns.add(new ArrayList<>());
+		}
+		offset += names.length;
+
+		// Cells are read in large blocks of whole rows, rather than one at a
+		// time, so that the storage backend can copy them in bulk.
+		if (columns > 0) {
+			int rowLength = cellLength * columns;
+			int rowsPerBlock = Math.max(1, BLOCK_LENGTH / rowLength);
+			byte[] block = new byte[rowsPerBlock * rowLength];
+
+			while (offset < len) {
+				int count = storage.read(offset, block, 0,
+					(int) Math.min(block.length, len - offset));
+				if (count <= 0)
+					break;
+
+				for (int pos = 0; pos + cellLength <= count; pos += cellLength) {
+					pd.columns.get((pos / cellLength) % columns).add(
+						FileDataManager.bytesToString(block, pos, cellLength));
+				}
+
+				offset += count;
+			}
+
+			// Every series holds at least one cell
+			for (List<String> column : pd.columns) {
+				if (column.isEmpty())
+					column.add("");
+			}
+		}
+
+		return pd;
+	}
+
+
+
+	/**
+	 * Decodes a project file without opening it in the GUI, replaying any
+	 * journaled edits that haven't been compacted into it yet, like
+	 * {@link FileDataManager#load()} does. Neither the project file nor its
+	 * journal is modified, so this is safe to call from any thread, even
+	 * while the project is open.
+	 * @param f The project file
+	 * @return The decoded project
+	 * @throws IOException If the project file could not be read, or is too
+	 * short to be a project
+	 */
+	public static ProjectData load(File f) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(f, "r");
+		try {
+			ProjectStorage storage = new FileProjectStorage(file);
+			ProjectData pd = read(storage);
+			if (pd == null)
+				throw new IOException("Project file is too short to hold metadata.");
+
+			File journalFile = ProjectJournal.journalFor(f);
+			if (!journalFile.exists())
+				return pd;
+
+			ProjectJournal journal = new ProjectJournal(journalFile, true);
+			try {
+				int replayed = journal.replay(
+					pd,
+					storage.length(),
+					FileDataManager.checksum(storage)
+				);
+				if (replayed < 0)
+					System.err.println("Journal does not match the project "
+						+ "file, so it was ignored.");
+			} catch (IOException e) {
+				System.err.println("An I/O error occured replaying the journal.");
+				e.printStackTrace();
+				pd = read(storage);
+			} finally {
+				journal.close();
+			}
+			return pd;
+		} finally {
+			file.close();
+		}
+	}
+
+
+
+	/**
+	 * Encodes this project in the versioned project file format.
+	 * @param out The stream to write the project to
+	 * @throws IOException If the stream could not be written to
+	 * @see ProjectFormat
+	 */
+	public void write(OutputStream out) throws IOException {
+		ProjectFormat.write(this, out);
+	}
+
+
+
+	/**
+	 * Encodes this project in the legacy project file format, streaming it
+	 * out one record at a time. Edits can only be written straight into a
+	 * project file in this format, since every record has a fixed position.
+	 * @param out The stream to write the project to
+	 * @throws IOException If the stream could not be written to
+	 */
+	public void writeLegacy(OutputStream out) throws IOException {
+		byte[] metadata = new byte[FileDataManager.METADATA_LENGTH];
+		copyString(graphTitle, metadata, 0, 400);
+		copyString(axisTitleX, metadata, 400, 200);
+		copyString(axisTitleY, metadata, 600, 200);
+		copyString(gridlinesX, metadata, 800, 64);
+		copyString(gridlinesY, metadata, 864, 64);
+		metadata[928] = graphType;
+		System.arraycopy(
+			FileDataManager.intToByteArray(plottables.size()),
+			0, metadata, 929, 4
+		);
+		System.arraycopy(
+			FileDataManager.intToByteArray(columns.size()),
+			0, metadata, 933, 4
+		);
+		out.write(metadata);
+
+		for (Plottable p : plottables) {
+			out.write(p.encode());
+		}
+
+		for (String name : seriesNames) {
+			out.write(Main.stringToByteArray(name, FileDataManager.SERIES_LENGTH));
+		}
+
+		int rows = rowCount();
+		for (int row = 0; row < rows; row++) {
+			for (List<String> column : columns) {
+				out.write(Main.stringToByteArray(
+					row < column.size() ? column.get(row) : "",
+					FileDataManager.CELL_LENGTH
+				));
+			}
+		}
+	}
+
+
+
+	// MARK: Convenience
+	/**
+	 * Gets the number of rows in this project's data table.
+	 * @return The length of the longest column
+	 */
+	public int rowCount() {
+		int rows = 0;
+		for (List<String> column : columns) {
+			rows = Math.max(rows, column.size());
+		}
+		return rows;
+	}
+
+
+
+	/**
+	 * Converts a graph type into the byte used to store it.
+	 * @param graphType One of {@link Graph#SCATTERPLOT}, {@link Graph#LINE},
+	 * {@link Graph#BAR}, or {@link Graph#DENSITY}
+	 * @return The stored form of the graph type, or 0 if it is unknown
+	 */
+	public static byte encodeGraphType(String graphType) {
+		if (Graph.SCATTERPLOT.equals(graphType))
+			return 1;
+		else if (Graph.LINE.equals(graphType))
+			return 2;
+		else if (Graph.BAR.equals(graphType))
+			return 3;
+		else if (Graph.DENSITY.equals(graphType))
+			return 4;
+		return 0;
+	}
+
+
+
+	/**
+	 * Converts a graph type and whether or not its axes are automatic into
+	 * the byte used to store them.
+	 * @param graphType One of {@link Graph#SCATTERPLOT}, {@link Graph#LINE},
+	 * {@link Graph#BAR}, or {@link Graph#DENSITY}
+	 * @param autoAxes Whether or not the graph's axes are automatic
+	 * @return The stored form of the graph type, with {@link #AUTO_AXES} set
+	 * if the axes are automatic
+	 */
+	public static byte encodeGraphType(String graphType, boolean autoAxes) {
+		return (byte) (encodeGraphType(graphType) | (autoAxes ? AUTO_AXES : 0));
+	}
+
+
+
+	/**
+	 * Converts a stored graph type byte back into a graph type, ignoring
+	 * the {@link #AUTO_AXES} flag.
+	 * @param graphType The stored form of the graph type
+	 * @return The graph type, or null if the byte is not a valid graph type
+	 */
+	public static String decodeGraphType(byte graphType) {
+		int type = graphType & 0xFF & ~AUTO_AXES;
+		if (type == 1)
+			return Graph.SCATTERPLOT;
+		else if (type == 2)
+			return Graph.LINE;
+		else if (type == 3)
+			return Graph.BAR;
+		else if (type == 4)
+			return Graph.DENSITY;
+		return null;
+	}
+
+
+
+	/**
+	 * Checks whether a stored graph type byte has its axes fitted to the
+	 * data.
+	 * @param graphType The stored form of the graph type
+	 * @return true if {@link #AUTO_AXES} is set, false otherwise
+	 */
+	public static boolean decodeAutoAxes(byte graphType) {
+		return (graphType & AUTO_AXES) != 0;
+	}
+
+
+
+	/**
+	 * Gets the name of a series, treating a missing series as unnamed.
+	 * @param r The series to name, which may be null
+	 * @return The name of the series, or an empty string
+	 */
+	private static String nameOf(Series r) {
+		return r == null ? "" : r.getName();
+	}
+
+
+
+	/**
+	 * Encodes a string into a fixed-length section of a byte array.
+	 * @param s The string to encode
+	 * @param destination The byte array
+	 * @param pos The position of the section
+	 * @param len The length of the section
+	 */
+	private static void copyString(String s, byte[] destination, int pos, int len) {
+		System.arraycopy(Main.stringToByteArray(s, len), 0, destination, pos, len);
+	}
+
+
+
+	// MARK: Constants
+	/**
+	 * The bit of the stored graph type that is set when axes without a
+	 * gridline series are fitted to the data. The metadata has no spare
+	 * bytes, and the graph type only needs the low bits.
+	 */
+	public static final int AUTO_AXES = 0x80;
+	/** The number of bytes to read at once when reading cells. */
+	private static final int BLOCK_LENGTH = 1 << 20;
+
+
+
+	// MARK: Plottable
+	/** A GUI-free copy of a single {@link PlottableData} set. */
+	public static class Plottable {
+		/**
+		 * Constructor which copies an existing plottable data set.
+		 * @param data The data set to copy
+		 */
+		public Plottable(PlottableData data) {
+			name = data.getName();
+			dataX = nameOf(data.getDataX());
+			dataY = nameOf(data.getDataY());
+			errorBarsX = nameOf(data.getErrorBarsX());
+			errorBarsY = nameOf(data.getErrorBarsY());
+			options = data.getOptions();
+		}
+
+
+
+		/**
+		 * Constructor which decodes a plottable data set from a project file
+		 * record.
+		 * @param record The {@link FileDataManager#PLOTTABLE_LENGTH} bytes of
+		 * the record
+		 */
+		public Plottable(byte[] record) {
+			name = FileDataManager.bytesToString(record, 0, 64);
+			dataX = FileDataManager.bytesToString(record, 64, 64);
+			dataY = FileDataManager.bytesToString(record, 128, 64);
+			errorBarsX = FileDataManager.bytesToString(record, 192, 64);
+			errorBarsY = FileDataManager.bytesToString(record, 256, 64);
+			options = record[320];
+		}
+
+
+
+		/**
+		 * Constructor which sets every field directly.
+		 * @param name The name of the data set
+		 * @param dataX The name of the X-axis series
+		 * @param dataY The name of the Y-axis series
+		 * @param errorBarsX The name of the horizontal error bar series
+		 * @param errorBarsY The name of the vertical error bar series
+		 * @param options The option flags of the data set
+		 */
+		public Plottable(String name, String dataX, String dataY,
+				String errorBarsX, String errorBarsY, byte options) {
+			this.name = name;
+			this.dataX = dataX;
+			this.dataY = dataY;
+			this.errorBarsX = errorBarsX;
+			this.errorBarsY = errorBarsY;
+			this.options = options;
+		}
+
+
+
+		/** The name of the data set. */
+		String name;
+		/** The name of the X-axis series. */
+		String dataX;
+		/** The name of the Y-axis series. */
+		String dataY;
+		/** The name of the horizontal error bar series. */
+		String errorBarsX;
+		/** The name of the vertical error bar series. */
+		String errorBarsY;
+		/** The option flags of the data set, as in {@link PlottableData#getOptions()}. */
+		byte options;
+
+
+
+		/**
+		 * Encodes this data set as a project file record.
+		 * @return An array of {@link FileDataManager#PLOTTABLE_LENGTH} bytes
+		 */
+		public byte[] encode() {
+			byte[] ba = new byte[FileDataManager.PLOTTABLE_LENGTH];
+			copyString(name, ba, 0, 64);
+			copyString(dataX, ba, 64, 64);
+			copyString(dataY, ba, 128, 64);
+			copyString(errorBarsX, ba, 192, 64);
+			copyString(errorBarsY, ba, 256, 64);
+			ba[320] = options;
+			return ba;
+		}
+	}
+}
@@ -0,0 +1,1351 @@
+package ib.grapher;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Reads and writes the versioned project file format. Unlike the legacy
+ * format, which gives every string a fixed number of bytes, every string is
+ * stored as a fixed-width slot (an offset and a length) pointing into a heap
+ * of UTF-8 strings at the end of the file. Each distinct string is stored in
+ * the heap only once, so empty cells cost nothing beyond their slot, and no
+ * string is ever truncated.
+ * <p>
+ * A file is laid out as:
+ * <ol>
+ * <li>A header of {@link #HEADER_LENGTH} bytes: the {@link #MAGIC} bytes, the
+ * format version, the number of plottable data sets, series, and rows, the
+ * position and length of the heap, the graph type, and slots for the graph
+ * title, axis titles, and gridline series names.</li>
+ * <li>A record of {@link #PLOTTABLE_LENGTH} bytes for each plottable data
+ * set: slots for its name and the names of its four series, and its
+ * options.</li>
+ * <li>A record of {@link #SERIES_LENGTH} bytes for each series: a slot for
+ * its name, and how its cells are stored.</li>
+ * <li>A block for each series, holding either a slot for each of its cells,
+ * or, for a series that is entirely numeric, a bitmap of which cells hold a
+ * number followed by a packed double for each cell.</li>
+ * <li>The string heap.</li>
+ * <li>A trailer: a copy of the counts and heap position from the header, how
+ * each series is stored, a CRC32C checksum of the header, the plottable
+ * records, the series records, the heap, and each series' block, a checksum
+ * of each {@link #PAGE_ROWS} rows of each series' block, a checksum of each
+ * {@link #HEAP_PAGE_LENGTH} bytes of the heap, and finally a checksum of the
+ * trailer itself and its length.</li>
+ * </ol>
+ * Every number is little-endian. The heap is rebuilt from scratch whenever a
+ * file is written, so strings that are no longer used never survive a
+ * snapshot; compacting the journal compacts the heap too.
+ * <p>
+ * Every block is checked against its checksum as it is read, so a damaged
+ * file is noticed rather than quietly loaded. The cells and heap of a project
+ * opened lazily are checked a page at a time instead, by
+ * {@link ProjectPages} and {@link Heap}, the first time each page is read. A damaged file can then be
+ * {@link #recover(ProjectStorage, List) recovered}, keeping every block that
+ * is still intact.
+ * <p>
+ * Only this format is checksummed. A project that isn't journaled is kept in
+ * the legacy format, so that edits can be written straight into it, and is
+ * NOT protected: damage to its bytes goes unnoticed unless it changes the
+ * file's length.
+ */
+public final class ProjectFormat {
+	// MARK: Constructor
+	/** Sole constructor. */
+	private ProjectFormat() {};
+
+
+
+	// MARK: Constants
+	/**
+	 * The bytes every versioned project file starts with. A legacy project
+	 * file starts with its UTF-16 graph title, which can't realistically
+	 * begin with these.
+	 */
+	public static final byte[] MAGIC = {
+		(byte) 0x89, 'G', 'R', 'A', 'P', 'H', '\r', '\n'
+	};
+	/**
+	 * The version of the format written by this class. The legacy format,
+	 * which has no header, counts as version 1. Version 2 files are the same
+	 * as version 3 files, but only ever hold {@link #STRING_COLUMN}s, and
+	 * neither has a trailer.
+	 */
+	public static final int VERSION = 4;
+	/** The first version of the format whose files end with a trailer. */
+	public static final int CHECKSUMMED_VERSION = 4;
+	/** The number of bytes in a slot: an offset and a length. */
+	public static final int SLOT_LENGTH = 8;
+	/** The number of bytes in the header. */
+	public static final int HEADER_LENGTH = MAGIC.length + 29 + 5 * SLOT_LENGTH;
+	/** The number of bytes in each plottable data set record. */
+	public static final int PLOTTABLE_LENGTH = 5 * SLOT_LENGTH + 1;
+	/** The number of bytes in each series record. */
+	public static final int SERIES_LENGTH = SLOT_LENGTH + 1;
+
+	/** Marks a series whose cells are stored as slots. */
+	public static final byte STRING_COLUMN = 0;
+	/**
+	 * Marks a series whose cells are stored as a bitmap and packed doubles,
+	 * like a {@link NumericColumn}.
+	 */
+	public static final byte NUMERIC_COLUMN = 1;
+
+	/**
+	 * The number of rows each page checksum of a series' block covers. This
+	 * is a multiple of 64, so that every page starts on a word of a numeric
+	 * series' bitmap.
+	 */
+	public static final int PAGE_ROWS = 4096;
+	/** The number of bytes each page checksum of the string heap covers. */
+	public static final int HEAP_PAGE_LENGTH = 1 << 16;
+
+	/**
+	 * The number of bytes to read or write at once when handling cells. This
+	 * is a multiple of a page of cells, so a page never straddles two
+	 * writes.
+	 */
+	private static final int BLOCK_LENGTH = 1 << 20;
+
+	// The index of each block's checksum in the trailer
+	/** The index of the header's checksum. */
+	private static final int HEADER_BLOCK = 0;
+	/** The index of the plottable records' checksum. */
+	private static final int PLOTTABLE_BLOCK = 1;
+	/** The index of the series records' checksum. */
+	private static final int SERIES_BLOCK = 2;
+	/** The index of the string heap's checksum. */
+	private static final int HEAP_BLOCK = 3;
+	/** The index of the first series block's checksum. */
+	private static final int COLUMN_BLOCKS = 4;
+	/**
+	 * The number of bytes in a trailer, not counting a byte and a checksum
+	 * for each series, or the page checksums.
+	 */
+	private static final int TRAILER_LENGTH = 24 + 4 * COLUMN_BLOCKS + 8;
+
+
+
+	// MARK: Methods
+	/**
+	 * Checks whether a project file is in the versioned format, rather than
+	 * the legacy one.
+	 * @param storage The storage holding the project file
+	 * @return true if the file starts with {@link #MAGIC}
+	 * @throws IOException If the project file could not be read
+	 */
+	public static boolean isVersioned(ProjectStorage storage) throws IOException {
+		byte[] magic = new byte[MAGIC.length];
+		return storage.read(0, magic, 0, magic.length) == magic.length
+			&& Arrays.equals(magic, MAGIC);
+	}
+
+
+
+	/**
+	 * Decodes a project file in the versioned format.
+	 * @param storage The storage holding the project file
+	 * @param paged true to leave the cells and string heap in the file, to
+	 * be read a page at a time through a {@link ProjectPages} cache as they
+	 * are needed, false to read everything straight away
+	 * @return The decoded project
+	 * @throws IOException If the project file could not be read, is
+	 * truncated, or was written by a newer version of the format
+	 */
+	public static ProjectData read(ProjectStorage storage, boolean paged)
+			throws IOException {
+		ByteBuffer header = readBlock(storage, 0, HEADER_LENGTH);
+		header.position(MAGIC.length);
+		int version = header.getInt();
+		if (version > VERSION)
+			throw new IOException(String.format(
+				"Project file is in format version %d, but only versions "
+					+ "up to %d can be read.", version, VERSION));
+
+		int plottables = header.getInt();
+		int columns = header.getInt();
+		int rows = header.getInt();
+		long heapOffset = header.getLong();
+		int heapLength = header.getInt();
+		if (plottables < 0 || columns < 0 || rows < 0 || heapLength < 0
+				|| (long) plottables * PLOTTABLE_LENGTH
+					+ (long) columns * SERIES_LENGTH > storage.length())
+			throw new IOException("Project file header is corrupt.");
+
+		// Every block is checked against the trailer as it is read
+		int[] checksums = null;
+		Trailer trailer = null;
+		if (version >= CHECKSUMMED_VERSION) {
+			trailer = readTrailer(storage, heapOffset + heapLength);
+			if (trailer == null || !trailer.describes(
+					plottables, columns, rows, heapOffset, heapLength))
+				throw new IOException("Project file trailer is damaged.");
+			checksums = trailer.checksums;
+			verify(header.array(), checksums, HEADER_BLOCK, "header");
+		}
+
+		// The records are read before the heap, since the heap's position
+		// depends on how each series is stored
+		long offset = HEADER_LENGTH;
+		ByteBuffer plottableRecords = readBlock(storage, offset, plottables * PLOTTABLE_LENGTH);
+		verify(plottableRecords.array(), checksums, PLOTTABLE_BLOCK, "plottable data set");
+		offset += plottableRecords.capacity();
+		ByteBuffer seriesRecords = readBlock(storage, offset, columns * SERIES_LENGTH);
+		verify(seriesRecords.array(), checksums, SERIES_BLOCK, "series");
+		offset += seriesRecords.capacity();
+
+		byte[] encodings = new byte[columns];
+		for (int i = 0; i < columns; i++) {
+			encodings[i] = seriesRecords.get(i * SERIES_LENGTH + SLOT_LENGTH);
+			if (encodings[i] != STRING_COLUMN && encodings[i] != NUMERIC_COLUMN)
+				throw new IOException("Series " + i + " is stored in an unknown way.");
+		}
+		if (heapOffset != heapOffset(plottables, encodings, rows))
+			throw new IOException("Project file header is corrupt.");
+
+		// The heap and cells of a paged project are checked a page at a time
+		// as they are read, rather than all at once
+		Heap heap;
+		if (paged) {
+			heap = new Heap(storage, heapOffset, heapLength,
+				trailer == null ? null : trailer.heapChecksums);
+		} else {
+			byte[] bytes = new byte[heapLength];
+			readFully(storage, heapOffset, bytes, 0, heapLength);
+			verify(bytes, checksums, HEAP_BLOCK, "string heap");
+			heap = new Heap(bytes);
+		}
+
+		ProjectData pd = new ProjectData();
+		pd.graphType = header.get();
+		pd.graphTitle = readSlot(header, heap);
+		pd.axisTitleX = readSlot(header, heap);
+		pd.axisTitleY = readSlot(header, heap);
+		pd.gridlinesX = readSlot(header, heap);
+		pd.gridlinesY = readSlot(header, heap);
+
+		// Plottable data
+		for (int i = 0; i < plottables; i++) {
+			pd.plottables.add(new ProjectData.Plottable(
+				readSlot(plottableRecords, heap),
+				readSlot(plottableRecords, heap),
+				readSlot(plottableRecords, heap),
+				readSlot(plottableRecords, heap),
+				readSlot(plottableRecords, heap),
+				plottableRecords.get()
+			));
+		}
+
+		// Series
+		for (int i = 0; i < columns; i++) {
+			pd.seriesNames.add(readSlot(seriesRecords, heap));
+			seriesRecords.get();
+		}
+
+		long[] offsets = new long[columns];
+		for (int i = 0; i < columns; i++) {
+			offsets[i] = offset;
+			offset += columnLength(encodings[i], rows);
+		}
+		if (paged)
+			pd.pages = new ProjectPages(storage, heap, rows, encodings, offsets,
+				trailer == null ? null : trailer.pageChecksums);
+
+		// Cells, one series at a time, in large blocks
+		for (int i = 0; i < columns; i++) {
+			List<String> column;
+			if (paged) {
+				column = new PagedColumn(pd.pages, i);
+			} else {
+				CRC32C crc = new CRC32C();
+				if (encodings[i] == NUMERIC_COLUMN)
+					column = readNumericColumn(storage, offsets[i], rows, crc);
+				else
+					column = readStringColumn(storage, offsets[i], rows, heap, crc);
+				if (checksums != null && (int) crc.getValue() != checksums[COLUMN_BLOCKS + i])
+					throw new IOException(String.format(
+						"The cells of series %d of the project file are damaged.", i + 1));
+			}
+
+			// Every series holds at least one cell
+			if (column.isEmpty())
+				column.add("");
+			pd.columns.add(column);
+		}
+
+		return pd;
+	}
+
+
+
+	/**
+	 * Recovers as much as possible of a damaged project file in the
+	 * versioned format. The file is read once from start to end, like
+	 * {@link #read(ProjectStorage, boolean)}, but a block that fails its
+	 * checksum, or can't be read at all, is skipped or replaced rather than
+	 * failing the whole file: a damaged header loses the titles and graph
+	 * type, damaged records lose the plottable data sets or the names of the
+	 * series, and a damaged series block loses that series' cells. A damaged
+	 * heap is still used, since most of its strings are likely to be right.
+	 * <p>
+	 * The layout of the file is taken from the trailer, which is found
+	 * through the header, or through its length at the very end of the file
+	 * if the header is damaged. Files without a trailer are recovered using
+	 * the header, wherever they can still be decoded.
+	 * @param storage The storage holding the project file
+	 * @param losses A list to add a description of everything that was lost
+	 * to
+	 * @return The recovered project, or null if the file is too damaged for
+	 * its layout to be worked out
+	 * @throws IOException If the project file could not be read
+	 */
+	public static ProjectData recover(ProjectStorage storage, List<String> losses)
+			throws IOException {
+		long length = storage.length();
+		byte[] headerBytes = new byte[HEADER_LENGTH];
+		readAvailable(storage, 0, headerBytes);
+		ByteBuffer header = ByteBuffer.wrap(headerBytes).order(ByteOrder.LITTLE_ENDIAN);
+		header.position(MAGIC.length);
+		int version = header.getInt();
+		int plottables = header.getInt();
+		int columns = header.getInt();
+		int rows = header.getInt();
+		long heapOffset = header.getLong();
+		int heapLength = header.getInt();
+
+		Trailer trailer = null;
+		if (heapOffset >= HEADER_LENGTH && heapLength >= 0)
+			trailer = readTrailer(storage, heapOffset + heapLength);
+		if (trailer == null && length >= 4)
+			trailer = readTrailer(storage, length - readBlock(storage, length - 4, 4).getInt());
+
+		int[] checksums = null;
+		byte[] encodings = null;
+		boolean headerIntact = true;
+		if (trailer != null) {
+			plottables = trailer.plottables;
+			columns = trailer.columns;
+			rows = trailer.rows;
+			heapOffset = trailer.heapOffset;
+			heapLength = trailer.heapLength;
+			encodings = trailer.encodings;
+			checksums = trailer.checksums;
+			headerIntact = intact(headerBytes, checksums, HEADER_BLOCK);
+		} else {
+			if (version >= CHECKSUMMED_VERSION)
+				losses.add("The checksums of the project file were lost, so "
+					+ "some damage may have gone unnoticed.");
+			if (version > VERSION || plottables < 0 || columns < 0 || rows < 0
+					|| heapLength < 0 || (long) plottables * PLOTTABLE_LENGTH
+						+ (long) columns * SERIES_LENGTH > length)
+				return null;
+		}
+
+		long offset = HEADER_LENGTH;
+		byte[] plottableBytes = new byte[plottables * PLOTTABLE_LENGTH];
+		boolean plottablesIntact = readAvailable(storage, offset, plottableBytes)
+			&& intact(plottableBytes, checksums, PLOTTABLE_BLOCK);
+		offset += plottableBytes.length;
+		byte[] seriesBytes = new byte[columns * SERIES_LENGTH];
+		boolean seriesIntact = readAvailable(storage, offset, seriesBytes)
+			&& intact(seriesBytes, checksums, SERIES_BLOCK);
+		offset += seriesBytes.length;
+		ByteBuffer plottableRecords = ByteBuffer.wrap(plottableBytes).order(ByteOrder.LITTLE_ENDIAN);
+		ByteBuffer seriesRecords = ByteBuffer.wrap(seriesBytes).order(ByteOrder.LITTLE_ENDIAN);
+
+		// Without a trailer, the only record of how each series is stored is
+		// in the series records
+		if (encodings == null) {
+			if (!seriesIntact)
+				return null;
+			encodings = new byte[columns];
+			for (int i = 0; i < columns; i++) {
+				encodings[i] = seriesRecords.get(i * SERIES_LENGTH + SLOT_LENGTH);
+				if (encodings[i] != STRING_COLUMN && encodings[i] != NUMERIC_COLUMN)
+					return null;
+			}
+			if (heapOffset != heapOffset(plottables, encodings, rows))
+				return null;
+		}
+
+		byte[] heapBytes = new byte[heapLength];
+		if (!readAvailable(storage, heapOffset, heapBytes)
+				|| !intact(heapBytes, checksums, HEAP_BLOCK))
+			losses.add("The project's text is damaged, so some titles, "
+				+ "names, and cells may be wrong or missing.");
+		Heap heap = new Heap(heapBytes, true);
+
+		ProjectData pd = new ProjectData();
+		if (headerIntact) {
+			pd.graphType = header.get();
+			pd.graphTitle = readSlot(header, heap);
+			pd.axisTitleX = readSlot(header, heap);
+			pd.axisTitleY = readSlot(header, heap);
+			pd.gridlinesX = readSlot(header, heap);
+			pd.gridlinesY = readSlot(header, heap);
+		} else {
+			losses.add("The graph title, axis titles, gridlines, and graph "
+				+ "type were lost.");
+		}
+
+		if (plottablesIntact) {
+			for (int i = 0; i < plottables; i++) {
+				pd.plottables.add(new ProjectData.Plottable(
+					readSlot(plottableRecords, heap),
+					readSlot(plottableRecords, heap),
+					readSlot(plottableRecords, heap),
+					readSlot(plottableRecords, heap),
+					readSlot(plottableRecords, heap),
+					plottableRecords.get()
+				));
+			}
+		} else if (plottables > 0) {
+			losses.add(String.format("%d plottable data sets were lost.", plottables));
+		}
+
+		for (int i = 0; i < columns; i++) {
+			if (seriesIntact) {
+				pd.seriesNames.add(readSlot(seriesRecords, heap));
+				seriesRecords.get();
+			} else {
+				pd.seriesNames.add("Series " + (i + 1));
+			}
+		}
+		if (!seriesIntact && columns > 0)
+			losses.add("The names of the series were lost, so they have been "
+				+ "numbered instead.");
+
+		for (int i = 0; i < columns; i++) {
+			List<String> column;
+			CRC32C crc = new CRC32C();
+			try {
+				if (encodings[i] == NUMERIC_COLUMN)
+					column = readNumericColumn(storage, offset, rows, crc);
+				else
+					column = readStringColumn(storage, offset, rows, heap, crc);
+			} catch (IOException e) {
+				column = null;
+			}
+			if (column == null || (checksums != null
+					&& (int) crc.getValue() != checksums[COLUMN_BLOCKS + i])) {
+				column = new NumericColumn(new double[rows], new long[(rows + 63) >>> 6], rows);
+				losses.add(String.format("The cells of the series \"%s\" were lost.",
+					pd.seriesNames.get(i)));
+			}
+
+			// Every series holds at least one cell
+			if (column.isEmpty())
+				column.add("");
+			pd.columns.add(column);
+			offset += columnLength(encodings[i], rows);
+		}
+
+		return pd;
+	}
+
+
+
+	/**
+	 * Encodes a project in the versioned format. Every string is gathered
+	 * into the heap first, so that the header can give its length; the
+	 * records and cells are then streamed out one block at a time, with the
+	 * checksum of each block worked out as it goes, for the trailer.
+	 * @param pd The project to encode
+	 * @param out The stream to write the project to
+	 * @throws IOException If the stream could not be written to, or the
+	 * project has too many distinct strings for the heap
+	 */
+	public static void write(ProjectData pd, OutputStream out) throws IOException {
+		int rows = pd.rowCount();
+		int columns = pd.columns.size();
+		int plottables = pd.plottables.size();
+
+		// Adding a string again below just looks up its slot
+		StringHeap heap = new StringHeap();
+		heap.add(pd.graphTitle);
+		heap.add(pd.axisTitleX);
+		heap.add(pd.axisTitleY);
+		heap.add(pd.gridlinesX);
+		heap.add(pd.gridlinesY);
+		for (ProjectData.Plottable p : pd.plottables) {
+			heap.add(p.name);
+			heap.add(p.dataX);
+			heap.add(p.dataY);
+			heap.add(p.errorBarsX);
+			heap.add(p.errorBarsY);
+		}
+		for (String name : pd.seriesNames) {
+			heap.add(name);
+		}
+		byte[] encodings = new byte[columns];
+		for (int i = 0; i < columns; i++) {
+			List<String> column = pd.columns.get(i);
+			if (column instanceof NumericColumn && ((NumericColumn) column).isPacked()) {
+				encodings[i] = NUMERIC_COLUMN;
+			} else {
+				encodings[i] = STRING_COLUMN;
+				for (String value : column) {
+					heap.add(value);
+				}
+			}
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocate(BLOCK_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+		CRC32C crc = new CRC32C();
+		OutputStream checked = new CheckedOutputStream(out, crc);
+		int[] checksums = new int[COLUMN_BLOCKS + columns];
+		int[][] pageChecksums = new int[columns][];
+		long heapOffset = heapOffset(plottables, encodings, rows);
+		long trailerLength = trailerLength(columns, rows, heap.length());
+		if (trailerLength > Integer.MAX_VALUE)
+			throw new IOException("Project is too large to save.");
+
+		buffer.put(MAGIC);
+		buffer.putInt(VERSION);
+		buffer.putInt(plottables);
+		buffer.putInt(columns);
+		buffer.putInt(rows);
+		buffer.putLong(heapOffset);
+		buffer.putInt(heap.length());
+		buffer.put(pd.graphType);
+		putSlot(buffer, heap.add(pd.graphTitle));
+		putSlot(buffer, heap.add(pd.axisTitleX));
+		putSlot(buffer, heap.add(pd.axisTitleY));
+		putSlot(buffer, heap.add(pd.gridlinesX));
+		putSlot(buffer, heap.add(pd.gridlinesY));
+		endBlock(buffer, checked, crc, checksums, HEADER_BLOCK);
+
+		for (ProjectData.Plottable p : pd.plottables) {
+			flushIfFull(buffer, checked, PLOTTABLE_LENGTH);
+			putSlot(buffer, heap.add(p.name));
+			putSlot(buffer, heap.add(p.dataX));
+			putSlot(buffer, heap.add(p.dataY));
+			putSlot(buffer, heap.add(p.errorBarsX));
+			putSlot(buffer, heap.add(p.errorBarsY));
+			buffer.put(p.options);
+		}
+		endBlock(buffer, checked, crc, checksums, PLOTTABLE_BLOCK);
+
+		for (int i = 0; i < columns; i++) {
+			flushIfFull(buffer, checked, SERIES_LENGTH);
+			putSlot(buffer, heap.add(pd.seriesNames.get(i)));
+			buffer.put(encodings[i]);
+		}
+		endBlock(buffer, checked, crc, checksums, SERIES_BLOCK);
+
+		for (int i = 0; i < columns; i++) {
+			List<String> column = pd.columns.get(i);
+			CRC32C[] pages = new CRC32C[pageCount(rows)];
+			for (int page = 0; page < pages.length; page++) {
+				pages[page] = new CRC32C();
+			}
+			if (encodings[i] == NUMERIC_COLUMN)
+				writeNumericColumn((NumericColumn) column, rows, buffer, checked, pages);
+			else
+				writeStringColumn(column, rows, heap, buffer, checked, pages);
+			endBlock(buffer, checked, crc, checksums, COLUMN_BLOCKS + i);
+
+			pageChecksums[i] = new int[pages.length];
+			for (int page = 0; page < pages.length; page++) {
+				pageChecksums[i][page] = (int) pages[page].getValue();
+			}
+		}
+
+		heap.writeTo(checked);
+		checksums[HEAP_BLOCK] = (int) crc.getValue();
+
+		// Trailer
+		ByteBuffer trailer = ByteBuffer.allocate((int) trailerLength).order(ByteOrder.LITTLE_ENDIAN);
+		trailer.putInt(plottables);
+		trailer.putInt(columns);
+		trailer.putInt(rows);
+		trailer.putLong(heapOffset);
+		trailer.putInt(heap.length());
+		trailer.put(encodings);
+		for (int checksum : checksums) {
+			trailer.putInt(checksum);
+		}
+		for (int[] column : pageChecksums) {
+			for (int checksum : column) {
+				trailer.putInt(checksum);
+			}
+		}
+		for (int checksum : heap.pageChecksums()) {
+			trailer.putInt(checksum);
+		}
+		crc.reset();
+		crc.update(trailer.array(), 0, trailer.position());
+		trailer.putInt((int) crc.getValue());
+		trailer.putInt(trailer.capacity());
+		out.write(trailer.array());
+	}
+
+
+
+	/**
+	 * Reads the block of a series stored as slots.
+	 * @param storage The storage holding the project file
+	 * @param offset The position of the block
+	 * @param rows The number of rows
+	 * @param heap The string heap
+	 * @param crc The checksum to add the block's bytes to
+	 * @return The cells of the series
+	 * @throws IOException If the file could not be read, or is corrupt
+	 */
+	private static List<String> readStringColumn(ProjectStorage storage,
+			long offset, int rows, Heap heap, CRC32C crc) throws IOException {
+		List<String> column = new ArrayList<>(Math.max(rows, 1));
+		int slotsPerBlock = BLOCK_LENGTH / SLOT_LENGTH;
+		for (int row = 0; row < rows; row += slotsPerBlock) {
+			int count = Math.min(slotsPerBlock, rows - row);
+			ByteBuffer block = readBlock(
+				storage,
+				offset + (long) row * SLOT_LENGTH,
+				count * SLOT_LENGTH
+			);
+			crc.update(block.array());
+			for (int j = 0; j < count; j++) {
+				column.add(readSlot(block, heap));
+			}
+		}
+		return column;
+	}
+
+
+
+	/**
+	 * Reads the block of a series stored as packed doubles. The doubles are
+	 * copied in bulk, through a {@link java.nio.DoubleBuffer} view of each
+	 * block, without being parsed.
+	 * @param storage The storage holding the project file
+	 * @param offset The position of the block
+	 * @param rows The number of rows
+	 * @param crc The checksum to add the block's bytes to
+	 * @return The cells of the series
+	 * @throws IOException If the file could not be read
+	 */
+	private static NumericColumn readNumericColumn(ProjectStorage storage,
+			long offset, int rows, CRC32C crc) throws IOException {
+		int words = (rows + 63) >>> 6;
+		long[] present = new long[words];
+		ByteBuffer bitmap = readBlock(storage, offset, words * 8);
+		crc.update(bitmap.array());
+		bitmap.asLongBuffer().get(present);
+		offset += words * 8L;
+
+		// Bits past the last row would otherwise turn into phantom numbers
+		if ((rows & 63) != 0)
+			present[words - 1] &= (1L << rows) - 1;
+
+		double[] numbers = new double[rows];
+		int numbersPerBlock = BLOCK_LENGTH / 8;
+		for (int row = 0; row < rows; row += numbersPerBlock) {
+			int count = Math.min(numbersPerBlock, rows - row);
+			ByteBuffer block = readBlock(storage, offset + row * 8L, count * 8);
+			crc.update(block.array());
+			block.asDoubleBuffer().get(numbers, row, count);
+		}
+		return new NumericColumn(numbers, present, rows);
+	}
+
+
+
+	/**
+	 * Writes the block of a series stored as slots. Rows past the end of the
+	 * column are written as empty cells.
+	 * @param column The column to write
+	 * @param rows The number of rows
+	 * @param heap The string heap, which already holds every cell
+	 * @param buffer The buffer to write through
+	 * @param out The stream to write to
+	 * @param pages The checksum of each page of the block, to add the
+	 * page's bytes to
+	 * @throws IOException If the stream could not be written to
+	 */
+	private static void writeStringColumn(List<String> column, int rows,
+			StringHeap heap, ByteBuffer buffer, OutputStream out,
+			CRC32C[] pages) throws IOException {
+		int size = column.size();
+		for (int page = 0; page < pages.length; page++) {
+			int start = page * PAGE_ROWS;
+			int count = Math.min(PAGE_ROWS, rows - start);
+			flushIfFull(buffer, out, count * SLOT_LENGTH);
+			int from = buffer.position();
+			for (int row = start; row < start + count; row++) {
+				putSlot(buffer, row < size ? heap.add(column.get(row)) : 0);
+			}
+			pages[page].update(buffer.array(), from, buffer.position() - from);
+		}
+	}
+
+
+
+	/**
+	 * Writes the block of a series stored as packed doubles. Rows past the
+	 * end of the column are written as empty cells.
+	 * @param column The column to write
+	 * @param rows The number of rows
+	 * @param buffer The buffer to write through
+	 * @param out The stream to write to
+	 * @param pages The checksum of each page of the block, to add the
+	 * page's bytes to: first its words of the bitmap, then its doubles
+	 * @throws IOException If the stream could not be written to
+	 */
+	private static void writeNumericColumn(NumericColumn column, int rows,
+			ByteBuffer buffer, OutputStream out, CRC32C[] pages)
+			throws IOException {
+		int size = column.size();
+		long[] present = column.getPresent();
+		for (int page = 0; page < pages.length; page++) {
+			int start = page * PAGE_ROWS;
+			int end = Math.min(start + PAGE_ROWS, rows);
+			flushIfFull(buffer, out, PAGE_ROWS / 8);
+			int from = buffer.position();
+			for (int row = start; row < end; row += 64) {
+				long word = row < size ? present[row >>> 6] : 0;
+				if (size - row < 64)
+					word &= (1L << Math.max(0, size - row)) - 1;
+				buffer.putLong(word);
+			}
+			pages[page].update(buffer.array(), from, buffer.position() - from);
+		}
+
+		double[] numbers = column.getNumbers();
+		for (int page = 0; page < pages.length; page++) {
+			int start = page * PAGE_ROWS;
+			int count = Math.min(PAGE_ROWS, rows - start);
+			flushIfFull(buffer, out, count * 8);
+			int from = buffer.position();
+			int stored = Math.max(0, Math.min(count, size - start));
+			buffer.asDoubleBuffer().put(numbers, start, stored);
+			buffer.position(from + stored * 8);
+			for (int i = stored; i < count; i++) {
+				buffer.putDouble(0);
+			}
+			pages[page].update(buffer.array(), from, count * 8);
+		}
+	}
+
+
+
+	// MARK: Convenience
+	/**
+	 * Works out where the string heap starts, which is straight after the
+	 * last cell.
+	 * @param plottables The number of plottable data sets
+	 * @param encodings How each series is stored
+	 * @param rows The number of rows
+	 * @return The position of the heap
+	 */
+	private static long heapOffset(int plottables, byte[] encodings, int rows) {
+		long offset = HEADER_LENGTH
+			+ (long) plottables * PLOTTABLE_LENGTH
+			+ (long) encodings.length * SERIES_LENGTH;
+		for (byte encoding : encodings) {
+			offset += columnLength(encoding, rows);
+		}
+		return offset;
+	}
+
+
+
+	/**
+	 * Works out the length of the block holding a series' cells.
+	 * @param encoding How the series is stored
+	 * @param rows The number of rows
+	 * @return The length of the block
+	 */
+	private static long columnLength(byte encoding, int rows) {
+		if (encoding == NUMERIC_COLUMN)
+			return ((rows + 63) >>> 6) * 8L + rows * 8L;
+		return (long) rows * SLOT_LENGTH;
+	}
+
+
+
+	/**
+	 * Works out the length of the trailer of a file.
+	 * @param columns The number of series in the file
+	 * @param rows The number of rows in every series
+	 * @param heapLength The length of the string heap
+	 * @return The length of the trailer
+	 */
+	private static long trailerLength(int columns, int rows, int heapLength) {
+		return TRAILER_LENGTH + columns * 5L
+			+ 4L * columns * pageCount(rows)
+			+ 4L * heapPageCount(heapLength);
+	}
+
+
+
+	/**
+	 * Works out the number of pages the rows of a series are checked in.
+	 * @param rows The number of rows
+	 * @return The number of pages
+	 */
+	static int pageCount(int rows) {
+		return (int) (((long) rows + PAGE_ROWS - 1) / PAGE_ROWS);
+	}
+
+
+
+	/**
+	 * Works out the number of pages the string heap is checked in.
+	 * @param heapLength The length of the heap
+	 * @return The number of pages
+	 */
+	static int heapPageCount(int heapLength) {
+		return (int) (((long) heapLength + HEAP_PAGE_LENGTH - 1) / HEAP_PAGE_LENGTH);
+	}
+
+
+
+	/**
+	 * Reads the trailer of a file, and checks it against its own checksum.
+	 * The trailer runs from the given position to the end of the file.
+	 * @param storage The storage holding the project file
+	 * @param position Where the trailer should start
+	 * @return The trailer, or null if there isn't an intact trailer there
+	 * @throws IOException If the project file could not be read
+	 */
+	private static Trailer readTrailer(ProjectStorage storage, long position)
+			throws IOException {
+		long length = storage.length() - position;
+		if (position < HEADER_LENGTH || length < TRAILER_LENGTH
+				|| length > Integer.MAX_VALUE)
+			return null;
+
+		ByteBuffer trailer = readBlock(storage, position, (int) length);
+		int columns = trailer.getInt(4);
+		int rows = trailer.getInt(8);
+		int heapLength = trailer.getInt(20);
+		if (columns < 0 || rows < 0 || heapLength < 0
+				|| trailerLength(columns, rows, heapLength) != length
+				|| trailer.getInt((int) length - 4) != length
+				|| checksum(trailer.array(), (int) length - 8)
+					!= trailer.getInt((int) length - 8))
+			return null;
+		return new Trailer(trailer);
+	}
+
+
+
+	/**
+	 * Checks a block against its checksum.
+	 * @param block The block
+	 * @param checksums The checksums from the trailer, or null if the file
+	 * has none
+	 * @param index The index of the block's checksum
+	 * @return true if the block is intact, or there is no checksum to check
+	 */
+	private static boolean intact(byte[] block, int[] checksums, int index) {
+		return checksums == null || checksum(block, block.length) == checksums[index];
+	}
+
+
+
+	/**
+	 * Checks a block against its checksum, failing if it is damaged.
+	 * @param block The block
+	 * @param checksums The checksums from the trailer, or null if the file
+	 * has none
+	 * @param index The index of the block's checksum
+	 * @param name What the block holds, for the error message
+	 * @throws IOException If the block is damaged
+	 */
+	private static void verify(byte[] block, int[] checksums, int index,
+			String name) throws IOException {
+		if (!intact(block, checksums, index))
+			throw new IOException("The " + name + " block of the project file is damaged.");
+	}
+
+
+
+	/**
+	 * Calculates the CRC32C checksum of the start of an array.
+	 * @param bytes The array
+	 * @param length The number of bytes to include
+	 * @return The checksum
+	 */
+	private static int checksum(byte[] bytes, int length) {
+		CRC32C crc = new CRC32C();
+		crc.update(bytes, 0, length);
+		return (int) crc.getValue();
+	}
+
+
+
+	/**
+	 * Reads a slot from a buffer, and looks up the string it points to.
+	 * @param buffer The buffer, positioned at the slot
+	 * @param heap The string heap
+	 * @return The string
+	 * @throws IOException If the slot points outside the heap, or the heap
+	 * could not be read
+	 */
+	static String readSlot(ByteBuffer buffer, Heap heap) throws IOException {
+		int offset = buffer.getInt();
+		int length = buffer.getInt();
+		if (length == 0)
+			return "";
+		return heap.get(offset, length);
+	}
+
+
+
+	/**
+	 * Writes a slot into a buffer.
+	 * @param buffer The buffer
+	 * @param slot The slot, as returned by {@link StringHeap#add}
+	 */
+	private static void putSlot(ByteBuffer buffer, long slot) {
+		buffer.putInt((int) (slot >>> 32));
+		buffer.putInt((int) slot);
+	}
+
+
+
+	/**
+	 * Writes out and empties a buffer if it doesn't have room for another
+	 * record.
+	 * @param buffer The buffer
+	 * @param out The stream to write it to
+	 * @param needed The number of bytes the next record needs
+	 * @throws IOException If the stream could not be written to
+	 */
+	private static void flushIfFull(ByteBuffer buffer, OutputStream out,
+			int needed) throws IOException {
+		if (buffer.remaining() >= needed)
+			return;
+
+		out.write(buffer.array(), 0, buffer.position());
+		buffer.clear();
+	}
+
+
+
+	/**
+	 * Writes out everything left in the buffer at the end of a block, and
+	 * records the block's checksum.
+	 * @param buffer The buffer holding the end of the block
+	 * @param out The stream being written to, which adds everything written
+	 * to {@code crc}
+	 * @param crc The checksum of the block
+	 * @param checksums The checksum of every block
+	 * @param index The index of the block's checksum
+	 * @throws IOException If the stream could not be written to
+	 */
+	private static void endBlock(ByteBuffer buffer, OutputStream out, CRC32C crc,
+			int[] checksums, int index) throws IOException {
+		out.write(buffer.array(), 0, buffer.position());
+		buffer.clear();
+		checksums[index] = (int) crc.getValue();
+		crc.reset();
+	}
+
+
+
+	/**
+	 * Reads a section of a project file into a little-endian buffer.
+	 * @param storage The storage holding the project file
+	 * @param pos The position of the section
+	 * @param len The length of the section
+	 * @return The section, positioned at its start
+	 * @throws IOException If the file could not be read, or ends early
+	 */
+	static ByteBuffer readBlock(ProjectStorage storage, long pos, int len)
+			throws IOException {
+		byte[] bytes = new byte[len];
+		readFully(storage, pos, bytes, 0, len);
+		return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+
+
+	/**
+	 * Copies bytes out of a project file, failing if it ends first.
+	 * @param storage The storage holding the project file
+	 * @param pos The position of the first byte to read
+	 * @param destination The array to copy the bytes into
+	 * @param offset The position in the array to start copying to
+	 * @param len The number of bytes to read
+	 * @throws IOException If the file could not be read, or ends early
+	 */
+	private static void readFully(ProjectStorage storage, long pos,
+			byte[] destination, int offset, int len) throws IOException {
+		while (len > 0) {
+			int count = storage.read(pos, destination, offset, len);
+			if (count <= 0)
+				throw new EOFException("Project file ended early.");
+			pos += count;
+			offset += count;
+			len -= count;
+		}
+	}
+
+
+
+	/**
+	 * Reads as much of a section of a project file as there is, leaving the
+	 * rest of the destination as zeroes if the file ends early.
+	 * @param storage The storage holding the project file
+	 * @param pos The position of the section
+	 * @param destination The array to read the section into
+	 * @return true if the whole section was read
+	 * @throws IOException If the file could not be read
+	 */
+	private static boolean readAvailable(ProjectStorage storage, long pos,
+			byte[] destination) throws IOException {
+		int offset = 0;
+		while (offset < destination.length) {
+			int count = storage.read(pos + offset, destination, offset,
+				destination.length - offset);
+			if (count <= 0)
+				return false;
+			offset += count;
+		}
+		return true;
+	}
+
+
+
+	// MARK: Trailer
+	/**
+	 * The trailer of a file, which has already been checked against its own
+	 * checksum.
+	 */
+	private static class Trailer {
+		/**
+		 * Sole constructor. Decodes a trailer.
+		 * @param buffer The trailer, positioned at its start
+		 */
+		Trailer(ByteBuffer buffer) {
+			plottables = buffer.getInt();
+			columns = buffer.getInt();
+			rows = buffer.getInt();
+			heapOffset = buffer.getLong();
+			heapLength = buffer.getInt();
+			encodings = new byte[columns];
+			buffer.get(encodings);
+			checksums = new int[COLUMN_BLOCKS + columns];
+			buffer.asIntBuffer().get(checksums);
+			buffer.position(buffer.position() + checksums.length * 4);
+
+			int pages = pageCount(rows);
+			pageChecksums = new int[columns][pages];
+			for (int i = 0; i < columns; i++) {
+				buffer.asIntBuffer().get(pageChecksums[i]);
+				buffer.position(buffer.position() + pages * 4);
+			}
+			heapChecksums = new int[heapPageCount(heapLength)];
+			buffer.asIntBuffer().get(heapChecksums);
+		}
+
+
+
+		/** The number of plottable data sets. */
+		final int plottables;
+		/** The number of series. */
+		final int columns;
+		/** The number of rows in every series. */
+		final int rows;
+		/** The position of the heap. */
+		final long heapOffset;
+		/** The length of the heap. */
+		final int heapLength;
+		/** How the cells of each series are stored. */
+		final byte[] encodings;
+		/** The checksum of every other block of the file. */
+		final int[] checksums;
+		/** The checksum of each page of each series' block. */
+		final int[][] pageChecksums;
+		/** The checksum of each page of the string heap. */
+		final int[] heapChecksums;
+
+
+
+		/**
+		 * Checks whether this trailer agrees with a file's header.
+		 * @param plottables The number of plottable data sets
+		 * @param columns The number of series
+		 * @param rows The number of rows in every series
+		 * @param heapOffset The position of the heap
+		 * @param heapLength The length of the heap
+		 * @return true if every count and position matches
+		 */
+		boolean describes(int plottables, int columns, int rows,
+				long heapOffset, int heapLength) {
+			return plottables == this.plottables && columns == this.columns
+				&& rows == this.rows && heapOffset == this.heapOffset
+				&& heapLength == this.heapLength;
+		}
+	}
+
+
+
+	// MARK: Heap
+	/**
+	 * The string heap of a project file being read. The heap is either read
+	 * into memory in full, or, for a paged project, left in the file and read
+	 * one string at a time. A heap left in the file checks each of its pages
+	 * against its checksum the first time any string in the page is read.
+	 */
+	static class Heap {
+		/**
+		 * Constructor for a heap that has been read into memory.
+		 * @param bytes The heap
+		 */
+		Heap(byte[] bytes) {
+			this(bytes, false);
+		}
+
+
+
+		/**
+		 * Constructor for a heap that has been read into memory, and may be
+		 * damaged.
+		 * @param bytes The heap
+		 * @param damaged true if strings outside the heap should be read as
+		 * empty strings, as they will be while recovering a damaged file,
+		 * rather than failing
+		 */
+		Heap(byte[] bytes, boolean damaged) {
+			this.bytes = bytes;
+			this.storage = null;
+			this.offset = 0;
+			this.length = bytes.length;
+			this.damaged = damaged;
+			this.checksums = null;
+			this.verified = null;
+		}
+
+
+
+		/**
+		 * Constructor for a heap that is left in the project file.
+		 * @param storage The storage holding the project file
+		 * @param offset The position of the heap in the file
+		 * @param length The length of the heap
+		 * @param checksums The checksum of each {@link #HEAP_PAGE_LENGTH}
+		 * bytes of the heap, or null if the file has none
+		 */
+		Heap(ProjectStorage storage, long offset, int length, int[] checksums) {
+			this.bytes = null;
+			this.storage = storage;
+			this.offset = offset;
+			this.length = length;
+			this.damaged = false;
+			this.checksums = checksums;
+			this.verified = checksums == null ? null : new BitSet(checksums.length);
+		}
+
+
+
+		/** The heap, if it has been read into memory, or null otherwise. */
+		private final byte[] bytes;
+		/** The storage holding the heap, if it is left in the file. */
+		private final ProjectStorage storage;
+		/** The position of the heap in the file. */
+		private final long offset;
+		/** The length of the heap. */
+		private final int length;
+		/** Whether or not strings outside the heap are read as empty. */
+		private final boolean damaged;
+		/**
+		 * The checksum of each page of a heap left in the file, or null if
+		 * there are none to check.
+		 */
+		private final int[] checksums;
+		/** Which pages of {@link #checksums} have already been checked. */
+		private final BitSet verified;
+
+
+
+		/**
+		 * Decodes a string from the heap.
+		 * @param position The position of the string in the heap
+		 * @param count The length of the encoded string
+		 * @return The string
+		 * @throws IOException If the string lies outside the heap, or could
+		 * not be read
+		 */
+		String get(int position, int count) throws IOException {
+			if (damaged && (position < 0 || count < 0 || position > length - count))
+				return "";
+			if (bytes != null) {
+				check(position, count);
+				return new String(bytes, position, count, StandardCharsets.UTF_8);
+			}
+			return new String(read(position, count), StandardCharsets.UTF_8);
+		}
+
+
+
+		/**
+		 * Copies a run of the heap, such as the run holding every string of
+		 * a page of cells, so that it can be decoded without reading the
+		 * file again for each string.
+		 * @param position The position of the run in the heap
+		 * @param count The length of the run
+		 * @return A copy of the run
+		 * @throws IOException If the run lies outside the heap, or could not
+		 * be read
+		 */
+		byte[] read(int position, int count) throws IOException {
+			check(position, count);
+			byte[] run = new byte[count];
+			if (bytes != null) {
+				System.arraycopy(bytes, position, run, 0, count);
+			} else {
+				verify(position, count);
+				readFully(storage, offset + position, run, 0, count);
+			}
+			return run;
+		}
+
+
+
+		/**
+		 * Checks every page of a heap left in the file that a run overlaps,
+		 * unless it has already been checked.
+		 * @param position The position of the run in the heap
+		 * @param count The length of the run
+		 * @throws IOException If a page could not be read, or is damaged
+		 */
+		private synchronized void verify(int position, int count)
+				throws IOException {
+			if (checksums == null || count == 0)
+				return;
+
+			int last = (int) (((long) position + count - 1) / HEAP_PAGE_LENGTH);
+			for (int page = position / HEAP_PAGE_LENGTH; page <= last; page++) {
+				if (verified.get(page))
+					continue;
+				int start = page * HEAP_PAGE_LENGTH;
+				int pageLength = Math.min(HEAP_PAGE_LENGTH, length - start);
+				ByteBuffer bytes = readBlock(storage, offset + start, pageLength);
+				if (checksum(bytes.array(), pageLength) != checksums[page])
+					throw new IOException(String.format(
+						"Page %d of the string heap of the project file is "
+							+ "damaged.", page + 1));
+				verified.set(page);
+			}
+		}
+
+
+
+		/**
+		 * Checks that a run lies inside the heap.
+		 * @param position The position of the run in the heap
+		 * @param count The length of the run
+		 * @throws IOException If the run lies outside the heap
+		 */
+		private void check(int position, int count) throws IOException {
+			if (position < 0 || count < 0 || position > length - count)
+				throw new IOException("Project file points outside its string heap.");
+		}
+	}
+
+
+
+	// MARK: String Heap
+	/**
+	 * A growing heap of distinct UTF-8 strings, which hands out the slot for
+	 * each string as it is added.
+	 */
+	private static class StringHeap {
+		/** The encoded strings, back to back. */
+		private byte[] bytes = new byte[1 << 16];
+		/** The number of bytes used in {@link #bytes}. */
+		private int length;
+		/** The slot of every string already in the heap. */
+		private final Map<String, Long> slots = new HashMap<>();
+
+
+
+		/**
+		 * Adds a string to the heap, unless it is already there.
+		 * @param s The string to add
+		 * @return The string's slot, with its offset in the high 32 bits and
+		 * its length in the low 32 bits
+		 * @throws IOException If the heap has grown too large for a slot to
+		 * point into
+		 */
+		long add(String s) throws IOException {
+			if (s.isEmpty())
+				return 0;
+
+			Long slot = slots.get(s);
+			if (slot != null)
+				return slot;
+
+			byte[] encoded = s.getBytes(StandardCharsets.UTF_8);
+			if (encoded.length > Integer.MAX_VALUE - 8 - length)
+				throw new IOException("Project has too much text to save.");
+			if (length + encoded.length > bytes.length) {
+				bytes = Arrays.copyOf(bytes, (int) Math.min(
+					Integer.MAX_VALUE - 8,
+					Math.max((long) bytes.length * 2, length + encoded.length)
+				));
+			}
+			System.arraycopy(encoded, 0, bytes, length, encoded.length);
+
+			long newSlot = ((long) length << 32) | encoded.length;
+			length += encoded.length;
+			slots.put(s, newSlot);
+			return newSlot;
+		}
+
+
+
+		/**
+		 * Gets the number of bytes in the heap.
+		 * @return {@link #length}
+		 */
+		int length() {
+			return length;
+		}
+
+
+
+		/**
+		 * Calculates the checksum of each {@link #HEAP_PAGE_LENGTH} bytes of
+		 * the heap.
+		 * @return The checksums, in order
+		 */
+		int[] pageChecksums() {
+			int[] checksums = new int[heapPageCount(length)];
+			CRC32C crc = new CRC32C();
+			for (int page = 0; page < checksums.length; page++) {
+				int start = page * HEAP_PAGE_LENGTH;
+				crc.reset();
+				crc.update(bytes, start, Math.min(HEAP_PAGE_LENGTH, length - start));
+				checksums[page] = (int) crc.getValue();
+			}
+			return checksums;
+		}
+
+
+
+		/**
+		 * Writes the heap to a stream.
+		 * @param out The stream
+		 * @throws IOException If the stream could not be written to
+		 */
+		void writeTo(OutputStream out) throws IOException {
+			out.write(bytes, 0, length);
+		}
+	}
+}
@@ -0,0 +1,187 @@
+package ib.grapher;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A graph built straight from a decoded project, without opening any
+ * windows. This is what {@link GraphRenderer} draws when rendering projects
+ * headlessly; in the GUI, the {@link Graph} window is the model instead.
+ */
+public class ProjectGraph implements GraphModel {
+	// MARK: Constructor
+	/**
+	 * Sole constructor. Builds the series and data sets of a project, in the
+	 * same way that {@link FileDataManager#load()} does for the GUI.
+	 * @param pd The decoded project
+	 */
+	public ProjectGraph(ProjectData pd) {
+		graphTitle = pd.graphTitle;
+		axisTitleX = pd.axisTitleX;
+		axisTitleY = pd.axisTitleY;
+
+		graphType = ProjectData.decodeGraphType(pd.graphType);
+		if (graphType == null) {
+			System.err.println("Invalid graph type when loading.");
+			graphType = Graph.SCATTERPLOT;
+		}
+		autoAxes = ProjectData.decodeAutoAxes(pd.graphType);
+
+		data = new ArrayList<>(pd.seriesNames.size());
+		for (int i = 0; i < pd.seriesNames.size(); i++) {
+			Series r = new Series(pd.columns.get(i));
+			r.setName(pd.seriesNames.get(i));
+			data.add(r);
+		}
+
+		stepX = getSeriesByName(pd.gridlinesX);
+		stepY = getSeriesByName(pd.gridlinesY);
+
+		// Colours aren't saved, so each data set gets the colour the GUI
+		// would give it by default.
+		dataSets = new ArrayList<>(pd.plottables.size());
+		for (ProjectData.Plottable p : pd.plottables) {
+			PlottableData plottable = new PlottableData();
+			plottable.setName(p.name);
+			plottable.setDataX(getSeriesByName(p.dataX));
+			plottable.setDataY(getSeriesByName(p.dataY));
+			plottable.setErrorBarsX(getSeriesByName(p.errorBarsX));
+			plottable.setErrorBarsY(getSeriesByName(p.errorBarsY));
+			plottable.setOptions(p.options);
+			plottable.setColour(
+				Main.WONG_COLORS[dataSets.size() % Main.WONG_COLORS.length]);
+			dataSets.add(plottable);
+		}
+	}
+
+
+
+	// MARK: Properties
+	/** The title of this graph. */
+	private final String graphTitle;
+	/** The label on the horizontal axis. */
+	private final String axisTitleX;
+	/** The label on the vertical axis. */
+	private final String axisTitleY;
+	/** The type of graph this is. */
+	private String graphType;
+	/** Whether or not axes without a gridline series are fitted to the data. */
+	private final boolean autoAxes;
+
+	/** Every series in the project, from left to right. */
+	private final List<Series> data;
+	/** The series holding information about horizontal gridlines. */
+	private final Series stepX;
+	/** The series holding information about vertical gridlines. */
+	private final Series stepY;
+	/** Every plottable data set in the project, in order. */
+	private final List<PlottableData> dataSets;
+
+
+
+	// MARK: Convenience
+	/**
+	 * Finds a series in the project by its name.
+	 * @param name The name of the series
+	 * @return The first series with that name, or null if there is none
+	 */
+	private Series getSeriesByName(String name) {
+		if (name.isEmpty())
+			return null;
+
+		for (Series r : data) {
+			if (r.getName().equals(name))
+				return r;
+		}
+
+		System.err.printf("No match in search for series \"%s\".%n", name);
+		return null;
+	}
+
+
+
+	// MARK: Getters / Setters
+	/**
+	 * Getter: Gets the title of this graph.
+	 * @return {@link #graphTitle}
+	 */
+	@Override
+	public String getGraphTitle() {
+		return graphTitle;
+	}
+
+	/**
+	 * Getter: Gets the horizontal axis title of this graph.
+	 * @return {@link #axisTitleX}
+	 */
+	@Override
+	public String getAxisTitleX() {
+		return axisTitleX;
+	}
+
+	/**
+	 * Getter: Gets the vertical axis title of this graph.
+	 * @return {@link #axisTitleY}
+	 */
+	@Override
+	public String getAxisTitleY() {
+		return axisTitleY;
+	}
+
+	/**
+	 * Getter: Gets the series being used for horizontal gridlines.
+	 * @return {@link #stepX}
+	 */
+	@Override
+	public Series getGridlinesX() {
+		return stepX;
+	}
+
+	/**
+	 * Getter: Gets the series being used for vertical gridlines.
+	 * @return {@link #stepY}
+	 */
+	@Override
+	public Series getGridlinesY() {
+		return stepY;
+	}
+
+	/**
+	 * Getter: Gets the type of graph being drawn.
+	 * @return {@link #graphType}
+	 */
+	@Override
+	public String getGraphType() {
+		return graphType;
+	}
+
+	/**
+	 * Getter: Gets whether or not axes without a gridline series are fitted
+	 * to the data.
+	 * @return {@link #autoAxes}
+	 */
+	@Override
+	public boolean getAutoAxes() {
+		return autoAxes;
+	}
+
+	/**
+	 * Getter: Gets every data set in the project.
+	 * @return {@link #dataSets}
+	 */
+	@Override
+	public List<PlottableData> getDataSets() {
+		return dataSets;
+	}
+
+	/**
+	 * Getter: Gets every series in the project.
+	 * @return {@link #data}
+	 */
+	public List<Series> getData() {
+		return data;
+	}
+
+	// A project graph is a read-only view of a project file, so it has no
+	// setters.
+}
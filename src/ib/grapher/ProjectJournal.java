@@ -0,0 +1,894 @@
+package ib.grapher;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+/**
+ * An append-only log of the edits made to a project since its file was last
+ * written in full. Each edit is recorded as a small typed entry, so even
+ * structural edits like inserting a row cost a single append, no matter how
+ * large the project is. The log is periodically compacted by
+ * {@link FileDataManager} into a fresh snapshot of the project file.
+ * <p>
+ * A journal starts with a header naming the length and checksum of the
+ * project file it applies to. Each entry is stored as its length, a body
+ * (sequence number, type, and contents), and a checksum of the body, so a
+ * partially written entry from a crash can be detected and dropped.
+ */
+public class ProjectJournal {
+	// MARK: Constructors
+	/**
+	 * Constructor which opens (or creates) the journal file for writing, but
+	 * does not read it.
+	 * @param file The journal file
+	 * @throws IOException If the journal could not be opened
+	 */
+	public ProjectJournal(File file) throws IOException {
+		this(file, false);
+	}
+
+
+
+	/**
+	 * Constructor which opens the journal file, but does not read it. A
+	 * read-only journal can only be replayed, and is never modified, even to
+	 * drop a partially written entry, so that it can be read while the
+	 * project is open somewhere else.
+	 * @param file The journal file
+	 * @param readOnly Whether or not to open the journal read-only
+	 * @throws IOException If the journal could not be opened
+	 */
+	public ProjectJournal(File file, boolean readOnly) throws IOException {
+		this.file = file;
+		this.readOnly = readOnly;
+		open();
+	}
+
+
+
+	// MARK: Constants
+	/** Marks the start of a journal file ("GJNL"). */
+	public static final int MAGIC = 0x474A4E4C;
+	/** The version of the journal format. */
+	public static final int VERSION = 1;
+	/** The length of the journal header, in bytes. */
+	public static final int HEADER_LENGTH = 20;
+	/** The size the journal can grow to before it should be compacted. */
+	public static final long COMPACT_THRESHOLD = 4 << 20;
+
+	/** Entry type: a row was inserted into every series. */
+	public static final byte INSERT_ROW = 1;
+	/** Entry type: a row was deleted from every series. */
+	public static final byte DELETE_ROW = 2;
+	/** Entry type: a series was inserted. */
+	public static final byte INSERT_SERIES = 3;
+	/** Entry type: a series was deleted. */
+	public static final byte DELETE_SERIES = 4;
+	/** Entry type: a series was renamed. */
+	public static final byte SET_SERIES = 5;
+	/** Entry type: a cell's value was changed. */
+	public static final byte SET_CELL = 6;
+	/** Entry type: a plottable data set was inserted. */
+	public static final byte INSERT_PLOTTABLE = 7;
+	/** Entry type: a plottable data set was deleted. */
+	public static final byte DELETE_PLOTTABLE = 8;
+	/** Entry type: a plottable data set was changed. */
+	public static final byte SET_PLOTTABLE = 9;
+	/** Entry type: the graph's metadata was changed. */
+	public static final byte SET_METADATA = 10;
+	/**
+	 * Entry type: a snapshot holding every entry up to a sequence number is
+	 * about to replace the project file.
+	 */
+	public static final byte CHECKPOINT = 11;
+	/** Entry type: every row was reordered, such as by a sort. */
+	public static final byte PERMUTE_ROWS = 12;
+
+
+
+	// MARK: Properties
+	/** The journal file. */
+	private final File file;
+	/** Whether or not the journal was opened read-only. */
+	private final boolean readOnly;
+	/** An open channel to the journal file. */
+	private FileChannel channel;
+	/** The position the next entry will be written at. */
+	private long size;
+	/** The sequence number of the last entry written. */
+	private long sequence;
+	/** The body of the last metadata entry, to avoid writing repeats. */
+	private byte[] lastMetadata;
+
+
+
+	// MARK: Methods
+	/**
+	 * Gets the journal file that belongs to a project file.
+	 * @param project The project file
+	 * @return The journal file, which sits next to the project file
+	 */
+	public static File journalFor(File project) {
+		return new File(project.getPath() + ".journal");
+	}
+
+
+
+	/**
+	 * Replays this journal against a project decoded from a project file.
+	 * Only entries that are not already part of the file are replayed. If the
+	 * journal ends with a partially written entry, that entry is dropped.
+	 * @param pd The decoded project, which is modified in place
+	 * @param baseLength The length of the project file
+	 * @param baseChecksum The checksum of the project file
+	 * @return The number of entries replayed, or -1 if this journal does not
+	 * belong to the project file
+	 * @throws IOException If the journal could not be read
+	 */
+	public synchronized int replay(ProjectData pd, long baseLength,
+			int baseChecksum) throws IOException {
+		size = channel.size();
+		if (size < HEADER_LENGTH)
+			return -1;
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+		channel.read(header, 0);
+		header.flip();
+		if (header.getInt() != MAGIC || header.getInt() != VERSION)
+			return -1;
+		boolean headerMatches = header.getLong() == baseLength
+			&& header.getInt() == baseChecksum;
+
+		// First pass: find the end of the valid entries, and the newest
+		// checkpoint that matches the project file.
+		long start = headerMatches ? 0 : -1;
+		long end = HEADER_LENGTH;
+		DataInputStream in = openEntries();
+		byte[] body;
+		while ((body = readEntry(in)) != null) {
+			end += body.length + 8;
+			DataInputStream entry = new DataInputStream(
+				new ByteArrayInputStream(body));
+			sequence = entry.readLong();
+			if (entry.readByte() == CHECKPOINT) {
+				long covered = entry.readLong();
+				if (entry.readLong() == baseLength
+						&& entry.readInt() == baseChecksum)
+					start = covered;
+			}
+		}
+
+		if (end < size) {
+			System.err.printf(
+				"Dropping %d bytes of incomplete journal entries.%n",
+				size - end
+			);
+			if (!readOnly)
+				channel.truncate(end);
+			size = end;
+		}
+
+		if (start < 0)
+			return -1;
+
+		// Second pass: apply every entry after the starting point.
+		int replayed = 0;
+		in = openEntries();
+		while ((body = readEntry(in)) != null) {
+			DataInputStream entry = new DataInputStream(
+				new ByteArrayInputStream(body));
+			long seq = entry.readLong();
+			byte type = entry.readByte();
+			if (seq <= start || type == CHECKPOINT)
+				continue;
+
+			try {
+				apply(pd, type, entry);
+			} catch (IndexOutOfBoundsException e) {
+				throw new IOException(
+					"Journal entry " + seq + " does not fit the project.", e);
+			}
+			replayed++;
+		}
+
+		return replayed;
+	}
+
+
+
+	/**
+	 * Clears this journal, so that it applies to a new project file.
+	 * @param baseLength The length of the new project file
+	 * @param baseChecksum The checksum of the new project file
+	 * @throws IOException If the journal could not be written
+	 */
+	public synchronized void reset(long baseLength, int baseChecksum)
+			throws IOException {
+		channel.truncate(0);
+		channel.write(encodeHeader(baseLength, baseChecksum), 0);
+		channel.force(false);
+		size = HEADER_LENGTH;
+		lastMetadata = null;
+	}
+
+
+
+	/**
+	 * Rewrites this journal so that it applies to a new snapshot of the
+	 * project, keeping only the entries written after the snapshot was taken.
+	 * The journal is rewritten to a uniquely named temporary file next to it
+	 * and then moved into place, and the move is synced, so a crash leaves
+	 * either the old or the new journal intact. If the move fails, the old
+	 * journal is reopened, so edits can still be journaled.
+	 * @param position The size of the journal when the snapshot was taken
+	 * @param baseLength The length of the snapshot
+	 * @param baseChecksum The checksum of the snapshot
+	 * @throws IOException If the journal could not be rewritten
+	 */
+	public synchronized void rebase(long position, long baseLength,
+			int baseChecksum) throws IOException {
+		File directory = file.getAbsoluteFile().getParentFile();
+		File temp = Files.createTempFile(directory.toPath(),
+			file.getName() + ".", ".tmp").toFile();
+		try {
+			FileChannel out = FileChannel.open(temp.toPath(),
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+			try {
+				out.write(encodeHeader(baseLength, baseChecksum));
+				long remaining = size - position;
+				long copied = 0;
+				while (copied < remaining) {
+					copied += channel.transferTo(position + copied,
+						remaining - copied, out);
+				}
+				out.force(false);
+			} finally {
+				out.close();
+			}
+		} catch (IOException e) {
+			temp.delete();
+			throw e;
+		}
+
+		channel.close();
+		try {
+			Files.move(temp.toPath(), file.toPath(),
+				StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			FileDataManager.syncDirectory(directory);
+		} finally {
+			// The old journal is reopened if it couldn't be replaced
+			open();
+			temp.delete();
+		}
+	}
+
+
+
+	/**
+	 * Forces every entry written so far to the disk.
+	 * @throws IOException If the journal could not be synced
+	 */
+	public synchronized void sync() throws IOException {
+		channel.force(false);
+	}
+
+
+
+	/** Closes this journal. */
+	public synchronized void close() {
+		try {
+			channel.close();
+		} catch (IOException e) {
+			System.err.println("Could not close the journal.");
+		}
+	}
+
+
+
+	/** Closes and deletes this journal. */
+	public synchronized void delete() {
+		close();
+		if (!file.delete())
+			System.err.println("Could not delete the journal.");
+	}
+
+
+
+	/**
+	 * Opens a channel to the journal file, positioned after its last entry.
+	 * @throws IOException If the journal could not be opened
+	 */
+	private void open() throws IOException {
+		if (readOnly) {
+			channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		} else {
+			channel = FileChannel.open(file.toPath(),
+				StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		}
+		size = channel.size();
+	}
+
+
+
+	/**
+	 * Opens a stream over every entry in the journal, after the header. The
+	 * stream must not be closed, since that would also close the journal.
+	 * @return The stream
+	 * @throws IOException If the journal could not be read
+	 */
+	private DataInputStream openEntries() throws IOException {
+		InputStream in = Channels.newInputStream(channel.position(HEADER_LENGTH));
+		return new DataInputStream(new BufferedInputStream(in, 1 << 16));
+	}
+
+
+
+	/**
+	 * Reads and verifies the next entry in the journal.
+	 * @param in The stream of journal entries
+	 * @return The body of the entry, or null if there are no more complete
+	 * entries
+	 * @throws IOException If the journal could not be read
+	 */
+	private byte[] readEntry(DataInputStream in) throws IOException {
+		try {
+			int length = in.readInt();
+			if (length < 9 || length > size)
+				return null;
+
+			byte[] body = new byte[length];
+			in.readFully(body);
+
+			CRC32C crc = new CRC32C();
+			crc.update(body);
+			if ((int) crc.getValue() != in.readInt())
+				return null;
+
+			return body;
+		} catch (EOFException e) {
+			return null;
+		}
+	}
+
+
+
+	/**
+	 * Encodes a journal header.
+	 * @param baseLength The length of the project file
+	 * @param baseChecksum The checksum of the project file
+	 * @return The header, ready to be written
+	 */
+	private static ByteBuffer encodeHeader(long baseLength, int baseChecksum) {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+		header.putInt(MAGIC);
+		header.putInt(VERSION);
+		header.putLong(baseLength);
+		header.putInt(baseChecksum);
+		header.flip();
+		return header;
+	}
+
+
+
+	/**
+	 * Applies a single journal entry to a decoded project.
+	 * @param pd The project to modify
+	 * @param type The type of the entry
+	 * @param in The contents of the entry
+	 * @throws IOException If the entry is malformed
+	 */
+	private static void apply(ProjectData pd, byte type, DataInputStream in)
+			throws IOException {
+		switch (type) {
+			case INSERT_ROW: {
+				int row = in.readInt();
+				for (List<String> column : pd.columns) {
+					column.add(row, readString(in));
+				}
+				break;
+			}
+			case DELETE_ROW: {
+				int row = in.readInt();
+				for (List<String> column : pd.columns) {
+					column.remove(row);
+				}
+				break;
+			}
+			case INSERT_SERIES: {
+				int index = in.readInt();
+				pd.seriesNames.add(index, readString(in));
+				int length = in.readInt();
+				List<String> column = new ArrayList<>(length);
+				for (int i = 0; i < length; i++) {
+					column.add(readString(in));
+				}
+				pd.columns.add(index, column);
+				break;
+			}
+			case DELETE_SERIES: {
+				int index = in.readInt();
+				pd.seriesNames.remove(index);
+				pd.columns.remove(index);
+				break;
+			}
+			case SET_SERIES: {
+				int index = in.readInt();
+				pd.seriesNames.set(index, readString(in));
+				break;
+			}
+			case SET_CELL: {
+				int index = in.readInt();
+				int row = in.readInt();
+				pd.columns.get(index).set(row, readString(in));
+				break;
+			}
+			case INSERT_PLOTTABLE: {
+				int index = in.readInt();
+				pd.plottables.add(index, readPlottable(in));
+				break;
+			}
+			case DELETE_PLOTTABLE: {
+				pd.plottables.remove(in.readInt());
+				break;
+			}
+			case SET_PLOTTABLE: {
+				int index = in.readInt();
+				pd.plottables.set(index, readPlottable(in));
+				break;
+			}
+			case SET_METADATA: {
+				pd.graphTitle = readString(in);
+				pd.axisTitleX = readString(in);
+				pd.axisTitleY = readString(in);
+				pd.gridlinesX = readString(in);
+				pd.gridlinesY = readString(in);
+				pd.graphType = in.readByte();
+				break;
+			}
+			case PERMUTE_ROWS: {
+				int length = in.readInt();
+				int[] order = new int[length];
+				for (int i = 0; i < length; i++) {
+					order[i] = in.readInt();
+				}
+				for (int c = 0; c < pd.columns.size(); c++) {
+					List<String> column = pd.columns.get(c);
+					List<String> permuted = new ArrayList<>(length);
+					for (int from : order) {
+						if (from < 0 || from >= column.size())
+							throw new IOException("Row permutation out of range.");
+						permuted.add(column.get(from));
+					}
+					pd.columns.set(c, permuted);
+				}
+				break;
+			}
+			default:
+				throw new IOException("Unknown journal entry type " + type + ".");
+		}
+	}
+
+
+
+	// MARK: Entries
+	/**
+	 * Records that a row was inserted into every series.
+	 * @param row The index of the new row
+	 * @param values The value of the new row's cell in each series
+	 */
+	public void insertRow(int row, List<String> values) {
+		Entry e = new Entry(INSERT_ROW);
+		e.writeInt(row);
+		for (String value : values) {
+			e.writeString(value);
+		}
+		append(e);
+	}
+
+
+
+	/**
+	 * Records that a row was deleted from every series.
+	 * @param row The index of the deleted row
+	 */
+	public void deleteRow(int row) {
+		Entry e = new Entry(DELETE_ROW);
+		e.writeInt(row);
+		append(e);
+	}
+
+
+
+	/**
+	 * Records that every cell of a row was emptied, which is what deleting
+	 * the only row does, since a series always keeps at least one row (see
+	 * {@link Series#remove(int)}).
+	 * @param row The index of the emptied row
+	 * @param columns The number of series
+	 */
+	public void clearRow(int row, int columns) {
+		for (int i = 0; i < columns; i++) {
+			setCell(i, row, "");
+		}
+	}
+
+
+
+	/**
+	 * Records that every row was reordered at once.
+	 * @param order An array where element {@code i} is the index the row now
+	 * at index {@code i} used to have
+	 */
+	public void permuteRows(int[] order) {
+		Entry e = new Entry(PERMUTE_ROWS);
+		e.writeInt(order.length);
+		for (int from : order) {
+			e.writeInt(from);
+		}
+		append(e);
+	}
+
+
+
+	/**
+	 * Records that a series was inserted.
+	 * @param index The index of the new series
+	 * @param name The name of the new series
+	 * @param values The values of the new series' cells
+	 */
+	public void insertSeries(int index, String name, List<String> values) {
+		Entry e = new Entry(INSERT_SERIES);
+		e.writeInt(index);
+		e.writeString(name);
+		e.writeInt(values.size());
+		for (String value : values) {
+			e.writeString(value);
+		}
+		append(e);
+	}
+
+
+
+	/**
+	 * Records that a series was deleted.
+	 * @param index The index of the deleted series
+	 */
+	public void deleteSeries(int index) {
+		Entry e = new Entry(DELETE_SERIES);
+		e.writeInt(index);
+		append(e);
+	}
+
+
+
+	/**
+	 * Records that a series was renamed.
+	 * @param index The index of the series
+	 * @param name The new name of the series
+	 */
+	public void setSeries(int index, String name) {
+		Entry e = new Entry(SET_SERIES);
+		e.writeInt(index);
+		e.writeString(name);
+		append(e);
+	}
+
+
+
+	/**
+	 * Records that a cell's value was changed.
+	 * @param index The index of the cell's series
+	 * @param row The index of the cell within its series
+	 * @param value The new value of the cell
+	 */
+	public void setCell(int index, int row, String value) {
+		Entry e = new Entry(SET_CELL);
+		e.writeInt(index);
+		e.writeInt(row);
+		e.writeString(value);
+		append(e);
+	}
+
+
+
+	/**
+	 * Records that a plottable data set was inserted.
+	 * @param index The index of the new data set
+	 * @param p The new data set
+	 */
+	public void insertPlottable(int index, ProjectData.Plottable p) {
+		Entry e = new Entry(INSERT_PLOTTABLE);
+		e.writeInt(index);
+		e.writePlottable(p);
+		append(e);
+	}
+
+
+
+	/**
+	 * Records that a plottable data set was deleted.
+	 * @param index The index of the deleted data set
+	 */
+	public void deletePlottable(int index) {
+		Entry e = new Entry(DELETE_PLOTTABLE);
+		e.writeInt(index);
+		append(e);
+	}
+
+
+
+	/**
+	 * Records that a plottable data set was changed.
+	 * @param index The index of the data set
+	 * @param p The new contents of the data set
+	 */
+	public void setPlottable(int index, ProjectData.Plottable p) {
+		Entry e = new Entry(SET_PLOTTABLE);
+		e.writeInt(index);
+		e.writePlottable(p);
+		append(e);
+	}
+
+
+
+	/**
+	 * Records the graph's metadata. Nothing is written if the metadata
+	 * hasn't changed since it was last recorded.
+	 * @param g The graph to record the metadata of
+	 */
+	public synchronized void setMetadata(Graph g) {
+		Entry e = new Entry(SET_METADATA);
+		e.writeString(g.getGraphTitle());
+		e.writeString(g.getAxisTitleX());
+		e.writeString(g.getAxisTitleY());
+		e.writeString(g.getGridlinesX() == null ? "" : g.getGridlinesX().getName());
+		e.writeString(g.getGridlinesY() == null ? "" : g.getGridlinesY().getName());
+		e.writeByte(ProjectData.encodeGraphType(g.getGraphType(), g.getAutoAxes()));
+
+		byte[] contents = e.toByteArray();
+		if (Arrays.equals(contents, lastMetadata))
+			return;
+
+		lastMetadata = contents;
+		append(e);
+	}
+
+
+
+	/**
+	 * Records that a snapshot holding every entry up to a sequence number is
+	 * about to replace the project file. Unlike other entries, this is synced
+	 * to the disk straight away.
+	 * @param covered The sequence number of the last entry in the snapshot
+	 * @param baseLength The length of the snapshot
+	 * @param baseChecksum The checksum of the snapshot
+	 * @throws IOException If the checkpoint could not be synced
+	 */
+	public synchronized void checkpoint(long covered, long baseLength,
+			int baseChecksum) throws IOException {
+		Entry e = new Entry(CHECKPOINT);
+		e.writeLong(covered);
+		e.writeLong(baseLength);
+		e.writeInt(baseChecksum);
+		append(e);
+		sync();
+	}
+
+
+
+	/**
+	 * Writes an entry to the end of the journal. The entry is synced to the
+	 * disk later, along with any others written around the same time, by the
+	 * {@link AutosaveWriter}.
+	 * @param e The entry to write
+	 */
+	private synchronized void append(Entry e) {
+		sequence++;
+		byte[] contents = e.toByteArray();
+
+		ByteBuffer buffer = ByteBuffer.allocate(contents.length + 17);
+		buffer.putInt(contents.length + 9);
+		int bodyStart = buffer.position();
+		buffer.putLong(sequence);
+		buffer.put(e.type);
+		buffer.put(contents);
+
+		CRC32C crc = new CRC32C();
+		crc.update(buffer.array(), bodyStart, buffer.position() - bodyStart);
+		buffer.putInt((int) crc.getValue());
+		buffer.flip();
+
+		try {
+			while (buffer.hasRemaining()) {
+				size += channel.write(buffer, size);
+			}
+			FileDataManager.journalUpdated(this);
+		} catch (IOException ex) {
+			System.err.println("An I/O error occured writing to the journal.");
+			ex.printStackTrace();
+			FileDataManager.resetTitleBar();
+		}
+	}
+
+
+
+	// MARK: Convenience
+	/**
+	 * Reads a length-prefixed UTF-8 string from a journal entry.
+	 * @param in The contents of the entry
+	 * @return The string
+	 * @throws IOException If the entry is malformed
+	 */
+	private static String readString(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+
+
+	/**
+	 * Reads a plottable data set from a journal entry.
+	 * @param in The contents of the entry
+	 * @return The plottable data set
+	 * @throws IOException If the entry is malformed
+	 */
+	private static ProjectData.Plottable readPlottable(DataInputStream in)
+			throws IOException {
+		return new ProjectData.Plottable(
+			readString(in),
+			readString(in),
+			readString(in),
+			readString(in),
+			readString(in),
+			in.readByte()
+		);
+	}
+
+
+
+	// MARK: Getters / Setters
+	/**
+	 * Getter: Gets the size of the journal, which is also the position the
+	 * next entry will be written at.
+	 * @return {@link #size}
+	 */
+	public synchronized long size() {
+		return size;
+	}
+
+
+
+	/**
+	 * Getter: Gets the sequence number of the last entry written.
+	 * @return {@link #sequence}
+	 */
+	public synchronized long getSequence() {
+		return sequence;
+	}
+
+	// size and sequence have no setters, as they are tracked as entries are
+	// read and written.
+
+
+
+	// MARK: Entry
+	/** The contents of a single journal entry, as it is being built. */
+	private static class Entry {
+		/**
+		 * Sole constructor.
+		 * @param type The type of the entry
+		 */
+		Entry(byte type) {
+			this.type = type;
+			bytes = new ByteArrayOutputStream();
+			out = new DataOutputStream(bytes);
+		}
+
+
+
+		/** The type of the entry. */
+		final byte type;
+		/** The encoded contents of the entry. */
+		private final ByteArrayOutputStream bytes;
+		/** A stream for writing to {@link #bytes}. */
+		private final DataOutputStream out;
+
+
+
+		// Writing to a byte array can't actually fail, so the checked
+		// exceptions from DataOutputStream are turned into unchecked ones.
+
+		/**
+		 * Writes a byte to the entry.
+		 * @param b The byte to write
+		 */
+		void writeByte(byte b) {
+			bytes.write(b);
+		}
+
+
+
+		/**
+		 * Writes an integer to the entry.
+		 * @param i The integer to write
+		 */
+		void writeInt(int i) {
+			try {
+				out.writeInt(i);
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+
+
+		/**
+		 * Writes a long integer to the entry.
+		 * @param l The long integer to write
+		 */
+		void writeLong(long l) {
+			try {
+				out.writeLong(l);
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+
+
+		/**
+		 * Writes a length-prefixed UTF-8 string to the entry.
+		 * @param s The string to write
+		 */
+		void writeString(String s) {
+			byte[] encoded = (s == null ? "" : s).getBytes(StandardCharsets.UTF_8);
+			writeInt(encoded.length);
+			bytes.write(encoded, 0, encoded.length);
+		}
+
+
+
+		/**
+		 * Writes a plottable data set to the entry.
+		 * @param p The plottable data set to write
+		 */
+		void writePlottable(ProjectData.Plottable p) {
+			writeString(p.name);
+			writeString(p.dataX);
+			writeString(p.dataY);
+			writeString(p.errorBarsX);
+			writeString(p.errorBarsY);
+			writeByte(p.options);
+		}
+
+
+
+		/**
+		 * Gets the encoded contents of the entry.
+		 * @return The contents, without the type
+		 */
+		byte[] toByteArray() {
+			return bytes.toByteArray();
+		}
+	}
+}
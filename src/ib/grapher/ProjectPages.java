@@ -0,0 +1,394 @@
+package ib.grapher;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32C;
+
+/**
+ * The cells of a project file that has been opened lazily. Rather than being
+ * read all at once, the cells are left in the file and read a page of rows
+ * at a time, the first time any row of the page is needed, using the
+ * position of each series' block that was worked out when the file was
+ * opened. Only the most recently used pages are kept, so a project much
+ * larger than memory can still be opened, scrolled through, and graphed.
+ * <p>
+ * Each page is checked against its checksum from the file's trailer as it is
+ * read. A page that can't be read, or is damaged, is treated as empty, and
+ * from then on this project {@link #hasFailed() has failed}, so that the
+ * project file is never replaced by a copy missing the rows that couldn't be
+ * read.
+ */
+public class ProjectPages {
+	// MARK: Constructor
+	/**
+	 * Sole constructor.
+	 * @param storage The storage holding the project file
+	 * @param heap The project file's string heap
+	 * @param rows The number of rows in every series
+	 * @param encodings How the cells of each series are stored, as one of
+	 * {@link ProjectFormat#STRING_COLUMN} or
+	 * {@link ProjectFormat#NUMERIC_COLUMN}
+	 * @param offsets The position of each series' block in the file
+	 * @param checksums The checksum of each page of each series' block, or
+	 * null if the file has none
+	 */
+	ProjectPages(ProjectStorage storage, ProjectFormat.Heap heap, int rows,
+			byte[] encodings, long[] offsets, int[][] checksums) {
+		this.storage = storage;
+		this.heap = heap;
+		this.rows = rows;
+		this.encodings = encodings;
+		this.offsets = offsets;
+		this.checksums = checksums;
+	}
+
+
+
+	// MARK: Constants
+	/**
+	 * The number of rows in each page, which is the number of rows each
+	 * page checksum in the file covers.
+	 */
+	public static final int PAGE_ROWS = ProjectFormat.PAGE_ROWS;
+	/** The greatest number of pages kept at once. */
+	public static final int CACHE_PAGES = 256;
+	/**
+	 * The longest run of the string heap read at once for a page. A page
+	 * whose strings are spread further apart than this reads each string on
+	 * its own instead.
+	 */
+	private static final int HEAP_RUN_LENGTH = 1 << 22;
+
+
+
+	// MARK: Properties
+	/** The storage holding the project file. */
+	private final ProjectStorage storage;
+	/** The project file's string heap. */
+	private final ProjectFormat.Heap heap;
+	/** The number of rows in every series. */
+	private final int rows;
+	/** How the cells of each series are stored. */
+	private final byte[] encodings;
+	/** The position of each series' block in the file. */
+	private final long[] offsets;
+	/** The checksum of each page of each series' block, or null. */
+	private final int[][] checksums;
+	/**
+	 * The most recently used pages, least recently used first, keyed by
+	 * their series in the high half and page number in the low half.
+	 */
+	private final Map<Long, Page> cache = new LinkedHashMap<Long, Page>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, Page> eldest) {
+			return size() > CACHE_PAGES;
+		}
+	};
+	/** The parser used to read the numeric value of each string cell. */
+	private final NumberParser parser = new NumberParser();
+	/** Whether or not any page could not be read. */
+	private boolean failed;
+
+
+
+	// MARK: Methods
+	/**
+	 * Gets the page holding a row of a series, reading it from the project
+	 * file if it isn't already in memory.
+	 * @param column The index of the series
+	 * @param row The index of the row
+	 * @return The page holding the row
+	 */
+	public synchronized Page page(int column, int row) {
+		int index = row / PAGE_ROWS;
+		Long key = ((long) column << 32) | index;
+		Page page = cache.get(key);
+		if (page != null)
+			return page;
+
+		int start = index * PAGE_ROWS;
+		int count = Math.min(PAGE_ROWS, rows - start);
+		try {
+			if (encodings[column] == ProjectFormat.NUMERIC_COLUMN)
+				page = readNumericPage(column, start, count);
+			else
+				page = readStringPage(column, start, count);
+		} catch (IOException e) {
+			System.err.printf("An I/O error occured reading rows %d to %d "
+				+ "of series %d.%n", start + 1, start + count, column + 1);
+			e.printStackTrace();
+			failed = true;
+
+			// Left out of the cache, so that it's tried again next time
+			String[] text = new String[count];
+			Arrays.fill(text, "");
+			return new Page(start, new double[count], new long[(count + 63) >>> 6], text);
+		}
+
+		cache.put(key, page);
+		return page;
+	}
+
+
+
+	/**
+	 * Reads a page of a series stored as packed doubles.
+	 * @param column The index of the series
+	 * @param start The index of the first row of the page
+	 * @param count The number of rows in the page
+	 * @return The page
+	 * @throws IOException If the page could not be read
+	 */
+	private Page readNumericPage(int column, int start, int count)
+			throws IOException {
+		int words = (count + 63) >>> 6;
+		long[] valid = new long[words];
+		ByteBuffer bitmap = ProjectFormat.readBlock(
+			storage,
+			offsets[column] + (start >>> 6) * 8L,
+			words * 8
+		);
+		bitmap.asLongBuffer().get(valid);
+
+		// Bits past the last row would otherwise turn into phantom numbers
+		if ((count & 63) != 0)
+			valid[words - 1] &= (1L << count) - 1;
+
+		double[] numbers = new double[count];
+		long bitmapLength = ((rows + 63) >>> 6) * 8L;
+		ByteBuffer block = ProjectFormat.readBlock(
+			storage,
+			offsets[column] + bitmapLength + start * 8L,
+			count * 8
+		);
+		block.asDoubleBuffer().get(numbers);
+		verify(column, start, bitmap, block);
+
+		return new Page(start, numbers, valid, null);
+	}
+
+
+
+	/**
+	 * Reads a page of a series stored as slots pointing into the string
+	 * heap, and parses the numeric value of each of its cells.
+	 * @param column The index of the series
+	 * @param start The index of the first row of the page
+	 * @param count The number of rows in the page
+	 * @return The page
+	 * @throws IOException If the page could not be read
+	 */
+	private Page readStringPage(int column, int start, int count)
+			throws IOException {
+		ByteBuffer block = ProjectFormat.readBlock(
+			storage,
+			offsets[column] + (long) start * ProjectFormat.SLOT_LENGTH,
+			count * ProjectFormat.SLOT_LENGTH
+		);
+		verify(column, start, block);
+
+		// Strings are added to the heap in the order they're first used, so
+		// the strings of a page are usually close together, and can all be
+		// read at once.
+		long first = Long.MAX_VALUE;
+		long last = 0;
+		for (int i = 0; i < count; i++) {
+			long position = block.getInt() & 0xFFFFFFFFL;
+			long length = block.getInt() & 0xFFFFFFFFL;
+			if (length == 0)
+				continue;
+			first = Math.min(first, position);
+			last = Math.max(last, position + length);
+		}
+		block.rewind();
+
+		byte[] run = null;
+		if (first < last && last - first <= HEAP_RUN_LENGTH)
+			run = heap.read((int) first, (int) (last - first));
+
+		String[] text = new String[count];
+		double[] numbers = new double[count];
+		long[] valid = new long[(count + 63) >>> 6];
+		for (int i = 0; i < count; i++) {
+			if (run == null) {
+				text[i] = ProjectFormat.readSlot(block, heap);
+			} else {
+				int position = block.getInt();
+				int length = block.getInt();
+				text[i] = length == 0 ? "" : new String(run,
+					(int) (position - first), length, StandardCharsets.UTF_8);
+			}
+
+			if (parser.parse(text[i])) {
+				numbers[i] = parser.getValue();
+				valid[i >>> 6] |= 1L << i;
+			}
+		}
+
+		return new Page(start, numbers, valid, text);
+	}
+
+
+
+	/**
+	 * Checks the bytes of a page against the page's checksum.
+	 * @param column The index of the series
+	 * @param start The index of the first row of the page
+	 * @param parts The bytes of the page, in the order they are stored
+	 * @throws IOException If the page is damaged
+	 */
+	private void verify(int column, int start, ByteBuffer... parts)
+			throws IOException {
+		if (checksums == null)
+			return;
+
+		CRC32C crc = new CRC32C();
+		for (ByteBuffer part : parts) {
+			crc.update(part.array(), 0, part.capacity());
+		}
+		if ((int) crc.getValue() != checksums[column][start / PAGE_ROWS])
+			throw new IOException(String.format(
+				"Rows %d onwards of series %d of the project file are damaged.",
+				start + 1, column + 1));
+	}
+
+
+
+	// MARK: Getters / Setters
+	/**
+	 * Getter: Gets the number of rows in every series.
+	 * @return {@link #rows}
+	 */
+	public int getRows() {
+		return rows;
+	}
+
+	/**
+	 * Getter: Checks whether any page could not be read, and so was treated
+	 * as empty.
+	 * @return {@link #failed}
+	 */
+	public synchronized boolean hasFailed() {
+		return failed;
+	}
+
+	// storage, heap, encodings, offsets, checksums, and cache have no
+	// getters or setters; pages are only read through page(int, int).
+
+
+
+	// MARK: Page
+	/**
+	 * A run of {@link #PAGE_ROWS} consecutive rows of one series (or fewer,
+	 * at the end of the series), in the same columns of primitives a
+	 * {@link Series} uses.
+	 */
+	public static class Page {
+		/**
+		 * Sole constructor. The arrays are used directly, not copied.
+		 * @param start The index of the first row of the page
+		 * @param numbers The numeric value of each row
+		 * @param valid A bitmap of which rows hold numeric values
+		 * @param text The text of each row, or null if every row is either
+		 * empty or a number with the text {@link NumericColumn#format(double)}
+		 * gives
+		 */
+		Page(int start, double[] numbers, long[] valid, String[] text) {
+			this.start = start;
+			this.numbers = numbers;
+			this.valid = valid;
+			this.text = text;
+		}
+
+
+
+		/** The index of the first row of the page. */
+		private final int start;
+		/** The numeric value of each row of the page. */
+		private final double[] numbers;
+		/** A bitmap of which rows of the page hold numeric values. */
+		private final long[] valid;
+		/** The text of each row of the page, or null if it is all numbers. */
+		private final String[] text;
+
+
+
+		/**
+		 * Checks whether the page holds a row.
+		 * @param row The index of the row in the series
+		 * @return true if the row is in this page
+		 */
+		public boolean contains(int row) {
+			return row >= start && row - start < numbers.length;
+		}
+
+
+
+		/**
+		 * Gets the textual value of a row.
+		 * @param row The index of the row in the series
+		 * @return The textual value of the row
+		 */
+		public String get(int row) {
+			int i = row - start;
+			if (text != null)
+				return text[i];
+			return isNumeric(row) ? NumericColumn.format(numbers[i]) : "";
+		}
+
+
+
+		/**
+		 * Checks whether a row holds numeric data.
+		 * @param row The index of the row in the series
+		 * @return true if the row holds a number
+		 */
+		public boolean isNumeric(int row) {
+			int i = row - start;
+			return (valid[i >>> 6] & (1L << i)) != 0;
+		}
+
+
+
+		/**
+		 * Gets the numeric value of a row, which is only meaningful if
+		 * {@link #isNumeric(int)} is true.
+		 * @param row The index of the row in the series
+		 * @return The numeric value of the row
+		 */
+		public double getNumber(int row) {
+			return numbers[row - start];
+		}
+
+
+
+		/**
+		 * Checks whether a row is empty.
+		 * @param row The index of the row in the series
+		 * @return true if the row's text is empty
+		 */
+		public boolean isEmpty(int row) {
+			if (text != null)
+				return text[row - start].isEmpty();
+			return !isNumeric(row);
+		}
+
+
+
+		/**
+		 * Checks whether the text of a numeric row is exactly what
+		 * {@link NumericColumn#format(double)} gives for its number.
+		 * @param row The index of the row in the series, which must be
+		 * numeric
+		 * @return true if the text can be rebuilt from the number
+		 */
+		public boolean hasCanonicalText(int row) {
+			return text == null
+				|| NumericColumn.format(numbers[row - start]).equals(text[row - start]);
+		}
+	}
+}
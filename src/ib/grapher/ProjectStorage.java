@@ -0,0 +1,62 @@
+package ib.grapher;
+
+import java.io.IOException;
+
+/**
+ * The byte-level storage underneath an open project file. Implementations
+ * move whole records at a time, so that {@link FileDataManager} never has to
+ * touch a project one byte at a time.
+ */
+public interface ProjectStorage {
+	/**
+	 * Copies bytes out of the project file. If the end of the file is reached,
+	 * fewer bytes than requested are copied.
+	 * @param pos A pointer to the first byte to read
+	 * @param destination The array to copy the bytes into
+	 * @param offset The position in the destination to start copying to
+	 * @param len The number of bytes to read
+	 * @return The number of bytes actually read
+	 * @throws IOException If the project file could not be read
+	 */
+	public int read(long pos, byte[] destination, int offset, int len)
+		throws IOException;
+
+	/**
+	 * Overwrites bytes in the project file, growing the file if the bytes
+	 * extend past its end.
+	 * @param pos A pointer to the first byte to overwrite
+	 * @param source The array holding the new bytes
+	 * @param offset The position in the source to start copying from
+	 * @param len The number of bytes to write
+	 * @throws IOException If the project file could not be written
+	 */
+	public void write(long pos, byte[] source, int offset, int len)
+		throws IOException;
+
+	/**
+	 * Gets the current length of the project file.
+	 * @return The length of the file, in bytes
+	 * @throws IOException If the length could not be determined
+	 */
+	public long length() throws IOException;
+
+	/**
+	 * Grows or truncates the project file.
+	 * @param length The new length of the file, in bytes
+	 * @throws IOException If the file could not be resized
+	 */
+	public void setLength(long length) throws IOException;
+
+	/**
+	 * Called after the project file has been modified without going through
+	 * this storage object, so that any cached view of it can be rebuilt.
+	 * @throws IOException If the file could not be reopened
+	 */
+	public void refresh() throws IOException;
+
+	/**
+	 * Forces all written bytes to the disk.
+	 * @throws IOException If the bytes could not be synced
+	 */
+	public void sync() throws IOException;
+}
@@ -0,0 +1,494 @@
+package ib.grapher;
+
+import java.util.Arrays;
+
+/**
+ * A summary of a collection of numbers which can answer questions about
+ * their order, like the median or the 90th percentile, without storing every
+ * number.
+ * <p>
+ * While it holds only a few numbers, a sketch keeps them all in a sorted
+ * array and gives exact answers, including the mode. Once it outgrows that
+ * array, it becomes a KLL sketch (Karnin, Lang and Liberty, 2016): numbers
+ * are kept in levels, and whenever a level fills up, every other number in it
+ * is promoted to the next level, where it counts twice as much. This keeps
+ * memory bounded while ranks stay accurate to within a few percent of the
+ * count. KLL sketches can't forget numbers, so removed numbers are added to a
+ * second sketch, and ranks are the difference between the two. Once too many
+ * numbers have been removed, the sketch is marked as stale so that its owner
+ * can rebuild it.
+ */
+public class QuantileSketch {
+	// MARK: Constructor
+	/** Sole constructor. Creates an empty sketch. */
+	public QuantileSketch() {
+		clear();
+	}
+
+
+
+	// MARK: Constants
+	/** The most numbers an exact sketch can hold. */
+	private static final int EXACT_LIMIT = 1 << 13;
+	/** The capacity of the top level of a KLL sketch. */
+	private static final int K = 200;
+	/** How much smaller each level is than the one above it. */
+	private static final double CAPACITY_RATIO = 2.0 / 3.0;
+	/** The smallest capacity of a level. */
+	private static final int MINIMUM_LEVEL_CAPACITY = 8;
+
+
+
+	// MARK: Properties
+	/** The numbers in an exact sketch, or null once it has become a KLL sketch. */
+	private double[] exact;
+	/** The number of numbers in {@link #exact}. */
+	private int exactLength;
+	/** Whether or not {@link #exact} is sorted. */
+	private boolean sorted;
+	/**
+	 * Whether or not {@link #exact} should be kept sorted as numbers are
+	 * added. This starts off false, so that filling a sketch from scratch
+	 * only needs one sort, and becomes true the first time the sketch is
+	 * sorted, so that later edits don't need a full sort.
+	 */
+	private boolean keepSorted;
+
+	/** A KLL sketch of every number added. */
+	private Levels added;
+	/** A KLL sketch of every number removed since it became a KLL sketch. */
+	private Levels removed;
+
+	/** The number of numbers in this sketch. */
+	private long count;
+	/** Whether or not too many numbers have been removed for good answers. */
+	private boolean stale;
+
+	/** Every distinct number in the KLL sketches, in order, for queries. */
+	private double[] queryValues;
+	/** The total weight of the numbers up to each of {@link #queryValues}. */
+	private long[] queryRanks;
+	/** Whether or not the query arrays need to be rebuilt. */
+	private boolean queryDirty;
+
+
+
+	// MARK: Methods
+	/** Empties this sketch, making it exact again. */
+	public void clear() {
+		exact = new double[64];
+		exactLength = 0;
+		sorted = true;
+		keepSorted = false;
+		added = null;
+		removed = null;
+		count = 0;
+		stale = false;
+		queryDirty = true;
+	}
+
+
+
+	/**
+	 * Adds a number to this sketch.
+	 * @param x The number to add
+	 */
+	public void add(double x) {
+		count++;
+		queryDirty = true;
+
+		if (exact == null) {
+			added.add(x);
+			return;
+		}
+
+		if (exactLength == EXACT_LIMIT) {
+			// Too big to stay exact
+			added = new Levels();
+			removed = new Levels();
+			for (int i = 0; i < exactLength; i++) {
+				added.add(exact[i]);
+			}
+			exact = null;
+			added.add(x);
+			return;
+		}
+
+		if (exactLength == exact.length)
+			exact = Arrays.copyOf(exact, Math.min(EXACT_LIMIT, exact.length * 2));
+
+		if (exactLength > 0 && x < exact[exactLength - 1]) {
+			if (sorted && keepSorted) {
+				int i = insertionPoint(x);
+				System.arraycopy(exact, i, exact, i + 1, exactLength - i);
+				exact[i] = x;
+				exactLength++;
+				return;
+			}
+			sorted = false;
+		}
+		exact[exactLength++] = x;
+	}
+
+
+
+	/**
+	 * Removes a number from this sketch. The number must have been added
+	 * before.
+	 * @param x The number to remove
+	 */
+	public void remove(double x) {
+		count--;
+		queryDirty = true;
+
+		if (exact == null) {
+			removed.add(x);
+			if (removed.count > count)
+				stale = true;
+			return;
+		}
+
+		sort();
+		int i = insertionPoint(x);
+		if (i < exactLength && Double.compare(exact[i], x) == 0) {
+			System.arraycopy(exact, i + 1, exact, i, exactLength - i - 1);
+			exactLength--;
+		}
+	}
+
+
+
+	/**
+	 * Adds every number in another sketch to this one, as if they had been
+	 * added one at a time.
+	 * @param other The sketch to merge into this one
+	 */
+	public void merge(QuantileSketch other) {
+		if (other.exact != null) {
+			for (int i = 0; i < other.exactLength; i++) {
+				add(other.exact[i]);
+			}
+			return;
+		}
+
+		if (exact != null) {
+			// Become a KLL sketch before merging
+			added = new Levels();
+			removed = new Levels();
+			for (int i = 0; i < exactLength; i++) {
+				added.add(exact[i]);
+			}
+			exact = null;
+		}
+
+		added.merge(other.added);
+		removed.merge(other.removed);
+		count += other.count;
+		stale |= other.stale || removed.count > count;
+		queryDirty = true;
+	}
+
+
+
+	/**
+	 * Finds a quantile of the numbers in this sketch. Exact sketches
+	 * interpolate between the two closest numbers (the method used by most
+	 * spreadsheets); KLL sketches give the first number at or above the
+	 * quantile.
+	 * @param q The quantile to find, from 0 (the minimum) to 1 (the maximum)
+	 * @return The quantile, or NaN if the sketch is empty
+	 */
+	public double quantile(double q) {
+		if (count <= 0)
+			return Double.NaN;
+		q = Math.min(1, Math.max(0, q));
+
+		if (exact != null) {
+			sort();
+			double position = q * (exactLength - 1);
+			int below = (int) Math.floor(position);
+			int above = Math.min(exactLength - 1, below + 1);
+			return exact[below] + (position - below) * (exact[above] - exact[below]);
+		}
+
+		prepareQuery();
+		if (queryValues.length == 0)
+			return Double.NaN;
+
+		// The smallest number whose rank reaches the target
+		long target = Math.max(1, (long) Math.ceil(q * count));
+		int low = 0;
+		int high = queryValues.length - 1;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (queryRanks[mid] >= target)
+				high = mid;
+			else
+				low = mid + 1;
+		}
+		return queryValues[low];
+	}
+
+
+
+	/**
+	 * Finds the most common number in this sketch. Only exact sketches know
+	 * how often each number appears.
+	 * @return The most common number (the smallest, if there is a tie), or NaN
+	 * if no number appears more than once or the sketch isn't exact
+	 */
+	public double mode() {
+		if (exact == null || exactLength == 0)
+			return Double.NaN;
+
+		sort();
+		double mode = Double.NaN;
+		int best = 1;
+		int run = 1;
+		for (int i = 1; i < exactLength; i++) {
+			if (Double.compare(exact[i], exact[i - 1]) == 0) {
+				run++;
+				if (run > best) {
+					best = run;
+					mode = exact[i];
+				}
+			} else {
+				run = 1;
+			}
+		}
+		return mode;
+	}
+
+
+
+	// MARK: Convenience
+	/** Sorts {@link #exact}, if it isn't sorted already. */
+	private void sort() {
+		if (!sorted) {
+			Arrays.sort(exact, 0, exactLength);
+			sorted = true;
+		}
+		keepSorted = true;
+	}
+
+
+
+	/**
+	 * Finds where a number belongs in {@link #exact}, which must be sorted.
+	 * @param x The number to look for
+	 * @return The index of the first number in {@link #exact} that is not
+	 * less than {@code x}
+	 */
+	private int insertionPoint(double x) {
+		int low = 0;
+		int high = exactLength;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (Double.compare(exact[mid], x) < 0)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+
+
+	/**
+	 * Rebuilds the arrays used to answer queries about a KLL sketch: every
+	 * distinct number, in order, along with the weight of the added numbers
+	 * up to it minus the weight of the removed numbers up to it.
+	 */
+	private void prepareQuery() {
+		if (!queryDirty)
+			return;
+
+		// Each level is sorted on its own, so that the weight up to any
+		// number can be found by moving through every level at once.
+		int runCount = added.sizes.length + removed.sizes.length;
+		double[][] runs = new double[runCount][];
+		long[] runWeights = new long[runCount];
+		int total = 0;
+		for (int r = 0; r < runCount; r++) {
+			boolean isAdded = r < added.sizes.length;
+			Levels levels = isAdded ? added : removed;
+			int h = isAdded ? r : r - added.sizes.length;
+			runs[r] = Arrays.copyOf(levels.items[h], levels.sizes[h]);
+			Arrays.sort(runs[r]);
+			runWeights[r] = isAdded ? 1L << h : -(1L << h);
+			total += runs[r].length;
+		}
+
+		double[] values = new double[total];
+		int offset = 0;
+		for (double[] run : runs) {
+			System.arraycopy(run, 0, values, offset, run.length);
+			offset += run.length;
+		}
+		Arrays.sort(values);
+
+		queryValues = new double[total];
+		queryRanks = new long[total];
+		int[] positions = new int[runCount];
+		int distinct = 0;
+		long rank = 0;
+		for (int i = 0; i < total; i++) {
+			double value = values[i];
+			if (distinct > 0 && Double.compare(queryValues[distinct - 1], value) == 0)
+				continue;
+
+			for (int r = 0; r < runCount; r++) {
+				double[] run = runs[r];
+				while (positions[r] < run.length && Double.compare(run[positions[r]], value) <= 0) {
+					rank += runWeights[r];
+					positions[r]++;
+				}
+			}
+			queryValues[distinct] = value;
+			queryRanks[distinct] = rank;
+			distinct++;
+		}
+		queryValues = Arrays.copyOf(queryValues, distinct);
+		queryRanks = Arrays.copyOf(queryRanks, distinct);
+		queryDirty = false;
+	}
+
+
+
+	// MARK: Getters / Setters
+	/**
+	 * Getter: Gets the number of numbers in this sketch.
+	 * @return {@link #count}
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * Getter: Checks whether or not this sketch is exact.
+	 * @return Whether or not every number is still stored
+	 */
+	public boolean isExact() {
+		return exact != null;
+	}
+
+	/**
+	 * Getter: Checks whether this sketch needs to be rebuilt, because so
+	 * many numbers have been removed that its answers are unreliable.
+	 * @return {@link #stale}
+	 */
+	public boolean isStale() {
+		return stale;
+	}
+
+	// The sketch has no setters, as it is built by adding and removing
+	// numbers.
+
+
+
+	// MARK: Levels
+	/**
+	 * The levels of a KLL sketch. Each number in level {@code h} stands for
+	 * {@code 2^h} of the numbers that were added.
+	 */
+	private static class Levels {
+		/** Creates an empty set of levels. */
+		Levels() {
+			items = new double[1][];
+			items[0] = new double[capacity(0, 1)];
+			sizes = new int[1];
+		}
+
+		/** The numbers in each level. */
+		private double[][] items;
+		/** The number of numbers in each level. */
+		private int[] sizes;
+		/** The number of numbers these levels stand for. */
+		private long count;
+		/**
+		 * Alternates which half of a level is promoted, so that the error
+		 * from compacting cancels out over time.
+		 */
+		private boolean coin;
+
+		/**
+		 * Adds a number to the bottom level.
+		 * @param x The number to add
+		 */
+		void add(double x) {
+			append(0, x);
+			count++;
+			compress();
+		}
+
+		/**
+		 * Adds every number in another set of levels to these levels.
+		 * @param other The levels to merge
+		 */
+		void merge(Levels other) {
+			for (int h = 0; h < other.sizes.length; h++) {
+				for (int i = 0; i < other.sizes[h]; i++) {
+					append(h, other.items[h][i]);
+				}
+			}
+			count += other.count;
+			compress();
+		}
+
+		/**
+		 * Adds a number to a level, growing it if needed.
+		 * @param h The level to add to
+		 * @param x The number to add
+		 */
+		private void append(int h, double x) {
+			if (h >= sizes.length) {
+				items = Arrays.copyOf(items, h + 1);
+				sizes = Arrays.copyOf(sizes, h + 1);
+				items[h] = new double[MINIMUM_LEVEL_CAPACITY];
+			}
+			if (sizes[h] == items[h].length)
+				items[h] = Arrays.copyOf(items[h], items[h].length * 2);
+			items[h][sizes[h]++] = x;
+		}
+
+		/**
+		 * Compacts levels which have grown past their capacity, starting from
+		 * the bottom, by sorting each one and promoting every other number
+		 * to the level above.
+		 */
+		private void compress() {
+			for (int h = 0; h < sizes.length; h++) {
+				if (sizes[h] < capacity(h, sizes.length))
+					continue;
+
+				Arrays.sort(items[h], 0, sizes[h]);
+				coin = !coin;
+				int start = coin ? 1 : 0;
+				// An odd number out stays behind
+				int end = sizes[h] - (sizes[h] & 1);
+				for (int i = start; i < end; i += 2) {
+					append(h + 1, items[h][i]);
+				}
+				if ((sizes[h] & 1) == 1) {
+					items[h][0] = items[h][sizes[h] - 1];
+					sizes[h] = 1;
+				} else {
+					sizes[h] = 0;
+				}
+			}
+		}
+
+		/**
+		 * Works out the capacity of a level. Higher levels hold more numbers,
+		 * since each of their numbers stands for more.
+		 * @param h The level
+		 * @param height The number of levels
+		 * @return The most numbers the level should hold
+		 */
+		private static int capacity(int h, int height) {
+			int depth = height - h - 1;
+			return Math.max(MINIMUM_LEVEL_CAPACITY,
+				(int) Math.ceil(K * Math.pow(CAPACITY_RATIO, depth)));
+		}
+	}
+}
@@ -0,0 +1,160 @@
+package ib.grapher;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A class which works out how to sort the rows of the data table by the
+ * numeric values of one or more series. Rather than moving any values, a
+ * sorter produces a permutation of row indices, which can then be applied to
+ * every series at once (see {@link Series#permute(int[])}).
+ * <p>
+ * The sort is stable, so rows with equal keys keep their order. Each key is
+ * sorted with an LSD radix sort over its values' bits, which takes linear
+ * time per key and never compares or boxes a value. Non-numeric values are
+ * sorted as if they were 0.
+ */
+public class RowSorter {
+	// MARK: Constructor
+	/** Sole constructor. Creates a sorter with no keys. */
+	public RowSorter() {
+		keys = new ArrayList<>();
+		descending = new ArrayList<>();
+	}
+
+
+
+	// MARK: Constants
+	/** The number of bits sorted in each pass of the radix sort. */
+	private static final int RADIX_BITS = 8;
+	/** The number of buckets in each pass of the radix sort. */
+	private static final int RADIX = 1 << RADIX_BITS;
+
+
+
+	// MARK: Properties
+	/** The series to sort by, from most to least significant. */
+	private List<Series> keys;
+	/** Whether or not each key is sorted in descending order. */
+	private List<Boolean> descending;
+
+
+
+	// MARK: Methods
+	/**
+	 * Adds a key to sort by. Keys added later are only used to break ties
+	 * between rows whose earlier keys are equal.
+	 * @param series The series to sort by
+	 * @param descending Whether to sort from largest to smallest, rather than
+	 * smallest to largest
+	 */
+	public void addKey(Series series, boolean descending) {
+		keys.add(series);
+		this.descending.add(descending);
+	}
+
+
+
+	/**
+	 * Works out the sorted order of the rows.
+	 * @param length The number of rows to sort
+	 * @return An array where element {@code i} is the index of the row that
+	 * belongs at position {@code i} once sorted
+	 */
+	public int[] sort(int length) {
+		int[] order = new int[length];
+		for (int i = 0; i < length; i++) {
+			order[i] = i;
+		}
+
+		int[] buffer = new int[length];
+		long[] encoded = new long[length];
+		int[] counts = new int[RADIX];
+
+		// Sorting by the least significant key first means that, since each
+		// pass is stable, more significant keys end up taking precedence.
+		for (int k = keys.size() - 1; k >= 0; k--) {
+			Series key = keys.get(k);
+			boolean reverse = descending.get(k);
+			for (int row = 0; row < length; row++) {
+				encoded[row] = encode(key, row, reverse);
+			}
+
+			for (int shift = 0; shift < Long.SIZE; shift += RADIX_BITS) {
+				Arrays.fill(counts, 0);
+				for (int i = 0; i < length; i++) {
+					counts[(int) (encoded[order[i]] >>> shift) & (RADIX - 1)]++;
+				}
+
+				// Skip passes where every row falls into the same bucket,
+				// which is common for the high bits of similar values.
+				boolean trivial = false;
+				for (int count : counts) {
+					if (count == length) {
+						trivial = true;
+						break;
+					}
+				}
+				if (trivial)
+					continue;
+
+				int total = 0;
+				for (int b = 0; b < RADIX; b++) {
+					int count = counts[b];
+					counts[b] = total;
+					total += count;
+				}
+
+				for (int i = 0; i < length; i++) {
+					int row = order[i];
+					buffer[counts[(int) (encoded[row] >>> shift) & (RADIX - 1)]++] = row;
+				}
+
+				int[] swap = order;
+				order = buffer;
+				buffer = swap;
+			}
+		}
+
+		return order;
+	}
+
+
+
+	// MARK: Convenience
+	/**
+	 * Encodes the value of a row as a long whose unsigned order matches the
+	 * order the rows should be sorted in.
+	 * @param key The series to read the value from
+	 * @param row The index of the row
+	 * @param reverse Whether the key is sorted in descending order
+	 * @return The encoded value
+	 */
+	private static long encode(Series key, int row, boolean reverse) {
+		double value = 0;
+		if (row < key.length() && key.isNumeric(row))
+			value = key.getNumeric(row) + 0.0; // Treats -0.0 as 0.0
+
+		// Flipping the sign bit of positive numbers, and every bit of
+		// negative ones, orders doubles as unsigned longs.
+		long bits = Double.doubleToLongBits(value);
+		bits = bits < 0 ? ~bits : bits ^ Long.MIN_VALUE;
+		return reverse ? ~bits : bits;
+	}
+
+
+
+	/**
+	 * Checks whether a permutation leaves every row where it is.
+	 * @param order The permutation to check
+	 * @return Whether or not the permutation is the identity
+	 */
+	public static boolean isIdentity(int[] order) {
+		for (int i = 0; i < order.length; i++) {
+			if (order[i] != i)
+				return false;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,323 @@
+package ib.grapher;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Base64;
+
+import javax.imageio.ImageIO;
+
+/**
+ * A drawing surface that streams an SVG document straight to a file.
+ * <p>
+ * Shapes are written as they are drawn, grouped by colour so that the colour
+ * is only written when it changes. Markers are written as references to a
+ * single marker defined at the top of the document, and images are embedded
+ * as PNGs.
+ */
+public class SVGSurface extends VectorSurface {
+	// MARK: Constructor
+	/**
+	 * Sole constructor. Creates or overwrites the file and writes the start
+	 * of the document, with a white background.
+	 * @param destination The file to write
+	 * @param width The width of the document, in units
+	 * @param height The height of the document, in units
+	 * @throws IOException If the file could not be opened or written
+	 */
+	public SVGSurface(File destination, int width, int height) throws IOException {
+		super(width, height);
+		channel = FileChannel.open(
+			destination.toPath(),
+			StandardOpenOption.WRITE,
+			StandardOpenOption.CREATE,
+			StandardOpenOption.TRUNCATE_EXISTING
+		);
+		out = Channels.newWriter(channel, StandardCharsets.UTF_8.newEncoder(), BUFFER_SIZE);
+
+		try {
+			out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+			out.write(String.format(
+				"<svg xmlns=\"http://www.w3.org/2000/svg\""
+					+ " xmlns:xlink=\"http://www.w3.org/1999/xlink\""
+					+ " width=\"%d\" height=\"%d\" viewBox=\"0 0 %d %d\">%n",
+				width, height, width, height
+			));
+			out.write("<defs><g id=\"marker\" fill=\"none\">"
+				+ "<circle r=\"3\"/><circle r=\"2\"/></g></defs>\n");
+			out.write("<rect width=\"100%\" height=\"100%\" fill=\"#ffffff\"/>\n");
+		} catch (IOException e) {
+			release();
+			throw e;
+		}
+	}
+
+
+
+	// MARK: Constants
+	/** The number of bytes buffered before they are written to the file. */
+	private static final int BUFFER_SIZE = 1 << 16;
+
+
+
+	// MARK: Properties
+	/** The file being written. */
+	private final FileChannel channel;
+	/** Encodes the document into {@link #channel}. */
+	private final Writer out;
+	/** Holds each element while it is being built. */
+	private final StringBuilder element = new StringBuilder(128);
+	/** The colour of the open group, or null if no group is open. */
+	private Color groupColour;
+
+
+
+	// MARK: Methods
+	/**
+	 * Writes a line, with its ends in the middle of their pixels so that it
+	 * lines up with the pixels of the image export.
+	 * @param x1 The x-coordinate of the first point
+	 * @param y1 The y-coordinate of the first point
+	 * @param x2 The x-coordinate of the second point
+	 * @param y2 The y-coordinate of the second point
+	 */
+	@Override
+	public void drawLine(int x1, int y1, int x2, int y2) {
+		element.setLength(0);
+		element.append("<line x1=\"").append(originX + x1 + 0.5)
+			.append("\" y1=\"").append(originY + y1 + 0.5)
+			.append("\" x2=\"").append(originX + x2 + 0.5)
+			.append("\" y2=\"").append(originY + y2 + 0.5)
+			.append("\"/>\n");
+		writeElement();
+	}
+
+
+
+	/**
+	 * Writes a line of text.
+	 * @param text The text to draw
+	 * @param x The x-coordinate of the left of the text
+	 * @param y The y-coordinate of the baseline of the text
+	 */
+	@Override
+	public void drawString(String text, int x, int y) {
+		writeText(text, originX + x, originY + y, false);
+	}
+
+
+
+	/**
+	 * Writes a line of text, rotated to read upwards.
+	 * @param text The text to draw
+	 * @param x The x-coordinate of the baseline of the text
+	 * @param y The y-coordinate of the bottom of the text
+	 */
+	@Override
+	public void drawVerticalString(String text, int x, int y) {
+		writeText(text, originX + x, originY + y, true);
+	}
+
+
+
+	/**
+	 * Writes a reference to the marker defined at the top of the document.
+	 * @param x The x-coordinate of the point
+	 * @param y The y-coordinate of the point
+	 */
+	@Override
+	public void drawMarker(int x, int y) {
+		element.setLength(0);
+		element.append("<use xlink:href=\"#marker\" x=\"").append(originX + x + 0.5)
+			.append("\" y=\"").append(originY + y + 0.5)
+			.append("\"/>\n");
+		writeElement();
+	}
+
+
+
+	/**
+	 * Writes an image, encoded as a PNG and streamed into the document in
+	 * base 64.
+	 * @param image The image to draw
+	 * @param x The x-coordinate of the left of the rectangle
+	 * @param y The y-coordinate of the top of the rectangle
+	 * @param width The width of the rectangle
+	 * @param height The height of the rectangle
+	 */
+	@Override
+	public void drawImage(BufferedImage image, int x, int y, int width, int height) {
+		element.setLength(0);
+		element.append("<image x=\"").append(originX + x)
+			.append("\" y=\"").append(originY + y)
+			.append("\" width=\"").append(width)
+			.append("\" height=\"").append(height)
+			.append("\" preserveAspectRatio=\"none\"")
+			.append(" style=\"image-rendering:pixelated\"")
+			.append(" xlink:href=\"data:image/png;base64,");
+		if (!writeElement())
+			return;
+
+		try {
+			// The writer only ever sees the ASCII characters of the
+			// encoding, so bytes can be passed straight through as chars.
+			OutputStream encoded = Base64.getEncoder().wrap(new OutputStream() {
+				public void write(int b) throws IOException {
+					out.write(b);
+				}
+			});
+			try {
+				ImageIO.write(image, "png", encoded);
+			} finally {
+				encoded.close();
+			}
+			out.write("\"/>\n");
+		} catch (IOException e) {
+			failed(e);
+		}
+	}
+
+
+
+	/**
+	 * Closes the open group and the document, and flushes it to the file.
+	 * @throws IOException If the end of the document could not be written
+	 */
+	@Override
+	protected void finish() throws IOException {
+		if (groupColour != null)
+			out.write("</g>\n");
+		out.write("</svg>\n");
+		out.flush();
+	}
+
+
+
+	/**
+	 * Closes the file.
+	 * @throws IOException If the file could not be closed
+	 */
+	@Override
+	protected void release() throws IOException {
+		try {
+			out.close();
+		} finally {
+			channel.close();
+		}
+	}
+
+
+
+	/**
+	 * Writes a text element in the current font.
+	 * @param text The text to draw
+	 * @param x The x-coordinate of the start of the text, in the document
+	 * @param y The y-coordinate of the baseline of the text, in the document
+	 * @param vertical Whether or not the text should read upwards
+	 */
+	private void writeText(String text, int x, int y, boolean vertical) {
+		element.setLength(0);
+		element.append("<text x=\"").append(x)
+			.append("\" y=\"").append(y)
+			.append("\" stroke=\"none\" font-family=\"").append(getFontFamily())
+			.append("\" font-size=\"").append(font.getSize2D()).append('"');
+		if (font.isBold())
+			element.append(" font-weight=\"bold\"");
+		if (font.isItalic())
+			element.append(" font-style=\"italic\"");
+		if (vertical)
+			element.append(" transform=\"rotate(-90 ").append(x).append(' ').append(y).append(")\"");
+		element.append('>');
+		appendEscaped(text);
+		element.append("</text>\n");
+		writeElement();
+	}
+
+
+
+	/**
+	 * Writes the element in {@link #element}, first starting a new group if
+	 * the colour has changed since the last one.
+	 * @return true if the element was written, false if the document has
+	 * already failed or the write failed
+	 */
+	private boolean writeElement() {
+		if (hasFailed())
+			return false;
+
+		try {
+			if (!colour.equals(groupColour)) {
+				if (groupColour != null)
+					out.write("</g>\n");
+				String hex = String.format("#%06x", colour.getRGB() & 0xFFFFFF);
+				out.write("<g stroke=\"" + hex + "\" fill=\"" + hex + "\"");
+				if (colour.getAlpha() < 255)
+					out.write(" opacity=\"" + colour.getAlpha() / 255.0 + "\"");
+				out.write(">\n");
+				groupColour = colour;
+			}
+			out.append(element);
+			return true;
+		} catch (IOException e) {
+			failed(e);
+			return false;
+		}
+	}
+
+
+
+	// MARK: Convenience
+	/**
+	 * Appends text to {@link #element}, escaping the characters that have a
+	 * meaning in XML.
+	 * @param text The text to append
+	 */
+	private void appendEscaped(String text) {
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			switch (c) {
+				case '&': element.append("&amp;"); break;
+				case '<': element.append("&lt;"); break;
+				case '>': element.append("&gt;"); break;
+				case '"': element.append("&quot;"); break;
+				default:
+					// Control characters aren't allowed in XML at all
+					element.append(c < ' ' ? ' ' : c);
+			}
+		}
+	}
+
+
+
+	/**
+	 * Works out the font family of the current font, as SVG viewers know
+	 * it. Java's logical fonts are replaced by the generic families they
+	 * stand for.
+	 * @return The font family, ready to be written in an attribute
+	 */
+	private String getFontFamily() {
+		String family = font.getFamily();
+		if (family.equals(Font.SANS_SERIF) || family.equals(Font.DIALOG))
+			return "sans-serif";
+		if (family.equals(Font.SERIF))
+			return "serif";
+		if (family.equals(Font.MONOSPACED) || family.equals(Font.DIALOG_INPUT))
+			return "monospace";
+
+		StringBuilder escaped = new StringBuilder(family.length() + 16);
+		for (int i = 0; i < family.length(); i++) {
+			char c = family.charAt(i);
+			if (c != '"' && c != '&' && c != '<' && c != '\'')
+				escaped.append(c);
+		}
+		return "'" + escaped + "', sans-serif";
+	}
+}
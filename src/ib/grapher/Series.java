@@ -2,54 +2,119 @@ package ib.grapher;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 
 /**
- * A class which loosely "holds" any number of Cells in a doubly linked list.
- * As well as calculating a statistical report of the series and holding
- * references to its first and last Cells, a Series also contains an iterator
- * to make it easier to loop through the whole series at once.
+ * A class which holds the values of one column of the data table. Values are
+ * stored in columns of primitives rather than as individual objects: an array
+ * of raw text, a parallel array of parsed numbers, and a bitmap recording
+ * which of those numbers are valid. Everything is accessed by row index, and
+ * the {@link Cell}s on the {@link DataTable} are only views over these
+ * values. As well as the values, a Series calculates a statistical report of
+ * itself.
  */
-public class Series implements Iterable<Cell> {
-	// MARK: Constructor
+public class Series {
+	// MARK: Constructors
 	/**
 	 * A constructor that initializes this series, as well as adding a set
-	 * number of empty cells to it. All series should always have at least
-	 * one cell in them at all times.
-	 * @param cells The number of cells to be added. This should be at least
-	 * 1. If it is 0 or less, it will be ignored.
+	 * number of empty values to it. All series should always have at least
+	 * one value in them at all times.
+	 * @param cells The number of values to be added. This should be at least
+	 * 1. If it is 0 or less, a single value will be added anyway.
 	 */
 	public Series(int cells) {
 		name = "Untitled Series";
-		statistics = new HashMap<>();
+		statistics = new SeriesStatistics();
 
-		Cell c = new Cell();
-		firstCell = c;
-		lastCell = c;
-		c.setSeries(this);
-		c.setIndex(0);
+		length = Math.max(1, cells);
+		allocate(length);
+		Arrays.fill(values, 0, length, "");
 
-		for(int i = 0; i < cells - 1; i++) {
-			firstCell.insertCellAfter(new Cell());
+		header = new SeriesHeader(this);
+	}
+
+
+
+	/**
+	 * A constructor that initializes this series with a list of values, such
+	 * as a column read from a project file. A packed {@link NumericColumn}
+	 * is copied straight in, without parsing or formatting anything, and a
+	 * {@link PagedColumn} is left in the project file, to be read as rows
+	 * are needed.
+	 * @param values The values to fill the series with. If this is empty, the
+	 * series will hold a single empty value.
+	 */
+	public Series(List<String> values) {
+		this(initialLength(values));
+		if (values instanceof PagedColumn && ((PagedColumn) values).isPacked()) {
+			// Statistics are only calculated once they're asked for, so that
+			// opening the project doesn't read every page
+			source = (PagedColumn) values;
+			length = values.size();
+			statistics.invalidate();
+			return;
 		}
 
-		header = new SeriesHeader(this);
+		if (values instanceof NumericColumn && ((NumericColumn) values).isPacked()) {
+			NumericColumn column = (NumericColumn) values;
+			int count = values.size();
+			System.arraycopy(column.getNumbers(), 0, numbers, 0, count);
+			System.arraycopy(column.getPresent(), 0, valid, 0, (count + 63) >>> 6);
+			// The text of each number is only built when it's asked for
+			for (int i = 0; i < count; i++) {
+				if (isNumeric(i))
+					this.values[i] = null;
+			}
+			calculateStatistics();
+			return;
+		}
+
+		for (int i = 0; i < values.size(); i++) {
+			set(i, values.get(i));
+		}
 	}
 
 
 
+	// MARK: Constants
+	/** The number of values a series has room for when it is created. */
+	private static final int MINIMUM_CAPACITY = 16;
+
+
+
 	// MARK: Properties
 	/** The name of this series. */
 	private String name;
-	/** The first cell in this series. */
-	private Cell firstCell;
-	/** The last cell in this series. */
-	private Cell lastCell;
-	/** A collection of autogenerated statistics about this series. */
-	private Map<String, Double> statistics;
+	/**
+	 * The textual value of each row in this series, or null for a numeric
+	 * row whose text is {@link NumericColumn#format(double)} of its number
+	 * and hasn't been built yet.
+	 */
+	private String[] values;
+	/**
+	 * The numeric value of each row in this series, which is only meaningful
+	 * where the matching bit of {@link #valid} is set.
+	 */
+	private double[] numbers;
+	/** A bitmap of which rows in this series hold numeric values. */
+	private long[] valid;
+	/** The number of rows in this series. */
+	private int length;
+	/**
+	 * The column of a lazily opened project file holding every row of this
+	 * series, until the series is edited, or null once the rows have been
+	 * read into {@link #values}, {@link #numbers}, and {@link #valid}.
+	 */
+	private PagedColumn source;
+	/**
+	 * A statistical summary of this series, which is kept up to date as
+	 * values change.
+	 */
+	private final SeriesStatistics statistics;
+	/** The parser used to read the numeric value of each row. */
+	private final NumberParser parser = new NumberParser();
+	/** Everything that needs to know when this series changes. */
+	private final List<SeriesListener> listeners = new ArrayList<>();
 
 
 	// GUI
@@ -58,39 +123,7 @@ public class Series implements Iterable<Cell> {
 
 
 
-	/**
-	 * Creates an iterator for this series.
-	 * @return The created {@link java.util.Iterator}
-	 */
-	@Override
-	public Iterator<Cell> iterator() {
-		Iterator<Cell> iterator = new Iterator<Cell>() {
-			private Cell c = null;
-
-			@Override
-			public boolean hasNext() {
-				if (c == null) {
-					return Series.this.firstCell != null;
-				} else {
-					return (c.getNext() != null);
-				}
-			}
-
-			@Override
-			public Cell next() {
-				if (c == null) {
-					c = Series.this.firstCell;
-				} else {
-					c = c.getNext();
-				}
-				return c;
-			}
-		};
-		return iterator;
-	}
-
-
-
+	// MARK: Methods
 	/**
 	 * Saves this series header to the output file, overwriting an existing
 	 * entry for the series. If this series has not yet been added,
@@ -100,109 +133,240 @@ public class Series implements Iterable<Cell> {
 		System.out.println("SAVE: Series");
 		int index = Main.getDataTable().indexOf(this);
 
+		ProjectJournal journal = FileDataManager.getJournal();
+		if (journal != null) {
+			journal.setSeries(index, name);
+			return;
+		}
+
 		int offset = FileDataManager.getOffset(
 			FileDataManager.SERIES,
 			index
 		);
 
-		Byte[] ba = Main.stringToByteArray(name, 64);
+		byte[] ba = Main.stringToByteArray(name, FileDataManager.SERIES_LENGTH);
 
-		FileDataManager.writeByteList(Arrays.asList(ba), offset);
+		FileDataManager.writeBytes(ba, offset);
 	}
 
 
 
 	/**
-	 * Searches this series for cells with a particular value, returning a
-	 * {@link java.util.List} of any matches
-	 * @param s The string to search for
-	 * @return A list of cells whose values exactly match the search criteria
-	 */
-	public List<Cell> search(String s) {
-		List<Cell> matches = new ArrayList<>();
-		for (Cell c : this) {
-			if (c.getValue().equals(s))
-				matches.add(c);
-			c = c.getNext();
+	 * Saves a single value in this series to the output file, overwriting the
+	 * existing entry for its cell. If the row has not yet been added,
+	 * {@link FileDataManager#encodeRowForInsertion(int)} should be used
+	 * instead.
+	 * @param row The index of the value to save
+	 */
+	public void save(int row) {
+		System.out.println("SAVE: Cell");
+		int seriesIndex = Main.getDataTable().indexOf(this);
+		int dataLength = Main.getDataTable().getData().size();
+
+		ProjectJournal journal = FileDataManager.getJournal();
+		if (journal != null) {
+			journal.setCell(seriesIndex, row, get(row));
+			return;
 		}
-		return matches;
+
+		int offset = FileDataManager.getOffset(
+			FileDataManager.CELL,
+			dataLength * row + seriesIndex
+		);
+
+		byte[] ba = Main.stringToByteArray(get(row), FileDataManager.CELL_LENGTH);
+
+		FileDataManager.writeBytes(ba, offset);
 	}
 
 
 
 	/**
-	 * Calculates a statistical summary of this series, storing the value in
-	 * {@link #statistics} for later retrieval.
+	 * Inserts a value into this series, moving every later value down a row.
+	 * @param row The index the new value will have
+	 * @param value The textual value to insert
 	 */
-	public void calculateStatistics() {
-		double min = Double.MAX_VALUE;
-		double max = -Double.MAX_VALUE;
-		double sum = 0.;
-		int nonEmpty = 0;
-		int numeric = 0;
-		for (Cell c : this) {
-			try {
-				double numVal = c.getNumeric();
-
-				numeric++;
-
-				// A value can be both the highest and lowest in a data set.
-				if (numVal > max)
-					max = numVal;
-				if (numVal < min)
-					min = numVal;
-
-				sum += numVal;
-
-			} catch (NumberFormatException e) {
-				// Perfectly valid situation, just don't run analytics.
-			}
+	public void insert(int row, String value) {
+		checkIndex(row, length + 1);
+		loadPages();
+		if (length == values.length)
+			allocate(length * 2);
+
+		System.arraycopy(values, row, values, row + 1, length - row);
+		System.arraycopy(numbers, row, numbers, row + 1, length - row);
+		shiftValidityUp(row);
+		length++;
+
+		store(row, value == null ? "" : value);
+		count(row);
+		fireStructureChanged();
+	}
+
 
-			if (!c.getValue().equals(""))
-				nonEmpty++;
+
+	/**
+	 * Removes a value from this series, moving every later value up a row.
+	 * A series always keeps at least one value, so removing the only value
+	 * in a series empties it instead.
+	 * @param row The index of the value to remove
+	 */
+	public void remove(int row) {
+		checkIndex(row, length);
+		loadPages();
+		if (length == 1) {
+			set(0, "");
+			return;
 		}
 
-		// The series is run through again for variance and standard deviation.
-		// Variance and standard deviation algorithms were adapted from
-		// Standard Deviation, 2024 and checked against the output of a TI-84 graphing
-		// calculator.
-		double varianceSum = 0.;
-		for (Cell c : this) {
-			try {
-				double numVal = c.getNumeric();
-
-				varianceSum += Math.pow(numVal - sum / numeric, 2);
-			} catch (NumberFormatException e) {
-				// Perfectly valid situation, just don't run analytics.
-			}
+		uncount(row);
+		System.arraycopy(values, row + 1, values, row, length - row - 1);
+		System.arraycopy(numbers, row + 1, numbers, row, length - row - 1);
+		shiftValidityDown(row);
+		length--;
+		values[length] = null;
+		fireStructureChanged();
+	}
+
+
+
+	/**
+	 * Swaps two values in this series.
+	 * @param i The index of the first value
+	 * @param j The index of the second value
+	 */
+	public void swap(int i, int j) {
+		checkIndex(i, length);
+		checkIndex(j, length);
+		loadPages();
+
+		String value = values[i];
+		values[i] = values[j];
+		values[j] = value;
+
+		double number = numbers[i];
+		numbers[i] = numbers[j];
+		numbers[j] = number;
+
+		boolean validI = isNumeric(i);
+		setValid(i, isNumeric(j));
+		setValid(j, validI);
+		fireStructureChanged();
+	}
+
+
+
+	/**
+	 * Reorders every value in this series at once.
+	 * @param order An array where element {@code i} is the index of the value
+	 * that should be moved to row {@code i}, such as one produced by a
+	 * {@link RowSorter}
+	 * @throws IllegalArgumentException If the order is not the same length as
+	 * this series
+	 */
+	public void permute(int[] order) {
+		if (order.length != length)
+			throw new IllegalArgumentException("Permutation length does not match series length.");
+		loadPages();
+
+		String[] newValues = new String[values.length];
+		double[] newNumbers = new double[numbers.length];
+		long[] newValid = new long[valid.length];
+		for (int i = 0; i < length; i++) {
+			int from = order[i];
+			checkIndex(from, length);
+			newValues[i] = values[from];
+			newNumbers[i] = numbers[from];
+			if (isNumeric(from))
+				newValid[i >>> 6] |= 1L << i;
 		}
 
-		double variance = varianceSum / numeric;
+		values = newValues;
+		numbers = newNumbers;
+		valid = newValid;
+		fireStructureChanged();
+	}
 
-		statistics.put("Non-Empty Cells", (double) nonEmpty);
-		statistics.put("Numeric Values", (double) numeric);
-		statistics.put("Sum", sum);
-		statistics.put("Mean", sum / numeric);
 
-		// This won't work with full datasets containing only the max/min
-		// double values values, but I can't imagine anyone would ever use such
-		// a data set.
-		if (min == Double.MAX_VALUE || max == -Double.MIN_VALUE) {
-			statistics.put("Minimum", null);
-			statistics.put("Maximum", null);
-			statistics.put("Range", null);
-		} else {
-			statistics.put("Minimum", min);
-			statistics.put("Maximum", max);
-			statistics.put("Range", max - min);
+
+	/**
+	 * Starts telling a listener about changes to this series. Adding a
+	 * listener that is already listening does nothing.
+	 * @param listener The listener to add
+	 */
+	public void addListener(SeriesListener listener) {
+		if (!listeners.contains(listener))
+			listeners.add(listener);
+	}
+
+
+
+	/**
+	 * Stops telling a listener about changes to this series.
+	 * @param listener The listener to remove
+	 */
+	public void removeListener(SeriesListener listener) {
+		listeners.remove(listener);
+	}
+
+
+
+	/**
+	 * Searches this series for a particular value, returning a
+	 * {@link java.util.List} of the rows it was found in.
+	 * @param s The string to search for
+	 * @return The indices of every value exactly matching the search criteria
+	 */
+	public List<Integer> search(String s) {
+		List<Integer> matches = new ArrayList<>();
+		for (int i = 0; i < length; i++) {
+			if (get(i).equals(s))
+				matches.add(i);
 		}
+		return matches;
+	}
 
-		statistics.put("Variance", variance);
-		statistics.put("Standard Deviation", Math.sqrt(variance));
+
+
+	/**
+	 * Reads every row of this series from a lazily opened project file, so
+	 * that the series no longer depends on the file. This happens by itself
+	 * the first time the series is edited, and does nothing if the rows have
+	 * already been read.
+	 */
+	public void loadPages() {
+		if (source == null)
+			return;
+
+		PagedColumn column = source;
+		values = null;
+		allocate(length);
+		for (int i = 0; i < length; i++) {
+			if (column.isNumeric(i)) {
+				numbers[i] = column.getNumber(i);
+				valid[i >>> 6] |= 1L << i;
+				values[i] = column.hasCanonicalText(i) ? null : column.get(i);
+			} else {
+				values[i] = column.get(i);
+			}
+		}
+		source = null;
 	}
 
 
 
+	/**
+	 * Recalculates the statistical summary of this series from scratch. The
+	 * summary is normally kept up to date as values change, so this is only
+	 * needed when the smallest or largest value has been removed.
+	 */
+	public void calculateStatistics() {
+		statistics.clear();
+		for (int i = 0; i < length; i++) {
+			count(i);
+		}
+	}
+
+
 
 	/**
 	 * Returns a string representation of this series, in the form
@@ -223,102 +387,335 @@ public class Series implements Iterable<Cell> {
 
 	// MARK: Convenience
 	/**
-	 * Calculates the length of the series based off of the index of the last
-	 * cell in it.
-	 * @return The length of this series
+	 * Gets the number of rows in this series.
+	 * @return {@link #length}
 	 */
 	public int length() {
-		return lastCell.getIndex() + 1;
+		return length;
+	}
+
+
+
+	/**
+	 * Gets the textual value of a row in this series.
+	 * @param row The index of the value to get
+	 * @return The textual value of the row
+	 */
+	public String get(int row) {
+		checkIndex(row, length);
+		if (source != null)
+			return source.get(row);
+		String value = values[row];
+		return value != null ? value : NumericColumn.format(numbers[row]);
+	}
+
+
+
+	/**
+	 * Changes the textual value of a row in this series, and tells any
+	 * listeners about the change. Setting a row to the value it already has
+	 * does nothing.
+	 * @param row The index of the value to change
+	 * @param value The new textual value of the row
+	 */
+	public void set(int row, String value) {
+		checkIndex(row, length);
+		if (value == null)
+			value = "";
+		if (value.equals(get(row)))
+			return;
+		loadPages();
+
+		boolean wasNumeric = isNumeric(row);
+		double oldNumber = numbers[row];
+		uncount(row);
+		store(row, value);
+		count(row);
+
+		for (SeriesListener listener : listeners) {
+			listener.valueChanged(this, row, wasNumeric, oldNumber);
+		}
+	}
+
+
+
+	/**
+	 * Checks whether a row in this series holds numeric data.
+	 * @param row The index of the value to check
+	 * @return Whether or not {@link #getNumeric(int)} will succeed for the row
+	 */
+	public boolean isNumeric(int row) {
+		if (source != null)
+			return source.isNumeric(row);
+		return (valid[row >>> 6] & (1L << row)) != 0;
 	}
 
 
 
 	/**
-	 * Gets a given statistic about this series.
-	 * @param key The key to search {@link #statistics} for
-	 * @return The value of the statistic, as an double-formatted string
+	 * Checks whether the text of a numeric row is exactly what
+	 * {@link NumericColumn#format(double)} gives for its number, so that the
+	 * text can be rebuilt from the number alone.
+	 * @param row The index of the value to check, which must be numeric
+	 * @return true if the text can be rebuilt from the number
 	 */
-	public String getStatistic(String key) {
-		try {
-			return Double.toString(statistics.get(key));
-		} catch (NullPointerException e) {
-			return "N/A";
+	public boolean hasCanonicalText(int row) {
+		if (source != null)
+			return source.hasCanonicalText(row);
+		String value = values[row];
+		return value == null || NumericColumn.format(numbers[row]).equals(value);
+	}
+
+
+
+	/**
+	 * Gets the numeric value of a row in this series. If the row does not
+	 * contain numeric data, this method will throw a
+	 * {@link java.lang.NumberFormatException}.
+	 * @param row The index of the value to get
+	 * @return The double numeric value of the row
+	 */
+	public double getNumeric(int row) throws NumberFormatException {
+		checkIndex(row, length);
+		if (!isNumeric(row))
+			throw new NumberFormatException("Invalid number format.");
+		return numberAt(row);
+	}
+
+
+
+	/**
+	 * Grows the arrays backing this series so that they have room for at
+	 * least a given number of rows.
+	 * @param capacity The number of rows to make room for
+	 */
+	private void allocate(int capacity) {
+		capacity = Math.max(capacity, MINIMUM_CAPACITY);
+		if (values != null && capacity <= values.length)
+			return;
+
+		if (values == null) {
+			values = new String[capacity];
+			numbers = new double[capacity];
+			valid = new long[(capacity + 63) >>> 6];
+		} else {
+			values = Arrays.copyOf(values, capacity);
+			numbers = Arrays.copyOf(numbers, capacity);
+			valid = Arrays.copyOf(valid, (capacity + 63) >>> 6);
 		}
 	}
 
 
 
 	/**
-	 * Gets a given statistic about this series, formatting it as an integer
-	 * rather than as a double.
-	 * @param key The key to search {@link #statistics} for
-	 * @return The value of the statistic, as an integer-formatted string
+	 * Stores the textual value of a row, parsing its numeric value at the
+	 * same time. This is the only place values are parsed, so reading a
+	 * numeric value never needs to parse it again.
+	 * @param row The index of the value to store
+	 * @param value The new textual value of the row, which must not be null
 	 */
-	public String getStatisticAsInt(String key) {
-		try {
-			return Integer.toString((int) (double) statistics.get(key));
-		} catch (NullPointerException e) {
-			return "N/A";
+	private void store(int row, String value) {
+		values[row] = value;
+		if (parser.parse(value)) {
+			numbers[row] = parser.getValue();
+			setValid(row, true);
+		} else {
+			numbers[row] = 0;
+			setValid(row, false);
 		}
 	}
 
 
 
-	// MARK: Getters / Setters
 	/**
-	 * Getter: Gets the name of this series.
-	 * @return {@link #name}
+	 * Adds a row's value to the statistical summary of this series.
+	 * @param row The index of the row
 	 */
-	public String getName() {
-		return name;
+	private void count(int row) {
+		statistics.add(isEmpty(row), isNumeric(row), numberAt(row));
 	}
 
+
+
 	/**
-	 * Setter: Changes the name of this series, and updates the series' text
-	 * header accordingly.
-	 * @param name The new value for {@link #name}
+	 * Removes a row's value from the statistical summary of this series.
+	 * @param row The index of the row
 	 */
-	public void setName(String name) {
-		this.name = name;
-		header.getTextField().setText(name);
+	private void uncount(int row) {
+		statistics.remove(isEmpty(row), isNumeric(row), numberAt(row));
 	}
 
 
 
 	/**
-	 * Getter: Gets the first (top) cell in this series.
-	 * @return {@link #firstCell}
+	 * Checks whether a row in this series is empty.
+	 * @param row The index of the row
+	 * @return true if the row's text is empty
 	 */
-	public Cell getFirst() {
-		return firstCell;
+	private boolean isEmpty(int row) {
+		if (source != null)
+			return source.isEmpty(row);
+		return values[row] != null && values[row].isEmpty();
 	}
 
+
+
 	/**
-	 * Setter: Changes which cell is first in this series.
-	 * @param firstCell The new {@link #firstCell} for the series
+	 * Gets the numeric value of a row, wherever it is stored, without
+	 * checking that it is valid.
+	 * @param row The index of the row
+	 * @return The numeric value of the row
 	 */
-	public void setFirst(Cell firstCell) {
-		this.firstCell = firstCell;
+	private double numberAt(int row) {
+		return source != null ? source.getNumber(row) : numbers[row];
 	}
 
 
 
 	/**
-	 * Getter: Gets the last (bottom) cell in this series.
-	 * @return {@link #lastCell}
+	 * Works out how many rows to make room for when a series is created from
+	 * a list of values. A series left in a lazily opened project file needs
+	 * no room until it is edited.
+	 * @param values The values the series is being created from
+	 * @return The number of rows to make room for
 	 */
-	public Cell getLast() {
-		return lastCell;
+	private static int initialLength(List<String> values) {
+		if (values instanceof PagedColumn && ((PagedColumn) values).isPacked())
+			return 1;
+		return values.size();
+	}
+
+
+
+	/** Tells every listener that rows in this series have moved. */
+	private void fireStructureChanged() {
+		for (SeriesListener listener : listeners) {
+			listener.structureChanged(this);
+		}
 	}
 
+
+
 	/**
-	 * Setter: Changes which cell is last in this series.
-	 * @param lastCell The new {@link #lastCell} for the series
+	 * Marks whether or not a row holds numeric data.
+	 * @param row The index of the row
+	 * @param numeric Whether or not the row's numeric value is valid
 	 */
-	public void setLast(Cell lastCell) {
-		this.lastCell = lastCell;
+	private void setValid(int row, boolean numeric) {
+		if (numeric)
+			valid[row >>> 6] |= 1L << row;
+		else
+			valid[row >>> 6] &= ~(1L << row);
 	}
 
+
+
+	/**
+	 * Moves every bit in {@link #valid} from a row onwards up by one, making
+	 * room for an inserted row. The bit for the inserted row is left as it
+	 * was, and should be set afterwards.
+	 * @param row The index of the inserted row
+	 */
+	private void shiftValidityUp(int row) {
+		int word = row >>> 6;
+		int last = length >>> 6;
+		for (int w = last; w > word; w--) {
+			valid[w] = (valid[w] << 1) | (valid[w - 1] >>> 63);
+		}
+
+		long keep = (1L << row) - 1;
+		valid[word] = (valid[word] & keep) | ((valid[word] & ~keep) << 1);
+	}
+
+
+
+	/**
+	 * Moves every bit in {@link #valid} after a row down by one, covering
+	 * the bit of a removed row.
+	 * @param row The index of the removed row
+	 */
+	private void shiftValidityDown(int row) {
+		int word = row >>> 6;
+		int last = (length - 1) >>> 6;
+
+		long keep = (1L << row) - 1;
+		long carry = word < last ? valid[word + 1] << 63 : 0;
+		valid[word] = (valid[word] & keep) | ((valid[word] >>> 1) & ~keep) | carry;
+
+		for (int w = word + 1; w <= last; w++) {
+			carry = w < last ? valid[w + 1] << 63 : 0;
+			valid[w] = (valid[w] >>> 1) | carry;
+		}
+	}
+
+
+
+	/**
+	 * Checks that a row index is in range.
+	 * @param row The index to check
+	 * @param bound The number of valid indices
+	 * @throws IndexOutOfBoundsException If the index is out of range
+	 */
+	private static void checkIndex(int row, int bound) {
+		if (row < 0 || row >= bound)
+			throw new IndexOutOfBoundsException(
+				String.format("Row %d out of bounds for length %d", row, bound));
+	}
+
+
+
+	// MARK: Getters / Setters
+	/**
+	 * Getter: Gets the statistical summary of this series, recalculating it
+	 * first if it is out of date. The same object is returned every time,
+	 * and changes as the series does.
+	 * @return {@link #statistics}
+	 */
+	public SeriesStatistics getStatistics() {
+		if (statistics.isStale())
+			calculateStatistics();
+		return statistics;
+	}
+
+	// statistics has no setter, as it is calculated from the values.
+
+
+
+	/**
+	 * Getter: Checks whether this series is still being read from a lazily
+	 * opened project file, a page at a time.
+	 * @return true if the rows haven't all been read yet
+	 */
+	public boolean isPaged() {
+		return source != null;
+	}
+
+	// source has no setter. It is set by the constructor, and cleared by
+	// loadPages().
+
+
+
+	/**
+	 * Getter: Gets the name of this series.
+	 * @return {@link #name}
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Setter: Changes the name of this series, and updates the series' text
+	 * header accordingly.
+	 * @param name The new value for {@link #name}
+	 */
+	public void setName(String name) {
+		this.name = name;
+		header.getTextField().setText(name);
+	}
+
+	// Values are read and written by row (see the methods in the Convenience
+	// section), and so have neither getters nor setters.
+
 	// Statistics have neither getters nor setters, as they are set by this
 	// class and are read individually (see the methods in the Convenience)
 	// section.
@@ -49,7 +49,7 @@ public class SeriesHeader extends JPanel {
 					selector.refresh(true);
 				}
 				SeriesHeader.this.getSeries().save();
-				Main.updateAllComponents();
+				UpdateScheduler.markDirty(UpdateScheduler.STRUCTURE);
 			}
 		});
 
@@ -60,7 +60,7 @@ public class SeriesHeader extends JPanel {
 					selector.refresh(true);
 				}
 				SeriesHeader.this.getSeries().save();
-				Main.updateAllComponents();
+				UpdateScheduler.markDirty(UpdateScheduler.STRUCTURE);
 			}
 		});
 
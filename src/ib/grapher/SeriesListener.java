@@ -0,0 +1,24 @@
+package ib.grapher;
+
+/**
+ * Something which keeps track of the values in a {@link Series}, and needs to
+ * know when they change so that it can stay up to date without reading the
+ * whole series again.
+ */
+public interface SeriesListener {
+	/**
+	 * Called after the value of a single row in a series changes. The new
+	 * value can be read from the series.
+	 * @param series The series that changed
+	 * @param row The index of the row that changed
+	 * @param wasNumeric Whether or not the row held numeric data before
+	 * @param oldNumber The row's old numeric value, if it had one
+	 */
+	public void valueChanged(Series series, int row, boolean wasNumeric, double oldNumber);
+
+	/**
+	 * Called after rows in a series are inserted, removed, or reordered.
+	 * @param series The series that changed
+	 */
+	public void structureChanged(Series series);
+}
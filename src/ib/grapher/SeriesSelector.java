@@ -28,8 +28,8 @@ public class SeriesSelector extends JComboBox<Series> {
 
 	// MARK: Properties
 	/**
-	 * A workaround to prevent {@link Main#updateAllComponents()} from firing when the
-	 * selector is loaded from a file.
+	 * A workaround to prevent an update (see {@link UpdateScheduler}) from
+	 * firing when the selector is loaded from a file.
 	 */
 	private boolean shouldTriggerUpdate = true;
 
@@ -42,7 +42,7 @@ public class SeriesSelector extends JComboBox<Series> {
 	 * If this is called after the selected series has been removed from the
 	 * data table, it will also reset the combo box.
 	 * @param shouldTriggerUpdate Whether this refresh should trigger
-	 * {@link Main#updateAllComponents()} or not.
+	 * an update (see {@link UpdateScheduler}) or not.
 	 */
 	public void refresh(boolean shouldTriggerUpdate) {
 		Object selected = getSelectedItem();
@@ -64,8 +64,8 @@ public class SeriesSelector extends JComboBox<Series> {
 
 	// MARK: Getters / Setters
 	/**
-	 * Getter: Gets whether {@link Main#updateAllComponents()} should fire on
-	 * item selection.
+	 * Getter: Gets whether an update (see {@link UpdateScheduler}) should fire
+	 * on item selection.
 	 * @return {@link #shouldTriggerUpdate}
 	 */
 	public boolean shouldTriggerUpdate() {
@@ -0,0 +1,282 @@
+package ib.grapher;
+
+/**
+ * A statistical summary of a {@link Series}, which is kept up to date as
+ * values are added and removed rather than being recalculated from scratch.
+ * The mean and variance are tracked with Welford's algorithm, which stays
+ * accurate even when the values are large compared to their spread. Adding or
+ * removing a value takes constant time, except that removing the smallest or
+ * largest value means the minimum or maximum has to be found again; in that
+ * case the summary is marked as stale, and the series recalculates it the
+ * next time it is needed.
+ * <p>
+ * Medians, quartiles and percentiles come from a {@link QuantileSketch},
+ * which is exact for small series and approximate, with bounded memory, for
+ * large ones. The mode is only known while the sketch is exact.
+ * <p>
+ * Statistics that can't be calculated, like the mean of a series with no
+ * numeric values, are NaN.
+ */
+public class SeriesStatistics {
+	// MARK: Constructor
+	/** Sole constructor. Creates a summary of no values. */
+	public SeriesStatistics() {
+		clear();
+	}
+
+
+
+	// MARK: Properties
+	/** The number of values that aren't empty. */
+	private int nonEmpty;
+	/** The number of numeric values. */
+	private int count;
+	/** The sum of every numeric value. */
+	private double sum;
+	/** The mean of every numeric value. */
+	private double mean;
+	/**
+	 * The sum of the squared differences between each numeric value and the
+	 * mean (Welford's M2).
+	 */
+	private double squaredDeviations;
+	/** The smallest numeric value. */
+	private double minimum;
+	/** The largest numeric value. */
+	private double maximum;
+	/**
+	 * Whether or not this summary needs to be recalculated, because the
+	 * minimum or maximum was removed.
+	 */
+	private boolean stale;
+	/** A sketch of every numeric value, for order statistics. */
+	private final QuantileSketch quantiles = new QuantileSketch();
+
+
+
+	// MARK: Methods
+	/** Resets this summary to describe no values. */
+	public void clear() {
+		nonEmpty = 0;
+		count = 0;
+		sum = 0;
+		mean = 0;
+		squaredDeviations = 0;
+		minimum = Double.POSITIVE_INFINITY;
+		maximum = Double.NEGATIVE_INFINITY;
+		stale = false;
+		quantiles.clear();
+	}
+
+
+
+	/**
+	 * Marks this summary as out of date, so that the series recalculates it
+	 * the next time it is needed.
+	 */
+	public void invalidate() {
+		stale = true;
+	}
+
+
+
+	/**
+	 * Adds a value to this summary.
+	 * @param empty Whether or not the value is empty
+	 * @param numeric Whether or not the value is numeric
+	 * @param number The numeric value, if it has one
+	 */
+	public void add(boolean empty, boolean numeric, double number) {
+		if (!empty)
+			nonEmpty++;
+		if (!numeric)
+			return;
+
+		count++;
+		sum += number;
+		double delta = number - mean;
+		mean += delta / count;
+		squaredDeviations += delta * (number - mean);
+
+		if (number < minimum)
+			minimum = number;
+		if (number > maximum)
+			maximum = number;
+		quantiles.add(number);
+	}
+
+
+
+	/**
+	 * Removes a value from this summary, by running Welford's algorithm
+	 * backwards.
+	 * @param empty Whether or not the value is empty
+	 * @param numeric Whether or not the value is numeric
+	 * @param number The numeric value, if it has one
+	 */
+	public void remove(boolean empty, boolean numeric, double number) {
+		if (!empty)
+			nonEmpty--;
+		if (!numeric)
+			return;
+
+		quantiles.remove(number);
+		if (count <= 1) {
+			count = 0;
+			sum = 0;
+			mean = 0;
+			squaredDeviations = 0;
+			minimum = Double.POSITIVE_INFINITY;
+			maximum = Double.NEGATIVE_INFINITY;
+			return;
+		}
+
+		double oldMean = mean;
+		count--;
+		sum -= number;
+		mean = oldMean - (number - oldMean) / count;
+		squaredDeviations = Math.max(0, squaredDeviations - (number - oldMean) * (number - mean));
+
+		if (number <= minimum || number >= maximum)
+			stale = true;
+	}
+
+
+
+	// MARK: Getters / Setters
+	/**
+	 * Getter: Gets the number of values that aren't empty.
+	 * @return {@link #nonEmpty}
+	 */
+	public int getNonEmpty() {
+		return nonEmpty;
+	}
+
+	/**
+	 * Getter: Gets the number of numeric values.
+	 * @return {@link #count}
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * Getter: Gets the sum of every numeric value.
+	 * @return {@link #sum}
+	 */
+	public double getSum() {
+		return sum;
+	}
+
+	/**
+	 * Getter: Gets the mean of every numeric value.
+	 * @return {@link #mean}, or NaN if there are no numeric values
+	 */
+	public double getMean() {
+		return count == 0 ? Double.NaN : mean;
+	}
+
+	/**
+	 * Getter: Gets the (population) variance of every numeric value.
+	 * @return The variance, or NaN if there are no numeric values
+	 */
+	public double getVariance() {
+		return count == 0 ? Double.NaN : squaredDeviations / count;
+	}
+
+	/**
+	 * Getter: Gets the (population) standard deviation of every numeric
+	 * value.
+	 * @return The standard deviation, or NaN if there are no numeric values
+	 */
+	public double getStandardDeviation() {
+		return Math.sqrt(getVariance());
+	}
+
+	/**
+	 * Getter: Gets the smallest numeric value.
+	 * @return {@link #minimum}, or NaN if there are no numeric values
+	 */
+	public double getMinimum() {
+		return count == 0 ? Double.NaN : minimum;
+	}
+
+	/**
+	 * Getter: Gets the largest numeric value.
+	 * @return {@link #maximum}, or NaN if there are no numeric values
+	 */
+	public double getMaximum() {
+		return count == 0 ? Double.NaN : maximum;
+	}
+
+	/**
+	 * Getter: Gets the difference between the largest and smallest numeric
+	 * values.
+	 * @return The range, or NaN if there are no numeric values
+	 */
+	public double getRange() {
+		return getMaximum() - getMinimum();
+	}
+
+	/**
+	 * Getter: Gets the value below which a given fraction of the numeric
+	 * values fall.
+	 * @param p The fraction, from 0 to 1
+	 * @return The percentile, or NaN if there are no numeric values
+	 */
+	public double getPercentile(double p) {
+		return quantiles.quantile(p);
+	}
+
+	/**
+	 * Getter: Gets the median of every numeric value.
+	 * @return The median, or NaN if there are no numeric values
+	 */
+	public double getMedian() {
+		return getPercentile(0.5);
+	}
+
+	/**
+	 * Getter: Gets the lower quartile of every numeric value.
+	 * @return The 25th percentile, or NaN if there are no numeric values
+	 */
+	public double getLowerQuartile() {
+		return getPercentile(0.25);
+	}
+
+	/**
+	 * Getter: Gets the upper quartile of every numeric value.
+	 * @return The 75th percentile, or NaN if there are no numeric values
+	 */
+	public double getUpperQuartile() {
+		return getPercentile(0.75);
+	}
+
+	/**
+	 * Getter: Gets the difference between the upper and lower quartiles.
+	 * @return The interquartile range, or NaN if there are no numeric values
+	 */
+	public double getInterquartileRange() {
+		return getUpperQuartile() - getLowerQuartile();
+	}
+
+	/**
+	 * Getter: Gets the most common numeric value.
+	 * @return The mode, or NaN if no value appears more than once or the
+	 * series is too large to know
+	 */
+	public double getMode() {
+		return quantiles.mode();
+	}
+
+	/**
+	 * Getter: Checks whether this summary needs to be recalculated.
+	 * @return Whether the summary or its quantile sketch is stale
+	 */
+	public boolean isStale() {
+		return stale || quantiles.isStale();
+	}
+
+	// The statistics have no setters, as they are calculated by adding and
+	// removing values.
+}
@@ -0,0 +1,13 @@
+package ib.grapher;
+
+/**
+ * Something which shows part of the project, and needs to be brought up to
+ * date when that part changes. See {@link UpdateScheduler}.
+ */
+public interface Updatable {
+	/**
+	 * Brings this object up to date with the parts of the project it
+	 * depends on.
+	 */
+	public void doUpdate();
+}
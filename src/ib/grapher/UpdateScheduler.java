@@ -0,0 +1,132 @@
+package ib.grapher;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.swing.SwingUtilities;
+
+/**
+ * A class which decides what needs updating after the project changes.
+ * Windows register which parts of the project they depend on, and changes
+ * mark those parts as dirty. Rather than updating straight away, every
+ * change made while handling one event is gathered up, and a single pass on
+ * the event dispatch thread then updates each window that depends on
+ * something that changed, once.
+ */
+public class UpdateScheduler {
+	// MARK: Constants
+	/** Flag for the selected cell in the data table. */
+	public static final int SELECTION = 1;
+	/** Flag for the values held in cells. */
+	public static final int VALUES = 2;
+	/** Flag for the shape of the data table: its rows, series, and series names. */
+	public static final int STRUCTURE = 4;
+	/** Flag for the plottable data sets. */
+	public static final int PLOTTABLES = 8;
+	/** Flag for the titles, type, and gridlines of the graph. */
+	public static final int GRAPH = 16;
+	/** Flag for every part of the project at once. */
+	public static final int ALL = SELECTION | VALUES | STRUCTURE | PLOTTABLES | GRAPH;
+
+
+
+	// MARK: Properties
+	/** Everything which has registered for updates. */
+	private static List<Updatable> updatables = new ArrayList<>();
+	/** The parts of the project each registered object depends on. */
+	private static List<Integer> dependencies = new ArrayList<>();
+
+	/** The parts of the project which have changed since the last pass. */
+	private static int dirty = 0;
+	/** Whether or not a pass has been scheduled. */
+	private static boolean scheduled = false;
+
+
+
+	// MARK: Methods
+	/**
+	 * Registers an object to be updated whenever part of the project it
+	 * depends on changes.
+	 * @param updatable The object to update
+	 * @param flags The parts of the project it depends on, combined with
+	 * bitwise or
+	 */
+	public static synchronized void register(Updatable updatable, int flags) {
+		updatables.add(updatable);
+		dependencies.add(flags);
+	}
+
+
+
+	/**
+	 * Marks parts of the project as changed, scheduling a pass to update
+	 * everything that depends on them. This can be called from any thread.
+	 * @param flags The parts of the project that changed, combined with
+	 * bitwise or
+	 */
+	public static synchronized void markDirty(int flags) {
+		dirty |= flags;
+		if (scheduled)
+			return;
+
+		scheduled = true;
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+				UpdateScheduler.runPass();
+			}
+		});
+	}
+
+
+
+	/**
+	 * Runs a pass straight away, updating everything that depends on a part
+	 * of the project that has changed. This must be called on the event
+	 * dispatch thread.
+	 */
+	public static void runPass() {
+		int flags;
+		List<Updatable> targets = new ArrayList<>();
+		synchronized (UpdateScheduler.class) {
+			flags = dirty;
+			dirty = 0;
+			scheduled = false;
+
+			for (int i = 0; i < updatables.size(); i++) {
+				if ((dependencies.get(i) & flags) != 0)
+					targets.add(updatables.get(i));
+			}
+		}
+
+		if (flags == 0)
+			return;
+
+		System.out.printf("UPDATE: Pass %s%n", describe(flags));
+		for (Updatable u : targets) {
+			u.doUpdate();
+		}
+	}
+
+
+
+	// MARK: Convenience
+	/**
+	 * Describes a set of flags, for logging.
+	 * @param flags The flags to describe
+	 * @return The names of the flags, separated by spaces
+	 */
+	private static String describe(int flags) {
+		StringBuilder sb = new StringBuilder();
+		if ((flags & SELECTION) != 0)
+			sb.append(" Selection");
+		if ((flags & VALUES) != 0)
+			sb.append(" Values");
+		if ((flags & STRUCTURE) != 0)
+			sb.append(" Structure");
+		if ((flags & PLOTTABLES) != 0)
+			sb.append(" Plottables");
+		if ((flags & GRAPH) != 0)
+			sb.append(" Graph");
+		return sb.toString().trim();
+	}
+}
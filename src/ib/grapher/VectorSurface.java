@@ -0,0 +1,174 @@
+package ib.grapher;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A drawing surface that streams shapes into a vector file as they are
+ * drawn, rather than building the whole document in memory first.
+ * <p>
+ * Drawing methods can't throw, so the first write that fails is remembered,
+ * everything drawn after it is ignored, and the failure is thrown when the
+ * surface is closed. A surface must always be closed, even if drawing fails,
+ * so that its file is released.
+ */
+public abstract class VectorSurface implements DrawingSurface, Closeable {
+	// MARK: Constructor
+	/**
+	 * Sole constructor.
+	 * @param width The width of the document, in units
+	 * @param height The height of the document, in units
+	 */
+	protected VectorSurface(int width, int height) {
+		this.width = width;
+		this.height = height;
+		metricsGraphics = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB)
+			.createGraphics();
+	}
+
+
+
+	// MARK: Properties
+	/** The width of the document, in units. */
+	protected final int width;
+	/** The height of the document, in units. */
+	protected final int height;
+	/** The colour that everything is drawn in. */
+	protected Color colour = Main.BLACK;
+	/** The font that text is drawn in. */
+	protected Font font = new Font(Font.SANS_SERIF, Font.PLAIN, 12);
+	/** The horizontal offset added to everything drawn, in units. */
+	protected int originX;
+	/** The vertical offset added to everything drawn, in units. */
+	protected int originY;
+
+	/**
+	 * A graphics object that is never drawn with, used to measure text the
+	 * same way it would be measured on screen.
+	 */
+	private final Graphics2D metricsGraphics;
+	/** The first write that failed, or null if none have. */
+	private IOException error;
+
+
+
+	// MARK: Methods
+	/**
+	 * Gets the metrics of a font, as it would be measured on screen.
+	 * @param font The font to measure
+	 * @return The metrics of the font
+	 */
+	@Override
+	public FontMetrics getFontMetrics(Font font) {
+		return metricsGraphics.getFontMetrics(font);
+	}
+
+
+
+	/**
+	 * Moves the origin of the surface.
+	 * @param x The horizontal offset, in units
+	 * @param y The vertical offset, in units
+	 */
+	@Override
+	public void translate(int x, int y) {
+		originX += x;
+		originY += y;
+	}
+
+
+
+	/**
+	 * Finishes the document and closes its file. The file is closed even if
+	 * the document could not be finished.
+	 * @throws IOException If anything drawn on the surface, or the end of the
+	 * document, could not be written
+	 */
+	@Override
+	public void close() throws IOException {
+		metricsGraphics.dispose();
+		try {
+			if (error == null)
+				finish();
+		} catch (IOException e) {
+			failed(e);
+		} finally {
+			release();
+		}
+
+		if (error != null)
+			throw error;
+	}
+
+
+
+	/**
+	 * Writes everything that comes after the last shape in the document.
+	 * @throws IOException If the end of the document could not be written
+	 */
+	protected abstract void finish() throws IOException;
+
+
+
+	/**
+	 * Closes the document's file.
+	 * @throws IOException If the file could not be closed
+	 */
+	protected abstract void release() throws IOException;
+
+
+
+	/**
+	 * Records that a write to the document failed. Only the first failure is
+	 * kept, since the later ones are usually caused by it.
+	 * @param e The reason the write failed
+	 */
+	protected void failed(IOException e) {
+		if (error == null)
+			error = e;
+	}
+
+
+
+	// MARK: Getters / Setters
+	/**
+	 * Getter: Gets whether or not a write to the document has failed, in
+	 * which case nothing more should be written.
+	 * @return true if a write has failed, false otherwise
+	 */
+	protected boolean hasFailed() {
+		return error != null;
+	}
+
+	/**
+	 * Setter: Sets the font that text is drawn in.
+	 * @param font {@link #font}
+	 */
+	@Override
+	public void setFont(Font font) {
+		this.font = font;
+	}
+
+	/**
+	 * Getter: Gets the colour that everything is drawn in.
+	 * @return {@link #colour}
+	 */
+	@Override
+	public Color getColour() {
+		return colour;
+	}
+
+	/**
+	 * Setter: Sets the colour that everything is drawn in.
+	 * @param colour {@link #colour}
+	 */
+	@Override
+	public void setColour(Color colour) {
+		this.colour = colour;
+	}
+}
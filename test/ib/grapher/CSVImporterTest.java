@@ -0,0 +1,126 @@
+package ib.grapher;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Checks that a CSV file imports the same way whether it is parsed on one
+ * core or split into chunks and parsed on every core. Run through the ant
+ * {@code test} target, which fails if this exits with a non-zero status.
+ */
+public class CSVImporterTest {
+	// MARK: Constants
+	/**
+	 * The number of rows to write, which makes a file larger than the
+	 * smallest one worth parsing in parallel.
+	 */
+	private static final int ROWS = 1_500_000;
+
+
+
+	// MARK: Tests
+	/**
+	 * Runs every test.
+	 * @param args Unused
+	 * @throws IOException If a temporary file could not be used
+	 */
+	public static void main(String[] args) throws IOException {
+		if (ForkJoinPool.getCommonPoolParallelism() < 2) {
+			System.err.println("FAIL: Only one core, so the parallel path "
+				+ "can't be tested.");
+			System.exit(1);
+		}
+
+		int failures = 0;
+		failures += leadingBlankLines("\n");
+		failures += leadingBlankLines("\r\n");
+
+		if (failures > 0) {
+			System.err.printf("%d test(s) failed.%n", failures);
+			System.exit(1);
+		}
+		System.out.println("All tests passed.");
+	}
+
+
+
+	/**
+	 * Imports a large file that starts with two blank lines both in
+	 * parallel and serially, and checks that both give every row.
+	 * @param lineBreak The line break to write the file with
+	 * @return The number of failures
+	 * @throws IOException If a temporary file could not be used
+	 */
+	private static int leadingBlankLines(String lineBreak) throws IOException {
+		String name = "leadingBlankLines" + (lineBreak.length() > 1 ? " (CRLF)" : "");
+		File file = File.createTempFile("grapher", ".csv");
+		try {
+			try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+				out.write((lineBreak + lineBreak + "A,B" + lineBreak)
+					.getBytes(StandardCharsets.UTF_8));
+				for (int i = 0; i < ROWS; i++) {
+					out.write((i + ",row " + i + lineBreak)
+						.getBytes(StandardCharsets.UTF_8));
+				}
+			}
+
+			List<String> parallel = importFile(file, true);
+			List<String> serial = importFile(file, false);
+
+			if (parallel == null || serial == null || !parallel.equals(serial)
+					|| serial.size() != 2 + 2 * 3
+					|| !serial.get(0).equals("A") || !serial.get(1).equals("B")
+					|| !serial.get(2).equals(String.valueOf(ROWS))) {
+				System.err.printf("FAIL %s: parallel %s, serial %s%n",
+					name, parallel, serial);
+				return 1;
+			}
+			System.out.println("PASS " + name);
+			return 0;
+		} finally {
+			file.delete();
+		}
+	}
+
+
+
+	// MARK: Helpers
+	/**
+	 * Imports a file, and summarises the imported series.
+	 * @param file The CSV file to import
+	 * @param parallel Whether or not to parse the file on every core
+	 * @return The name of each series, then the length, first value, and
+	 * last value of each series, or null if nothing was imported
+	 * @throws IOException If the file could not be read
+	 */
+	private static List<String> importFile(File file, boolean parallel)
+			throws IOException {
+		boolean wasParallel = CSVImporter.isParallel();
+		CSVImporter.setParallel(parallel);
+		try {
+			List<Series> data = new CSVImporter(file).doInBackground();
+			if (data == null)
+				return null;
+
+			List<String> summary = new ArrayList<>();
+			for (Series r : data) {
+				summary.add(r.getName());
+			}
+			for (Series r : data) {
+				summary.add(String.valueOf(r.length()));
+				summary.add(r.get(0));
+				summary.add(r.get(r.length() - 1));
+			}
+			return summary;
+		} finally {
+			CSVImporter.setParallel(wasParallel);
+		}
+	}
+}
@@ -0,0 +1,112 @@
+package ib.grapher;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Checks that a journal replays correctly after the only row of a project
+ * is deleted, which only empties it, and then edited. Run through the ant
+ * {@code test} target, which fails if this exits with a non-zero status.
+ */
+public class ProjectJournalTest {
+	// MARK: Tests
+	/**
+	 * Runs every test.
+	 * @param args Unused
+	 * @throws IOException If a temporary file could not be used
+	 */
+	public static void main(String[] args) throws IOException {
+		int failures = 0;
+		failures += deleteOnlyRow();
+
+		if (failures > 0) {
+			System.err.printf("%d test(s) failed.%n", failures);
+			System.exit(1);
+		}
+		System.out.println("All tests passed.");
+	}
+
+
+
+	/**
+	 * Deletes the only row of a two series project, edits it, inserts a
+	 * second row, and reloads the project from its file and journal.
+	 * @return The number of failures
+	 * @throws IOException If a temporary file could not be used
+	 */
+	private static int deleteOnlyRow() throws IOException {
+		String name = "deleteOnlyRow";
+		File file = File.createTempFile("grapher", ".grapher");
+		File journalFile = ProjectJournal.journalFor(file);
+		try {
+			ProjectData pd = new ProjectData();
+			pd.seriesNames.add("A");
+			pd.seriesNames.add("B");
+			pd.columns.add(new ArrayList<>(Arrays.asList("1")));
+			pd.columns.add(new ArrayList<>(Arrays.asList("x")));
+			try (FileOutputStream out = new FileOutputStream(file)) {
+				ProjectFormat.write(pd, out);
+			}
+
+			ProjectJournal journal = new ProjectJournal(journalFile);
+			journal.reset(file.length(), checksum(file));
+			journal.clearRow(0, 2);
+			journal.setCell(0, 0, "5");
+			journal.insertRow(1, Arrays.asList("6", "y"));
+			journal.sync();
+			journal.close();
+
+			ProjectData reloaded;
+			int replayed;
+			try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+				reloaded = ProjectData.read(new FileProjectStorage(raf));
+			}
+			journal = new ProjectJournal(journalFile);
+			try {
+				replayed = journal.replay(reloaded, file.length(), checksum(file));
+			} finally {
+				journal.close();
+			}
+
+			List<List<String>> expected = Arrays.asList(
+				Arrays.asList("5", "6"),
+				Arrays.asList("", "y")
+			);
+			List<List<String>> actual = new ArrayList<>();
+			for (List<String> column : reloaded.columns) {
+				actual.add(new ArrayList<>(column));
+			}
+
+			if (replayed <= 0 || !expected.equals(actual)) {
+				System.err.printf("FAIL %s: replayed %d, expected %s, got %s%n",
+					name, replayed, expected, actual);
+				return 1;
+			}
+			System.out.println("PASS " + name);
+			return 0;
+		} finally {
+			journalFile.delete();
+			file.delete();
+		}
+	}
+
+
+
+	// MARK: Helpers
+	/**
+	 * Gets the checksum a journal is matched to its project file with.
+	 * @param file The project file
+	 * @return The checksum of the file
+	 * @throws IOException If the file could not be read
+	 */
+	private static int checksum(File file) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			return FileDataManager.checksum(new FileProjectStorage(raf));
+		}
+	}
+}
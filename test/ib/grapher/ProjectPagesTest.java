@@ -0,0 +1,180 @@
+package ib.grapher;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks that a lazily opened project notices damage to its cells and string
+ * heap a page at a time. Run through the ant {@code test} target, which
+ * fails if this exits with a non-zero status.
+ */
+public class ProjectPagesTest {
+	// MARK: Constants
+	/** The number of rows in the test project, which spans several pages. */
+	private static final int ROWS = 3 * ProjectPages.PAGE_ROWS + 100;
+
+
+
+	// MARK: Tests
+	/**
+	 * Runs every test.
+	 * @param args Unused
+	 * @throws IOException If a temporary file could not be used
+	 */
+	public static void main(String[] args) throws IOException {
+		File file = File.createTempFile("grapher", ".grapher");
+		try {
+			writeProject(file);
+
+			long columns = ProjectFormat.HEADER_LENGTH + 2 * ProjectFormat.SERIES_LENGTH;
+			long bitmap = ((ROWS + 63) >>> 6) * 8L;
+			long slots = columns + bitmap + ROWS * 8L;
+			long heap;
+			try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+				heap = ProjectFormat.readBlock(new FileProjectStorage(raf), 24, 8)
+					.order(ByteOrder.LITTLE_ENDIAN).getLong();
+			}
+
+			int failures = 0;
+			failures += intact(file);
+			failures += damaged(file, "numeric page",
+				columns + bitmap + (ProjectPages.PAGE_ROWS + 5) * 8L);
+			failures += damaged(file, "bitmap", columns + 3);
+			failures += damaged(file, "string page",
+				slots + (2L * ProjectPages.PAGE_ROWS + 1) * ProjectFormat.SLOT_LENGTH + 4);
+			failures += damaged(file, "heap page",
+				heap + ProjectFormat.HEAP_PAGE_LENGTH + 10);
+
+			if (failures > 0) {
+				System.err.printf("%d test(s) failed.%n", failures);
+				System.exit(1);
+			}
+			System.out.println("All tests passed.");
+		} finally {
+			file.delete();
+		}
+	}
+
+
+
+	/**
+	 * Checks that an undamaged project reads the same lazily as eagerly.
+	 * @param file The project file
+	 * @return The number of failures
+	 * @throws IOException If the file could not be read
+	 */
+	private static int intact(File file) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			ProjectStorage storage = new FileProjectStorage(raf);
+			List<List<String>> eager = cells(ProjectFormat.read(storage, false));
+			ProjectData pd = ProjectFormat.read(storage, true);
+			if (!eager.equals(cells(pd)) || pd.pages.hasFailed()) {
+				System.err.println("FAIL intact: paged read differs or failed");
+				return 1;
+			}
+		}
+		System.out.println("PASS intact");
+		return 0;
+	}
+
+
+
+	/**
+	 * Damages a copy of a project, and checks that reading it eagerly fails,
+	 * while reading it lazily marks the pages as failed.
+	 * @param file The project file
+	 * @param name What is being damaged, for the report
+	 * @param position The position of the byte to damage
+	 * @return The number of failures
+	 * @throws IOException If a temporary file could not be used
+	 */
+	private static int damaged(File file, String name, long position)
+			throws IOException {
+		File copy = File.createTempFile("grapher", ".grapher");
+		try {
+			Files.copy(file.toPath(), copy.toPath(),
+				StandardCopyOption.REPLACE_EXISTING);
+			try (RandomAccessFile raf = new RandomAccessFile(copy, "rw")) {
+				raf.seek(position);
+				int b = raf.read();
+				raf.seek(position);
+				raf.write(b ^ 0x40);
+			}
+
+			try (RandomAccessFile raf = new RandomAccessFile(copy, "r")) {
+				ProjectStorage storage = new FileProjectStorage(raf);
+				boolean eagerFailed = false;
+				try {
+					ProjectFormat.read(storage, false);
+				} catch (IOException e) {
+					eagerFailed = true;
+				}
+
+				ProjectData pd = ProjectFormat.read(storage, true);
+				cells(pd);
+				if (!eagerFailed || !pd.pages.hasFailed()) {
+					System.err.printf("FAIL %s: eager failed %b, paged failed %b%n",
+						name, eagerFailed, pd.pages.hasFailed());
+					return 1;
+				}
+			}
+			System.out.println("PASS " + name);
+			return 0;
+		} finally {
+			copy.delete();
+		}
+	}
+
+
+
+	// MARK: Helpers
+	/**
+	 * Writes a project with a numeric series and a series of strings.
+	 * @param file The file to write to
+	 * @throws IOException If the file could not be written
+	 */
+	private static void writeProject(File file) throws IOException {
+		ProjectData pd = new ProjectData();
+		pd.seriesNames.add("Numbers");
+		pd.seriesNames.add("Text");
+
+		double[] numbers = new double[ROWS];
+		long[] present = new long[(ROWS + 63) >>> 6];
+		List<String> text = new ArrayList<>();
+		for (int i = 0; i < ROWS; i++) {
+			if (i % 7 != 0) {
+				numbers[i] = i * 1.5;
+				present[i >>> 6] |= 1L << i;
+			}
+			text.add(i % 5 == 0 ? "" : "Cell number " + i + " of the text series");
+		}
+		pd.columns.add(new NumericColumn(numbers, present, ROWS));
+		pd.columns.add(text);
+
+		try (FileOutputStream out = new FileOutputStream(file)) {
+			ProjectFormat.write(pd, out);
+		}
+	}
+
+
+
+	/**
+	 * Reads every cell of a project.
+	 * @param pd The project
+	 * @return A copy of every series' cells
+	 */
+	private static List<List<String>> cells(ProjectData pd) {
+		List<List<String>> cells = new ArrayList<>();
+		for (List<String> column : pd.columns) {
+			cells.add(new ArrayList<>(column));
+		}
+		return cells;
+	}
+}